@@ -21,7 +21,9 @@ import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.util.Attribute;
 import io.netty.util.AttributeKey;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.EventExecutor;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311Recyclable;
 
 import java.net.SocketAddress;
 import java.util.Objects;
@@ -118,6 +120,9 @@ public abstract class AbstractEmbeddedChannelHandlerContext implements ChannelHa
     @Override
     public final ChannelHandlerContext fireChannelRead(Object msg) {
         ReferenceCountUtil.release(msg);
+        if (msg instanceof MqttV311Recyclable && !(msg instanceof ReferenceCounted)) {
+            ((MqttV311Recyclable) msg).recycle();
+        }
         return this;
     }
 
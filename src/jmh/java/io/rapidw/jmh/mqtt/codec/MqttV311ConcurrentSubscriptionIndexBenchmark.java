@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.jmh.mqtt.codec;
+
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311ConcurrentSubscriptionIndex;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311QosLevel;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311SubscriptionIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Matches device topics from several threads while one thread keeps subscribing and unsubscribing, against a
+ * {@link MqttV311ConcurrentSubscriptionIndex} and against a {@link MqttV311SubscriptionIndex} behind one lock.
+ * Scale the readers with {@code -tg 1,N}, the first count being the churning thread, or run {@link #main} to sweep
+ * 1 to 32 readers and print the match and churn throughput of each.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+public class MqttV311ConcurrentSubscriptionIndexBenchmark {
+
+    private static final int[] READERS = {1, 2, 4, 8, 16, 32};
+
+    @Param({"100000"})
+    private int subscriptions;
+
+    private MqttV311ConcurrentSubscriptionIndex<Integer> concurrent;
+    private MqttV311SubscriptionIndex<Integer> locked;
+
+    @State(Scope.Thread)
+    public static class Churn {
+        private int round;
+        private String topicFilter;
+    }
+
+    @Setup
+    public void setup() {
+        concurrent = new MqttV311ConcurrentSubscriptionIndex<>();
+        locked = new MqttV311SubscriptionIndex<>();
+        for (int i = 0; i < subscriptions; i++) {
+            String filter = "devices/" + i + "/+/telemetry";
+            concurrent.subscribe(i, filter, MqttV311QosLevel.AT_LEAST_ONCE);
+            locked.subscribe(i, filter, MqttV311QosLevel.AT_LEAST_ONCE);
+        }
+    }
+
+    private String topic() {
+        return "devices/" + ThreadLocalRandom.current().nextInt(subscriptions) + "/sensor/telemetry";
+    }
+
+    // subscribes a new client to a random device, and unsubscribes it on the next call
+    private String churnFilter(Churn churn) {
+        if ((churn.round++ & 1) == 0) {
+            churn.topicFilter = "devices/" + ThreadLocalRandom.current().nextInt(subscriptions) + "/+/telemetry";
+        }
+        return churn.topicFilter;
+    }
+
+    @Benchmark
+    @Group("concurrent")
+    public boolean concurrentChurn(Churn churn) {
+        String topicFilter = churnFilter(churn);
+        return (churn.round & 1) == 1
+            ? concurrent.subscribe(-1, topicFilter, MqttV311QosLevel.AT_MOST_ONCE)
+            : concurrent.unsubscribe(-1, topicFilter);
+    }
+
+    @Benchmark
+    @Group("concurrent")
+    public int concurrentMatch() {
+        int[] matches = new int[1];
+        concurrent.match(topic(), (subscriber, qosLevel) -> matches[0]++);
+        return matches[0];
+    }
+
+    @Benchmark
+    @Group("locked")
+    public boolean lockedChurn(Churn churn) {
+        String topicFilter = churnFilter(churn);
+        synchronized (locked) {
+            return (churn.round & 1) == 1
+                ? locked.subscribe(-1, topicFilter, MqttV311QosLevel.AT_MOST_ONCE)
+                : locked.unsubscribe(-1, topicFilter);
+        }
+    }
+
+    @Benchmark
+    @Group("locked")
+    public int lockedMatch() {
+        String topic = topic();
+        int[] matches = new int[1];
+        synchronized (locked) {
+            locked.match(topic, (subscriber, qosLevel) -> matches[0]++);
+        }
+        return matches[0];
+    }
+
+    /**
+     * Runs both groups with each reader count. Other JMH options, such as {@code -f 1 -wi 3 -i 5}, are passed on.
+     */
+    public static void main(String[] args) throws Exception {
+        Options parent = new CommandLineOptions(args);
+        Map<Integer, Collection<RunResult>> sweep = new TreeMap<>();
+        for (int readers : READERS) {
+            Options options = new OptionsBuilder()
+                .parent(parent)
+                .include(MqttV311ConcurrentSubscriptionIndexBenchmark.class.getName() + "\\.")
+                .threadGroups(1, readers)
+                .build();
+            sweep.put(readers, new Runner(options).run());
+        }
+        System.out.printf("%n%7s %20s %20s %20s %20s%n", "readers", "concurrent match", "concurrent churn",
+            "locked match", "locked churn");
+        sweep.forEach((readers, results) -> {
+            System.out.printf("%7d", readers);
+            for (String group : new String[]{"concurrent", "locked"}) {
+                for (RunResult result : results) {
+                    if (result.getParams().getBenchmark().endsWith("." + group)) {
+                        Map<String, Result> methods = result.getSecondaryResults();
+                        System.out.printf(" %20.0f %20.0f", methods.get(group + "Match").getScore(),
+                            methods.get(group + "Churn").getScore());
+                    }
+                }
+            }
+            System.out.println();
+        });
+    }
+}
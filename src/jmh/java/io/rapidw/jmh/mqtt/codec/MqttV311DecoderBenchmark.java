@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.jmh.mqtt.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelInboundHandler;
+import io.netty.util.ReferenceCountUtil;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311BufferDecoder;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311DecoderConfig;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311FramedDecoder;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311Packet;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes the same small packets over and over through a reused decoder and buffer, so that
+ * {@code -prof gc} reports only what the decoder itself allocates per packet. The input is a pooled buffer, like
+ * the ones a channel reads into, retained before each decode so that the decoder can release it.
+ * <p>
+ * {@code default} returns a new PUBLISH holding a new topic string and payload array, {@code pooled} takes the
+ * packet from a pool, and {@code zeroCopy} additionally looks the topic up in a topic cache and passes the payload
+ * as a retained slice of the input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class MqttV311DecoderBenchmark {
+    private static Logger log = LoggerFactory.getLogger(MqttV311DecoderBenchmark.class);
+
+    private static final byte[] PUBACK = ByteBufUtil.decodeHexDump("40020001");
+    private static final byte[] PINGREQ = ByteBufUtil.decodeHexDump("c000");
+    // QoS 1 PUBLISH to "a/b" with packet id 1 and a 9 byte payload
+    private static final byte[] PUBLISH = ByteBufUtil.decodeHexDump("32100003612f62000174656c656d65747279");
+
+    @Param({"default", "pooled", "zeroCopy"})
+    private String config;
+
+    private ChannelInboundHandler decoder;
+    private MqttV311BufferDecoder bufferDecoder;
+    private AbstractEmbeddedChannelHandlerContext context;
+    private ByteBuf pubAck;
+    private ByteBuf pingReq;
+    private ByteBuf publish;
+
+    @Setup
+    public void setup() {
+        MqttV311DecoderConfig.Builder builder = MqttV311DecoderConfig.builder();
+        if (!this.config.equals("default")) {
+            builder.pooledPackets(true);
+        }
+        if (this.config.equals("zeroCopy")) {
+            builder.retainedPayload(true).topicCacheSize(16);
+        }
+        MqttV311DecoderConfig config = builder.build();
+        decoder = new MqttV311FramedDecoder(config);
+        bufferDecoder = new MqttV311BufferDecoder(config);
+        context = new AbstractEmbeddedChannelWriteReleaseHandlerContext(PooledByteBufAllocator.DEFAULT, decoder) {
+            @Override
+            protected void handleException(Throwable t) {
+                log.error("error", t);
+            }
+        };
+        pubAck = PooledByteBufAllocator.DEFAULT.directBuffer().writeBytes(PUBACK);
+        pingReq = PooledByteBufAllocator.DEFAULT.directBuffer().writeBytes(PINGREQ);
+        publish = PooledByteBufAllocator.DEFAULT.directBuffer().writeBytes(PUBLISH);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pubAck.release();
+        pingReq.release();
+        publish.release();
+    }
+
+    private void decode(ByteBuf buf) throws Exception {
+        buf.readerIndex(0);
+        decoder.channelRead(context, buf.retain());
+    }
+
+    @Benchmark
+    public void decodePubAck() throws Exception {
+        decode(pubAck);
+    }
+
+    @Benchmark
+    public void decodePingReq() throws Exception {
+        decode(pingReq);
+    }
+
+    @Benchmark
+    public void decodeSmallPublish() throws Exception {
+        decode(publish);
+    }
+
+    @Benchmark
+    public MqttV311Packet decodeSmallPublishWithoutPipeline() {
+        publish.readerIndex(0);
+        MqttV311Packet packet = bufferDecoder.decodeFrame(publish);
+        // releasing a pooled PUBLISH also recycles it
+        ReferenceCountUtil.release(packet);
+        return packet;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.jmh.mqtt.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311Encoder;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311PingRespPacket;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311PubAckPacket;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311PublishPacket;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311QosLevel;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311Topic;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Encodes a burst of PUBACKs either into one buffer each or back to back into a single buffer, as written by one
+ * flush, a small PUBLISH with either a plain or a prepared topic, and a PINGRESP.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class MqttV311EncoderBenchmark {
+
+    private static final int BURST = 16;
+
+    private final ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+    private MqttV311PubAckPacket[] pubAcks;
+    private MqttV311PublishPacket publish;
+    private MqttV311PublishPacket preparedPublish;
+    private ByteBuf out;
+
+    @Setup
+    public void setup() {
+        pubAcks = new MqttV311PubAckPacket[BURST];
+        for (int i = 0; i < BURST; i++) {
+            pubAcks[i] = MqttV311PubAckPacket.builder().packetId(i + 1).build();
+        }
+        MqttV311PublishPacket.Builder builder = MqttV311PublishPacket.builder()
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .payload(new byte[16]);
+        publish = builder.topic("devices/42/telemetry").build();
+        preparedPublish = builder.topic(MqttV311Topic.of("devices/42/telemetry")).build();
+        out = allocator.buffer(64);
+    }
+
+    @TearDown
+    public void tearDown() {
+        out.release();
+    }
+
+    @Benchmark
+    public int encodeBufferPerPacket() {
+        int size = 0;
+        for (MqttV311PubAckPacket pubAck : pubAcks) {
+            ByteBuf buf = MqttV311Encoder.doEncode(allocator, pubAck);
+            size += buf.readableBytes();
+            buf.release();
+        }
+        return size;
+    }
+
+    @Benchmark
+    public int encodeBufferPerBurst() {
+        ByteBuf buf = allocator.buffer();
+        for (MqttV311PubAckPacket pubAck : pubAcks) {
+            MqttV311Encoder.encodeTo(buf, pubAck);
+        }
+        int size = buf.readableBytes();
+        buf.release();
+        return size;
+    }
+
+    @Benchmark
+    public int encodePublish() {
+        return MqttV311Encoder.encodeTo(out.clear(), publish);
+    }
+
+    @Benchmark
+    public int encodePublishPreparedTopic() {
+        return MqttV311Encoder.encodeTo(out.clear(), preparedPublish);
+    }
+
+    @Benchmark
+    public int encodePingResp() {
+        ByteBuf buf = MqttV311Encoder.doEncode(allocator, MqttV311PingRespPacket.INSTANCE);
+        int size = buf.readableBytes();
+        buf.release();
+        return size;
+    }
+}
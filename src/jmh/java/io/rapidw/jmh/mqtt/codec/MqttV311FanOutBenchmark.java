@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.jmh.mqtt.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311Encoder;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311PublishPacket;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311PublishTemplate;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311QosLevel;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Produces the frames delivering one QoS 1 PUBLISH to many subscribers, either encoding the packet for each
+ * subscriber or deriving each frame from a {@link MqttV311PublishTemplate}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class MqttV311FanOutBenchmark {
+
+    private final ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+
+    @Param({"1000"})
+    private int subscribers;
+
+    @Param({"256", "16384"})
+    private int payloadSize;
+
+    private byte[] payload;
+
+    @Setup
+    public void setup() {
+        payload = new byte[payloadSize];
+    }
+
+    private MqttV311PublishPacket publish(int packetId) {
+        return MqttV311PublishPacket.builder()
+            .topic("devices/42/telemetry")
+            .qosLevel(MqttV311QosLevel.AT_LEAST_ONCE)
+            .packetId(packetId)
+            .payload(payload)
+            .build();
+    }
+
+    @Benchmark
+    public int encodePerSubscriber() {
+        int size = 0;
+        for (int i = 1; i <= subscribers; i++) {
+            ByteBuf frame = MqttV311Encoder.doEncode(allocator, publish(i));
+            size += frame.readableBytes();
+            frame.release();
+        }
+        return size;
+    }
+
+    @Benchmark
+    public int template() {
+        MqttV311PublishTemplate template = MqttV311PublishTemplate.of(allocator, publish(1));
+        int size = 0;
+        for (int i = 1; i <= subscribers; i++) {
+            ByteBuf frame = template.frame(MqttV311QosLevel.AT_LEAST_ONCE, false, i);
+            size += frame.readableBytes();
+            frame.release();
+        }
+        template.release();
+        return size;
+    }
+}
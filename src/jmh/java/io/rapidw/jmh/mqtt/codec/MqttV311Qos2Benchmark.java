@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.jmh.mqtt.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311BufferDecoder;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311Encoder;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311Packet;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311PubAckPacket;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311PubCompPacket;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311PubRecPacket;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311PubRelPacket;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311PublishPacket;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311QosLevel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encodes and decodes every packet of one QoS 2 delivery (PUBLISH, PUBREC, PUBREL, PUBCOMP) and, for comparison,
+ * of one QoS 1 delivery (PUBLISH, PUBACK), as the sender and the receiver would without a pipeline. Packet ids
+ * cycle through the whole range as on a busy connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class MqttV311Qos2Benchmark {
+
+    @Param({"64"})
+    private int payloadSize;
+
+    private MqttV311BufferDecoder decoder;
+    private ByteBuf wire;
+    private MqttV311PublishPacket.Builder publish;
+    private int packetId;
+
+    @Setup
+    public void setup() {
+        decoder = new MqttV311BufferDecoder();
+        wire = PooledByteBufAllocator.DEFAULT.directBuffer(1024);
+        publish = MqttV311PublishPacket.builder()
+            .topic("sensors/1/temperature")
+            .payload(new byte[payloadSize]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        wire.release();
+    }
+
+    private int nextPacketId() {
+        packetId = packetId == 65535 ? 1 : packetId + 1;
+        return packetId;
+    }
+
+    private MqttV311Packet transfer(MqttV311Packet packet) {
+        MqttV311Encoder.encodeTo(wire.clear(), packet);
+        return decoder.decodeFrame(wire);
+    }
+
+    @Benchmark
+    public MqttV311Packet qos2Exchange(Blackhole blackhole) {
+        int id = nextPacketId();
+        blackhole.consume(transfer(publish.qosLevel(MqttV311QosLevel.EXACTLY_ONCE).packetId(id).build()));
+        blackhole.consume(transfer(MqttV311PubRecPacket.builder().packetId(id).build()));
+        blackhole.consume(transfer(MqttV311PubRelPacket.builder().packetId(id).build()));
+        return transfer(MqttV311PubCompPacket.builder().packetId(id).build());
+    }
+
+    @Benchmark
+    public MqttV311Packet qos1Exchange(Blackhole blackhole) {
+        int id = nextPacketId();
+        blackhole.consume(transfer(publish.qosLevel(MqttV311QosLevel.AT_LEAST_ONCE).packetId(id).build()));
+        return transfer(MqttV311PubAckPacket.builder().packetId(id).build());
+    }
+}
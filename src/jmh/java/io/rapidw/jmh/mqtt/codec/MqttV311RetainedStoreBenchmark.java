@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.jmh.mqtt.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311Encoder;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311PublishPacket;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311QosLevel;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311RetainedStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Produces the QoS 0 frames of the retained messages matching {@code sensors/#} for a new subscriber, either
+ * encoding every stored packet or passing the frames kept by a {@link MqttV311RetainedStore}. {@code replay} and
+ * {@code restore} rebuild the store, by storing every message again or from a snapshot, and deliver the same
+ * frames from it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class MqttV311RetainedStoreBenchmark {
+
+    private final ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+
+    @Param({"5000"})
+    private int messages;
+
+    private final List<MqttV311PublishPacket> packets = new ArrayList<>();
+    private final List<MqttV311PublishPacket> allPackets = new ArrayList<>();
+    private MqttV311RetainedStore store;
+    private Path snapshot;
+    private int size;
+    private final Consumer<ByteBuf> consumer = frame -> {
+        size += frame.readableBytes();
+        frame.release();
+    };
+
+    @Setup
+    public void setup() throws IOException {
+        store = new MqttV311RetainedStore(allocator);
+        for (int i = 0; i < messages; i++) {
+            MqttV311PublishPacket packet = MqttV311PublishPacket.builder()
+                .topic("sensors/" + i + "/temperature")
+                .retain(true)
+                .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+                .payload(("{\"value\":" + i + "}").getBytes())
+                .build();
+            packets.add(packet);
+            allPackets.add(packet);
+            allPackets.add(MqttV311PublishPacket.builder()
+                .topic("actuators/" + i + "/state")
+                .retain(true)
+                .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+                .payload(new byte[]{1})
+                .build());
+        }
+        allPackets.forEach(store::put);
+        snapshot = Files.createTempFile("retained", ".snapshot");
+        store.snapshot(snapshot);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.clear();
+        packets.clear();
+        allPackets.clear();
+        Files.deleteIfExists(snapshot);
+    }
+
+    @Benchmark
+    public int encodePerMessage() {
+        size = 0;
+        for (MqttV311PublishPacket packet : packets) {
+            consumer.accept(MqttV311Encoder.doEncode(allocator, packet));
+        }
+        return size;
+    }
+
+    @Benchmark
+    public int store() {
+        size = 0;
+        store.match("sensors/#", MqttV311QosLevel.AT_MOST_ONCE, null, consumer);
+        return size;
+    }
+
+    @Benchmark
+    public int replay() {
+        MqttV311RetainedStore replayed = new MqttV311RetainedStore(allocator);
+        allPackets.forEach(replayed::put);
+        size = 0;
+        replayed.match("sensors/#", MqttV311QosLevel.AT_MOST_ONCE, null, consumer);
+        replayed.clear();
+        return size;
+    }
+
+    @Benchmark
+    public int restore() throws IOException {
+        MqttV311RetainedStore restored = MqttV311RetainedStore.restore(snapshot, allocator);
+        size = 0;
+        restored.match("sensors/#", MqttV311QosLevel.AT_MOST_ONCE, null, consumer);
+        restored.clear();
+        return size;
+    }
+}
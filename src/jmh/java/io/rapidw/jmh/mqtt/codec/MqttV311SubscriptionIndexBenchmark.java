@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.jmh.mqtt.codec;
+
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311ConcurrentSubscriptionIndex;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311QosLevel;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311SubscriptionIndex;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311SubscriptionMatchCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+
+/**
+ * Finds the subscribers of a device topic among {@code subscriptions} filters, one per device on
+ * {@code devices/<id>/+/telemetry}, plus a few catch-all ones, with a {@link MqttV311SubscriptionIndex}, with
+ * a linear scan over all filters and with a {@link MqttV311SubscriptionMatchCache} holding all 1024 topics.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class MqttV311SubscriptionIndexBenchmark {
+
+    @Param({"1000", "100000"})
+    private int subscriptions;
+
+    private MqttV311SubscriptionIndex<Integer> index;
+    private MqttV311SubscriptionMatchCache<Integer> cache;
+    private String[][] filterLevels;
+    private String[] topics;
+    private int next;
+
+    @Setup
+    public void setup() {
+        index = new MqttV311SubscriptionIndex<>();
+        cache = new MqttV311SubscriptionMatchCache<>(new MqttV311ConcurrentSubscriptionIndex<>(), 1024);
+        filterLevels = new String[subscriptions][];
+        for (int i = 0; i < subscriptions; i++) {
+            String filter = i % 1000 == 0 ? "devices/#" : "devices/" + i + "/+/telemetry";
+            index.subscribe(i, filter, MqttV311QosLevel.AT_LEAST_ONCE);
+            cache.subscribe(i, filter, MqttV311QosLevel.AT_LEAST_ONCE);
+            filterLevels[i] = filter.split("/");
+        }
+        Random random = new Random(42);
+        topics = new String[1024];
+        for (int i = 0; i < topics.length; i++) {
+            topics[i] = "devices/" + random.nextInt(subscriptions) + "/sensor-" + i % 8 + "/telemetry";
+        }
+    }
+
+    private String nextTopic() {
+        return topics[next++ & (topics.length - 1)];
+    }
+
+    @Benchmark
+    public int index() {
+        int[] matches = new int[1];
+        index.match(nextTopic(), (subscriber, qosLevel) -> matches[0]++);
+        return matches[0];
+    }
+
+    @Benchmark
+    public int cache() {
+        return cache.match(nextTopic()).size();
+    }
+
+    @Benchmark
+    public int linearScan() {
+        String[] topicLevels = nextTopic().split("/");
+        int matches = 0;
+        for (String[] levels : filterLevels) {
+            if (matches(levels, topicLevels)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    private static boolean matches(String[] filterLevels, String[] topicLevels) {
+        for (int i = 0; i < filterLevels.length; i++) {
+            if (filterLevels[i].equals("#")) {
+                return true;
+            }
+            if (i >= topicLevels.length || !filterLevels[i].equals("+") && !filterLevels[i].equals(topicLevels[i])) {
+                return false;
+            }
+        }
+        return filterLevels.length == topicLevels.length;
+    }
+}
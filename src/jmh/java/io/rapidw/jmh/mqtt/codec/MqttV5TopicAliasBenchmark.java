@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.jmh.mqtt.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.rapidw.mqtt.codec.v5.MqttV5ConnAckPacket;
+import io.rapidw.mqtt.codec.v5.MqttV5Encoder;
+import io.rapidw.mqtt.codec.v5.MqttV5Properties;
+import io.rapidw.mqtt.codec.v5.MqttV5Property;
+import io.rapidw.mqtt.codec.v5.MqttV5PublishPacket;
+import io.rapidw.mqtt.codec.v5.MqttV5TopicAliasHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+
+/**
+ * Encodes small PUBLISH packets to long device topics through a pipeline, with and without
+ * {@link MqttV5TopicAliasHandler}. Topics are picked at random from {@code topics} distinct ones while the peer
+ * accepts {@code topicAliasMaximum} aliases. The {@code wireBytes} counter is the rate of bytes written, divided by
+ * the score it gives the bytes per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class MqttV5TopicAliasBenchmark {
+
+    @Param({"16", "64"})
+    private int topics;
+
+    @Param({"32"})
+    private int topicAliasMaximum;
+
+    @Param({"8"})
+    private int payloadSize;
+
+    private EmbeddedChannel plain;
+    private EmbeddedChannel aliased;
+    private String[] topicNames;
+    private int[] sequence;
+    private int next;
+    private byte[] payload;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class WireBytes {
+        public long wireBytes;
+    }
+
+    @Setup
+    public void setup() {
+        topicNames = new String[topics];
+        for (int i = 0; i < topics; i++) {
+            topicNames[i] = String.format("factory/site-%03d/building-07/floor-03/line-%02d/station-%02d/"
+                + "sensor-%05d/temperature", i % 7, i % 13, i % 5, i);
+        }
+        Random random = new Random(42);
+        sequence = new int[4096];
+        for (int i = 0; i < sequence.length; i++) {
+            sequence[i] = random.nextInt(topics);
+        }
+        payload = new byte[payloadSize];
+
+        plain = new EmbeddedChannel(MqttV5Encoder.INSTANCE);
+        aliased = new EmbeddedChannel(MqttV5Encoder.INSTANCE, new MqttV5TopicAliasHandler(topicAliasMaximum));
+        aliased.writeInbound(MqttV5ConnAckPacket.builder()
+            .properties(MqttV5Properties.builder()
+                .add(MqttV5Property.TOPIC_ALIAS_MAXIMUM, topicAliasMaximum)
+                .build())
+            .build());
+        aliased.readInbound();
+    }
+
+    @TearDown
+    public void tearDown() {
+        plain.finishAndReleaseAll();
+        aliased.finishAndReleaseAll();
+    }
+
+    private int send(EmbeddedChannel channel, WireBytes wireBytes) {
+        String topic = topicNames[sequence[next++ & (sequence.length - 1)]];
+        channel.writeOutbound(MqttV5PublishPacket.builder().topic(topic).payload(payload).build());
+        ByteBuf frame = channel.readOutbound();
+        int size = frame.readableBytes();
+        frame.release();
+        wireBytes.wireBytes += size;
+        return size;
+    }
+
+    @Benchmark
+    public int withoutAliases(WireBytes wireBytes) {
+        return send(plain, wireBytes);
+    }
+
+    @Benchmark
+    public int withAliases(WireBytes wireBytes) {
+        return send(aliased, wireBytes);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.DecoderException;
+import io.rapidw.mqtt.codec.utils.DecoderUtils;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311Decoder;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311DecoderConfig;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311Encoder;
+import io.rapidw.mqtt.codec.v5.MqttV5Decoder;
+import io.rapidw.mqtt.codec.v5.MqttV5Encoder;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Serves MQTT 3.1.1 and MQTT 5 clients on the same port. Buffers the start of the first CONNECT packet until its
+ * protocol level is known, then replaces itself with a {@link MqttV311Decoder} or {@link MqttV5Decoder} under the
+ * same name, followed by the matching encoder named {@code <name>-encoder}.
+ * <p>
+ * The buffered bytes are handed to the new decoder as they are, and afterwards the pipeline holds only the codec
+ * of the detected version. Before that, the {@link MqttProtocolVersion} is fired as a user event, so handlers for
+ * one version only can be added before the CONNECT packet reaches them. Any other first packet or protocol level
+ * fails with a {@link DecoderException}.
+ */
+public class MqttProtocolDetector extends ByteToMessageDecoder {
+
+    private final MqttV311DecoderConfig v311Config;
+    private final int v5MaximumPacketSize;
+    private final int v5TopicAliasMaximum;
+
+    public MqttProtocolDetector() {
+        this(MqttV311DecoderConfig.DEFAULT, MqttV5Decoder.MAXIMUM_PACKET_SIZE, 0);
+    }
+
+    /**
+     * @param v311Config          the configuration of the {@link MqttV311Decoder}
+     * @param v5MaximumPacketSize the maximum packet size of the {@link MqttV5Decoder}
+     * @param v5TopicAliasMaximum the topic alias maximum of the {@link MqttV5Decoder}
+     */
+    public MqttProtocolDetector(MqttV311DecoderConfig v311Config, int v5MaximumPacketSize,
+        int v5TopicAliasMaximum) {
+        if (v5MaximumPacketSize < 2) {
+            throw new IllegalArgumentException("maximum packet size must be >= 2");
+        }
+        if (v5TopicAliasMaximum < 0 || v5TopicAliasMaximum > 65535) {
+            throw new IllegalArgumentException("topic alias maximum must be between 0 and 65535");
+        }
+        this.v311Config = Objects.requireNonNull(v311Config, "v311Config");
+        this.v5MaximumPacketSize = v5MaximumPacketSize;
+        this.v5TopicAliasMaximum = v5TopicAliasMaximum;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        MqttProtocolVersion version = detect(in);
+        if (version == null) {
+            return;
+        }
+        ctx.fireUserEventTriggered(version);
+        ChannelPipeline pipeline = ctx.pipeline();
+        ChannelHandler decoder;
+        ChannelHandler encoder;
+        if (version == MqttProtocolVersion.V5) {
+            decoder = new MqttV5Decoder(v5MaximumPacketSize, v5TopicAliasMaximum);
+            encoder = MqttV5Encoder.INSTANCE;
+        } else {
+            decoder = new MqttV311Decoder(v311Config);
+            encoder = MqttV311Encoder.INSTANCE;
+        }
+        String name = ctx.name();
+        pipeline.addAfter(name, name + "-encoder", encoder);
+        // the bytes buffered so far are passed on to the replacement once this handler is removed
+        pipeline.replace(this, name, decoder);
+    }
+
+    /**
+     * Returns the version announced by the CONNECT packet at the reader index, or null if its protocol level is
+     * not buffered yet. Nothing is read.
+     */
+    static MqttProtocolVersion detect(ByteBuf in) {
+        int start = in.readerIndex();
+        if (!in.isReadable()) {
+            return null;
+        }
+        if (in.getUnsignedByte(start) != 0x10) {
+            throw new DecoderException("[MQTT-3.1.0-1] first packet must be CONNECT");
+        }
+        int lengthSize = DecoderUtils.peekRemainingLengthSize(in, start + 1);
+        if (lengthSize == 0) {
+            return null;
+        }
+        int nameIndex = start + 1 + lengthSize;
+        if (in.writerIndex() < nameIndex + 2) {
+            return null;
+        }
+        // "MQTT" in both versions, the name itself is checked by the decoder
+        if (in.getUnsignedShort(nameIndex) != 4) {
+            throw new DecoderException("[MQTT-3.1.2-1] invalid protocol name");
+        }
+        int levelIndex = nameIndex + 2 + 4;
+        if (in.writerIndex() <= levelIndex) {
+            return null;
+        }
+        short level = in.getUnsignedByte(levelIndex);
+        MqttProtocolVersion version = MqttProtocolVersion.of(level);
+        if (version == null) {
+            throw new DecoderException("unsupported protocol level " + level);
+        }
+        return version;
+    }
+}
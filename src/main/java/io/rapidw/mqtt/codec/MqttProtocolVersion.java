@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec;
+
+/**
+ * The MQTT protocol versions this codec implements, by the protocol level of their CONNECT packet.
+ */
+public enum MqttProtocolVersion {
+    V3_1_1(4),
+    V5(5);
+
+    private final int protocolLevel;
+
+    MqttProtocolVersion(int protocolLevel) {
+        this.protocolLevel = protocolLevel;
+    }
+
+    public int protocolLevel() {
+        return protocolLevel;
+    }
+
+    /**
+     * Returns the version with the given protocol level, or null if it is not supported.
+     */
+    public static MqttProtocolVersion of(int protocolLevel) {
+        switch (protocolLevel) {
+            case 4:
+                return V3_1_1;
+            case 5:
+                return V5;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.rapidw.mqtt.codec.utils.DecoderUtils.DecodedResult;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311BufferDecoder;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311DecoderConfig;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311Encoder;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311Packet;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stateless MQTT 3.1.1 decoding and encoding without a channel pipeline.
+ * <p>
+ * The decode methods parse all complete packets from the start of the given bytes and report how many bytes they
+ * consumed, a trailing incomplete packet is left for the next call. To keep a topic cache across calls, use a
+ * {@link MqttV311BufferDecoder} directly. The encode methods neither release nor recycle the packet.
+ */
+public final class MqttV311Codec {
+
+    private MqttV311Codec() {
+    }
+
+    /**
+     * Decodes from the reader index of {@code in} and moves the reader index past the consumed bytes.
+     */
+    public static DecodedResult<List<MqttV311Packet>> decode(ByteBuf in) {
+        return decode(in, MqttV311DecoderConfig.DEFAULT);
+    }
+
+    public static DecodedResult<List<MqttV311Packet>> decode(ByteBuf in, MqttV311DecoderConfig config) {
+        List<MqttV311Packet> packets = new ArrayList<>();
+        int bytesConsumed = new MqttV311BufferDecoder(config).decode(in, packets);
+        return new DecodedResult<>(packets, bytesConsumed);
+    }
+
+    /**
+     * Decodes from the position of {@code in} and moves the position past the consumed bytes. The bytes are not
+     * copied, so payloads decoded with {@link MqttV311DecoderConfig#isRetainedPayload()} share memory with
+     * {@code in}.
+     */
+    public static DecodedResult<List<MqttV311Packet>> decode(ByteBuffer in) {
+        return decode(in, MqttV311DecoderConfig.DEFAULT);
+    }
+
+    public static DecodedResult<List<MqttV311Packet>> decode(ByteBuffer in, MqttV311DecoderConfig config) {
+        DecodedResult<List<MqttV311Packet>> result = decode(Unpooled.wrappedBuffer(in), config);
+        in.position(in.position() + result.getBytesConsumed());
+        return result;
+    }
+
+    /**
+     * Decodes {@code length} bytes of {@code array} starting at {@code offset}. The bytes are not copied.
+     */
+    public static DecodedResult<List<MqttV311Packet>> decode(byte[] array, int offset, int length) {
+        return decode(array, offset, length, MqttV311DecoderConfig.DEFAULT);
+    }
+
+    public static DecodedResult<List<MqttV311Packet>> decode(byte[] array, int offset, int length,
+                                                             MqttV311DecoderConfig config) {
+        return decode(Unpooled.wrappedBuffer(array, offset, length), config);
+    }
+
+    /**
+     * Returns the number of bytes the packet takes on the wire without encoding it.
+     *
+     * @see MqttV311Encoder#encodedSize(MqttV311Packet)
+     */
+    public static int encodedSize(MqttV311Packet packet) {
+        return MqttV311Encoder.encodedSize(packet);
+    }
+
+    /**
+     * Writes the encoded packet at the writer index of {@code out}, growing it if needed.
+     *
+     * @return the number of bytes written
+     */
+    public static int encodeInto(MqttV311Packet packet, ByteBuf out) {
+        return MqttV311Encoder.encodeTo(out, packet);
+    }
+
+    /**
+     * Writes the encoded packet at the position of {@code out} and moves the position past it.
+     *
+     * @return the number of bytes written
+     * @throws BufferOverflowException if the packet does not fit in the remaining bytes of {@code out}, in which case
+     *                                 the position is not moved
+     */
+    public static int encodeInto(MqttV311Packet packet, ByteBuffer out) {
+        if (MqttV311Encoder.encodedSize(packet) > out.remaining()) {
+            throw new BufferOverflowException();
+        }
+        // a view of the remaining bytes, the packet is known to fit
+        int size = MqttV311Encoder.encodeTo(Unpooled.wrappedBuffer(out).clear(), packet);
+        out.position(out.position() + size);
+        return size;
+    }
+}
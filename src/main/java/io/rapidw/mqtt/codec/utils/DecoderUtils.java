@@ -18,8 +18,6 @@ package io.rapidw.mqtt.codec.utils;
 import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.DecoderException;
 
-import java.nio.charset.StandardCharsets;
-
 import static io.rapidw.mqtt.codec.utils.MqttV311ValidationUtils.validatePacketId;
 
 public class DecoderUtils {
@@ -43,40 +41,60 @@ public class DecoderUtils {
         return remainingLength;
     }
 
+    /**
+     * Checks, without moving the reader index, whether a complete Remaining Length field starts at {@code index}.
+     *
+     * @return the number of bytes of the field, or 0 if it is not fully buffered yet
+     */
+    public static int peekRemainingLengthSize(ByteBuf buf, int index) {
+        int writerIndex = buf.writerIndex();
+        for (int loops = 1; loops <= 4; loops++, index++) {
+            if (index >= writerIndex) {
+                return 0;
+            }
+            if ((buf.getByte(index) & 128) == 0) {
+                return loops;
+            }
+        }
+        throw new DecoderException("remaining length exceeds 4 digits");
+    }
+
     public static DecodedResult<String> readString(ByteBuf buffer) {
-        DecodedResult<Integer> decodedSize = readMsbLsb(buffer);
-        int size = decodedSize.value;
-        int bytesConsumed = decodedSize.bytesConsumed;
+        int size = readMsbLsbValue(buffer);
+        return new DecodedResult<>(readString(buffer, size), 2 + size);
+    }
 
-        String s = buffer.toString(buffer.readerIndex(), size, StandardCharsets.UTF_8);
+    public static String readString(ByteBuf buffer, int size) {
+        String s = MqttUtf8Utils.readString(buffer, buffer.readerIndex(), size);
         buffer.skipBytes(size);
-        bytesConsumed += size;
-        return new DecodedResult<>(s, bytesConsumed);
+        return s;
     }
 
     public static DecodedResult<Integer> readMsbLsb(ByteBuf buffer) {
-        short msbSize = buffer.readUnsignedByte();
-        short lsbSize = buffer.readUnsignedByte();
-        int bytesConsumed = 2;
-        int result = msbSize << 8 | lsbSize;
-        if (result < 0 || result > 65535) {
-            throw new DecoderException("invalid MSB LSB value: " + result);
-        }
-        return new DecodedResult<>(result, bytesConsumed);
+        return new DecodedResult<>(readMsbLsbValue(buffer), 2);
+    }
+
+    public static int readMsbLsbValue(ByteBuf buffer) {
+        return buffer.readUnsignedShort();
     }
 
     public static DecodedResult<byte[]> readByteArray(ByteBuf buffer) {
-        DecodedResult<Integer> decodedSize = readMsbLsb(buffer);
-        int size = decodedSize.value;
+        int size = readMsbLsbValue(buffer);
+        return new DecodedResult<>(readByteArray(buffer, size), 2 + size);
+    }
+
+    public static byte[] readByteArray(ByteBuf buffer, int size) {
         byte[] bytes = new byte[size];
         buffer.readBytes(bytes);
-        return new DecodedResult<>(bytes, decodedSize.bytesConsumed + size);
+        return bytes;
     }
 
     public static DecodedResult<Integer> readPacketId(ByteBuf buffer) {
-        final DecodedResult<Integer> packetId = readMsbLsb(buffer);
-        validatePacketId(packetId.getValue());
-        return packetId;
+        return new DecodedResult<>(readPacketIdValue(buffer), 2);
+    }
+
+    public static int readPacketIdValue(ByteBuf buffer) {
+        return validatePacketId(readMsbLsbValue(buffer));
     }
 
     public static boolean isSet(short b, int pos) {
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+/**
+ * A bounded, direct-mapped cache from UTF-8 encoded topic bytes to topic strings.
+ * <p>
+ * Lookups hash and compare the encoded bytes in place, so a hit costs neither a UTF-8 decode nor a new
+ * {@link String}. A miss validates and decodes the topic, see {@link MqttUtf8Utils#readString}, and replaces whatever
+ * entry occupied its slot. Instances are not thread safe and are meant to be owned by a single channel.
+ */
+public class MqttTopicCache {
+
+    public static final int DEFAULT_MAX_TOPIC_LENGTH = 256;
+
+    private final Entry[] entries;
+    private final int mask;
+    private final int maxTopicLength;
+
+    public MqttTopicCache(int size) {
+        this(size, DEFAULT_MAX_TOPIC_LENGTH);
+    }
+
+    /**
+     * @param size           number of entries, rounded up to a power of two
+     * @param maxTopicLength topics with more encoded bytes than this are decoded but never cached
+     */
+    public MqttTopicCache(int size, int maxTopicLength) {
+        if (size < 1) {
+            throw new IllegalArgumentException("topic cache size must be > 0");
+        }
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        this.entries = new Entry[capacity];
+        this.mask = capacity - 1;
+        this.maxTopicLength = maxTopicLength;
+    }
+
+    /**
+     * Returns the topic encoded in {@code length} bytes of {@code buf} starting at {@code index}, without moving
+     * the reader index.
+     */
+    public String get(ByteBuf buf, int index, int length) {
+        if (length > maxTopicLength) {
+            return MqttUtf8Utils.readString(buf, index, length);
+        }
+        int hash = hash(buf, index, length);
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        Entry entry = entries[slot];
+        if (entry != null && entry.hash == hash && entry.bytes.readableBytes() == length
+            && ByteBufUtil.equals(entry.bytes, 0, buf, index, length)) {
+            return entry.topic;
+        }
+        String topic = MqttUtf8Utils.readString(buf, index, length);
+        byte[] bytes = new byte[length];
+        buf.getBytes(index, bytes);
+        entries[slot] = new Entry(hash, Unpooled.wrappedBuffer(bytes), topic);
+        return topic;
+    }
+
+    private static int hash(ByteBuf buf, int index, int length) {
+        int hash = length;
+        int end = index + length;
+        for (; index + 4 <= end; index += 4) {
+            hash = 31 * hash + buf.getInt(index);
+        }
+        for (; index < end; index++) {
+            hash = 31 * hash + buf.getByte(index);
+        }
+        return hash;
+    }
+
+    private static final class Entry {
+        private final int hash;
+        private final ByteBuf bytes;
+        private final String topic;
+
+        private Entry(int hash, ByteBuf bytes, String topic) {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.topic = topic;
+        }
+    }
+}
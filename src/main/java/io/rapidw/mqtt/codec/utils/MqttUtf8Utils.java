@@ -0,0 +1,327 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Validation, encoding and decoding of MQTT UTF-8 encoded strings [MQTT-1.5.3].
+ * <p>
+ * On the encode side a string usually takes two passes over its chars. The first validates it and computes its
+ * encoded length, which the Remaining Length of the frame needs before anything is written. The second writes it, as
+ * a plain copy when the string turned out to be ASCII and through the UTF-8 encoder otherwise. A topic name, written
+ * once per PUBLISH, can instead be written by {@link #writeAsciiTopicName(ByteBuf, CharSequence)} in a single pass
+ * that checks eight chars at a time while copying them, assuming it is ASCII. On the decode side the bytes are
+ * validated in place, eight at a time while they are ASCII, before a {@link String} is created in a single pass.
+ */
+public final class MqttUtf8Utils {
+
+    private static final int STRING = 0;
+    private static final int TOPIC_NAME = 1;
+    private static final int TOPIC_FILTER = 2;
+
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    // the same for four chars packed into a long
+    private static final long CHAR_NON_ASCII_BITS = 0xFF80FF80FF80FF80L;
+    private static final long CHAR_HIGH_BITS = 0x8000800080008000L;
+    private static final long CHAR_LOW_BITS = 0x0001000100010001L;
+    private static final long CHAR_PLUS = CHAR_LOW_BITS * '+';
+    private static final long CHAR_HASH = CHAR_LOW_BITS * '#';
+
+    private MqttUtf8Utils() {
+    }
+
+    /**
+     * Validates a string and returns its UTF-8 encoded length.
+     *
+     * @throws IllegalArgumentException if the string contains U+0000, an unpaired surrogate, or is longer than 65535
+     *                                  bytes when encoded
+     */
+    public static int utf8Length(CharSequence value, String name) {
+        return checkLength(scan(value, name, STRING), name);
+    }
+
+    /**
+     * Like {@link #utf8Length(CharSequence, String)}, additionally rejecting empty topic names and wildcards.
+     */
+    public static int topicNameUtf8Length(CharSequence topicName) {
+        return checkTopicLength(scan(topicName, "topic name", TOPIC_NAME), "topic name");
+    }
+
+    /**
+     * Like {@link #utf8Length(CharSequence, String)}, additionally rejecting empty topic filters and misplaced
+     * wildcards.
+     */
+    public static int topicFilterUtf8Length(CharSequence topicFilter) {
+        return checkTopicLength(scan(topicFilter, "topic filter", TOPIC_FILTER), "topic filter");
+    }
+
+    /**
+     * Whether {@link #topicFilterUtf8Length(CharSequence)} accepts the topic filter.
+     */
+    public static boolean isValidTopicFilter(CharSequence topicFilter) {
+        if (topicFilter == null) {
+            return false;
+        }
+        try {
+            topicFilterUtf8Length(topicFilter);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    static void validateTopicName(CharSequence topicName) {
+        scan(topicName, "topic name", TOPIC_NAME);
+    }
+
+    static void validateTopicFilter(CharSequence topicFilter) {
+        scan(topicFilter, "topic filter", TOPIC_FILTER);
+    }
+
+    /**
+     * Writes the 2 byte length prefix followed by the encoded string.
+     *
+     * @param utf8Length the length returned by one of the validating methods for this string
+     */
+    public static void writeString(ByteBuf buf, CharSequence value, int utf8Length) {
+        buf.writeShort(utf8Length);
+        if (utf8Length == value.length()) {
+            buf.writeCharSequence(value, CharsetUtil.US_ASCII);
+        } else {
+            // reserves only the exact length, so that a buffer which cannot grow past it is not rejected
+            ByteBufUtil.reserveAndWriteUtf8(buf, value, utf8Length);
+        }
+    }
+
+    /**
+     * Writes the 2 byte length prefix followed by the topic name if it is ASCII, validating it in the same pass. The
+     * caller then sizes the frame with the char count of the topic name as its encoded length.
+     *
+     * @return {@code false}, leaving the writer index unchanged, if the topic name is empty, too long, or contains a
+     * char that is not ASCII, U+0000 or a wildcard, in which case it has to be sized and validated with
+     * {@link #topicNameUtf8Length(CharSequence)} and written with {@link #writeString(ByteBuf, CharSequence, int)}
+     */
+    public static boolean writeAsciiTopicName(ByteBuf buf, CharSequence topicName) {
+        int length = topicName.length();
+        if (length == 0 || length > 65535) {
+            return false;
+        }
+        buf.ensureWritable(2 + length);
+        int start = buf.writerIndex();
+        int index = start + 2;
+        int i = 0;
+        for (; i + 8 <= length; i += 8, index += 8) {
+            long high = packChars(topicName, i);
+            long low = packChars(topicName, i + 4);
+            if (!isPlainTopicChars(high) || !isPlainTopicChars(low)) {
+                return false;
+            }
+            buf.setLong(index, lowBytes(high) << 32 | lowBytes(low));
+        }
+        for (; i < length; i++, index++) {
+            char c = topicName.charAt(i);
+            if (c == 0 || c >= 0x80 || c == '+' || c == '#') {
+                return false;
+            }
+            buf.setByte(index, c);
+        }
+        buf.setShort(start, length);
+        buf.writerIndex(index);
+        return true;
+    }
+
+    private static long packChars(CharSequence value, int i) {
+        return (long) value.charAt(i) << 48 | (long) value.charAt(i + 1) << 32 | (long) value.charAt(i + 2) << 16
+            | value.charAt(i + 3);
+    }
+
+    // none of the four chars is outside ASCII, U+0000 or a wildcard
+    private static boolean isPlainTopicChars(long chars) {
+        return (chars & CHAR_NON_ASCII_BITS) == 0
+            && !hasZeroChar(chars) && !hasZeroChar(chars ^ CHAR_PLUS) && !hasZeroChar(chars ^ CHAR_HASH);
+    }
+
+    private static boolean hasZeroChar(long chars) {
+        return ((chars - CHAR_LOW_BITS) & ~chars & CHAR_HIGH_BITS) != 0;
+    }
+
+    // the low byte of each of the four chars, in order
+    private static long lowBytes(long chars) {
+        return (chars >>> 24 & 0xFF000000L) | (chars >>> 16 & 0xFF0000L) | (chars >>> 8 & 0xFF00L) | (chars & 0xFFL);
+    }
+
+    /**
+     * Validates and decodes {@code length} bytes of {@code buf} starting at {@code index}, without moving the reader
+     * index.
+     *
+     * @throws DecoderException if the bytes are not well-formed UTF-8, or encode U+0000 or a surrogate
+     */
+    public static String readString(ByteBuf buf, int index, int length) {
+        int end = index + length;
+        int i = index;
+        // eight bytes at a time while they are all ASCII and none is zero
+        while (i + 8 <= end) {
+            long word = buf.getLong(i);
+            if ((word & HIGH_BITS) != 0 || ((word - LOW_BITS) & ~word & HIGH_BITS) != 0) {
+                break;
+            }
+            i += 8;
+        }
+        while (i < end && buf.getByte(i) > 0) {
+            i++;
+        }
+        if (i == end) {
+            return buf.toString(index, length, CharsetUtil.US_ASCII);
+        }
+        validateUtf8(buf, i, end);
+        return buf.toString(index, length, CharsetUtil.UTF_8);
+    }
+
+    private static int scan(CharSequence value, String name, int kind) {
+        MqttV311ValidationUtils.requireNonNull(value, name);
+        int length = value.length();
+        int utf8Length = length;
+        int levelStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == 0) {
+                    throw new IllegalArgumentException("[MQTT-1.5.3-2] " + name + " must not contain U+0000");
+                }
+                if (kind != STRING) {
+                    switch (c) {
+                        case '/':
+                            levelStart = i + 1;
+                            break;
+                        case '+':
+                            checkSingleLevelWildcard(value, kind, i, levelStart);
+                            break;
+                        case '#':
+                            checkMultiLevelWildcard(value, kind, i, levelStart);
+                            break;
+                        default:
+                    }
+                }
+            } else if (c < 0x800) {
+                utf8Length += 1;
+            } else if (Character.isHighSurrogate(c)) {
+                if (i + 1 == length || !Character.isLowSurrogate(value.charAt(i + 1))) {
+                    throw new IllegalArgumentException(
+                        "[MQTT-1.5.3-1] " + name + " must not contain an unpaired surrogate");
+                }
+                // two chars, four bytes
+                utf8Length += 2;
+                i++;
+            } else if (Character.isLowSurrogate(c)) {
+                throw new IllegalArgumentException("[MQTT-1.5.3-1] " + name + " must not contain an unpaired surrogate");
+            } else {
+                utf8Length += 2;
+            }
+        }
+        return utf8Length;
+    }
+
+    private static void checkSingleLevelWildcard(CharSequence value, int kind, int i, int levelStart) {
+        if (kind == TOPIC_NAME) {
+            throw new IllegalArgumentException(
+                "[MQTT-4.7.1-1] wildcard characters can be used in Topic Filters, but MUST NOT be used within a Topic Name");
+        }
+        if (i != levelStart || (i + 1 != value.length() && value.charAt(i + 1) != '/')) {
+            throw new IllegalArgumentException("[MQTT-4.7.1-3] + must occupy an entire level of the filter");
+        }
+    }
+
+    private static void checkMultiLevelWildcard(CharSequence value, int kind, int i, int levelStart) {
+        if (kind == TOPIC_NAME) {
+            throw new IllegalArgumentException(
+                "[MQTT-4.7.1-1] wildcard characters can be used in Topic Filters, but MUST NOT be used within a Topic Name");
+        }
+        if (i + 1 != value.length()) {
+            throw new IllegalArgumentException("[MQTT-4.7.1-2] # must be last char in topic filter");
+        }
+        if (i != levelStart) {
+            throw new IllegalArgumentException("[MQTT-4.7.1-2] # must follows a topic level separator");
+        }
+    }
+
+    private static int checkLength(int utf8Length, String name) {
+        if (utf8Length > 65535) {
+            throw new IllegalArgumentException("length of " + name + " must be <= 65535");
+        }
+        return utf8Length;
+    }
+
+    private static int checkTopicLength(int utf8Length, String name) {
+        if (utf8Length < 1 || utf8Length > 65535) {
+            throw new IllegalArgumentException("[MQTT-4.7.3-1] " + name + " length must be > 1 and < 65535");
+        }
+        return utf8Length;
+    }
+
+    private static void validateUtf8(ByteBuf buf, int i, int end) {
+        while (i < end) {
+            int b = buf.getByte(i++) & 0xFF;
+            if (b < 0x80) {
+                if (b == 0) {
+                    throw new DecoderException("[MQTT-1.5.3-2] string must not contain U+0000");
+                }
+            } else if (b < 0xC2) {
+                // a continuation byte, or an overlong two byte sequence
+                throw malformed();
+            } else if (b < 0xE0) {
+                continuation(buf, i++, end);
+            } else if (b < 0xF0) {
+                int b1 = continuation(buf, i++, end);
+                if (b == 0xE0 && b1 < 0xA0) {
+                    throw malformed();
+                }
+                if (b == 0xED && b1 >= 0xA0) {
+                    throw new DecoderException("[MQTT-1.5.3-1] string must not contain surrogate code points");
+                }
+                continuation(buf, i++, end);
+            } else if (b < 0xF5) {
+                int b1 = continuation(buf, i++, end);
+                if ((b == 0xF0 && b1 < 0x90) || (b == 0xF4 && b1 >= 0x90)) {
+                    throw malformed();
+                }
+                continuation(buf, i++, end);
+                continuation(buf, i++, end);
+            } else {
+                throw malformed();
+            }
+        }
+    }
+
+    private static int continuation(ByteBuf buf, int index, int end) {
+        if (index >= end) {
+            throw malformed();
+        }
+        int b = buf.getByte(index) & 0xFF;
+        if ((b & 0xC0) != 0x80) {
+            throw malformed();
+        }
+        return b;
+    }
+
+    private static DecoderException malformed() {
+        return new DecoderException("[MQTT-1.5.3-1] malformed UTF-8 string");
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * Base class for handlers placed after a batching decoder. It walks a {@link MqttV311PacketBatch} and calls
+ * {@link #messageRead} for each message in it, so the pipeline is traversed once per read instead of once per
+ * packet. Messages that are not batches are passed to {@link #messageRead} as they are.
+ * <p>
+ * As with {@link ChannelInboundHandlerAdapter#channelRead}, {@link #messageRead} is responsible for releasing
+ * reference counted messages.
+ */
+public abstract class MqttV311BatchHandler extends ChannelInboundHandlerAdapter {
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof MqttV311PacketBatch) {
+            MqttV311PacketBatch batch = (MqttV311PacketBatch) msg;
+            for (int i = 0; i < batch.size(); i++) {
+                messageRead(ctx, batch.get(i));
+            }
+        } else {
+            messageRead(ctx, msg);
+        }
+    }
+
+    /**
+     * @param msg a {@link MqttV311Packet} or a {@link MqttV311PublishChunk}
+     */
+    protected abstract void messageRead(ChannelHandlerContext ctx, Object msg) throws Exception;
+}
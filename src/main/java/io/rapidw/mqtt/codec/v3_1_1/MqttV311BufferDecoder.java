@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+
+/**
+ * Decodes packets from buffers holding complete frames, outside of a channel pipeline, for example captured traffic
+ * or journaled packets.
+ * <p>
+ * Packets are always decoded whole, so {@link MqttV311DecoderConfig#getChunkedPayloadThreshold()} and
+ * {@link MqttV311DecoderConfig#isBatching()} are ignored, all other options apply. An instance keeps the topic cache
+ * of its config across calls and is not thread safe. A frame that fails to decode leaves the buffer in an
+ * undefined position, since the rest of the stream cannot be framed anymore.
+ */
+public final class MqttV311BufferDecoder {
+
+    private final MqttV311PacketReader reader;
+
+    public MqttV311BufferDecoder() {
+        this(MqttV311DecoderConfig.DEFAULT);
+    }
+
+    public MqttV311BufferDecoder(MqttV311DecoderConfig config) {
+        this.reader = new MqttV311PacketReader(config);
+    }
+
+    /**
+     * Decodes the packet at the reader index of {@code in} and moves the reader index past it.
+     *
+     * @return the packet, or null without moving the reader index if the packet is not complete
+     */
+    public MqttV311Packet decodeFrame(ByteBuf in) {
+        return this.reader.readFrame(in);
+    }
+
+    /**
+     * Decodes all complete packets from the reader index of {@code in} and moves the reader index past them. Bytes
+     * of a trailing incomplete packet are left unread.
+     *
+     * @return the number of bytes consumed
+     */
+    public int decode(ByteBuf in, List<? super MqttV311Packet> out) {
+        int start = in.readerIndex();
+        MqttV311Packet packet;
+        while ((packet = this.reader.readFrame(in)) != null) {
+            out.add(packet);
+        }
+        return in.readerIndex() - start;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.util.ReferenceCounted;
+
+/**
+ * A {@link MessageToByteEncoder} based alternative to {@link MqttV311Encoder}, writing each packet into the buffer
+ * provided by {@link MessageToByteEncoder} with {@link MqttV311Encoder#encodeTo(ByteBuf, MqttV311Packet)}. A
+ * {@link MqttV311PublishPacket} payload buffer is copied rather than appended as a composite component. To write
+ * all packets of one flush into a single buffer, use {@link MqttV311CoalescingEncoder}.
+ */
+@ChannelHandler.Sharable
+public class MqttV311ByteEncoder extends MessageToByteEncoder<MqttV311Packet> {
+
+    public static final MqttV311ByteEncoder INSTANCE = new MqttV311ByteEncoder();
+
+    private MqttV311ByteEncoder() {
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        try {
+            super.write(ctx, msg, promise);
+        } finally {
+            if (msg instanceof MqttV311Recyclable && !(msg instanceof ReferenceCounted)) {
+                ((MqttV311Recyclable) msg).recycle();
+            }
+        }
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, MqttV311Packet packet, ByteBuf out) {
+        MqttV311Encoder.encodeTo(out, packet);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.EncoderException;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.PromiseNotifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes all packets written between two flushes back to back into a single buffer, which is written on flush, so
+ * that a burst of small packets costs one buffer allocation instead of one each.
+ * <p>
+ * The promise of each packet completes when the coalesced buffer is written. Writes of anything other than a
+ * {@link MqttV311Packet} pass through, after the packets written before them. A packet that fails to encode fails
+ * its own promise only. Like {@link MqttV311Encoder}, the handler releases each packet after encoding it, and
+ * recycles it if it is pooled and not reference counted. It keeps per-channel state and cannot be shared.
+ */
+public class MqttV311CoalescingEncoder extends ChannelOutboundHandlerAdapter {
+
+    private ByteBuf pending;
+    private final List<ChannelPromise> pendingPromises = new ArrayList<>();
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (!(msg instanceof MqttV311Packet)) {
+            writePending(ctx);
+            ctx.write(msg, promise);
+            return;
+        }
+        try {
+            if (pending == null) {
+                pending = ctx.alloc().ioBuffer();
+            }
+            MqttV311Encoder.encodeTo(pending, (MqttV311Packet) msg);
+            if (!promise.isVoid()) {
+                pendingPromises.add(promise);
+            }
+        } catch (Throwable t) {
+            promise.tryFailure(t instanceof EncoderException ? t : new EncoderException(t));
+        } finally {
+            ReferenceCountUtil.release(msg);
+            if (msg instanceof MqttV311Recyclable && !(msg instanceof ReferenceCounted)) {
+                ((MqttV311Recyclable) msg).recycle();
+            }
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        writePending(ctx);
+        ctx.flush();
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+        writePending(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        writePending(ctx);
+    }
+
+    private void writePending(ChannelHandlerContext ctx) {
+        ByteBuf buf = pending;
+        if (buf == null) {
+            return;
+        }
+        pending = null;
+        if (!buf.isReadable()) {
+            buf.release();
+            return;
+        }
+        if (pendingPromises.isEmpty()) {
+            ctx.write(buf, ctx.voidPromise());
+            return;
+        }
+        Promise<Void>[] promises = pendingPromises.toArray(new ChannelPromise[0]);
+        pendingPromises.clear();
+        ctx.write(buf).addListener(new PromiseNotifier<>(promises));
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.rapidw.mqtt.codec.utils.MqttUtf8Utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * The subscriptions of a {@link MqttV311SubscriptionIndex}, with the same tree and matching rules, that can be
+ * matched from any number of threads while they are being changed.
+ * <p>
+ * Matching never blocks: children are kept in {@link ConcurrentHashMap}s and the subscribers of a filter in a
+ * copy-on-write array that is replaced as a whole, so a reader sees each node either before or after a change.
+ * Nodes with many subscribers switch to a {@link ConcurrentHashMap}. Writers lock one of a fixed number of stripes
+ * chosen by the first level of the filter, and filters starting with a wildcard share one more stripe. Changes to
+ * different top level segments therefore proceed in parallel.
+ * <p>
+ * A match running concurrently with a change may or may not see it, and a subscriber replaced with another QoS may
+ * be seen with either one.
+ *
+ * @param <S> the subscriber, usually the client id or a session
+ */
+public class MqttV311ConcurrentSubscriptionIndex<S> implements MqttV311Subscriptions<S> {
+
+    public static final int DEFAULT_STRIPES = 64;
+
+    // above this many subscribers, a node keeps them in a ConcurrentHashMap instead of an array
+    private static final int MAX_ARRAY_SUBSCRIBERS = 8;
+
+    // its children are changed under different stripes, so unlike other nodes it keeps its map when empty
+    private final Node<S> root = new Node<>(new ConcurrentHashMap<>());
+    private final Object[] stripes;
+    private final Object wildcardStripe = new Object();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public MqttV311ConcurrentSubscriptionIndex() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes number of writer locks for filters starting with a named level, rounded up to a power of two
+     */
+    public MqttV311ConcurrentSubscriptionIndex(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be > 0");
+        }
+        int capacity = Integer.highestOneBit(stripes);
+        if (capacity < stripes) {
+            capacity <<= 1;
+        }
+        this.stripes = new Object[capacity];
+        for (int i = 0; i < capacity; i++) {
+            this.stripes[i] = new Object();
+        }
+    }
+
+    @Override
+    public boolean subscribe(S subscriber, String topicFilter, MqttV311QosLevel qosLevel) {
+        MqttUtf8Utils.topicFilterUtf8Length(topicFilter);
+        if (subscriber == null || qosLevel == null || qosLevel == MqttV311QosLevel.FAILURE) {
+            throw new IllegalArgumentException("invalid subscription " + subscriber + " " + qosLevel);
+        }
+        boolean added;
+        synchronized (stripe(topicFilter)) {
+            Node<S> node = root;
+            int start = 0;
+            while (start <= topicFilter.length()) {
+                int end = MqttV311TopicNode.levelEnd(topicFilter, start);
+                node = node.childForUpdate(topicFilter, start, end);
+                start = end + 1;
+            }
+            added = node.putSubscriber(subscriber, qosLevel);
+        }
+        if (added) {
+            size.incrementAndGet();
+        }
+        return added;
+    }
+
+    @Override
+    public boolean unsubscribe(S subscriber, String topicFilter) {
+        boolean removed;
+        synchronized (stripe(topicFilter)) {
+            removed = MqttV311TopicNode.remove(root, subscriber, topicFilter, 0);
+        }
+        if (removed) {
+            size.decrementAndGet();
+        }
+        return removed;
+    }
+
+    @Override
+    public void match(String topicName, BiConsumer<? super S, MqttV311QosLevel> consumer) {
+        MqttV311TopicNode.match(root, topicName, consumer);
+    }
+
+    /**
+     * Returns the number of subscriptions.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    private Object stripe(String topicFilter) {
+        int end = MqttV311TopicNode.levelEnd(topicFilter, 0);
+        if (MqttV311TopicNode.isWildcard(topicFilter, 0, end, '+')
+            || MqttV311TopicNode.isWildcard(topicFilter, 0, end, '#')) {
+            return wildcardStripe;
+        }
+        int hash = topicFilter.substring(0, end).hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static final class Subscription<S> {
+        private final S subscriber;
+        private final MqttV311QosLevel qosLevel;
+
+        Subscription(S subscriber, MqttV311QosLevel qosLevel) {
+            this.subscriber = subscriber;
+            this.qosLevel = qosLevel;
+        }
+    }
+
+    // read by any thread, written only while holding the stripe of the filter
+    private static final class Node<S> implements MqttV311TopicNode<S, Node<S>> {
+        private volatile ConcurrentHashMap<String, Node<S>> children;
+        // the "+" and "#" children
+        private volatile Node<S> singleLevel;
+        private volatile Node<S> multiLevel;
+        // null, a Subscription[] that is never modified once published, or a ConcurrentHashMap<S, MqttV311QosLevel>
+        private volatile Object subscribers;
+        private final boolean keepChildren;
+
+        Node() {
+            this.keepChildren = false;
+        }
+
+        Node(ConcurrentHashMap<String, Node<S>> children) {
+            this.children = children;
+            this.keepChildren = true;
+        }
+
+        @Override
+        public Node<S> namedChild(String level) {
+            ConcurrentHashMap<String, Node<S>> children = this.children;
+            return children == null ? null : children.get(level);
+        }
+
+        @Override
+        public Node<S> singleLevel() {
+            return singleLevel;
+        }
+
+        @Override
+        public Node<S> multiLevel() {
+            return multiLevel;
+        }
+
+        Node<S> childForUpdate(String filter, int start, int end) {
+            if (MqttV311TopicNode.isWildcard(filter, start, end, '+')) {
+                if (singleLevel == null) {
+                    singleLevel = new Node<>();
+                }
+                return singleLevel;
+            }
+            if (MqttV311TopicNode.isWildcard(filter, start, end, '#')) {
+                if (multiLevel == null) {
+                    multiLevel = new Node<>();
+                }
+                return multiLevel;
+            }
+            ConcurrentHashMap<String, Node<S>> children = this.children;
+            if (children == null) {
+                children = new ConcurrentHashMap<>(4);
+                this.children = children;
+            }
+            return children.computeIfAbsent(filter.substring(start, end), level -> new Node<>());
+        }
+
+        @Override
+        public void removeChild(String filter, int start, int end) {
+            if (MqttV311TopicNode.isWildcard(filter, start, end, '+')) {
+                singleLevel = null;
+            } else if (MqttV311TopicNode.isWildcard(filter, start, end, '#')) {
+                multiLevel = null;
+            } else {
+                ConcurrentHashMap<String, Node<S>> children = this.children;
+                children.remove(filter.substring(start, end));
+                if (children.isEmpty() && !keepChildren) {
+                    this.children = null;
+                }
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            ConcurrentHashMap<String, Node<S>> children = this.children;
+            return subscribers == null && (children == null || children.isEmpty()) && singleLevel == null
+                && multiLevel == null;
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean putSubscriber(S subscriber, MqttV311QosLevel qosLevel) {
+            Object subscribers = this.subscribers;
+            if (subscribers instanceof ConcurrentHashMap) {
+                return ((ConcurrentHashMap<S, MqttV311QosLevel>) subscribers).put(subscriber, qosLevel) == null;
+            }
+            Subscription<S>[] array = (Subscription<S>[]) subscribers;
+            Subscription<S> subscription = new Subscription<>(subscriber, qosLevel);
+            if (array == null) {
+                this.subscribers = new Subscription<?>[]{subscription};
+                return true;
+            }
+            for (int i = 0; i < array.length; i++) {
+                if (array[i].subscriber.equals(subscriber)) {
+                    Subscription<S>[] copy = array.clone();
+                    copy[i] = subscription;
+                    this.subscribers = copy;
+                    return false;
+                }
+            }
+            if (array.length == MAX_ARRAY_SUBSCRIBERS) {
+                ConcurrentHashMap<S, MqttV311QosLevel> map = new ConcurrentHashMap<>(MAX_ARRAY_SUBSCRIBERS * 4);
+                for (Subscription<S> s : array) {
+                    map.put(s.subscriber, s.qosLevel);
+                }
+                map.put(subscriber, qosLevel);
+                this.subscribers = map;
+                return true;
+            }
+            Subscription<S>[] copy = Arrays.copyOf(array, array.length + 1);
+            copy[array.length] = subscription;
+            this.subscribers = copy;
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean removeSubscriber(S subscriber) {
+            Object subscribers = this.subscribers;
+            if (subscribers instanceof ConcurrentHashMap) {
+                ConcurrentHashMap<S, MqttV311QosLevel> map = (ConcurrentHashMap<S, MqttV311QosLevel>) subscribers;
+                if (map.remove(subscriber) == null) {
+                    return false;
+                }
+                if (map.isEmpty()) {
+                    this.subscribers = null;
+                }
+                return true;
+            }
+            Subscription<S>[] array = (Subscription<S>[]) subscribers;
+            if (array == null) {
+                return false;
+            }
+            for (int i = 0; i < array.length; i++) {
+                if (array[i].subscriber.equals(subscriber)) {
+                    if (array.length == 1) {
+                        this.subscribers = null;
+                    } else {
+                        Subscription<S>[] copy = Arrays.copyOf(array, array.length - 1);
+                        System.arraycopy(array, i + 1, copy, i, array.length - i - 1);
+                        this.subscribers = copy;
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(BiConsumer<? super S, MqttV311QosLevel> consumer) {
+            Object subscribers = this.subscribers;
+            if (subscribers instanceof ConcurrentHashMap) {
+                ((ConcurrentHashMap<S, MqttV311QosLevel>) subscribers).forEach(consumer);
+            } else if (subscribers != null) {
+                for (Subscription<S> subscription : (Subscription<S>[]) subscribers) {
+                    consumer.accept(subscription.subscriber, subscription.qosLevel);
+                }
+            }
+        }
+    }
+}
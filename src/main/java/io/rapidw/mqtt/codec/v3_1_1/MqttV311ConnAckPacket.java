@@ -40,6 +40,31 @@ public class MqttV311ConnAckPacket extends MqttV311Packet {
         this.connectReturnCode = connectReturnCode;
     }
 
+    private static final MqttV311ConnAckPacket[] INSTANCES = new MqttV311ConnAckPacket[MqttV311ConnectReturnCode.values().length];
+    private static final MqttV311ConnAckPacket SESSION_PRESENT_INSTANCE =
+        new MqttV311ConnAckPacket(true, MqttV311ConnectReturnCode.CONNECTION_ACCEPTED);
+
+    static {
+        for (MqttV311ConnectReturnCode code : MqttV311ConnectReturnCode.values()) {
+            INSTANCES[code.ordinal()] = new MqttV311ConnAckPacket(false, code);
+        }
+    }
+
+    /**
+     * Returns the shared instance for a valid combination of session present flag and return code, as there are
+     * only seven of them.
+     */
+    static MqttV311ConnAckPacket valueOf(boolean sessionPresent, MqttV311ConnectReturnCode connectReturnCode) {
+        if (sessionPresent) {
+            if (connectReturnCode != MqttV311ConnectReturnCode.CONNECTION_ACCEPTED) {
+                throw new DecoderException(
+                    "[MQTT-3.2.2-4] CONNACK packet containing a non-zero return code it MUST set Session Present to 0");
+            }
+            return SESSION_PRESENT_INSTANCE;
+        }
+        return INSTANCES[connectReturnCode.ordinal()];
+    }
+
     public static MqttV311ConnAckPacketBuilder builder() {
         return new MqttV311ConnAckPacketBuilder();
     }
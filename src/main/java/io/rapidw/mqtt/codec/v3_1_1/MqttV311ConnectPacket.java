@@ -92,10 +92,12 @@ public class MqttV311ConnectPacket extends MqttV311Packet {
 
     void setClientId(String clientId) {
         this.clientId = clientId;
+        this.stringLengths = null;
     }
 
     void setUsername(String username) {
         this.username = username;
+        this.stringLengths = null;
     }
 
     void setPassword(byte[] password) {
@@ -104,6 +106,7 @@ public class MqttV311ConnectPacket extends MqttV311Packet {
 
     void setWill(MqttV311Will will) {
         this.will = will;
+        this.stringLengths = null;
     }
 
     void setWillBuilder(MqttV311Will.Builder willBuilder) {
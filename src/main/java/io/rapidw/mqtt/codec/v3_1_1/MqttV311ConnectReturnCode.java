@@ -17,9 +17,6 @@ package io.rapidw.mqtt.codec.v3_1_1;
 
 import io.netty.handler.codec.DecoderException;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public enum MqttV311ConnectReturnCode {
     CONNECTION_ACCEPTED((byte) 0x00),
     CONNECTION_REFUSED_UNACCEPTABLE_PROTOCOL_VERSION((byte) 0X01),
@@ -28,13 +25,7 @@ public enum MqttV311ConnectReturnCode {
     CONNECTION_REFUSED_BAD_USER_NAME_OR_PASSWORD((byte) 0x04),
     CONNECTION_REFUSED_NOT_AUTHORIZED((byte) 0x05);
 
-    private static Map<Byte, MqttV311ConnectReturnCode> valueMap = new HashMap<>();
-
-    static {
-        for (MqttV311ConnectReturnCode code : values()) {
-            valueMap.put(code.byteValue, code);
-        }
-    }
+    private static final MqttV311ConnectReturnCode[] VALUES = values();
 
     private final byte byteValue;
 
@@ -47,11 +38,10 @@ public enum MqttV311ConnectReturnCode {
     }
 
     public static MqttV311ConnectReturnCode of(byte b) {
-        MqttV311ConnectReturnCode code = valueMap.get(b);
-        if (!valueMap.containsKey(b)) {
+        // return codes are numbered from 0 in declaration order
+        if (b < 0 || b >= VALUES.length) {
             throw new DecoderException("unknown connect return code: " + (b & 0xFF));
-        } else {
-            return code;
         }
+        return VALUES[b];
     }
 }
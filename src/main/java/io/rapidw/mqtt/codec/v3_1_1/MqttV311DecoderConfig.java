@@ -0,0 +1,203 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+/**
+ * Options shared by {@link MqttV311Decoder} and {@link MqttV311FramedDecoder}.
+ */
+public class MqttV311DecoderConfig {
+
+    public static final MqttV311DecoderConfig DEFAULT = builder().build();
+
+    private final boolean retainedPayload;
+    private final int topicCacheSize;
+    private final int chunkedPayloadThreshold;
+    private final int maxRemainingLength;
+    private final int maxTopicLength;
+    private final int maxTopicFilters;
+    private final int maxClientIdLength;
+    private final boolean batching;
+    private final boolean pooledPackets;
+
+    private MqttV311DecoderConfig(Builder builder) {
+        this.retainedPayload = builder.retainedPayload;
+        this.topicCacheSize = builder.topicCacheSize;
+        this.chunkedPayloadThreshold = builder.chunkedPayloadThreshold;
+        this.maxRemainingLength = builder.maxRemainingLength;
+        this.maxTopicLength = builder.maxTopicLength;
+        this.maxTopicFilters = builder.maxTopicFilters;
+        this.maxClientIdLength = builder.maxClientIdLength;
+        this.batching = builder.batching;
+        this.pooledPackets = builder.pooledPackets;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * If set, a decoded {@link MqttV311PublishPacket} holds a retained slice of the inbound buffer instead of a
+     * copied byte array, and must be released by its consumer.
+     */
+    public boolean isRetainedPayload() {
+        return this.retainedPayload;
+    }
+
+    /**
+     * Number of PUBLISH topics each decoder caches, see {@link io.rapidw.mqtt.codec.utils.MqttTopicCache}. 0
+     * disables the cache.
+     */
+    public int getTopicCacheSize() {
+        return this.topicCacheSize;
+    }
+
+    /**
+     * A PUBLISH whose remaining length exceeds this threshold is not buffered as a whole. The decoder emits a
+     * {@link MqttV311PublishPacket} without payload as soon as its variable header is read, followed by
+     * {@link MqttV311PublishChunk}s holding the payload as it arrives. 0 disables chunking.
+     */
+    public int getChunkedPayloadThreshold() {
+        return this.chunkedPayloadThreshold;
+    }
+
+    /**
+     * Largest accepted remaining length, checked as soon as the fixed header is read. Exceeding it throws
+     * {@link MqttV311PacketTooLargeException}.
+     */
+    public int getMaxRemainingLength() {
+        return this.maxRemainingLength;
+    }
+
+    /**
+     * Largest accepted encoded length of a PUBLISH topic name or a SUBSCRIBE/UNSUBSCRIBE topic filter. Exceeding it
+     * throws {@link MqttV311TopicTooLongException}.
+     */
+    public int getMaxTopicLength() {
+        return this.maxTopicLength;
+    }
+
+    /**
+     * Largest accepted number of topic filters in a SUBSCRIBE or UNSUBSCRIBE packet. Exceeding it throws
+     * {@link MqttV311TooManyTopicFiltersException}.
+     */
+    public int getMaxTopicFilters() {
+        return this.maxTopicFilters;
+    }
+
+    /**
+     * Largest accepted encoded length of a CONNECT client id. Exceeding it throws
+     * {@link MqttV311ClientIdTooLongException}.
+     */
+    public int getMaxClientIdLength() {
+        return this.maxClientIdLength;
+    }
+
+    /**
+     * If set, all messages decoded from one inbound buffer are emitted together as a single
+     * {@link MqttV311PacketBatch} instead of one {@code fireChannelRead} each.
+     */
+    public boolean isBatching() {
+        return this.batching;
+    }
+
+    /**
+     * If set, decoded {@link MqttV311PublishPacket}s and {@link MqttV311SubAckPacket}s are taken from a per-thread
+     * pool, and must be recycled by their consumer, see {@link MqttV311Recyclable}.
+     */
+    public boolean isPooledPackets() {
+        return this.pooledPackets;
+    }
+
+    public static class Builder {
+        private boolean retainedPayload;
+        private int topicCacheSize;
+        private int chunkedPayloadThreshold;
+        private int maxRemainingLength = 268_435_455;
+        private int maxTopicLength = 65535;
+        private int maxTopicFilters = Integer.MAX_VALUE;
+        private int maxClientIdLength = 65535;
+        private boolean batching;
+        private boolean pooledPackets;
+
+        Builder() {
+        }
+
+        public Builder retainedPayload(boolean retainedPayload) {
+            this.retainedPayload = retainedPayload;
+            return this;
+        }
+
+        public Builder topicCacheSize(int topicCacheSize) {
+            this.topicCacheSize = requireNonNegative(topicCacheSize, "topic cache size");
+            return this;
+        }
+
+        public Builder chunkedPayloadThreshold(int chunkedPayloadThreshold) {
+            this.chunkedPayloadThreshold = requireNonNegative(chunkedPayloadThreshold, "chunked payload threshold");
+            return this;
+        }
+
+        public Builder maxRemainingLength(int maxRemainingLength) {
+            this.maxRemainingLength = requireNonNegative(maxRemainingLength, "max remaining length");
+            return this;
+        }
+
+        public Builder maxTopicLength(int maxTopicLength) {
+            this.maxTopicLength = requireNonNegative(maxTopicLength, "max topic length");
+            return this;
+        }
+
+        public Builder maxTopicFilters(int maxTopicFilters) {
+            this.maxTopicFilters = requireNonNegative(maxTopicFilters, "max topic filters");
+            return this;
+        }
+
+        public Builder maxClientIdLength(int maxClientIdLength) {
+            this.maxClientIdLength = requireNonNegative(maxClientIdLength, "max client id length");
+            return this;
+        }
+
+        public Builder batching(boolean batching) {
+            this.batching = batching;
+            return this;
+        }
+
+        public Builder pooledPackets(boolean pooledPackets) {
+            this.pooledPackets = pooledPackets;
+            return this;
+        }
+
+        public MqttV311DecoderConfig build() {
+            return new MqttV311DecoderConfig(this);
+        }
+
+        private static int requireNonNegative(int value, String name) {
+            if (value < 0) {
+                throw new IllegalArgumentException(name + " must be >= 0");
+            }
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return "MqttV311DecoderConfig.Builder(retainedPayload=" + this.retainedPayload + ", topicCacheSize=" +
+                this.topicCacheSize + ", chunkedPayloadThreshold=" + this.chunkedPayloadThreshold +
+                ", maxRemainingLength=" + this.maxRemainingLength + ", maxTopicLength=" + this.maxTopicLength +
+                ", maxTopicFilters=" + this.maxTopicFilters + ", maxClientIdLength=" + this.maxClientIdLength +
+                ", batching=" + this.batching + ", pooledPackets=" + this.pooledPackets + ")";
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.handler.codec.DecoderException;
+
+/**
+ * Thrown when an inbound packet exceeds one of the limits set in {@link MqttV311DecoderConfig}. The limit is
+ * checked as soon as the offending length or count is read, before the rest of the packet is buffered.
+ */
+public class MqttV311DecoderLimitException extends DecoderException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int limit;
+    private final int actual;
+
+    protected MqttV311DecoderLimitException(String message, int limit, int actual) {
+        super(message + ": " + actual + " (limit: " + limit + ")");
+        this.limit = limit;
+        this.actual = actual;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public int getActual() {
+        return this.actual;
+    }
+}
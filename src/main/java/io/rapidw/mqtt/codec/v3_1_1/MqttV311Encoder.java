@@ -17,14 +17,16 @@ package io.rapidw.mqtt.codec.v3_1_1;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.util.ReferenceCounted;
+import io.rapidw.mqtt.codec.utils.MqttUtf8Utils;
 import io.rapidw.mqtt.codec.utils.MqttV311ValidationUtils;
-import org.slf4j.Logger;
 
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 
@@ -32,90 +34,314 @@ import java.util.Objects;
 public class MqttV311Encoder extends MessageToMessageEncoder<MqttV311Packet> {
 
     public static final MqttV311Encoder INSTANCE = new MqttV311Encoder();
-    private static final Logger log = org.slf4j.LoggerFactory.getLogger(MqttV311Encoder.class);
     private static final byte[] PROTOCOL_NAME_BYTES =
         MqttV311ValidationUtils.validateAndEncodeString("MQTT", "protocol name");
 
+    // frames that never change, shared by all channels, each write gets a recycled duplicate of them
+    private static final ByteBuf PINGREQ_FRAME = constantFrame(0xC0, 0);
+    private static final ByteBuf PINGRESP_FRAME = constantFrame(0xD0, 0);
+    private static final ByteBuf DISCONNECT_FRAME = constantFrame(0xE0, 0);
+    private static final ByteBuf CONNACK_SESSION_PRESENT_FRAME = constantFrame(0x20, 0x02, 0x01, 0);
+    // indexed by return code, with Session Present 0
+    private static final ByteBuf[] CONNACK_FRAMES = new ByteBuf[MqttV311ConnectReturnCode.values().length];
+
+    static {
+        for (MqttV311ConnectReturnCode code : MqttV311ConnectReturnCode.values()) {
+            CONNACK_FRAMES[code.byteValue()] = constantFrame(0x20, 0x02, 0, code.byteValue());
+        }
+    }
+
     private MqttV311Encoder() {
     }
 
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        try {
+            super.write(ctx, msg, promise);
+        } finally {
+            // a reference counted packet, a pooled PUBLISH, is recycled by its last release instead
+            if (msg instanceof MqttV311Recyclable && !(msg instanceof ReferenceCounted)) {
+                ((MqttV311Recyclable) msg).recycle();
+            }
+        }
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, MqttV311Packet packet, List<Object> out) {
         out.add(doEncode(ctx.alloc(), packet));
     }
 
-    static ByteBuf doEncode(ByteBufAllocator byteBufAllocator, MqttV311Packet packet) {
+    /**
+     * Encodes a packet into a buffer allocated from {@code byteBufAllocator}, outside of a pipeline. Unlike writing
+     * the packet through the handler, the packet is neither released nor recycled. PINGREQ, PINGRESP, DISCONNECT
+     * and CONNACK are returned as duplicates of shared frames that are never freed, and must not be written to.
+     */
+    public static ByteBuf doEncode(ByteBufAllocator byteBufAllocator, MqttV311Packet packet) {
+        return encode(byteBufAllocator, null, packet);
+    }
 
+    /**
+     * Writes the encoded packet at the writer index of {@code out}, growing it if needed, so that several packets
+     * can be written back to back into one buffer. The packet is neither released nor recycled. If the packet
+     * cannot be encoded, nothing is written.
+     *
+     * @return the number of bytes written
+     */
+    public static int encodeTo(ByteBuf out, MqttV311Packet packet) {
+        int writerIndex = out.writerIndex();
+        try {
+            encode(out.alloc(), out, packet);
+        } catch (RuntimeException e) {
+            out.writerIndex(writerIndex);
+            throw e;
+        }
+        return out.writerIndex() - writerIndex;
+    }
+
+    /**
+     * Returns the number of bytes the packet takes on the wire, checking its strings and size limits as encoding
+     * does but without allocating a buffer. The UTF-8 lengths of the strings of a CONNECT, PUBLISH, SUBSCRIBE or
+     * UNSUBSCRIBE packet are cached on it, and reused when it is encoded for as long as it holds the same strings.
+     */
+    public static int encodedSize(MqttV311Packet packet) {
+        int remainingLength = remainingLength(packet);
+        return 1 + getAndValidateVariablePartLengthSize(remainingLength) + remainingLength;
+    }
+
+    private static int remainingLength(MqttV311Packet packet) {
         switch (packet.getType()) {
-            case CONNECT:
-                return encodeConnect(byteBufAllocator, (MqttV311ConnectPacket) packet);
+            case CONNECT: {
+                MqttV311ConnectPacket connect = (MqttV311ConnectPacket) packet;
+                return connectRemainingLength(connect, connectStringLengths(connect, true));
+            }
+            case PUBLISH: {
+                MqttV311PublishPacket publish = (MqttV311PublishPacket) packet;
+                return publishRemainingLength(publish, publishTopicLength(publish));
+            }
+            case SUBSCRIBE: {
+                MqttV311SubscribePacket subscribe = (MqttV311SubscribePacket) packet;
+                return subscribeRemainingLength(subscribe, subscribeTopicFilterLengths(subscribe, true));
+            }
+            case SUBACK:
+                return subAckRemainingLength((MqttV311SubAckPacket) packet);
+            case UNSUBSCRIBE: {
+                MqttV311UnsubscribePacket unsubscribe = (MqttV311UnsubscribePacket) packet;
+                return unsubscribeRemainingLength(unsubscribe, unsubscribeTopicFilterLengths(unsubscribe, true));
+            }
             case CONNACK:
-                return encodeConnAck(byteBufAllocator, (MqttV311ConnAckPacket) packet);
-            case PUBLISH:
-                return encodePublish(byteBufAllocator, (MqttV311PublishPacket) packet);
             case PUBACK:
-                return encodePubAck(byteBufAllocator, (MqttV311PubAckPacket) packet);
-            case SUBSCRIBE:
-                return encodeSubscribe(byteBufAllocator, (MqttV311SubscribePacket) packet);
-            case SUBACK:
-                return encodeSubAck(byteBufAllocator, (MqttV311SubAckPacket) packet);
-            case UNSUBSCRIBE:
-                return encodeUnsubscribe(byteBufAllocator, (MqttV311UnsubscribePacket) packet);
+            case PUBREC:
+            case PUBREL:
+            case PUBCOMP:
             case UNSUBACK:
-                return encodeUnsubAck(byteBufAllocator, (MqttV311UnsubAckPacket) packet);
+                return 2;
             case PINGREQ:
-                return encodePingReq(byteBufAllocator, (MqttV311PingReqPacket) packet);
             case PINGRESP:
-                return encodePingResp(byteBufAllocator, (MqttV311PingRespPacket) packet);
             case DISCONNECT:
-                return encodeDisconnect(byteBufAllocator, (MqttV311DisconnectPacket) packet);
+                return 0;
             default:
                 throw new EncoderException("Unknown message type");
         }
     }
 
-    private static ByteBuf encodeConnect(ByteBufAllocator byteBufAllocator, MqttV311ConnectPacket packet) {
-        Objects.requireNonNull(packet);
-        int variableHeaderSize = 2 + PROTOCOL_NAME_BYTES.length + 1 + 1 + 2;
+    // the cached lengths if they were measured from these very strings, otherwise null
+    private static int[] cachedStringLengths(MqttV311Packet packet, String[] strings) {
+        MqttV311StringLengths cached = packet.stringLengths;
+        if (cached == null || cached.size() != strings.length) {
+            return null;
+        }
+        for (int i = 0; i < strings.length; i++) {
+            if (!cached.isFor(i, strings[i])) {
+                return null;
+            }
+        }
+        return cached.lengths;
+    }
 
-        byte[] clientIdBytes = MqttV311ValidationUtils.validateAndEncodeString(packet.getClientId(), "client id");
-        int clientIdSize = 2 + clientIdBytes.length;
+    // UTF-8 lengths of client id, will topic and username
+    private static int[] connectStringLengths(MqttV311ConnectPacket packet, boolean cache) {
+        MqttV311Will will = packet.getWill();
+        String[] strings = {packet.getClientId(), will != null ? will.getTopic() : null, packet.getUsername()};
+        int[] stringLengths = cachedStringLengths(packet, strings);
+        if (stringLengths != null) {
+            return stringLengths;
+        }
+        stringLengths = new int[3];
+        stringLengths[0] = MqttUtf8Utils.utf8Length(strings[0], "client id");
+        if (will != null) {
+            stringLengths[1] = MqttUtf8Utils.utf8Length(strings[1], "will topic");
+        }
+        if (strings[2] != null) {
+            stringLengths[2] = MqttUtf8Utils.utf8Length(strings[2], "username");
+        }
+        if (cache) {
+            packet.stringLengths = new MqttV311StringLengths(strings, stringLengths);
+        }
+        return stringLengths;
+    }
 
-        int willSize = 0;
-        byte[] willTopicBytes = null;
-        byte[] willMessage = null;
+    private static int connectRemainingLength(MqttV311ConnectPacket packet, int[] stringLengths) {
+        int size = 2 + PROTOCOL_NAME_BYTES.length + 1 + 1 + 2;
+
+        size += 2 + stringLengths[0];
 
-        // will
         MqttV311Will will = packet.getWill();
         if (will != null) {
-            willTopicBytes = MqttV311ValidationUtils.validateAndEncodeString(will.getTopic(), "will topic");
-            willMessage = MqttV311ValidationUtils.requireNonNull(will.getMessage(), "will message");
-            willSize += (2 + willTopicBytes.length);
-            willSize += (2 + willMessage.length);
+            size += 2 + stringLengths[1];
+            size += 2 + MqttV311ValidationUtils.requireNonNull(will.getMessage(), "will message").length;
         }
 
-        // username and password
-
-        int usernamePasswordSize = 0;
-        byte[] usernameBytes = null;
-        byte[] passwordBytes = null;
-        String username = packet.getUsername();
-        byte[] password = packet.getPassword();
-        if (username != null) {
-            usernameBytes = MqttV311ValidationUtils.validateAndEncodeString(username, "username");
-            usernamePasswordSize += (2 + usernameBytes.length);
-            if (password != null) {
-                passwordBytes = MqttV311ValidationUtils.validateByteArray(packet.getPassword(), "password");
-                usernamePasswordSize += (2 + passwordBytes.length);
+        if (packet.getUsername() != null) {
+            size += 2 + stringLengths[2];
+            if (packet.getPassword() != null) {
+                size += 2 + MqttV311ValidationUtils.validateByteArray(packet.getPassword(), "password").length;
             }
         } else {
             MqttV311ValidationUtils.requireNull(packet.getPassword(), "password");
         }
+        return size;
+    }
+
+    private static int publishTopicLength(MqttV311PublishPacket packet) {
+        MqttV311Topic preparedTopic = packet.preparedTopic();
+        if (preparedTopic != null) {
+            return preparedTopic.encodedSize() - 2;
+        }
+        String topic = packet.getTopic();
+        int topicLength = cachedTopicLength(packet, topic);
+        if (topicLength < 0) {
+            topicLength = MqttUtf8Utils.topicNameUtf8Length(topic);
+            packet.stringLengths = new MqttV311StringLengths(new String[]{topic}, new int[]{topicLength});
+        }
+        return topicLength;
+    }
+
+    // the cached length if the packet was sized with this topic, otherwise -1
+    private static int cachedTopicLength(MqttV311PublishPacket packet, String topic) {
+        MqttV311StringLengths cached = packet.stringLengths;
+        return cached != null && cached.isFor(0, topic) ? cached.lengths[0] : -1;
+    }
+
+    private static int publishRemainingLength(MqttV311PublishPacket packet, int topicLength) {
+        int payloadSize = packet.hasPayloadBuffer()
+            ? packet.getPayloadBuffer().readableBytes()
+            : MqttV311ValidationUtils.requireNonNull(packet.getPayload(), "payload").length;
+        return 2 + topicLength + publishPacketIdSize(packet) + payloadSize;
+    }
+
+    private static int publishPacketIdSize(MqttV311PublishPacket packet) {
+        return packet.getQosLevel() == MqttV311QosLevel.AT_LEAST_ONCE
+            || packet.getQosLevel() == MqttV311QosLevel.EXACTLY_ONCE ? 2 : 0;
+    }
+
+    private static int[] subscribeTopicFilterLengths(MqttV311SubscribePacket packet, boolean cache) {
+        List<MqttV311TopicAndQosLevel> topicAndQosLevels =
+            MqttV311ValidationUtils.requireNonNull(packet.getTopicAndQosLevels(), "topic and qos list");
+        if (topicAndQosLevels.isEmpty()) {
+            throw new EncoderException(
+                "[MQTT-3.8.3-3] The payload of a SUBSCRIBE packet MUST contain at least one Topic Filter / QoS pair");
+        }
+        String[] topicFilters = new String[topicAndQosLevels.size()];
+        for (int i = 0; i < topicFilters.length; i++) {
+            topicFilters[i] = topicAndQosLevels.get(i).getTopicFilter();
+        }
+        int[] topicFilterLengths = cachedStringLengths(packet, topicFilters);
+        if (topicFilterLengths != null) {
+            return topicFilterLengths;
+        }
+        topicFilterLengths = new int[topicFilters.length];
+        for (int i = 0; i < topicFilters.length; i++) {
+            topicFilterLengths[i] = MqttUtf8Utils.topicFilterUtf8Length(topicFilters[i]);
+        }
+        if (cache) {
+            packet.stringLengths = new MqttV311StringLengths(topicFilters, topicFilterLengths);
+        }
+        return topicFilterLengths;
+    }
 
-        int variablePartSize = variableHeaderSize + clientIdSize + willSize + usernamePasswordSize;
-        int fixedHeaderSize = 1 + getAndValidateVariablePartLengthSize(variableHeaderSize + variablePartSize);
+    private static int subscribeRemainingLength(MqttV311SubscribePacket packet, int[] topicFilterLengths) {
+        List<MqttV311TopicAndQosLevel> topicAndQosLevels = packet.getTopicAndQosLevels();
+        int size = 2;
+        for (int i = 0; i < topicFilterLengths.length; i++) {
+            if (topicAndQosLevels.get(i).getQosLevel() == MqttV311QosLevel.FAILURE) {
+                throw new EncoderException("[MQTT-3.3.1-4] PUBLISH Packet MUST NOT have both QoS bits set to 1");
+            }
+            size += (2 + topicFilterLengths[i] + 1);
+        }
+        return size;
+    }
 
-        ByteBuf buf = byteBufAllocator.buffer(fixedHeaderSize + variablePartSize);
+    private static int subAckRemainingLength(MqttV311SubAckPacket packet) {
+        return 2 + packet.getQosLevels().size();
+    }
+
+    private static int[] unsubscribeTopicFilterLengths(MqttV311UnsubscribePacket packet, boolean cache) {
+        String[] topicFilters = packet.getTopicFilters().toArray(new String[0]);
+        int[] topicFilterLengths = cachedStringLengths(packet, topicFilters);
+        if (topicFilterLengths != null) {
+            return topicFilterLengths;
+        }
+        topicFilterLengths = new int[topicFilters.length];
+        for (int i = 0; i < topicFilters.length; i++) {
+            topicFilterLengths[i] = MqttUtf8Utils.utf8Length(topicFilters[i], "topic filter");
+        }
+        if (cache) {
+            packet.stringLengths = new MqttV311StringLengths(topicFilters, topicFilterLengths);
+        }
+        return topicFilterLengths;
+    }
+
+    private static int unsubscribeRemainingLength(MqttV311UnsubscribePacket packet, int[] topicFilterLengths) {
+        int size = 2;
+        for (int topicFilterLength : topicFilterLengths) {
+            size += (2 + topicFilterLength);
+        }
+        return size;
+    }
+
+    // writes into out if it is not null, otherwise into a new buffer of the exact frame size
+    private static ByteBuf encode(ByteBufAllocator byteBufAllocator, ByteBuf out, MqttV311Packet packet) {
+        switch (packet.getType()) {
+            case CONNECT:
+                return encodeConnect(byteBufAllocator, out, (MqttV311ConnectPacket) packet);
+            case CONNACK:
+                return encodeConnAck(byteBufAllocator, out, (MqttV311ConnAckPacket) packet);
+            case PUBLISH:
+                return encodePublish(byteBufAllocator, out, (MqttV311PublishPacket) packet);
+            case PUBACK:
+                return encodePubAck(byteBufAllocator, out, (MqttV311PubAckPacket) packet);
+            case PUBREC:
+                return encodePubRec(byteBufAllocator, out, (MqttV311PubRecPacket) packet);
+            case PUBREL:
+                return encodePubRel(byteBufAllocator, out, (MqttV311PubRelPacket) packet);
+            case PUBCOMP:
+                return encodePubComp(byteBufAllocator, out, (MqttV311PubCompPacket) packet);
+            case SUBSCRIBE:
+                return encodeSubscribe(byteBufAllocator, out, (MqttV311SubscribePacket) packet);
+            case SUBACK:
+                return encodeSubAck(byteBufAllocator, out, (MqttV311SubAckPacket) packet);
+            case UNSUBSCRIBE:
+                return encodeUnsubscribe(byteBufAllocator, out, (MqttV311UnsubscribePacket) packet);
+            case UNSUBACK:
+                return encodeUnsubAck(byteBufAllocator, out, (MqttV311UnsubAckPacket) packet);
+            case PINGREQ:
+                return encodePingReq(byteBufAllocator, out, (MqttV311PingReqPacket) packet);
+            case PINGRESP:
+                return encodePingResp(byteBufAllocator, out, (MqttV311PingRespPacket) packet);
+            case DISCONNECT:
+                return encodeDisconnect(byteBufAllocator, out, (MqttV311DisconnectPacket) packet);
+            default:
+                throw new EncoderException("Unknown message type");
+        }
+    }
+
+    private static ByteBuf encodeConnect(ByteBufAllocator byteBufAllocator, ByteBuf out, MqttV311ConnectPacket packet) {
+        Objects.requireNonNull(packet);
+        int[] stringLengths = connectStringLengths(packet, false);
+        int variablePartSize = connectRemainingLength(packet, stringLengths);
+        int fixedHeaderSize = 1 + getAndValidateVariablePartLengthSize(variablePartSize);
+
+        ByteBuf buf = target(byteBufAllocator, out, fixedHeaderSize + variablePartSize);
 
         // first byte
         buf.writeByte(0x10);
@@ -126,6 +352,9 @@ public class MqttV311Encoder extends MessageToMessageEncoder<MqttV311Packet> {
         // protocol level
         buf.writeByte(4);
 
+        MqttV311Will will = packet.getWill();
+        String username = packet.getUsername();
+        byte[] password = packet.getPassword();
         int b = 0;
         if (packet.isCleanSession()) {
             b |= 0x02;
@@ -150,84 +379,88 @@ public class MqttV311Encoder extends MessageToMessageEncoder<MqttV311Packet> {
         }
         buf.writeShort(packet.getKeepAliveSeconds());
 
-        if (packet.getClientId().length() > 65535) {
-            throw new EncoderException("invalid client id");
-        }
-        writeStringBytes(buf, clientIdBytes, "client id");
+        MqttUtf8Utils.writeString(buf, packet.getClientId(), stringLengths[0]);
 
         if (will != null) {
-            writeStringBytes(buf, willTopicBytes, "will topic");
-            writeByteArray(buf, willMessage, "will message");
+            MqttUtf8Utils.writeString(buf, will.getTopic(), stringLengths[1]);
+            writeByteArray(buf, will.getMessage(), "will message");
         }
-        if (usernameBytes != null) {
-            writeStringBytes(buf, usernameBytes, "username");
+        if (username != null) {
+            MqttUtf8Utils.writeString(buf, username, stringLengths[2]);
         }
-        if (passwordBytes != null) {
-            writeByteArray(buf, passwordBytes, "password");
+        if (password != null) {
+            writeByteArray(buf, password, "password");
         }
 
         return buf;
     }
 
-    private static ByteBuf encodePingReq(ByteBufAllocator byteBufAllocator, MqttV311PingReqPacket packet) {
+    private static ByteBuf encodePingReq(ByteBufAllocator byteBufAllocator, ByteBuf out, MqttV311PingReqPacket packet) {
         Objects.requireNonNull(packet);
-        ByteBuf buf = byteBufAllocator.buffer(2);
-        buf.writeByte(0xC0);
-        buf.writeByte(0);
-        return buf;
+        return writeConstantFrame(out, PINGREQ_FRAME);
     }
 
-    private static ByteBuf encodeSubscribe(ByteBufAllocator byteBufAllocator, MqttV311SubscribePacket packet) {
+    private static ByteBuf encodeSubscribe(ByteBufAllocator byteBufAllocator, ByteBuf out,
+        MqttV311SubscribePacket packet) {
         Objects.requireNonNull(packet);
-
-        LinkedList<byte[]> topicFilterBytesList = new LinkedList<>();
-        int variablePartSize = 2;
-        int payloadCount = 0;
-        for (MqttV311TopicAndQosLevel payload :
-            MqttV311ValidationUtils.requireNonNull(packet.getTopicAndQosLevels(), "topic and qos list")) {
-            byte[] topicFilterBytes =
-                MqttV311ValidationUtils.validateAndEncodeTopicFilter(payload.getTopicFilter());
-            if (payload.getQosLevel() == MqttV311QosLevel.FAILURE) {
-                throw new EncoderException("[MQTT-3.3.1-4] PUBLISH Packet MUST NOT have both QoS bits set to 1");
-            }
-            topicFilterBytesList.add(topicFilterBytes);
-            variablePartSize += (2 + topicFilterBytes.length + 1);
-            payloadCount++;
-        }
-        if (payloadCount == 0) {
-            throw new EncoderException(
-                "[MQTT-3.8.3-3] The payload of a SUBSCRIBE packet MUST contain at least one Topic Filter / QoS pair");
-        }
+        int[] topicFilterLengths = subscribeTopicFilterLengths(packet, false);
+        int variablePartSize = subscribeRemainingLength(packet, topicFilterLengths);
         int fixedHeaderSize = 1 + getAndValidateVariablePartLengthSize(variablePartSize);
-        ByteBuf buf = byteBufAllocator.buffer(fixedHeaderSize + variablePartSize);
+        ByteBuf buf = target(byteBufAllocator, out, fixedHeaderSize + variablePartSize);
 
         buf.writeByte(0x82);
         writeVariablePartLength(buf, variablePartSize);
 
         buf.writeShort(MqttV311ValidationUtils.validatePacketId(packet.getPacketId()));
 
-        for (int i = 0; i < packet.getTopicAndQosLevels().size(); i++) {
-            MqttV311TopicAndQosLevel payload = packet.getTopicAndQosLevels().get(i);
-            byte[] topicFilterBytes = topicFilterBytesList.get(i);
-
-            writeStringBytes(buf, topicFilterBytes, "topic filter");
+        List<MqttV311TopicAndQosLevel> topicAndQosLevels = packet.getTopicAndQosLevels();
+        for (int i = 0; i < topicFilterLengths.length; i++) {
+            MqttV311TopicAndQosLevel payload = topicAndQosLevels.get(i);
+            MqttUtf8Utils.writeString(buf, payload.getTopicFilter(), topicFilterLengths[i]);
             buf.writeByte(payload.getQosLevel().ordinal());
         }
         return buf;
     }
 
-    private static ByteBuf encodePublish(ByteBufAllocator byteBufAllocator, MqttV311PublishPacket packet) {
+    private static ByteBuf encodePublish(ByteBufAllocator byteBufAllocator, ByteBuf out, MqttV311PublishPacket packet) {
         Objects.requireNonNull(packet);
-        byte[] topicBytes = MqttV311ValidationUtils.validateAndEncodeTopicName(packet.getTopic());
-        MqttV311ValidationUtils.requireNonNull(packet.getPayload(), "payload");
-
-        int variablePartSize = 2 + topicBytes.length + packet.getPayload().length;
-        if (packet.getQosLevel() == MqttV311QosLevel.AT_LEAST_ONCE
-            || packet.getQosLevel() == MqttV311QosLevel.EXACTLY_ONCE) {
-            variablePartSize += 2;
+        MqttV311Topic preparedTopic = packet.preparedTopic();
+        if (preparedTopic != null) {
+            return encodePublish(byteBufAllocator, out, packet,
+                publishRemainingLength(packet, preparedTopic.encodedSize() - 2), false);
+        }
+        String topic = MqttV311ValidationUtils.requireNonNull(packet.getTopic(), "topic name");
+        int topicLength = cachedTopicLength(packet, topic);
+        if (topicLength < 0) {
+            // first assume an ASCII topic name, which is then validated while it is written
+            int writerIndex = out != null ? out.writerIndex() : 0;
+            ByteBuf buf = encodePublish(byteBufAllocator, out, packet, publishRemainingLength(packet, topic.length()),
+                true);
+            if (buf != null) {
+                return buf;
+            }
+            if (out != null) {
+                out.writerIndex(writerIndex);
+            }
+            topicLength = MqttUtf8Utils.topicNameUtf8Length(topic);
         }
+        return encodePublish(byteBufAllocator, out, packet, publishRemainingLength(packet, topicLength), false);
+    }
+
+    // returns null, after releasing the buffer it allocated, if asciiTopic is set and the topic name is not ASCII
+    private static ByteBuf encodePublish(ByteBufAllocator byteBufAllocator, ByteBuf out, MqttV311PublishPacket packet,
+        int variablePartSize, boolean asciiTopic) {
+        MqttV311Topic preparedTopic = packet.preparedTopic();
+        ByteBuf payloadBuffer = packet.hasPayloadBuffer() ? packet.getPayloadBuffer() : null;
+        int payloadSize = payloadBuffer != null ? payloadBuffer.readableBytes() : packet.getPayload().length;
+        int headerSize = variablePartSize - payloadSize;
+        int topicLength = headerSize - 2 - publishPacketIdSize(packet);
+
         int fixedHeaderSize = 1 + getAndValidateVariablePartLengthSize(variablePartSize);
-        ByteBuf buf = byteBufAllocator.buffer(fixedHeaderSize + variablePartSize);
+        headerSize += fixedHeaderSize;
+        // a payload buffer is appended as a composite component unless writing into a supplied buffer
+        ByteBuf buf = target(byteBufAllocator, out,
+            payloadBuffer != null && out == null ? headerSize : headerSize + payloadSize);
         int b = 0;
         b |= 0x30;
         if (packet.isRetain()) {
@@ -239,113 +472,171 @@ public class MqttV311Encoder extends MessageToMessageEncoder<MqttV311Packet> {
         }
         buf.writeByte(b);
         writeVariablePartLength(buf, variablePartSize);
-        writeStringBytes(buf, topicBytes, "topic name");
-        if (packet.getPacketId() != null) {
+        if (preparedTopic != null) {
+            preparedTopic.writeTo(buf);
+        } else if (!asciiTopic) {
+            MqttUtf8Utils.writeString(buf, packet.getTopic(), topicLength);
+        } else if (!MqttUtf8Utils.writeAsciiTopicName(buf, packet.getTopic())) {
+            if (out == null) {
+                buf.release();
+            }
+            return null;
+        }
+        if (packet.packetIdValue() != MqttV311PublishPacket.NO_PACKET_ID) {
             if (packet.getQosLevel() == MqttV311QosLevel.AT_LEAST_ONCE || packet.getQosLevel() == MqttV311QosLevel.EXACTLY_ONCE) {
-                buf.writeShort(MqttV311ValidationUtils.validatePacketId(packet.getPacketId()));
+                buf.writeShort(MqttV311ValidationUtils.validatePacketId(packet.packetIdValue()));
             } else {
                 throw new EncoderException("PacketId is only present in PUBLISH Packets where the QoS level is 1 or 2");
             }
         }
-        log.debug("payload: {}", packet.getPayload());
+        if (payloadBuffer != null) {
+            if (out != null) {
+                buf.writeBytes(payloadBuffer, payloadBuffer.readerIndex(), payloadSize);
+                return buf;
+            }
+            // the payload is not copied, the frame is the header followed by a retained view of the payload
+            return byteBufAllocator.compositeBuffer(2)
+                .addComponents(true, buf, payloadBuffer.retainedDuplicate());
+        }
         buf.writeBytes(packet.getPayload());
         return buf;
     }
 
-    private static ByteBuf encodePubAck(ByteBufAllocator byteBufAllocator, MqttV311PubAckPacket packet) {
+    private static ByteBuf encodePubAck(ByteBufAllocator byteBufAllocator, ByteBuf out, MqttV311PubAckPacket packet) {
         Objects.requireNonNull(packet);
-        ByteBuf buf = byteBufAllocator.buffer(4);
+        ByteBuf buf = target(byteBufAllocator, out, 4);
         buf.writeByte(0x40);
         buf.writeByte(0x02);
         buf.writeShort(packet.getPacketId());
         return buf;
     }
 
+    private static ByteBuf encodePubRec(ByteBufAllocator byteBufAllocator, ByteBuf out, MqttV311PubRecPacket packet) {
+        Objects.requireNonNull(packet);
+        ByteBuf buf = target(byteBufAllocator, out, 4);
+        buf.writeByte(0x50);
+        buf.writeByte(0x02);
+        buf.writeShort(packet.getPacketId());
+        return buf;
+    }
 
-    private static ByteBuf encodeDisconnect(ByteBufAllocator byteBufAllocator, MqttV311DisconnectPacket packet) {
+    private static ByteBuf encodePubRel(ByteBufAllocator byteBufAllocator, ByteBuf out, MqttV311PubRelPacket packet) {
         Objects.requireNonNull(packet);
-        ByteBuf buf = byteBufAllocator.buffer(2);
-        buf.writeByte(0xE0);
-        buf.writeByte(0);
+        ByteBuf buf = target(byteBufAllocator, out, 4);
+        // [MQTT-3.6.1-1] bits 3,2,1 and 0 of the fixed header are reserved and MUST be set to 0,0,1 and 0
+        buf.writeByte(0x62);
+        buf.writeByte(0x02);
+        buf.writeShort(packet.getPacketId());
         return buf;
     }
 
-    private static ByteBuf encodeConnAck(ByteBufAllocator byteBufAllocator, MqttV311ConnAckPacket packet) {
+    private static ByteBuf encodePubComp(ByteBufAllocator byteBufAllocator, ByteBuf out,
+        MqttV311PubCompPacket packet) {
         Objects.requireNonNull(packet);
-        ByteBuf buf = byteBufAllocator.buffer(4);
-        buf.writeByte(0x20);
+        ByteBuf buf = target(byteBufAllocator, out, 4);
+        buf.writeByte(0x70);
         buf.writeByte(0x02);
+        buf.writeShort(packet.getPacketId());
+        return buf;
+    }
+
+
+    private static ByteBuf encodeDisconnect(ByteBufAllocator byteBufAllocator, ByteBuf out,
+        MqttV311DisconnectPacket packet) {
+        Objects.requireNonNull(packet);
+        return writeConstantFrame(out, DISCONNECT_FRAME);
+    }
+
+    private static ByteBuf encodeConnAck(ByteBufAllocator byteBufAllocator, ByteBuf out, MqttV311ConnAckPacket packet) {
+        Objects.requireNonNull(packet);
         if (packet.getConnectReturnCode() != MqttV311ConnectReturnCode.CONNECTION_ACCEPTED
             && packet.isSessionPresent()) {
             throw new EncoderException(
                 "[MQTT-3.2.2-4] CONNACK packet containing a non-zero return code it MUST set Session Present to 0");
         }
         if (packet.isSessionPresent()) {
-            buf.writeByte(0x01);
-        } else {
-            buf.writeByte(0);
+            return writeConstantFrame(out, CONNACK_SESSION_PRESENT_FRAME);
         }
-        buf.writeByte(packet.getConnectReturnCode().byteValue());
-        return buf;
+        return writeConstantFrame(out, CONNACK_FRAMES[packet.getConnectReturnCode().byteValue()]);
     }
 
-    private static ByteBuf encodeSubAck(ByteBufAllocator byteBufAllocator, MqttV311SubAckPacket packet) {
+    private static ByteBuf encodeSubAck(ByteBufAllocator byteBufAllocator, ByteBuf out, MqttV311SubAckPacket packet) {
         Objects.requireNonNull(packet);
-        int variablePartSize = 2 + packet.getQosLevels().size();
+        int variablePartSize = subAckRemainingLength(packet);
         int fixedHeaderSize = 1 + getAndValidateVariablePartLengthSize(variablePartSize);
 
-        ByteBuf buf = byteBufAllocator.buffer(fixedHeaderSize + variablePartSize);
+        ByteBuf buf = target(byteBufAllocator, out, fixedHeaderSize + variablePartSize);
         buf.writeByte(0x90);
         writeVariablePartLength(buf, variablePartSize);
         buf.writeShort(packet.getPacketId());
         for (MqttV311QosLevel qos : packet.getQosLevels()) {
-            buf.writeByte(qos.ordinal());
+            buf.writeByte(qos.value());
         }
         return buf;
     }
 
-    private static ByteBuf encodeUnsubscribe(ByteBufAllocator byteBufAllocator, MqttV311UnsubscribePacket packet) {
+    private static ByteBuf encodeUnsubscribe(ByteBufAllocator byteBufAllocator, ByteBuf out,
+        MqttV311UnsubscribePacket packet) {
         Objects.requireNonNull(packet);
-        int variablePartSize = 2;
-
-        LinkedList<byte[]> topicFilterBytes = new LinkedList<>();
-        for (String topicFilter : packet.getTopicFilters()) {
-            byte[] bytes = MqttV311ValidationUtils.validateAndEncodeString(topicFilter, "topic filter");
-            variablePartSize += (2 + bytes.length);
-            topicFilterBytes.add(bytes);
-        }
+        int[] topicFilterLengths = unsubscribeTopicFilterLengths(packet, false);
+        int variablePartSize = unsubscribeRemainingLength(packet, topicFilterLengths);
 
         int fixedHeaderSize = 1 + getAndValidateVariablePartLengthSize(variablePartSize);
-        ByteBuf buf = byteBufAllocator.buffer(fixedHeaderSize + variablePartSize);
+        ByteBuf buf = target(byteBufAllocator, out, fixedHeaderSize + variablePartSize);
         buf.writeByte(0xA2);
         writeVariablePartLength(buf, variablePartSize);
         buf.writeShort(packet.getPacketId());
-        for (byte[] bytes : topicFilterBytes) {
-            writeStringBytes(buf, bytes, "topic filter");
+        List<String> topicFilters = packet.getTopicFilters();
+        for (int i = 0; i < topicFilterLengths.length; i++) {
+            MqttUtf8Utils.writeString(buf, topicFilters.get(i), topicFilterLengths[i]);
         }
         return buf;
     }
 
-    private static ByteBuf encodeUnsubAck(ByteBufAllocator byteBufAllocator, MqttV311UnsubAckPacket packet) {
+    private static ByteBuf encodeUnsubAck(ByteBufAllocator byteBufAllocator, ByteBuf out,
+        MqttV311UnsubAckPacket packet) {
         Objects.requireNonNull(packet);
-        ByteBuf buf = byteBufAllocator.buffer(4);
+        ByteBuf buf = target(byteBufAllocator, out, 4);
         buf.writeByte(0xB0);
         buf.writeByte(0x02);
         buf.writeShort(packet.getPacketId());
         return buf;
     }
 
-    private static ByteBuf encodePingResp(ByteBufAllocator byteBufAllocator, MqttV311PingRespPacket packet) {
+    private static ByteBuf encodePingResp(ByteBufAllocator byteBufAllocator, ByteBuf out,
+        MqttV311PingRespPacket packet) {
         Objects.requireNonNull(packet);
-        ByteBuf buf = byteBufAllocator.buffer(2);
-        buf.writeByte(0xD0);
-        buf.writeByte(0);
-        return buf;
+        return writeConstantFrame(out, PINGRESP_FRAME);
     }
 
     // ---------------------------------------------------------------------------------
 
-    private static void writeVariablePartLength(ByteBuf buf, int num) {
+    private static ByteBuf constantFrame(int... bytes) {
+        // pooled, so that retainedDuplicate() takes its duplicate from a recycler instead of allocating one
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(bytes.length, bytes.length);
+        for (int b : bytes) {
+            buf.writeByte(b);
+        }
+        // the duplicates share this count, a stray extra release of one must never free the frame
+        return buf.retain(1 << 20);
+    }
+
+    private static ByteBuf writeConstantFrame(ByteBuf out, ByteBuf frame) {
+        if (out == null) {
+            // the transport moves the reader index of what it writes, so the frame itself is never passed on
+            return frame.retainedDuplicate();
+        }
+        return out.writeBytes(frame, frame.readerIndex(), frame.readableBytes());
+    }
+
+    private static ByteBuf target(ByteBufAllocator byteBufAllocator, ByteBuf out, int frameSize) {
+        if (out != null) {
+            return out.ensureWritable(frameSize);
+        }
+        return byteBufAllocator.buffer(frameSize);
+    }
+
+    static void writeVariablePartLength(ByteBuf buf, int num) {
         do {
             int digit = num % 128;
             num /= 128;
@@ -368,7 +659,7 @@ public class MqttV311Encoder extends MessageToMessageEncoder<MqttV311Packet> {
         buf.writeBytes(bytes);
     }
 
-    private static int getAndValidateVariablePartLengthSize(int num) {
+    static int getAndValidateVariablePartLengthSize(int num) {
         int count = 0;
         do {
             num /= 128;
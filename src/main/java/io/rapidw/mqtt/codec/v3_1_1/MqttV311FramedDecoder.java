@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.DecoderException;
+import io.rapidw.mqtt.codec.utils.DecoderUtils;
+
+import java.util.List;
+
+/**
+ * A {@link ByteToMessageDecoder} based alternative to {@link MqttV311Decoder}.
+ * <p>
+ * The fixed header is peeked first, then the decoder waits until the whole packet is buffered and parses it
+ * exactly once. Unlike the {@link io.netty.handler.codec.ReplayingDecoder} based decoder, a packet arriving in many
+ * reads is not re-parsed on every read. Both decoders produce the same packets and can be swapped in the pipeline.
+ */
+public class MqttV311FramedDecoder extends ByteToMessageDecoder {
+
+    private final MqttV311PacketReader reader;
+    private final MqttV311PacketBatch batch;
+    private MqttV311Decoder.DecoderState state = MqttV311Decoder.DecoderState.READ_FIXED_HEADER;
+    private boolean discarding;
+
+    public MqttV311FramedDecoder() {
+        this(MqttV311DecoderConfig.DEFAULT);
+    }
+
+    public MqttV311FramedDecoder(MqttV311DecoderConfig config) {
+        this.reader = new MqttV311PacketReader(config);
+        this.batch = config.isBatching() ? new MqttV311PacketBatch() : null;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        try {
+            super.channelRead(ctx, msg);
+        } finally {
+            if (batch != null) {
+                batch.fire(ctx);
+            }
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        if (batch == null) {
+            super.channelReadComplete(ctx);
+            return;
+        }
+        discardSomeReadBytes();
+        batch.readComplete(ctx);
+    }
+
+    @Override
+    protected void decodeLast(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        super.decodeLast(ctx, in, out);
+        if (batch != null && !batch.isEmpty()) {
+            out.add(batch.drain());
+        }
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (discarding) {
+            // a previous packet failed to decode, the rest of the stream cannot be framed anymore
+            in.skipBytes(in.readableBytes());
+            return;
+        }
+        try {
+            decodePacket(in, out);
+        } catch (RuntimeException e) {
+            discarding = true;
+            throw e;
+        }
+    }
+
+    private void decodePacket(ByteBuf in, List<Object> out) {
+        switch (state) {
+            case READ_FIXED_HEADER:
+                MqttV311Packet fixedSizePacket = reader.readFixedSizePacket(in, in.readableBytes());
+                if (fixedSizePacket != null) {
+                    emit(out, fixedSizePacket);
+                    break;
+                }
+                if (!in.isReadable(2)
+                    || DecoderUtils.peekRemainingLengthSize(in, in.readerIndex() + 1) == 0) {
+                    return;
+                }
+                reader.readFixedHeader(in);
+                state = MqttV311Decoder.DecoderState.READ_VARIABLE_HEADER;
+            case READ_VARIABLE_HEADER:
+                reader.peekVariableHeader(in);
+                if (!reader.isChunked()) {
+                    if (in.readableBytes() < reader.remainingLength()) {
+                        return;
+                    }
+                    // parsed in place rather than from a slice, so that small packets are decoded without garbage
+                    int frameEnd = in.readerIndex() + reader.remainingLength();
+                    reader.readVariableHeader(in);
+                    MqttV311Packet packet = reader.readPayload(in);
+                    if (in.readerIndex() != frameEnd) {
+                        throw new DecoderException("invalid " + packet.getType() + " remaining length");
+                    }
+                    state = MqttV311Decoder.DecoderState.READ_FIXED_HEADER;
+                    emit(out, packet);
+                    break;
+                }
+                int variableHeaderSize = reader.peekPublishVariableHeaderSize(in);
+                if (variableHeaderSize < 0 || in.readableBytes() < variableHeaderSize) {
+                    return;
+                }
+                reader.readVariableHeader(in);
+                emit(out, reader.readPayload(in));
+                state = MqttV311Decoder.DecoderState.READ_PAYLOAD;
+            case READ_PAYLOAD:
+                MqttV311PublishChunk chunk = reader.readPayloadChunk(in, in.readableBytes());
+                if (chunk != null) {
+                    if (chunk.isLast()) {
+                        state = MqttV311Decoder.DecoderState.READ_FIXED_HEADER;
+                    }
+                    emit(out, chunk);
+                }
+                break;
+        }
+    }
+
+    private void emit(List<Object> out, Object message) {
+        if (batch != null) {
+            batch.add(message);
+        } else {
+            out.add(message);
+        }
+    }
+}
@@ -22,6 +22,9 @@ public class MqttV311Packet {
 
     protected MqttV311PacketType type;
 
+    // set by MqttV311Encoder.encodedSize and reused when the packet is encoded, cleared by the setters
+    MqttV311StringLengths stringLengths;
+
     public MqttV311PacketType getType() {
         return type;
     }
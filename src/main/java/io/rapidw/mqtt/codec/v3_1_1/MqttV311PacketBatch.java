@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.channel.ChannelHandlerContext;
+
+import java.util.ArrayList;
+
+/**
+ * All messages decoded from one inbound buffer, emitted by a decoder configured with
+ * {@link MqttV311DecoderConfig#isBatching()}. A message is either a {@link MqttV311Packet} or a
+ * {@link MqttV311PublishChunk}.
+ * <p>
+ * The decoder reuses the same batch for every read and clears it once {@code fireChannelRead} returns, so a
+ * handler must not keep a reference to the batch itself, only to its elements. See {@link MqttV311BatchHandler}.
+ */
+public class MqttV311PacketBatch {
+
+    private final ArrayList<Object> messages = new ArrayList<>();
+    private boolean fired;
+
+    MqttV311PacketBatch() {
+    }
+
+    public int size() {
+        return this.messages.size();
+    }
+
+    public boolean isEmpty() {
+        return this.messages.isEmpty();
+    }
+
+    public Object get(int index) {
+        return this.messages.get(index);
+    }
+
+    void add(Object message) {
+        this.messages.add(message);
+    }
+
+    void fire(ChannelHandlerContext ctx) {
+        if (!this.messages.isEmpty()) {
+            this.fired = true;
+            try {
+                ctx.fireChannelRead(this);
+            } finally {
+                this.messages.clear();
+            }
+        }
+    }
+
+    /**
+     * Completes a read of the decoder. Batches are fired outside of the decoder output, so the decoder cannot leave
+     * this to {@link io.netty.handler.codec.ByteToMessageDecoder#channelReadComplete}. That method would take the
+     * empty output for a read that decoded nothing and request another read, even with auto read off.
+     */
+    void readComplete(ChannelHandlerContext ctx) {
+        if (!this.fired && !ctx.channel().config().isAutoRead()) {
+            ctx.read();
+        }
+        this.fired = false;
+        ctx.fireChannelReadComplete();
+    }
+
+    /**
+     * Moves the messages to a new batch, for when the batch is not fired synchronously.
+     */
+    MqttV311PacketBatch drain() {
+        MqttV311PacketBatch batch = new MqttV311PacketBatch();
+        batch.messages.addAll(this.messages);
+        this.messages.clear();
+        return batch;
+    }
+
+    @Override
+    public String toString() {
+        return "MqttV311PacketBatch(messages=" + this.messages + ")";
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Shared immutable packets indexed by packet id, for the packet types that carry nothing but a packet id. The ids
+ * are split into 256 pages of 256, and a page is only allocated once one of its ids is first seen. A page holding
+ * all of its packets takes about 7 KiB with compressed oops. Pages are never freed, so a peer that cycles through
+ * every packet id ends up with all of them, about 1.75 MiB per packet type.
+ *
+ * @param <P> the packet type
+ */
+final class MqttV311PacketIdFlyweights<P extends MqttV311Packet> {
+
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final IntFunction<P> factory;
+    private final AtomicReferenceArray<AtomicReferenceArray<P>> pages =
+        new AtomicReferenceArray<>(65536 >>> PAGE_BITS);
+
+    MqttV311PacketIdFlyweights(IntFunction<P> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the packet of {@code packetId}, creating it on first use. Threads racing on the same id may briefly
+     * see different instances, which is harmless as they are immutable and equal.
+     */
+    P get(int packetId) {
+        AtomicReferenceArray<P> page = pages.get(packetId >>> PAGE_BITS);
+        if (page == null) {
+            pages.compareAndSet(packetId >>> PAGE_BITS, null, new AtomicReferenceArray<>(PAGE_SIZE));
+            page = pages.get(packetId >>> PAGE_BITS);
+        }
+        P packet = page.get(packetId & (PAGE_SIZE - 1));
+        if (packet == null) {
+            packet = factory.apply(packetId);
+            page.set(packetId & (PAGE_SIZE - 1), packet);
+        }
+        return packet;
+    }
+}
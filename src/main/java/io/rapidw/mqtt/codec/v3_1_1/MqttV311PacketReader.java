@@ -0,0 +1,650 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DecoderException;
+import io.rapidw.mqtt.codec.utils.DecoderUtils;
+import io.rapidw.mqtt.codec.utils.MqttTopicCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.rapidw.mqtt.codec.utils.DecoderUtils.isSet;
+import static io.rapidw.mqtt.codec.utils.MqttV311ValidationUtils.*;
+
+/**
+ * Parses a single MQTT 3.1.1 packet in three steps (fixed header, variable header, payload). Shared by
+ * {@link MqttV311Decoder} and {@link MqttV311FramedDecoder}.
+ * <p>
+ * Every step only updates the reader's state after it completed, so a step may be invoked again on the same
+ * bytes when a {@link io.netty.handler.codec.ReplayingDecoder} replays it.
+ */
+final class MqttV311PacketReader {
+
+    private final MqttV311DecoderConfig config;
+    private final MqttTopicCache topicCache;
+    private MqttV311PacketType type;
+    // null between the fixed and the variable header for the packets built from their packet id
+    private MqttV311Packet packet;
+    private short flags;
+    private int remainingLength;
+    // bytes left while a step is in progress, copied to remainingLength once the step completed
+    private int remaining;
+    private boolean chunked;
+
+    MqttV311PacketReader(MqttV311DecoderConfig config) {
+        this.config = config;
+        this.topicCache = config.getTopicCacheSize() > 0 ? new MqttTopicCache(config.getTopicCacheSize()) : null;
+    }
+
+    int remainingLength() {
+        return this.remainingLength;
+    }
+
+    /**
+     * Whether the current packet is a PUBLISH whose payload is read with {@link #readPayloadChunk}.
+     */
+    boolean isChunked() {
+        return this.chunked;
+    }
+
+    /**
+     * Decodes PINGREQ, PINGRESP, DISCONNECT, PUBACK, PUBREC, PUBREL, PUBCOMP, UNSUBACK and CONNACK in a single step
+     * from their first bytes, returning shared instances. Anything else, including malformed forms of these packets,
+     * is left to the regular three steps.
+     *
+     * @return the packet, or null if the buffered bytes do not start with one of these packets
+     */
+    MqttV311Packet readFixedSizePacket(ByteBuf in, int readableBytes) {
+        if (readableBytes < 2) {
+            return null;
+        }
+        int index = in.readerIndex();
+        short b1 = in.getUnsignedByte(index);
+        short b2 = in.getUnsignedByte(index + 1);
+        if (b2 == 0) {
+            MqttV311Packet packet;
+            switch (b1) {
+                case 0xC0:
+                    packet = MqttV311PingReqPacket.INSTANCE;
+                    break;
+                case 0xD0:
+                    packet = MqttV311PingRespPacket.INSTANCE;
+                    break;
+                case 0xE0:
+                    packet = MqttV311DisconnectPacket.INSTANCE;
+                    break;
+                default:
+                    return null;
+            }
+            in.skipBytes(2);
+            return packet;
+        }
+        if (b2 != 2 || readableBytes < 4) {
+            return null;
+        }
+        MqttV311Packet packet;
+        switch (b1) {
+            case 0x40:
+            case 0x50:
+            case 0x62:
+            case 0x70:
+            case 0xB0:
+                int packetId = in.getUnsignedShort(index + 2);
+                if (packetId == 0) {
+                    return null;
+                }
+                packet = packetIdOnlyPacket(b1, packetId);
+                break;
+            case 0x20:
+                short flags = in.getUnsignedByte(index + 2);
+                short returnCode = in.getUnsignedByte(index + 3);
+                if (flags > 1 || returnCode > 5 || (flags == 1 && returnCode != 0)) {
+                    return null;
+                }
+                packet = MqttV311ConnAckPacket.valueOf(flags == 1, MqttV311ConnectReturnCode.of((byte) returnCode));
+                break;
+            default:
+                return null;
+        }
+        in.skipBytes(4);
+        return packet;
+    }
+
+    private static MqttV311Packet packetIdOnlyPacket(short b1, int packetId) {
+        switch (b1) {
+            case 0x40:
+                return MqttV311PubAckPacket.valueOf(packetId);
+            case 0x50:
+                return MqttV311PubRecPacket.valueOf(packetId);
+            case 0x62:
+                return MqttV311PubRelPacket.valueOf(packetId);
+            case 0x70:
+                return MqttV311PubCompPacket.valueOf(packetId);
+            default:
+                return MqttV311UnsubAckPacket.valueOf(packetId);
+        }
+    }
+
+    /**
+     * Reads a whole packet if it is completely buffered. PUBLISH payloads are never chunked here.
+     *
+     * @return the packet, or null without moving the reader index if the packet is not complete yet
+     */
+    MqttV311Packet readFrame(ByteBuf in) {
+        MqttV311Packet fixedSizePacket = readFixedSizePacket(in, in.readableBytes());
+        if (fixedSizePacket != null) {
+            return fixedSizePacket;
+        }
+        int start = in.readerIndex();
+        if (!in.isReadable(2)) {
+            return null;
+        }
+        int lengthSize = DecoderUtils.peekRemainingLengthSize(in, start + 1);
+        if (lengthSize == 0) {
+            return null;
+        }
+        int remainingLength = 0;
+        for (int i = lengthSize; i > 0; i--) {
+            remainingLength = (remainingLength << 7) | (in.getByte(start + i) & 127);
+        }
+        if (remainingLength > config.getMaxRemainingLength()) {
+            throw new MqttV311PacketTooLargeException(config.getMaxRemainingLength(), remainingLength);
+        }
+        int frameEnd = start + 1 + lengthSize + remainingLength;
+        if (in.writerIndex() < frameEnd) {
+            return null;
+        }
+        readFixedHeader(in);
+        this.chunked = false;
+        readVariableHeader(in);
+        MqttV311Packet packet = readPayload(in);
+        if (in.readerIndex() != frameEnd) {
+            throw new DecoderException("invalid " + packet.getType() + " remaining length");
+        }
+        return packet;
+    }
+
+    void readFixedHeader(ByteBuf in) {
+        short b1 = in.readUnsignedByte();
+        short flags = (short) (b1 & 0x0F);
+        int remainingLength = DecoderUtils.readRemainingLength(in);
+        if (remainingLength > config.getMaxRemainingLength()) {
+            throw new MqttV311PacketTooLargeException(config.getMaxRemainingLength(), remainingLength);
+        }
+        MqttV311PacketType type = MqttV311PacketType.of(b1 >> 4);
+        MqttV311Packet packet = null;
+        switch (type) {
+            case CONNECT:
+                packet = new MqttV311ConnectPacket(flags);
+                break;
+            case CONNACK:
+                packet = new MqttV311ConnAckPacket(flags, remainingLength);
+                break;
+            case PUBLISH:
+                packet = config.isPooledPackets()
+                    ? MqttV311PublishPacket.newPooled() : new MqttV311PublishPacket();
+                break;
+            case PUBACK:
+                // built from its packet id by readVariableHeader
+                MqttV311PubAckPacket.validateFixedHeader(flags, remainingLength);
+                break;
+            case PUBREC:
+                // built from its packet id by readVariableHeader
+                MqttV311PubRecPacket.validateFixedHeader(flags, remainingLength);
+                break;
+            case PUBREL:
+                // built from its packet id by readVariableHeader
+                MqttV311PubRelPacket.validateFixedHeader(flags, remainingLength);
+                break;
+            case PUBCOMP:
+                // built from its packet id by readVariableHeader
+                MqttV311PubCompPacket.validateFixedHeader(flags, remainingLength);
+                break;
+            case SUBSCRIBE:
+                packet = new MqttV311SubscribePacket(flags);
+                break;
+            case SUBACK:
+                packet = config.isPooledPackets()
+                    ? MqttV311SubAckPacket.newPooled(flags) : new MqttV311SubAckPacket(flags);
+                break;
+            case UNSUBSCRIBE:
+                packet = new MqttV311UnsubscribePacket(flags);
+                break;
+            case UNSUBACK:
+                // built from its packet id by readVariableHeader
+                MqttV311UnsubAckPacket.validateFixedHeader(flags, remainingLength);
+                break;
+            case PINGREQ:
+                packet = MqttV311PingReqPacket.INSTANCE;
+                validatePacketWithoutVariableHeaderAndPayload(flags, remainingLength);
+                break;
+            case PINGRESP:
+                packet = MqttV311PingRespPacket.INSTANCE;
+                validatePacketWithoutVariableHeaderAndPayload(flags, remainingLength);
+                break;
+            case DISCONNECT:
+                packet = MqttV311DisconnectPacket.INSTANCE;
+                validatePacketWithoutVariableHeaderAndPayload(flags, remainingLength);
+                break;
+            default:
+                throw new DecoderException("unsupported packet type: " + (b1 >> 4));
+        }
+        this.type = type;
+        this.packet = packet;
+        this.flags = flags;
+        this.remainingLength = remainingLength;
+        this.chunked = type == MqttV311PacketType.PUBLISH && config.getChunkedPayloadThreshold() > 0
+            && remainingLength > config.getChunkedPayloadThreshold();
+    }
+
+    /**
+     * Checks the length limits of the fields at the start of the variable header that are already buffered,
+     * without moving the reader index, so that an oversized packet is rejected before it is buffered as a whole.
+     */
+    void peekVariableHeader(ByteBuf in) {
+        int index = in.readerIndex();
+        switch (this.type) {
+            case PUBLISH:
+                if (in.isReadable(2)) {
+                    checkTopicLength(in.getUnsignedShort(index));
+                }
+                break;
+            case CONNECT:
+                // protocol name "MQTT", protocol level, connect flags and keep alive take 10 bytes
+                if (in.isReadable(12) && in.getUnsignedShort(index) == 4) {
+                    checkClientIdLength(in.getUnsignedShort(index + 10));
+                }
+                break;
+        }
+    }
+
+    /**
+     * Returns the size of the variable header of the current PUBLISH, or -1 if its topic length is not buffered
+     * yet.
+     */
+    int peekPublishVariableHeaderSize(ByteBuf in) {
+        if (!in.isReadable(2)) {
+            return -1;
+        }
+        int size = 2 + in.getUnsignedShort(in.readerIndex());
+        if (((flags & 0x06) >> 1) != 0) {
+            size += 2;
+        }
+        return size;
+    }
+
+    /**
+     * Reads up to {@code readableBytes} of the payload of a chunked PUBLISH.
+     *
+     * @return the chunk, or null if there is nothing to emit
+     */
+    MqttV311PublishChunk readPayloadChunk(ByteBuf in, int readableBytes) {
+        int size = Math.min(readableBytes, this.remainingLength);
+        if (size == 0 && this.remainingLength != 0) {
+            return null;
+        }
+        ByteBuf content = size > 0 ? in.readRetainedSlice(size) : Unpooled.EMPTY_BUFFER;
+        this.remainingLength -= size;
+        boolean last = this.remainingLength == 0;
+        if (last) {
+            this.chunked = false;
+        }
+        return new MqttV311PublishChunk(content, last);
+    }
+
+    void readVariableHeader(ByteBuf in) {
+        switch (this.type) {
+            case CONNECT:
+                readConnectVariableHeader(in, (MqttV311ConnectPacket) this.packet);
+                break;
+            case CONNACK:
+                readConnAckVariableHeader(in, (MqttV311ConnAckPacket) this.packet);
+                break;
+            case PUBLISH:
+                readPublishVariableHeader(in, (MqttV311PublishPacket) this.packet);
+                break;
+            case PUBACK:
+                readPubAckVariableHeader(in);
+                break;
+            case PUBREC:
+                readPubRecVariableHeader(in);
+                break;
+            case PUBREL:
+                readPubRelVariableHeader(in);
+                break;
+            case PUBCOMP:
+                readPubCompVariableHeader(in);
+                break;
+            case SUBSCRIBE:
+                readSubscribeVariableHeader(in, (MqttV311SubscribePacket) this.packet);
+                break;
+            case SUBACK:
+                readSubAckVariableHeader(in, (MqttV311SubAckPacket) this.packet);
+                break;
+            case UNSUBSCRIBE:
+                readUnsubscribeVariableHeader(in, (MqttV311UnsubscribePacket) this.packet);
+                break;
+            case UNSUBACK:
+                readUnsubAckVariableHeader(in);
+                break;
+        }
+    }
+
+    MqttV311Packet readPayload(ByteBuf in) {
+        switch (this.type) {
+            case CONNECT:
+                readConnectPayload(in, (MqttV311ConnectPacket) this.packet);
+                break;
+            case SUBSCRIBE:
+                readSubscribePayload(in, (MqttV311SubscribePacket) this.packet);
+                break;
+            case SUBACK:
+                readSubAckPayload(in, (MqttV311SubAckPacket) this.packet);
+                break;
+            case UNSUBSCRIBE:
+                readUnsubscribePayload(in, (MqttV311UnsubscribePacket) this.packet);
+                break;
+        }
+        MqttV311Packet packet = this.packet;
+        this.packet = null;
+        return packet;
+    }
+
+    // -------------------------------------------------
+
+    private void readConnectVariableHeader(ByteBuf buf, MqttV311ConnectPacket packet) {
+        this.remaining = this.remainingLength;
+        if (!nextString(buf).equals("MQTT")) {
+            throw new DecoderException("[MQTT-3.1.2-1] invalid protocol name");
+        }
+
+        if (!(buf.readUnsignedByte() == 0x04)) {
+            throw new DecoderException("[MQTT-3.1.2-1] invalid protocol level");
+        }
+
+        short b = buf.readUnsignedByte();
+        this.remaining -= 2;
+        packet.setCleanSession(isSet(b, 1));
+
+        boolean usernameFlag = isSet(b, 7);
+        boolean passwordFlag = isSet(b, 6);
+        if (!usernameFlag && passwordFlag) {
+            throw new DecoderException(
+                "invalid connect packet: username not present but password present");
+        }
+        packet.setUsernameFlag(usernameFlag);
+        packet.setPasswordFlag(passwordFlag);
+
+        if (isSet(b, 2)) {
+            MqttV311Will.Builder willBuilder = MqttV311Will.builder();
+            willBuilder.qosLevel(MqttV311QosLevel.of((b & 0x18) >> 3));
+            willBuilder.retain(isSet(b, 5));
+            packet.setWillBuilder(willBuilder);
+        } else if (isSet(b, 3) || isSet(b, 4) || isSet(b, 5)) {
+            throw new DecoderException(
+                "[MQTT-3.1.2-11] If the Will Flag is set to 0 the Will QoS and Will Retain fields in the Connect Flags MUST be set to zero");
+        }
+
+        packet.setKeepAliveSeconds(nextMsbLsb(buf));
+        this.remainingLength = this.remaining;
+    }
+
+    private void readConnectPayload(ByteBuf buf, MqttV311ConnectPacket packet) {
+        this.remaining = this.remainingLength;
+        packet.setClientId(nextClientId(buf));
+
+        MqttV311Will.Builder willBuilder = packet.getWillBuilder();
+        if (willBuilder != null) {
+            willBuilder.topic(nextString(buf));
+            willBuilder.message(nextByteArray(buf));
+            packet.setWill(willBuilder.build());
+        }
+        if (packet.isUsernameFlag()) {
+            packet.setUsername(nextString(buf));
+        }
+        if (packet.isPasswordFlag()) {
+            packet.setPassword(nextByteArray(buf));
+        }
+        if (this.remaining != 0) {
+            throw new DecoderException("invalid remaining length in connect packet");
+        }
+        this.remainingLength = 0;
+    }
+
+    private void readConnAckVariableHeader(ByteBuf buf, MqttV311ConnAckPacket packet) {
+        short b1 = buf.readUnsignedByte();
+        if ((b1 & 0xFE) != 0) {
+            throw new DecoderException("invalid conack flags");
+        }
+        boolean sessionPresent = isSet(b1, 0);
+        byte b2 = buf.readByte();
+        MqttV311ConnectReturnCode code = MqttV311ConnectReturnCode.of(b2);
+        if (code != MqttV311ConnectReturnCode.CONNECTION_ACCEPTED && sessionPresent) {
+            throw new DecoderException(
+                "[MQTT-3.2.2-4] CONNACK packet containing a non-zero return code it MUST set Session Present to 0");
+        }
+        packet.setSessionPresent(sessionPresent);
+        packet.setConnectReturnCode(code);
+        this.remainingLength = 0;
+    }
+
+    private void readSubAckVariableHeader(ByteBuf buf, MqttV311SubAckPacket packet) {
+        this.remaining = this.remainingLength;
+        packet.setPacketId(nextPacketId(buf));
+        this.remainingLength = this.remaining;
+    }
+
+    private void readSubAckPayload(ByteBuf buf, MqttV311SubAckPacket packet) {
+        List<MqttV311QosLevel> qosLevelList = packet.newQosLevels(this.remainingLength);
+        for (int i = this.remainingLength; i > 0; i--) {
+            qosLevelList.add(MqttV311QosLevel.of(buf.readUnsignedByte()));
+        }
+        packet.setQosLevels(qosLevelList);
+        this.remainingLength = 0;
+    }
+
+    private void readPublishVariableHeader(ByteBuf buf, MqttV311PublishPacket packet) {
+        if (isSet(flags, 3)) {
+            packet.setDupFlag(true);
+        }
+        if (isSet(flags, 0)) {
+            packet.setRetain(true);
+        }
+        MqttV311QosLevel qosLevel = MqttV311QosLevel.of((flags & 0x06) >> 1);
+        if (qosLevel == MqttV311QosLevel.AT_MOST_ONCE && packet.isDupFlag()) {
+            throw new DecoderException(
+                "[MQTT-3.3.1-2] The DUP flag MUST be set to 0 for all QoS 0 messages");
+        }
+        packet.setQosLevel(qosLevel);
+
+        this.remaining = this.remainingLength;
+        packet.setTopic(nextTopic(buf));
+        if (packet.getQosLevel() == MqttV311QosLevel.AT_LEAST_ONCE
+            || packet.getQosLevel() == MqttV311QosLevel.EXACTLY_ONCE) {
+            packet.setPacketId(nextPacketId(buf));
+        }
+        if (this.remaining < 0) {
+            throw new DecoderException("invalid publish remaining length");
+        }
+
+        if (this.chunked) {
+            packet.setChunked(this.remaining);
+            this.remainingLength = this.remaining;
+            return;
+        }
+        if (config.isRetainedPayload()) {
+            packet.setPayloadBuffer(buf.readRetainedSlice(this.remaining));
+        } else {
+            packet.setPayload(DecoderUtils.readByteArray(buf, this.remaining));
+        }
+        this.remainingLength = 0;
+    }
+
+    private void readSubscribeVariableHeader(ByteBuf buf, MqttV311SubscribePacket packet) {
+        this.remaining = this.remainingLength;
+        packet.setPacketId(nextMsbLsb(buf));
+        this.remainingLength = this.remaining;
+    }
+
+    private void readSubscribePayload(ByteBuf buf, MqttV311SubscribePacket packet) {
+        this.remaining = this.remainingLength;
+        List<MqttV311TopicAndQosLevel> topicAndQosLevels = new ArrayList<>();
+        boolean finish = false;
+        while (!finish) {
+            String topicFilter = nextTopicFilter(buf);
+            short b = buf.readUnsignedByte();
+            if ((b & 0xFC) != 0) {
+                throw new DecoderException("[MQTT-3-8.3-4] Reserved bits in the payload must be zero");
+            }
+            this.remaining -= 1;
+            checkTopicFilters(topicAndQosLevels.size() + 1);
+            topicAndQosLevels.add(new MqttV311TopicAndQosLevel(topicFilter, MqttV311QosLevel.of(b & 0x03)));
+            if (this.remaining == 0) {
+                finish = true;
+            }
+            if (this.remaining < 0) {
+                throw new DecoderException("invalid subscribe remaining length");
+            }
+        }
+        packet.setTopicAndQosLevels(topicAndQosLevels);
+        this.remainingLength = 0;
+    }
+
+    private void readUnsubscribeVariableHeader(ByteBuf buf, MqttV311UnsubscribePacket packet) {
+        this.remaining = this.remainingLength;
+        packet.setPacketId(nextMsbLsb(buf));
+        this.remainingLength = this.remaining;
+    }
+
+    private void readUnsubscribePayload(ByteBuf buf, MqttV311UnsubscribePacket packet) {
+        this.remaining = this.remainingLength;
+        List<String> topicFilters = new ArrayList<>();
+        while (this.remaining > 0) {
+            checkTopicFilters(topicFilters.size() + 1);
+            topicFilters.add(validateTopicFilter(nextTopicFilter(buf)));
+        }
+
+        if (this.remaining != 0) {
+            throw new DecoderException("invalid unsub length");
+        }
+        packet.setTopicFilters(topicFilters);
+        this.remainingLength = 0;
+    }
+
+    private void readUnsubAckVariableHeader(ByteBuf buf) {
+        this.packet = MqttV311UnsubAckPacket.valueOf(DecoderUtils.readMsbLsbValue(buf));
+        this.remainingLength = 0;
+    }
+
+    private void readPubAckVariableHeader(ByteBuf buf) {
+        this.packet = MqttV311PubAckPacket.valueOf(DecoderUtils.readMsbLsbValue(buf));
+        this.remainingLength = 0;
+    }
+
+    private void readPubRecVariableHeader(ByteBuf buf) {
+        this.packet = MqttV311PubRecPacket.valueOf(DecoderUtils.readMsbLsbValue(buf));
+        this.remainingLength = 0;
+    }
+
+    private void readPubRelVariableHeader(ByteBuf buf) {
+        this.packet = MqttV311PubRelPacket.valueOf(DecoderUtils.readMsbLsbValue(buf));
+        this.remainingLength = 0;
+    }
+
+    private void readPubCompVariableHeader(ByteBuf buf) {
+        this.packet = MqttV311PubCompPacket.valueOf(DecoderUtils.readMsbLsbValue(buf));
+        this.remainingLength = 0;
+    }
+
+    // -------------------------------------------------
+    // field readers, each one subtracts the bytes it consumed from remaining
+
+    private String nextString(ByteBuf buf) {
+        return nextString(buf, DecoderUtils.readMsbLsbValue(buf));
+    }
+
+    private String nextString(ByteBuf buf, int size) {
+        String value = DecoderUtils.readString(buf, size);
+        this.remaining -= 2 + size;
+        return value;
+    }
+
+    private String nextClientId(ByteBuf buf) {
+        int size = DecoderUtils.readMsbLsbValue(buf);
+        checkClientIdLength(size);
+        return nextString(buf, size);
+    }
+
+    private String nextTopicFilter(ByteBuf buf) {
+        int size = DecoderUtils.readMsbLsbValue(buf);
+        checkTopicLength(size);
+        return nextString(buf, size);
+    }
+
+    private String nextTopic(ByteBuf buf) {
+        int size = DecoderUtils.readMsbLsbValue(buf);
+        checkTopicLength(size);
+        if (topicCache == null) {
+            return nextString(buf, size);
+        }
+        int index = buf.readerIndex();
+        buf.skipBytes(size);
+        this.remaining -= 2 + size;
+        return topicCache.get(buf, index, size);
+    }
+
+    private byte[] nextByteArray(ByteBuf buf) {
+        int size = DecoderUtils.readMsbLsbValue(buf);
+        byte[] value = DecoderUtils.readByteArray(buf, size);
+        this.remaining -= 2 + size;
+        return value;
+    }
+
+    private int nextMsbLsb(ByteBuf buf) {
+        int value = DecoderUtils.readMsbLsbValue(buf);
+        this.remaining -= 2;
+        return value;
+    }
+
+    private int nextPacketId(ByteBuf buf) {
+        int value = DecoderUtils.readPacketIdValue(buf);
+        this.remaining -= 2;
+        return value;
+    }
+
+    // -------------------------------------------------
+
+    private void checkTopicLength(int length) {
+        if (length > config.getMaxTopicLength()) {
+            throw new MqttV311TopicTooLongException(config.getMaxTopicLength(), length);
+        }
+    }
+
+    private void checkClientIdLength(int length) {
+        if (length > config.getMaxClientIdLength()) {
+            throw new MqttV311ClientIdTooLongException(config.getMaxClientIdLength(), length);
+        }
+    }
+
+    private void checkTopicFilters(int count) {
+        if (count > config.getMaxTopicFilters()) {
+            throw new MqttV311TooManyTopicFiltersException(config.getMaxTopicFilters(), count);
+        }
+    }
+}
@@ -17,9 +17,6 @@ package io.rapidw.mqtt.codec.v3_1_1;
 
 import io.netty.handler.codec.DecoderException;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public enum MqttV311PacketType {
     RESERVED,
     CONNECT,
@@ -37,20 +34,12 @@ public enum MqttV311PacketType {
     PINGRESP,
     DISCONNECT;
 
-    private static Map<Integer, MqttV311PacketType> valueMap = new HashMap<>();
-
-    static {
-        for (MqttV311PacketType type : values()) {
-            valueMap.put(type.ordinal(), type);
-        }
-    }
+    private static final MqttV311PacketType[] VALUES = values();
 
     public static MqttV311PacketType of(int type) {
-        MqttV311PacketType messageType = valueMap.get(type);
-        if (messageType == null) {
+        if (type < 0 || type >= VALUES.length) {
             throw new DecoderException("unknown message type: " + type);
-        } else {
-            return messageType;
         }
+        return VALUES[type];
     }
 }
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.util.internal.SystemPropertyUtil;
+
+/**
+ * Pooling switches shared by the pooled packets, see {@link MqttV311Recyclable}.
+ */
+final class MqttV311Pooling {
+
+    // recycled packets are never reused, so that every use after recycle is detected
+    static final boolean DEBUG = SystemPropertyUtil.getBoolean("io.rapidw.mqtt.codec.pooling.debug", false);
+
+    private MqttV311Pooling() {
+    }
+}
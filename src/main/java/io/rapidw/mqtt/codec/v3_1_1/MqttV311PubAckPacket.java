@@ -19,25 +19,32 @@ import io.netty.handler.codec.DecoderException;
 
 public class MqttV311PubAckPacket extends MqttV311Packet {
 
-    private int packetId;
+    private static final MqttV311PacketIdFlyweights<MqttV311PubAckPacket> FLYWEIGHTS =
+        new MqttV311PacketIdFlyweights<>(MqttV311PubAckPacket::new);
 
-    MqttV311PubAckPacket(short flags, int remainingLength) {
-        super(MqttV311PacketType.PUBACK);
+    private final int packetId;
+
+    static void validateFixedHeader(short flags, int remainingLength) {
         if (flags != 0) {
             throw new DecoderException("invalid PUBACK fixed header flags");
         }
         if (remainingLength != 2) {
-            throw new DecoderException("invalid CONACK remaining length");
+            throw new DecoderException("invalid PUBACK remaining length");
         }
     }
 
-    private MqttV311PubAckPacket() {
+    private MqttV311PubAckPacket(int packetId) {
         super(MqttV311PacketType.PUBACK);
+        this.packetId = packetId;
     }
 
-    private MqttV311PubAckPacket(int packetId) {
-        this();
-        this.packetId = packetId;
+    /**
+     * Returns a shared instance for {@code packetId}. Decoded packets are immutable, so the decoder hands out the
+     * same instance for every PUBACK with the same packet id instead of allocating one per packet.
+     * See {@link MqttV311PacketIdFlyweights} for what they cost.
+     */
+    static MqttV311PubAckPacket valueOf(int packetId) {
+        return FLYWEIGHTS.get(packetId);
     }
 
     public static Builder builder() {
@@ -48,10 +55,6 @@ public class MqttV311PubAckPacket extends MqttV311Packet {
         return this.packetId;
     }
 
-    void setPacketId(int packetId) {
-        this.packetId = packetId;
-    }
-
     public static class Builder {
         private int packetId;
 
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.handler.codec.DecoderException;
+
+public class MqttV311PubRelPacket extends MqttV311Packet {
+
+    private static final MqttV311PacketIdFlyweights<MqttV311PubRelPacket> FLYWEIGHTS =
+        new MqttV311PacketIdFlyweights<>(MqttV311PubRelPacket::new);
+
+    private final int packetId;
+
+    static void validateFixedHeader(short flags, int remainingLength) {
+        if (flags != 2) {
+            throw new DecoderException("[MQTT-3.6.1-1] invalid PUBREL fixed header flags");
+        }
+        if (remainingLength != 2) {
+            throw new DecoderException("invalid PUBREL remaining length");
+        }
+    }
+
+    private MqttV311PubRelPacket(int packetId) {
+        super(MqttV311PacketType.PUBREL);
+        this.packetId = packetId;
+    }
+
+    /**
+     * Returns a shared instance for {@code packetId}. Decoded packets are immutable, so the decoder hands out the
+     * same instance for every PUBREL with the same packet id instead of allocating one per packet.
+     * See {@link MqttV311PacketIdFlyweights} for what they cost.
+     */
+    static MqttV311PubRelPacket valueOf(int packetId) {
+        return FLYWEIGHTS.get(packetId);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getPacketId() {
+        return this.packetId;
+    }
+
+    public static class Builder {
+        private int packetId;
+
+        Builder() {
+        }
+
+        public Builder packetId(int packetId) {
+            this.packetId = packetId;
+            return this;
+        }
+
+        public MqttV311PubRelPacket build() {
+            return new MqttV311PubRelPacket(packetId);
+        }
+
+        @Override
+        public String toString() {
+            return "MqttV311PubRelPacket.MqttV311PubRelPacketBuilder(packetId=" + this.packetId + ")";
+        }
+    }
+}
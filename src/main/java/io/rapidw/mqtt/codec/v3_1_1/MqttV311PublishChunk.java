@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+
+/**
+ * A piece of the payload of a chunked {@link MqttV311PublishPacket}, see
+ * {@link MqttV311DecoderConfig#getChunkedPayloadThreshold()}. The chunks of a packet follow its header packet in
+ * order, the last one is marked by {@link #isLast()} and may be empty.
+ */
+public class MqttV311PublishChunk extends DefaultByteBufHolder {
+
+    private final boolean last;
+
+    public MqttV311PublishChunk(ByteBuf content, boolean last) {
+        super(content);
+        this.last = last;
+    }
+
+    public boolean isLast() {
+        return this.last;
+    }
+
+    @Override
+    public MqttV311PublishChunk replace(ByteBuf content) {
+        return new MqttV311PublishChunk(content, this.last);
+    }
+
+    @Override
+    public MqttV311PublishChunk retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public MqttV311PublishChunk retain(int increment) {
+        super.retain(increment);
+        return this;
+    }
+
+    @Override
+    public MqttV311PublishChunk touch() {
+        super.touch();
+        return this;
+    }
+
+    @Override
+    public MqttV311PublishChunk touch(Object hint) {
+        super.touch(hint);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "MqttV311PublishChunk(content=" + content() + ", last=" + this.last + ")";
+    }
+}
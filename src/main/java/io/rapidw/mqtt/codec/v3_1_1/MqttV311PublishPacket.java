@@ -15,17 +15,68 @@
  */
 package io.rapidw.mqtt.codec.v3_1_1;
 
-public class MqttV311PublishPacket extends MqttV311Packet {
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.Recycler;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.internal.ObjectUtil;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * The payload is either a byte array or a {@link ByteBuf}. A packet carrying a {@link ByteBuf} payload, for example
+ * one decoded with {@link MqttV311DecoderConfig#isRetainedPayload()}, owns a reference to it: the encoder releases
+ * the packet after writing it, so call {@link #retain()} before each write when forwarding one packet to many
+ * channels, and {@link #release()} it when it is not written at all.
+ * <p>
+ * A pooled packet, see {@link MqttV311Recyclable}, has its own reference count instead, starting at one, and holds a
+ * single reference to its payload buffer. Its last {@link #release()} releases the payload and returns the packet to
+ * its pool, so a pooled packet is forwarded to many channels the same way. {@link #recycle()} is then the same as
+ * {@link #release()}: when consuming a decoded pooled packet, call one of them, not both.
+ */
+public class MqttV311PublishPacket extends MqttV311Packet implements ReferenceCounted, MqttV311Recyclable {
+
+    static final int NO_PACKET_ID = -1;
+
+    private static final Recycler<MqttV311PublishPacket> RECYCLER = new Recycler<MqttV311PublishPacket>() {
+        @Override
+        protected MqttV311PublishPacket newObject(Handle<MqttV311PublishPacket> handle) {
+            return new MqttV311PublishPacket(handle);
+        }
+    };
+
+    private static final AtomicIntegerFieldUpdater<MqttV311PublishPacket> REF_CNT_UPDATER =
+        AtomicIntegerFieldUpdater.newUpdater(MqttV311PublishPacket.class, "refCnt");
+
+    private final Recycler.Handle<MqttV311PublishPacket> handle;
+    private boolean recycled;
+    // only used by pooled packets, the last release may happen on another channel's event loop
+    private volatile int refCnt;
 
     private boolean dupFlag;
     private MqttV311QosLevel qosLevel;
     private boolean retain;
     private String topic;
-    private Integer packetId;
+    // set when the packet was built from a prepared topic, the encoder then copies its bytes
+    private MqttV311Topic preparedTopic;
+    // kept unboxed so that decoding does not allocate, NO_PACKET_ID if absent
+    private int packetId = NO_PACKET_ID;
     private byte[] payload;
+    private ByteBuf payloadBuffer;
+    // wraps payload for getPayloadBuffer, created on first use
+    private ByteBuf payloadWrapper;
+    private boolean chunked;
+    private int payloadSize;
 
     MqttV311PublishPacket() {
+        this((Recycler.Handle<MqttV311PublishPacket>) null);
+    }
+
+    private MqttV311PublishPacket(Recycler.Handle<MqttV311PublishPacket> handle) {
         super(MqttV311PacketType.PUBLISH);
+        this.handle = handle;
     }
 
     private MqttV311PublishPacket(
@@ -33,15 +84,26 @@ public class MqttV311PublishPacket extends MqttV311Packet {
         MqttV311QosLevel qosLevel,
         boolean retain,
         String topic,
+        MqttV311Topic preparedTopic,
         Integer packetId,
-        byte[] payload) {
-        super(MqttV311PacketType.PUBLISH);
+        byte[] payload,
+        ByteBuf payloadBuffer) {
+        this();
         this.dupFlag = dupFlag;
         this.qosLevel = qosLevel;
         this.retain = retain;
         this.topic = topic;
-        this.packetId = packetId;
+        this.preparedTopic = preparedTopic;
+        this.packetId = packetId != null ? packetId : NO_PACKET_ID;
         this.payload = payload;
+        this.payloadBuffer = payloadBuffer;
+    }
+
+    static MqttV311PublishPacket newPooled() {
+        MqttV311PublishPacket packet = RECYCLER.get();
+        packet.recycled = false;
+        packet.refCnt = 1;
+        return packet;
     }
 
     public static Builder builder() {
@@ -49,29 +111,204 @@ public class MqttV311PublishPacket extends MqttV311Packet {
     }
 
     public boolean isDupFlag() {
+        checkNotRecycled();
         return this.dupFlag;
     }
 
     public MqttV311QosLevel getQosLevel() {
+        checkNotRecycled();
         return this.qosLevel;
     }
 
     public boolean isRetain() {
+        checkNotRecycled();
         return this.retain;
     }
 
     public String getTopic() {
+        checkNotRecycled();
         return this.topic;
     }
 
+    MqttV311Topic preparedTopic() {
+        checkNotRecycled();
+        return this.preparedTopic;
+    }
+
     public Integer getPacketId() {
+        checkNotRecycled();
+        return this.packetId != NO_PACKET_ID ? this.packetId : null;
+    }
+
+    int packetIdValue() {
         return this.packetId;
     }
 
+    /**
+     * Returns the payload as a byte array, copying it if the packet carries a {@link ByteBuf} payload.
+     */
     public byte[] getPayload() {
+        checkNotRecycled();
+        if (this.payloadBuffer != null) {
+            return ByteBufUtil.getBytes(this.payloadBuffer);
+        }
         return this.payload;
     }
 
+    /**
+     * Returns the payload as a {@link ByteBuf} without copying it. The returned buffer is owned by this packet, a
+     * {@code byte[]} payload is wrapped once and the same wrapper is returned on every call.
+     */
+    public ByteBuf getPayloadBuffer() {
+        checkNotRecycled();
+        if (this.payloadBuffer == null && this.payload != null) {
+            if (this.payloadWrapper == null) {
+                this.payloadWrapper = Unpooled.wrappedBuffer(this.payload);
+            }
+            return this.payloadWrapper;
+        }
+        return this.payloadBuffer;
+    }
+
+    /**
+     * Whether the payload of this packet follows it as {@link MqttV311PublishChunk}s instead of being held by it.
+     */
+    public boolean isChunked() {
+        checkNotRecycled();
+        return this.chunked;
+    }
+
+    /**
+     * Returns the payload size in bytes, also for a chunked packet.
+     */
+    public int getPayloadSize() {
+        checkNotRecycled();
+        if (this.chunked) {
+            return this.payloadSize;
+        }
+        if (this.payloadBuffer != null) {
+            return this.payloadBuffer.readableBytes();
+        }
+        return this.payload != null ? this.payload.length : 0;
+    }
+
+    boolean hasPayloadBuffer() {
+        return this.payloadBuffer != null;
+    }
+
+    @Override
+    public boolean isPooled() {
+        return this.handle != null;
+    }
+
+    /**
+     * Same as {@link #release()} for a pooled packet: the last reference releases the payload buffer, if any, and
+     * returns this packet to its pool.
+     */
+    @Override
+    public void recycle() {
+        if (this.handle == null) {
+            return;
+        }
+        checkNotRecycled();
+        release();
+    }
+
+    private void recyclePooled() {
+        if (this.payloadBuffer != null) {
+            this.payloadBuffer.release();
+        }
+        this.dupFlag = false;
+        this.qosLevel = null;
+        this.retain = false;
+        this.topic = null;
+        this.preparedTopic = null;
+        this.packetId = NO_PACKET_ID;
+        this.payload = null;
+        this.payloadBuffer = null;
+        this.payloadWrapper = null;
+        this.chunked = false;
+        this.payloadSize = 0;
+        this.stringLengths = null;
+        this.recycled = true;
+        if (!MqttV311Pooling.DEBUG) {
+            this.handle.recycle(this);
+        }
+    }
+
+    private void checkNotRecycled() {
+        if (this.recycled) {
+            throw new IllegalStateException("PUBLISH packet used after recycle");
+        }
+    }
+
+    @Override
+    public int refCnt() {
+        if (this.handle != null) {
+            return this.refCnt;
+        }
+        return this.payloadBuffer != null ? this.payloadBuffer.refCnt() : 1;
+    }
+
+    @Override
+    public MqttV311PublishPacket retain() {
+        return retain(1);
+    }
+
+    @Override
+    public MqttV311PublishPacket retain(int increment) {
+        if (this.handle != null) {
+            ObjectUtil.checkPositive(increment, "increment");
+            int oldRefCnt = REF_CNT_UPDATER.getAndAdd(this, increment);
+            if (oldRefCnt <= 0 || oldRefCnt + increment < oldRefCnt) {
+                REF_CNT_UPDATER.getAndAdd(this, -increment);
+                throw new IllegalReferenceCountException(oldRefCnt, increment);
+            }
+        } else if (this.payloadBuffer != null) {
+            this.payloadBuffer.retain(increment);
+        }
+        return this;
+    }
+
+    @Override
+    public MqttV311PublishPacket touch() {
+        if (this.payloadBuffer != null) {
+            this.payloadBuffer.touch();
+        }
+        return this;
+    }
+
+    @Override
+    public MqttV311PublishPacket touch(Object hint) {
+        if (this.payloadBuffer != null) {
+            this.payloadBuffer.touch(hint);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return release(1);
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        if (this.handle == null) {
+            return this.payloadBuffer != null && this.payloadBuffer.release(decrement);
+        }
+        ObjectUtil.checkPositive(decrement, "decrement");
+        int oldRefCnt = REF_CNT_UPDATER.getAndAdd(this, -decrement);
+        if (oldRefCnt == decrement) {
+            recyclePooled();
+            return true;
+        }
+        if (oldRefCnt < decrement) {
+            REF_CNT_UPDATER.getAndAdd(this, decrement);
+            throw new IllegalReferenceCountException(oldRefCnt, -decrement);
+        }
+        return false;
+    }
+
     void setDupFlag(boolean dupFlag) {
         this.dupFlag = dupFlag;
     }
@@ -86,14 +323,25 @@ public class MqttV311PublishPacket extends MqttV311Packet {
 
     void setTopic(String topic) {
         this.topic = topic;
+        this.stringLengths = null;
     }
 
-    void setPacketId(Integer packetId) {
+    void setPacketId(int packetId) {
         this.packetId = packetId;
     }
 
     void setPayload(byte[] payload) {
         this.payload = payload;
+        this.payloadWrapper = null;
+    }
+
+    void setPayloadBuffer(ByteBuf payloadBuffer) {
+        this.payloadBuffer = payloadBuffer;
+    }
+
+    void setChunked(int payloadSize) {
+        this.chunked = true;
+        this.payloadSize = payloadSize;
     }
 
     public static class Builder {
@@ -101,8 +349,10 @@ public class MqttV311PublishPacket extends MqttV311Packet {
         private MqttV311QosLevel qosLevel;
         private boolean retain;
         private String topic;
+        private MqttV311Topic preparedTopic;
         private Integer packetId;
         private byte[] payload;
+        private ByteBuf payloadBuffer;
 
         Builder() {
         }
@@ -124,6 +374,16 @@ public class MqttV311PublishPacket extends MqttV311Packet {
 
         public Builder topic(String topic) {
             this.topic = topic;
+            this.preparedTopic = null;
+            return this;
+        }
+
+        /**
+         * Sets a prepared topic, which the encoder writes without validating and encoding it again.
+         */
+        public Builder topic(MqttV311Topic topic) {
+            this.topic = topic.getName();
+            this.preparedTopic = topic;
             return this;
         }
 
@@ -134,18 +394,46 @@ public class MqttV311PublishPacket extends MqttV311Packet {
 
         public Builder payload(byte[] payload) {
             this.payload = payload;
+            this.payloadBuffer = null;
+            return this;
+        }
+
+        /**
+         * Sets a {@link ByteBuf} payload, the built packet takes over the caller's reference to it.
+         */
+        public Builder payload(ByteBuf payload) {
+            this.payloadBuffer = payload;
+            this.payload = null;
             return this;
         }
 
         public MqttV311PublishPacket build() {
-            return new MqttV311PublishPacket(dupFlag, qosLevel, retain, topic, packetId, payload);
+            return new MqttV311PublishPacket(dupFlag, qosLevel, retain, topic, preparedTopic, packetId, payload,
+                payloadBuffer);
+        }
+
+        /**
+         * Builds the packet into an instance taken from the pool, see {@link MqttV311Recyclable}.
+         */
+        public MqttV311PublishPacket buildPooled() {
+            MqttV311PublishPacket packet = newPooled();
+            packet.dupFlag = dupFlag;
+            packet.qosLevel = qosLevel;
+            packet.retain = retain;
+            packet.topic = topic;
+            packet.preparedTopic = preparedTopic;
+            packet.packetId = packetId != null ? packetId : NO_PACKET_ID;
+            packet.payload = payload;
+            packet.payloadBuffer = payloadBuffer;
+            return packet;
         }
 
         @Override
         public String toString() {
             return "MqttV311PublishPacket.MqttV311PublishPacketBuilder(dupFlag=" + this.dupFlag + ", qosLevel=" +
                 this.qosLevel + ", retain=" + this.retain + ", topic=" + this.topic + ", packetId=" + this.packetId +
-                ", payload=" + java.util.Arrays.toString(this.payload) + ")";
+                ", payload=" + (this.payloadBuffer != null ? this.payloadBuffer : java.util.Arrays.toString(this.payload)) +
+                ")";
         }
     }
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.EncoderException;
+import io.netty.util.ReferenceCounted;
+import io.rapidw.mqtt.codec.utils.DecoderUtils;
+import io.rapidw.mqtt.codec.utils.MqttV311ValidationUtils;
+
+/**
+ * A PUBLISH encoded once for delivery to many subscribers.
+ * <p>
+ * The topic, retain flag and payload are encoded into one shared buffer. {@link #frame} then derives the frame for
+ * each recipient without validating or encoding the packet again: a QoS 0 frame is a retained duplicate of the
+ * shared buffer, a QoS 1 or 2 frame is a new header carrying the DUP flag, QoS and packet id, followed by the
+ * shared payload, copied if it is small and as a retained slice in a composite buffer otherwise. Frames are
+ * written to the channel as {@link ByteBuf}s, which {@link MqttV311Encoder} passes through.
+ * <p>
+ * The template holds a reference to the shared buffer and must be released once all frames are created. Frames hold
+ * their own references and stay valid after that.
+ */
+public final class MqttV311PublishTemplate implements ReferenceCounted {
+
+    /**
+     * Up to this payload size, a QoS 1 or 2 frame is a single buffer with the payload copied from the shared
+     * buffer, which is cheaper than setting up a composite buffer.
+     */
+    public static final int COPY_THRESHOLD = 2048;
+
+    private final ByteBufAllocator allocator;
+    // the complete QoS 0 frame
+    private final ByteBuf frame;
+    private final boolean retain;
+    private final int remainingLength;
+    private final int topicIndex;
+    private final int topicSize;
+    private final int payloadIndex;
+
+    private MqttV311PublishTemplate(ByteBufAllocator allocator, ByteBuf frame, boolean retain) {
+        this.allocator = allocator;
+        this.frame = frame;
+        this.retain = retain;
+        int remainingLengthSize = DecoderUtils.peekRemainingLengthSize(frame, 1);
+        this.remainingLength = frame.readableBytes() - 1 - remainingLengthSize;
+        this.topicIndex = 1 + remainingLengthSize;
+        this.topicSize = 2 + frame.getUnsignedShort(this.topicIndex);
+        this.payloadIndex = this.topicIndex + this.topicSize;
+    }
+
+    /**
+     * Encodes the topic, retain flag and payload of {@code packet}. Its QoS level, DUP flag and packet id are
+     * ignored. The packet is neither released nor recycled.
+     */
+    public static MqttV311PublishTemplate of(ByteBufAllocator allocator, MqttV311PublishPacket packet) {
+        return of(allocator, packet, false);
+    }
+
+    // direct keeps the shared buffer off-heap whatever the allocator prefers
+    static MqttV311PublishTemplate of(ByteBufAllocator allocator, MqttV311PublishPacket packet, boolean direct) {
+        MqttV311PublishPacket.Builder builder = MqttV311PublishPacket.builder()
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .retain(packet.isRetain());
+        MqttV311Topic preparedTopic = packet.preparedTopic();
+        if (preparedTopic != null) {
+            builder.topic(preparedTopic);
+        } else {
+            builder.topic(packet.getTopic());
+        }
+        if (packet.hasPayloadBuffer()) {
+            builder.payload(packet.getPayloadBuffer());
+        } else {
+            builder.payload(packet.getPayload());
+        }
+        ByteBuf frame = direct ? allocator.directBuffer() : allocator.buffer();
+        try {
+            MqttV311Encoder.encodeTo(frame, builder.build());
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+        return new MqttV311PublishTemplate(allocator, frame, packet.isRetain());
+    }
+
+    // takes over a complete QoS 0 PUBLISH frame encoded earlier, starting at index 0
+    static MqttV311PublishTemplate wrap(ByteBufAllocator allocator, ByteBuf frame) {
+        return new MqttV311PublishTemplate(allocator, frame, (frame.getByte(0) & 0x01) != 0);
+    }
+
+    // the shared QoS 0 frame, without a reference for the caller
+    ByteBuf encodedFrame() {
+        return this.frame;
+    }
+
+    /**
+     * Returns the frame for one recipient, which the caller owns.
+     *
+     * @param packetId ignored for QoS 0
+     */
+    public ByteBuf frame(MqttV311QosLevel qosLevel, boolean dupFlag, int packetId) {
+        if (qosLevel == MqttV311QosLevel.AT_MOST_ONCE) {
+            if (dupFlag) {
+                throw new EncoderException("[MQTT-3.3.1-2] The DUP flag MUST be set to 0 for all QoS 0 messages");
+            }
+            return this.frame.retainedDuplicate();
+        }
+        if (qosLevel != MqttV311QosLevel.AT_LEAST_ONCE && qosLevel != MqttV311QosLevel.EXACTLY_ONCE) {
+            throw new EncoderException("invalid PUBLISH QoS level: " + qosLevel);
+        }
+        MqttV311ValidationUtils.validatePacketId(packetId);
+
+        int remainingLength = this.remainingLength + 2;
+        int remainingLengthSize = MqttV311Encoder.getAndValidateVariablePartLengthSize(remainingLength);
+        int headerSize = 1 + remainingLengthSize + this.topicSize + 2;
+        int payloadSize = this.frame.writerIndex() - this.payloadIndex;
+        boolean copyPayload = payloadSize <= COPY_THRESHOLD;
+        ByteBuf header = this.allocator.buffer(copyPayload ? headerSize + payloadSize : headerSize);
+        int b = 0x30 | (qosLevel.value() << 1);
+        if (dupFlag) {
+            b |= 0x08;
+        }
+        if (this.retain) {
+            b |= 0x01;
+        }
+        header.writeByte(b);
+        MqttV311Encoder.writeVariablePartLength(header, remainingLength);
+        header.writeBytes(this.frame, this.topicIndex, this.topicSize);
+        header.writeShort(packetId);
+        if (copyPayload) {
+            return header.writeBytes(this.frame, this.payloadIndex, payloadSize);
+        }
+        return this.allocator.compositeBuffer(2)
+            .addComponents(true, header, this.frame.retainedSlice(this.payloadIndex, payloadSize));
+    }
+
+    @Override
+    public int refCnt() {
+        return this.frame.refCnt();
+    }
+
+    @Override
+    public MqttV311PublishTemplate retain() {
+        this.frame.retain();
+        return this;
+    }
+
+    @Override
+    public MqttV311PublishTemplate retain(int increment) {
+        this.frame.retain(increment);
+        return this;
+    }
+
+    @Override
+    public MqttV311PublishTemplate touch() {
+        this.frame.touch();
+        return this;
+    }
+
+    @Override
+    public MqttV311PublishTemplate touch(Object hint) {
+        this.frame.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return this.frame.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return this.frame.release(decrement);
+    }
+}
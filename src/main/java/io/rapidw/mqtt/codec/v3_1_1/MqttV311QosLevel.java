@@ -17,9 +17,6 @@ package io.rapidw.mqtt.codec.v3_1_1;
 
 import io.netty.handler.codec.DecoderException;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public enum MqttV311QosLevel {
     AT_MOST_ONCE(0),
     AT_LEAST_ONCE(1),
@@ -28,24 +25,26 @@ public enum MqttV311QosLevel {
 
     private final int value;
 
-    private static final Map<Integer, MqttV311QosLevel> VALUE_MAP = new HashMap<>();
-
-    static {
-        for (MqttV311QosLevel qosLevel : values()) {
-            VALUE_MAP.put(qosLevel.value, qosLevel);
-        }
-    }
-
     MqttV311QosLevel(int value) {
         this.value = value;
     }
 
+    public int value() {
+        return this.value;
+    }
+
     public static MqttV311QosLevel of(int value) {
-        MqttV311QosLevel qosLevel = VALUE_MAP.get(value);
-        if (qosLevel == null) {
-            throw new DecoderException("invalid QoS: " + value);
-        } else {
-            return qosLevel;
+        switch (value) {
+            case 0:
+                return AT_MOST_ONCE;
+            case 1:
+                return AT_LEAST_ONCE;
+            case 2:
+                return EXACTLY_ONCE;
+            case 0x80:
+                return FAILURE;
+            default:
+                throw new DecoderException("invalid QoS: " + value);
         }
     }
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+/**
+ * A packet that may come from a pool, see {@link MqttV311DecoderConfig#isPooledPackets()}. A pooled packet must be
+ * handed back with {@link #recycle()} once it is no longer used, after which any access to it throws
+ * {@link IllegalStateException}. Recycling a packet that is not pooled does nothing.
+ * <p>
+ * A pooled {@link MqttV311PublishPacket} is reference counted on its own and is recycled by its last
+ * {@link MqttV311PublishPacket#release() release()}, so it can be retained once per extra channel and written to
+ * all of them. Other pooled packets are recycled by {@link MqttV311Encoder} after writing them, so they can be
+ * written only once.
+ * <p>
+ * With the system property {@code io.rapidw.mqtt.codec.pooling.debug} set to {@code true}, recycled packets are
+ * never reused, so that every use after recycle is detected instead of only those before the packet is reused.
+ */
+public interface MqttV311Recyclable {
+
+    /**
+     * Whether this packet comes from a pool.
+     */
+    boolean isPooled();
+
+    void recycle();
+}
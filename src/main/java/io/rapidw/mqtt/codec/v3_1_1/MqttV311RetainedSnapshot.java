@@ -0,0 +1,322 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.internal.PlatformDependent;
+import io.rapidw.mqtt.codec.utils.DecoderUtils;
+import io.rapidw.mqtt.codec.utils.MqttUtf8Utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The file format of {@link MqttV311RetainedStore#snapshot} and {@link MqttV311RetainedStore#restore}.
+ * <p>
+ * The file starts with a header of {@link #MAGIC} and {@link #VERSION}, followed by one section for each first topic
+ * level. A section holds the encoded QoS 0 PUBLISH frames of its messages back to back, exactly as written by
+ * {@link MqttV311Encoder}, then one byte per message with the QoS it was published with. After the sections, a
+ * directory lists for each section its level, offset, size of its frames and number of messages, and a trailer gives
+ * the offset of the directory, the number of sections and {@link #MAGIC} again. All numbers are big endian.
+ * <p>
+ * A section is limited to 2 GiB, the size of a {@link ByteBuf}. The file is read through as few mappings as possible,
+ * each covering up to 2 GiB of whole sections. A mapping is unmapped on its last release rather than left to the
+ * garbage collector, as a file can not be replaced on Windows while it is mapped.
+ */
+final class MqttV311RetainedSnapshot {
+
+    static final int MAGIC = 0x4D515253;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int TRAILER_SIZE = 16;
+
+    private MqttV311RetainedSnapshot() {
+    }
+
+    static final class Section {
+        final String level;
+        // slices of the mapping, which holds their only reference
+        final Mapping mapping;
+        final ByteBuf frames;
+        final ByteBuf qosLevels;
+        final int count;
+
+        Section(String level, Mapping mapping, ByteBuf frames, ByteBuf qosLevels, int count) {
+            this.level = level;
+            this.mapping = mapping;
+            this.frames = frames;
+            this.qosLevels = qosLevels;
+            this.count = count;
+        }
+    }
+
+    /**
+     * A mapped part of the file, unmapped on its last release. Its buffer must not be used after that.
+     */
+    static final class Mapping extends AbstractReferenceCounted {
+        final ByteBuf buffer;
+        private final MappedByteBuffer mapped;
+
+        Mapping(MappedByteBuffer mapped) {
+            this.buffer = Unpooled.wrappedBuffer(mapped);
+            this.mapped = mapped;
+        }
+
+        @Override
+        public Mapping retain() {
+            super.retain();
+            return this;
+        }
+
+        @Override
+        public Mapping touch(Object hint) {
+            return this;
+        }
+
+        @Override
+        protected void deallocate() {
+            PlatformDependent.freeDirectBuffer(mapped);
+        }
+    }
+
+    interface RecordConsumer {
+        /**
+         * @param frame a slice of the section holding the frame, without a reference for the consumer
+         */
+        void accept(String topicName, ByteBuf frame, MqttV311QosLevel qosLevel);
+    }
+
+    /**
+     * Maps {@code file} and reads its directory, without reading any section. The mappings are added to
+     * {@code chunks}, which hold the only reference to them, and the returned sections are slices of them.
+     */
+    static Map<String, Section> read(Path file, List<Mapping> chunks) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE + TRAILER_SIZE) {
+                throw new IOException("truncated retained snapshot " + file);
+            }
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("not a retained snapshot " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported retained snapshot version " + version + " " + file);
+            }
+            ByteBuffer trailer = readFully(channel, fileSize - TRAILER_SIZE, TRAILER_SIZE);
+            long directoryOffset = trailer.getLong();
+            int sectionCount = trailer.getInt();
+            long directorySize = fileSize - TRAILER_SIZE - directoryOffset;
+            if (trailer.getInt() != MAGIC || directoryOffset < HEADER_SIZE || directorySize < 0
+                || directorySize > Integer.MAX_VALUE || sectionCount < 0) {
+                throw new IOException("corrupt retained snapshot trailer " + file);
+            }
+            ByteBuf directory = Unpooled.wrappedBuffer(readFully(channel, directoryOffset, (int) directorySize));
+            Map<String, Section> sections = new HashMap<>(Math.max(16, (int) (sectionCount / 0.75f) + 1));
+            Mapping chunk = null;
+            long chunkOffset = 0;
+            long end = HEADER_SIZE;
+            try {
+                for (int i = 0; i < sectionCount; i++) {
+                    int levelSize = directory.readUnsignedShort();
+                    String level = directory.readCharSequence(levelSize, StandardCharsets.UTF_8).toString();
+                    long offset = directory.readLong();
+                    int framesSize = directory.readInt();
+                    int count = directory.readInt();
+                    long size = (long) framesSize + count;
+                    if (offset < end || framesSize < 0 || count < 0 || size > Integer.MAX_VALUE
+                        || offset + size > directoryOffset) {
+                        throw new IOException("corrupt retained snapshot directory " + file);
+                    }
+                    end = offset + size;
+                    if (chunk == null || end - chunkOffset > chunk.buffer.capacity()) {
+                        chunkOffset = offset;
+                        chunk = new Mapping(channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                            Math.min(directoryOffset - offset, Integer.MAX_VALUE)));
+                        chunks.add(chunk);
+                    }
+                    int index = (int) (offset - chunkOffset);
+                    Section section = new Section(level, chunk, chunk.buffer.slice(index, framesSize),
+                        chunk.buffer.slice(index + framesSize, count), count);
+                    if (sections.put(level, section) != null) {
+                        throw new IOException("corrupt retained snapshot directory " + file);
+                    }
+                }
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("corrupt retained snapshot directory " + file, e);
+            }
+            if (directory.isReadable()) {
+                throw new IOException("corrupt retained snapshot directory " + file);
+            }
+            return sections;
+        }
+    }
+
+    /**
+     * Passes every message of the section to {@code consumer}, checking that its frame is a retained QoS 0 PUBLISH.
+     */
+    static void forEach(Section section, RecordConsumer consumer) {
+        ByteBuf frames = section.frames;
+        int index = 0;
+        for (int i = 0; i < section.count; i++) {
+            if (frames.writerIndex() - index < 2 || frames.getUnsignedByte(index) != 0x31) {
+                throw invalidFrame(section, index);
+            }
+            int lengthSize = DecoderUtils.peekRemainingLengthSize(frames, index + 1);
+            if (lengthSize == 0) {
+                throw invalidFrame(section, index);
+            }
+            int remainingLength = 0;
+            for (int j = lengthSize; j > 0; j--) {
+                remainingLength = (remainingLength << 7) | (frames.getByte(index + j) & 127);
+            }
+            int topicIndex = index + 1 + lengthSize;
+            int frameSize = 1 + lengthSize + remainingLength;
+            if (remainingLength < 2 || frames.writerIndex() - index < frameSize
+                || frames.getUnsignedShort(topicIndex) > remainingLength - 2) {
+                throw invalidFrame(section, index);
+            }
+            String topicName = MqttUtf8Utils.readString(frames, topicIndex + 2, frames.getUnsignedShort(topicIndex));
+            MqttV311QosLevel qosLevel = MqttV311QosLevel.of(section.qosLevels.getUnsignedByte(i));
+            if (qosLevel == MqttV311QosLevel.FAILURE) {
+                throw invalidFrame(section, index);
+            }
+            consumer.accept(topicName, frames.slice(index, frameSize), qosLevel);
+            index += frameSize;
+        }
+        if (index != frames.writerIndex()) {
+            throw invalidFrame(section, index);
+        }
+    }
+
+    private static DecoderException invalidFrame(Section section, int index) {
+        return new DecoderException("invalid retained snapshot frame at " + index + " of section " + section.level);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of retained snapshot");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes a file of a known size through a sequence of mappings.
+     */
+    static final class Writer implements Closeable {
+
+        private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowOffset;
+
+        Writer(Path file, long size) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = size;
+        }
+
+        long position() {
+            return window == null ? 0 : windowOffset + window.position();
+        }
+
+        void writeBytes(ByteBuf src, int index, int length) throws IOException {
+            while (length > 0) {
+                ByteBuffer window = window();
+                int n = Math.min(length, window.remaining());
+                ByteBuffer dst = window.duplicate();
+                dst.limit(dst.position() + n);
+                src.getBytes(index, dst);
+                window.position(window.position() + n);
+                index += n;
+                length -= n;
+            }
+        }
+
+        void writeByte(int value) throws IOException {
+            window().put((byte) value);
+        }
+
+        void writeShort(int value) throws IOException {
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+
+        void writeInt(int value) throws IOException {
+            writeShort(value >>> 16);
+            writeShort(value);
+        }
+
+        void writeLong(long value) throws IOException {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        private ByteBuffer window() throws IOException {
+            if (window == null || !window.hasRemaining()) {
+                long offset = position();
+                if (window != null) {
+                    window.force();
+                    PlatformDependent.freeDirectBuffer(window);
+                    window = null;
+                }
+                if (offset >= size) {
+                    throw new IOException("retained snapshot exceeds its computed size " + size);
+                }
+                windowOffset = offset;
+                window = channel.map(FileChannel.MapMode.READ_WRITE, offset, Math.min(WINDOW_SIZE, size - offset));
+            }
+            return window;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (window != null) {
+                    window.force();
+                }
+                if (position() != size) {
+                    throw new IOException("retained snapshot is shorter than its computed size " + size);
+                }
+            } finally {
+                if (window != null) {
+                    PlatformDependent.freeDirectBuffer(window);
+                    window = null;
+                }
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,693 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.FastThreadLocal;
+import io.rapidw.mqtt.codec.utils.MqttUtf8Utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Keeps the last retained message of every topic as an encoded PUBLISH frame, ready to be sent to new subscribers.
+ * <p>
+ * Each message is encoded once, when it is stored, into a direct buffer of a {@link MqttV311PublishTemplate}. A
+ * lookup walks a tree of the stored topics with one level per edge, so a filter only visits the topics it matches,
+ * and passes every matching message as a frame derived from the template: at QoS 0 a retained duplicate of the
+ * stored buffer, without copying or encoding, at QoS 1 or 2 a new header followed by the stored payload. Topics
+ * starting with {@code $} are not matched by filters starting with a wildcard [MQTT-4.7.2-1].
+ * <p>
+ * {@link #snapshot} writes the stored frames to a file, which {@link #restore} maps again without decoding them.
+ * The frames are grouped by their first topic level, and a restored store only reads the messages of a level, by
+ * copying them into one buffer, when a topic or filter first refers to it, so restoring takes about as long as
+ * reading the list of first levels. The file stays mapped until every level is read or the store is cleared. A
+ * level is read outside the store lock: lookups and changes of that level wait for it, those of other levels do
+ * not. Only the first level is read lazily. A filter starting with a wildcard reads every level not starting with
+ * {@code $}, and if all topics share their first level the first lookup reads the whole file.
+ * <p>
+ * Instances are thread safe. A lookup takes a reference to each matching message under a read lock and creates
+ * the frames and calls the consumer after releasing it, so a slow consumer does not hold up changes. The store
+ * holds a reference to every stored buffer and must be cleared when it is no longer used. Frames hold their own
+ * references and stay valid after their message is replaced or removed.
+ */
+public class MqttV311RetainedStore {
+
+    private final ByteBufAllocator allocator;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Node root = new Node();
+    private int size;
+    // the restored sections not read yet, by first topic level, and the mappings holding them
+    private volatile Map<String, MqttV311RetainedSnapshot.Section> pending;
+    private List<MqttV311RetainedSnapshot.Mapping> chunks;
+
+    public MqttV311RetainedStore() {
+        this(PooledByteBufAllocator.DEFAULT);
+    }
+
+    public MqttV311RetainedStore(ByteBufAllocator allocator) {
+        this.allocator = Objects.requireNonNull(allocator, "allocator");
+    }
+
+    /**
+     * Maps a file written by {@link #snapshot}. Its messages are read when they are first looked up, so a corrupt
+     * message is only reported then, with a {@link io.netty.handler.codec.DecoderException}. On Windows the file can
+     * not be replaced, also by a snapshot, until all of it is read or the store is cleared.
+     */
+    public static MqttV311RetainedStore restore(Path file) throws IOException {
+        return restore(file, PooledByteBufAllocator.DEFAULT);
+    }
+
+    /**
+     * @param allocator allocates the copies of the restored levels, the frames of later messages and the headers of
+     *                  QoS 1 and 2 frames
+     */
+    public static MqttV311RetainedStore restore(Path file, ByteBufAllocator allocator) throws IOException {
+        MqttV311RetainedStore store = new MqttV311RetainedStore(allocator);
+        List<MqttV311RetainedSnapshot.Mapping> chunks = new ArrayList<>();
+        Map<String, MqttV311RetainedSnapshot.Section> sections;
+        try {
+            sections = MqttV311RetainedSnapshot.read(file, chunks);
+        } catch (IOException | RuntimeException e) {
+            chunks.forEach(MqttV311RetainedSnapshot.Mapping::release);
+            throw e;
+        }
+        for (MqttV311RetainedSnapshot.Section section : sections.values()) {
+            store.size += section.count;
+        }
+        store.chunks = chunks;
+        store.pending = new ConcurrentHashMap<>(sections);
+        store.releaseChunksIfIndexed();
+        return store;
+    }
+
+    /**
+     * Writes every stored message to {@code file}, replacing it once complete. The messages are collected under the
+     * read lock and written after it is released, so changes only wait for the collection and are not included in
+     * the file once it is done.
+     */
+    public void snapshot(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        List<SnapshotSection> sections = new ArrayList<>();
+        try {
+            lock.readLock().lock();
+            try {
+                if (root.children != null) {
+                    for (Map.Entry<String, Node> child : root.children.entrySet()) {
+                        SnapshotSection section = new SnapshotSection(child.getKey());
+                        sections.add(section);
+                        collect(section, child.getValue());
+                    }
+                }
+                Map<String, MqttV311RetainedSnapshot.Section> pending = this.pending;
+                if (pending != null) {
+                    for (MqttV311RetainedSnapshot.Section restored : pending.values()) {
+                        SnapshotSection section = new SnapshotSection(restored.level);
+                        sections.add(section);
+                        section.restoredMapping = restored.mapping.retain();
+                        section.restoredFrames = restored.frames;
+                        section.restoredQosLevels = restored.qosLevels;
+                        section.framesSize = restored.frames.readableBytes();
+                        section.count = restored.count;
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            write(temporary, sections);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        } finally {
+            sections.forEach(SnapshotSection::release);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Stores a retained message, replacing the one of its topic [MQTT-3.3.1-5]. A message with an empty payload
+     * removes the one of its topic instead [MQTT-3.3.1-10]. The packet is neither released nor recycled.
+     *
+     * @return true if the message was stored, false if it removed the message of its topic
+     */
+    public boolean put(MqttV311PublishPacket packet) {
+        if (!packet.isRetain()) {
+            throw new IllegalArgumentException("PUBLISH packet is not retained");
+        }
+        if (packet.isChunked()) {
+            throw new IllegalArgumentException("chunked PUBLISH packet can not be retained");
+        }
+        if (packet.getPayloadSize() == 0) {
+            remove(packet.getTopic());
+            return false;
+        }
+        MqttV311PublishTemplate template = MqttV311PublishTemplate.of(allocator, packet, true);
+        indexPending(packet.getTopic());
+        lock.writeLock().lock();
+        try {
+            String topicName = packet.getTopic();
+            Node node = root;
+            int start = 0;
+            while (start <= topicName.length()) {
+                int end = levelEnd(topicName, start);
+                node = node.childForUpdate(topicName.substring(start, end));
+                start = end + 1;
+            }
+            if (node.template == null) {
+                size++;
+            } else {
+                node.template.release();
+            }
+            node.template = template;
+            node.qosLevel = packet.getQosLevel();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a message was stored for the topic
+     */
+    public boolean remove(String topicName) {
+        indexPending(topicName);
+        lock.writeLock().lock();
+        try {
+            if (remove(root, topicName, 0)) {
+                size--;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Passes a frame of every stored message matching the filter to {@code consumer}, which owns it. Each message
+     * is sent at the lower of its own QoS and {@code qosLevel}, the QoS granted to the subscription
+     * [MQTT-3.3.5-1], with the retain flag set [MQTT-3.3.1-8].
+     *
+     * @param packetIds supplies the packet id of each QoS 1 or 2 frame, may be null if {@code qosLevel} is QoS 0
+     * @return the number of frames passed
+     */
+    public int match(String topicFilter, MqttV311QosLevel qosLevel, IntSupplier packetIds,
+        Consumer<? super ByteBuf> consumer) {
+        MqttUtf8Utils.topicFilterUtf8Length(topicFilter);
+        if (qosLevel == null || qosLevel == MqttV311QosLevel.FAILURE) {
+            throw new IllegalArgumentException("invalid subscription QoS level " + qosLevel);
+        }
+        if (packetIds == null && qosLevel != MqttV311QosLevel.AT_MOST_ONCE) {
+            throw new IllegalArgumentException("packet ids are required for QoS " + qosLevel.value());
+        }
+        indexPending(topicFilter);
+        Matches matches = Matches.acquire();
+        try {
+            lock.readLock().lock();
+            try {
+                match(root, topicFilter, 0, qosLevel, matches);
+            } finally {
+                lock.readLock().unlock();
+            }
+            int count = matches.size;
+            while (matches.delivered < count) {
+                MqttV311PublishTemplate template = matches.templates[matches.delivered];
+                MqttV311QosLevel frameQosLevel = matches.qosLevels[matches.delivered];
+                ByteBuf frame;
+                try {
+                    int packetId = frameQosLevel == MqttV311QosLevel.AT_MOST_ONCE ? 0 : packetIds.getAsInt();
+                    frame = template.frame(frameQosLevel, false, packetId);
+                } finally {
+                    template.release();
+                    matches.delivered++;
+                }
+                consumer.accept(frame);
+            }
+            return count;
+        } finally {
+            matches.release();
+        }
+    }
+
+    /**
+     * Passes the frames of the stored messages matching every filter of the packet, each at the QoS requested for
+     * its filter. A message matching several filters is passed once for each of them.
+     *
+     * @return the number of frames passed
+     */
+    public int match(MqttV311SubscribePacket packet, IntSupplier packetIds, Consumer<? super ByteBuf> consumer) {
+        int count = 0;
+        for (MqttV311TopicAndQosLevel topicAndQosLevel : packet.getTopicAndQosLevels()) {
+            count += match(topicAndQosLevel.getTopicFilter(), topicAndQosLevel.getQosLevel(), packetIds, consumer);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of stored messages.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes every message and releases its buffer.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            releaseAll(root);
+            root.children = null;
+            size = 0;
+            if (pending != null) {
+                pending = null;
+                chunks.forEach(MqttV311RetainedSnapshot.Mapping::release);
+                chunks = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // reads the restored sections the topic name or filter refers to
+    private void indexPending(String topic) {
+        Map<String, MqttV311RetainedSnapshot.Section> sections = pending;
+        if (sections == null) {
+            return;
+        }
+        int end = levelEnd(topic, 0);
+        if (end == 1 && (topic.charAt(0) == '+' || topic.charAt(0) == '#')) {
+            for (MqttV311RetainedSnapshot.Section section : sections.values()) {
+                // [MQTT-4.7.2-1]
+                if (!section.level.startsWith("$")) {
+                    index(sections, section);
+                }
+            }
+        } else {
+            MqttV311RetainedSnapshot.Section section = sections.get(topic.substring(0, end));
+            if (section != null) {
+                index(sections, section);
+            }
+        }
+    }
+
+    // copies the section out of the mapping and reads it into a detached tree without holding the store lock, then
+    // adds the tree under the write lock. Threads referring to the same section wait for it on its monitor. A section
+    // failing to read keeps the messages before the invalid one and is not read again.
+    private void index(Map<String, MqttV311RetainedSnapshot.Section> sections,
+        MqttV311RetainedSnapshot.Section section) {
+        synchronized (section) {
+            lock.readLock().lock();
+            try {
+                // read by another thread, or the store was cleared
+                if (pending != sections || sections.get(section.level) != section) {
+                    return;
+                }
+                section.mapping.retain();
+            } finally {
+                lock.readLock().unlock();
+            }
+            int framesSize = section.frames.readableBytes();
+            ByteBuf copy;
+            try {
+                copy = allocator.directBuffer(framesSize + section.count);
+                copy.writeBytes(section.frames, section.frames.readerIndex(), framesSize);
+                copy.writeBytes(section.qosLevels, section.qosLevels.readerIndex(), section.count);
+            } finally {
+                section.mapping.release();
+            }
+            MqttV311RetainedSnapshot.Section copied = new MqttV311RetainedSnapshot.Section(section.level, null,
+                copy.slice(0, framesSize), copy.slice(framesSize, section.count), section.count);
+            Node detached = new Node();
+            int[] indexed = new int[1];
+            try {
+                MqttV311RetainedSnapshot.forEach(copied, (topicName, frame, qosLevel) -> {
+                    Node node = detached;
+                    int start = 0;
+                    while (start <= topicName.length()) {
+                        int end = levelEnd(topicName, start);
+                        node = node.childForUpdate(topicName.substring(start, end));
+                        start = end + 1;
+                    }
+                    if (node.template == null) {
+                        indexed[0]++;
+                    } else {
+                        node.template.release();
+                    }
+                    node.template = MqttV311PublishTemplate.wrap(allocator, frame.retain());
+                    node.qosLevel = qosLevel;
+                });
+            } finally {
+                copy.release();
+                lock.writeLock().lock();
+                try {
+                    if (pending == sections) {
+                        size -= section.count - indexed[0];
+                        size -= merge(root, detached);
+                        sections.remove(section.level);
+                        releaseChunksIfIndexed();
+                    } else {
+                        releaseAll(detached);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    // moves the messages of from into node, returns the number of messages of node replaced
+    private static int merge(Node node, Node from) {
+        int replaced = 0;
+        if (from.template != null) {
+            if (node.template != null) {
+                node.template.release();
+                replaced++;
+            }
+            node.template = from.template;
+            node.qosLevel = from.qosLevel;
+        }
+        if (from.children != null) {
+            for (Map.Entry<String, Node> child : from.children.entrySet()) {
+                Node existing = node.children == null ? null : node.children.get(child.getKey());
+                if (existing == null) {
+                    if (node.children == null) {
+                        node.children = new HashMap<>(4);
+                    }
+                    node.children.put(child.getKey(), child.getValue());
+                } else {
+                    replaced += merge(existing, child.getValue());
+                }
+            }
+        }
+        return replaced;
+    }
+
+    // the templates keep copies of their sections, the mappings are only needed while sections are pending
+    private void releaseChunksIfIndexed() {
+        if (pending != null && pending.isEmpty()) {
+            pending = null;
+            chunks.forEach(MqttV311RetainedSnapshot.Mapping::release);
+            chunks = null;
+        }
+    }
+
+    private static void collect(SnapshotSection section, Node node) {
+        if (node.template != null) {
+            section.templates.add(node.template.retain());
+            section.qosLevels.add(node.qosLevel);
+            section.framesSize += node.template.encodedFrame().readableBytes();
+            section.count++;
+        }
+        if (node.children != null) {
+            for (Node child : node.children.values()) {
+                collect(section, child);
+            }
+        }
+    }
+
+    private static void write(Path file, List<SnapshotSection> sections) throws IOException {
+        long size = MqttV311RetainedSnapshot.HEADER_SIZE;
+        for (SnapshotSection section : sections) {
+            if (section.framesSize + section.count > Integer.MAX_VALUE) {
+                throw new IOException("retained messages below " + section.level + " exceed 2 GiB");
+            }
+            section.offset = size;
+            size += section.framesSize + section.count;
+        }
+        long directoryOffset = size;
+        for (SnapshotSection section : sections) {
+            size += 2 + section.levelBytes.length + 16;
+        }
+        size += MqttV311RetainedSnapshot.TRAILER_SIZE;
+
+        try (MqttV311RetainedSnapshot.Writer writer = new MqttV311RetainedSnapshot.Writer(file, size)) {
+            writer.writeInt(MqttV311RetainedSnapshot.MAGIC);
+            writer.writeInt(MqttV311RetainedSnapshot.VERSION);
+            for (SnapshotSection section : sections) {
+                if (section.restoredFrames != null) {
+                    ByteBuf frames = section.restoredFrames;
+                    ByteBuf qosLevels = section.restoredQosLevels;
+                    writer.writeBytes(frames, frames.readerIndex(), frames.readableBytes());
+                    writer.writeBytes(qosLevels, qosLevels.readerIndex(), qosLevels.readableBytes());
+                } else {
+                    for (MqttV311PublishTemplate template : section.templates) {
+                        ByteBuf frame = template.encodedFrame();
+                        writer.writeBytes(frame, frame.readerIndex(), frame.readableBytes());
+                    }
+                    for (MqttV311QosLevel qosLevel : section.qosLevels) {
+                        writer.writeByte(qosLevel.value());
+                    }
+                }
+            }
+            for (SnapshotSection section : sections) {
+                writer.writeShort(section.levelBytes.length);
+                writer.writeBytes(Unpooled.wrappedBuffer(section.levelBytes), 0, section.levelBytes.length);
+                writer.writeLong(section.offset);
+                writer.writeInt((int) section.framesSize);
+                writer.writeInt(section.count);
+            }
+            writer.writeLong(directoryOffset);
+            writer.writeInt(sections.size());
+            writer.writeInt(MqttV311RetainedSnapshot.MAGIC);
+        }
+    }
+
+    // collects a retained reference to the template of every match, and the QoS to send it at
+    private static void match(Node node, String topicFilter, int start, MqttV311QosLevel qosLevel,
+        Matches matches) {
+        if (start > topicFilter.length()) {
+            collect(node, qosLevel, matches);
+            return;
+        }
+        int end = levelEnd(topicFilter, start);
+        boolean root = start == 0;
+        if (end - start == 1 && topicFilter.charAt(start) == '#') {
+            // "a/#" also matches "a"
+            if (!root) {
+                collect(node, qosLevel, matches);
+            }
+            matchAll(node, root, qosLevel, matches);
+            return;
+        }
+        if (node.children == null) {
+            return;
+        }
+        if (end - start == 1 && topicFilter.charAt(start) == '+') {
+            for (Map.Entry<String, Node> child : node.children.entrySet()) {
+                if (!(root && child.getKey().startsWith("$"))) {
+                    match(child.getValue(), topicFilter, end + 1, qosLevel, matches);
+                }
+            }
+            return;
+        }
+        Node child = node.children.get(topicFilter.substring(start, end));
+        if (child != null) {
+            match(child, topicFilter, end + 1, qosLevel, matches);
+        }
+    }
+
+    private static void matchAll(Node node, boolean root, MqttV311QosLevel qosLevel, Matches matches) {
+        if (node.children == null) {
+            return;
+        }
+        for (Map.Entry<String, Node> child : node.children.entrySet()) {
+            if (root && child.getKey().startsWith("$")) {
+                continue;
+            }
+            collect(child.getValue(), qosLevel, matches);
+            matchAll(child.getValue(), false, qosLevel, matches);
+        }
+    }
+
+    private static void collect(Node node, MqttV311QosLevel qosLevel, Matches matches) {
+        if (node.template != null) {
+            matches.add(node.template.retain(), node.qosLevel.value() <= qosLevel.value() ? node.qosLevel : qosLevel);
+        }
+    }
+
+    // removes the message of the topic below node and prunes the nodes left empty, returns whether it was found
+    private static boolean remove(Node node, String topicName, int start) {
+        if (start > topicName.length()) {
+            if (node.template == null) {
+                return false;
+            }
+            node.template.release();
+            node.template = null;
+            node.qosLevel = null;
+            return true;
+        }
+        if (node.children == null) {
+            return false;
+        }
+        int end = levelEnd(topicName, start);
+        String level = topicName.substring(start, end);
+        Node child = node.children.get(level);
+        if (child == null || !remove(child, topicName, end + 1)) {
+            return false;
+        }
+        if (child.isEmpty()) {
+            node.children.remove(level);
+            if (node.children.isEmpty()) {
+                node.children = null;
+            }
+        }
+        return true;
+    }
+
+    private static void releaseAll(Node node) {
+        if (node.template != null) {
+            node.template.release();
+            node.template = null;
+        }
+        if (node.children != null) {
+            Iterator<Node> it = node.children.values().iterator();
+            while (it.hasNext()) {
+                releaseAll(it.next());
+                it.remove();
+            }
+        }
+    }
+
+    private static int levelEnd(String topic, int start) {
+        int end = topic.indexOf('/', start);
+        return end < 0 ? topic.length() : end;
+    }
+
+    // the messages found by a lookup, kept per thread and reused, a lookup from a consumer gets a new instance
+    private static final class Matches {
+        private static final int INITIAL_CAPACITY = 16;
+        private static final int MAX_KEPT_CAPACITY = 8192;
+        private static final FastThreadLocal<Matches> CURRENT = new FastThreadLocal<Matches>() {
+            @Override
+            protected Matches initialValue() {
+                return new Matches();
+            }
+        };
+
+        private MqttV311PublishTemplate[] templates = new MqttV311PublishTemplate[INITIAL_CAPACITY];
+        private MqttV311QosLevel[] qosLevels = new MqttV311QosLevel[INITIAL_CAPACITY];
+        private int size;
+        private int delivered;
+        private boolean inUse;
+
+        static Matches acquire() {
+            Matches matches = CURRENT.get();
+            if (matches.inUse) {
+                matches = new Matches();
+            }
+            matches.inUse = true;
+            return matches;
+        }
+
+        void add(MqttV311PublishTemplate template, MqttV311QosLevel qosLevel) {
+            if (size == templates.length) {
+                templates = Arrays.copyOf(templates, size << 1);
+                qosLevels = Arrays.copyOf(qosLevels, size << 1);
+            }
+            templates[size] = template;
+            qosLevels[size] = qosLevel;
+            size++;
+        }
+
+        // releases the templates not delivered and drops the references to all of them
+        void release() {
+            for (int i = delivered; i < size; i++) {
+                templates[i].release();
+            }
+            if (templates.length > MAX_KEPT_CAPACITY) {
+                templates = new MqttV311PublishTemplate[INITIAL_CAPACITY];
+                qosLevels = new MqttV311QosLevel[INITIAL_CAPACITY];
+            } else {
+                Arrays.fill(templates, 0, size, null);
+                Arrays.fill(qosLevels, 0, size, null);
+            }
+            size = 0;
+            delivered = 0;
+            inUse = false;
+        }
+    }
+
+    // the messages of a first topic level, either collected from the tree or a restored section not read yet
+    private static final class SnapshotSection {
+        private final String level;
+        private final byte[] levelBytes;
+        private final List<MqttV311PublishTemplate> templates = new ArrayList<>();
+        private final List<MqttV311QosLevel> qosLevels = new ArrayList<>();
+        private MqttV311RetainedSnapshot.Mapping restoredMapping;
+        private ByteBuf restoredFrames;
+        private ByteBuf restoredQosLevels;
+        private long framesSize;
+        private int count;
+        private long offset;
+
+        SnapshotSection(String level) {
+            this.level = level;
+            this.levelBytes = level.getBytes(StandardCharsets.UTF_8);
+        }
+
+        void release() {
+            templates.forEach(MqttV311PublishTemplate::release);
+            templates.clear();
+            if (restoredMapping != null) {
+                restoredMapping.release();
+                restoredMapping = null;
+                restoredFrames = null;
+                restoredQosLevels = null;
+            }
+        }
+    }
+
+    private static final class Node {
+        private Map<String, Node> children;
+        private MqttV311PublishTemplate template;
+        private MqttV311QosLevel qosLevel;
+
+        Node childForUpdate(String level) {
+            if (children == null) {
+                children = new HashMap<>(4);
+            }
+            return children.computeIfAbsent(level, k -> new Node());
+        }
+
+        boolean isEmpty() {
+            return template == null && children == null;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+/**
+ * The UTF-8 lengths of the strings of a packet, cached on it by {@link MqttV311Encoder#encodedSize(MqttV311Packet)}
+ * and reused when it is encoded. A length is only reused while the packet still holds the very string it was
+ * measured from, so a string replaced anywhere in the packet, for example through
+ * {@link MqttV311TopicAndQosLevel#setTopicFilter(String)}, is measured again. Immutable, so that a packet encoded on
+ * several threads at once sees either no cache or a complete one.
+ */
+final class MqttV311StringLengths {
+
+    private final String[] strings;
+    final int[] lengths;
+
+    MqttV311StringLengths(String[] strings, int[] lengths) {
+        this.strings = strings;
+        this.lengths = lengths;
+    }
+
+    int size() {
+        return strings.length;
+    }
+
+    boolean isFor(int i, String value) {
+        return strings[i] == value;
+    }
+}
@@ -16,25 +16,40 @@
 package io.rapidw.mqtt.codec.v3_1_1;
 
 import io.netty.handler.codec.DecoderException;
+import io.netty.util.Recycler;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
-public class MqttV311SubAckPacket extends MqttV311Packet {
+public class MqttV311SubAckPacket extends MqttV311Packet implements MqttV311Recyclable {
 
+    private static final Recycler<MqttV311SubAckPacket> RECYCLER = new Recycler<MqttV311SubAckPacket>() {
+        @Override
+        protected MqttV311SubAckPacket newObject(Handle<MqttV311SubAckPacket> handle) {
+            return new MqttV311SubAckPacket(handle);
+        }
+    };
+
+    private final Recycler.Handle<MqttV311SubAckPacket> handle;
+    private boolean recycled;
     private int packetId;
     private List<MqttV311QosLevel> qosLevels;
+    // owned by a pooled instance and reused by the decoder across recycles
+    private ArrayList<MqttV311QosLevel> pooledQosLevels;
 
     MqttV311SubAckPacket(short flags) {
-        super(MqttV311PacketType.SUBACK);
-        if (flags != 0) {
-            throw new DecoderException("invalid SUBACK packet flags");
-        }
+        this();
+        checkFlags(flags);
     }
 
     private MqttV311SubAckPacket() {
+        this((Recycler.Handle<MqttV311SubAckPacket>) null);
+    }
+
+    private MqttV311SubAckPacket(Recycler.Handle<MqttV311SubAckPacket> handle) {
         super(MqttV311PacketType.SUBACK);
+        this.handle = handle;
     }
 
     private MqttV311SubAckPacket(int packetId, List<MqttV311QosLevel> qosLevels) {
@@ -43,18 +58,79 @@ public class MqttV311SubAckPacket extends MqttV311Packet {
         this.qosLevels = qosLevels;
     }
 
+    static MqttV311SubAckPacket newPooled(short flags) {
+        checkFlags(flags);
+        return newPooled();
+    }
+
+    private static MqttV311SubAckPacket newPooled() {
+        MqttV311SubAckPacket packet = RECYCLER.get();
+        packet.recycled = false;
+        return packet;
+    }
+
+    private static void checkFlags(short flags) {
+        if (flags != 0) {
+            throw new DecoderException("invalid SUBACK packet flags");
+        }
+    }
+
     public static Builder builder() {
         return new Builder();
     }
 
     public int getPacketId() {
+        checkNotRecycled();
         return this.packetId;
     }
 
     public List<MqttV311QosLevel> getQosLevels() {
+        checkNotRecycled();
         return this.qosLevels;
     }
 
+    @Override
+    public boolean isPooled() {
+        return this.handle != null;
+    }
+
+    @Override
+    public void recycle() {
+        if (this.handle == null) {
+            return;
+        }
+        checkNotRecycled();
+        this.packetId = 0;
+        this.qosLevels = null;
+        this.recycled = true;
+        if (!MqttV311Pooling.DEBUG) {
+            this.handle.recycle(this);
+        }
+    }
+
+    private void checkNotRecycled() {
+        if (this.recycled) {
+            throw new IllegalStateException("SUBACK packet used after recycle");
+        }
+    }
+
+    /**
+     * Returns an empty list to fill the QoS levels into, reused across recycles if this packet is pooled.
+     */
+    List<MqttV311QosLevel> newQosLevels(int size) {
+        if (this.handle == null) {
+            return new ArrayList<>(size);
+        }
+        if (this.pooledQosLevels == null) {
+            this.pooledQosLevels = new ArrayList<>(size);
+        } else {
+            // a replaying decoder may have filled it partially before
+            this.pooledQosLevels.clear();
+            this.pooledQosLevels.ensureCapacity(size);
+        }
+        return this.pooledQosLevels;
+    }
+
     void setPacketId(int packetId) {
         this.packetId = packetId;
     }
@@ -114,6 +190,20 @@ public class MqttV311SubAckPacket extends MqttV311Packet {
             return new MqttV311SubAckPacket(packetId, qosLevels);
         }
 
+        /**
+         * Builds the packet into an instance taken from the pool, see {@link MqttV311Recyclable}.
+         */
+        public MqttV311SubAckPacket buildPooled() {
+            MqttV311SubAckPacket packet = newPooled();
+            packet.packetId = packetId;
+            List<MqttV311QosLevel> qosLevels = packet.newQosLevels(this.qosLevels == null ? 0 : this.qosLevels.size());
+            if (this.qosLevels != null) {
+                qosLevels.addAll(this.qosLevels);
+            }
+            packet.qosLevels = qosLevels;
+            return packet;
+        }
+
         @Override
         public String toString() {
             return "MqttV311SubAckPacket.MqttV311SubAckPacketBuilder(packetId=" + this.packetId + ", qosLevels=" +
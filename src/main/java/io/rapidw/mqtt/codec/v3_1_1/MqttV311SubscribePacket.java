@@ -57,6 +57,7 @@ public class MqttV311SubscribePacket extends MqttV311Packet {
 
     void setTopicAndQosLevels(List<MqttV311TopicAndQosLevel> mqttV311TopicAndQosLevels) {
         this.topicAndQosLevels = mqttV311TopicAndQosLevels;
+        this.stringLengths = null;
     }
 
     public static class Builder {
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.rapidw.mqtt.codec.utils.MqttUtf8Utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Matches topic names against the topic filters of many subscribers.
+ * <p>
+ * Filters are stored in a tree with one level of the filter per edge, so matching a topic only visits the nodes of
+ * its own levels and of the {@code +} and {@code #} wildcards next to them. The cost grows with the number of levels
+ * and of matching subscriptions, not with the number of subscriptions held. Topics starting with {@code $} are not
+ * matched by filters starting with a wildcard [MQTT-4.7.2-1].
+ * <p>
+ * A subscriber holds at most one subscription per filter; subscribing again replaces its QoS [MQTT-3.8.4-3].
+ * Subscribers are compared with {@link Object#equals}. Instances are not thread safe.
+ *
+ * @param <S> the subscriber, usually the client id or a session
+ */
+public class MqttV311SubscriptionIndex<S> implements MqttV311Subscriptions<S> {
+
+    private final Node<S> root = new Node<>();
+    private int size;
+
+    @Override
+    public boolean subscribe(S subscriber, String topicFilter, MqttV311QosLevel qosLevel) {
+        MqttUtf8Utils.topicFilterUtf8Length(topicFilter);
+        if (subscriber == null || qosLevel == null || qosLevel == MqttV311QosLevel.FAILURE) {
+            throw new IllegalArgumentException("invalid subscription " + subscriber + " " + qosLevel);
+        }
+        Node<S> node = root;
+        int start = 0;
+        while (start <= topicFilter.length()) {
+            int end = MqttV311TopicNode.levelEnd(topicFilter, start);
+            node = node.childForUpdate(topicFilter, start, end);
+            start = end + 1;
+        }
+        if (node.subscribers == null) {
+            node.subscribers = new HashMap<>(2);
+        }
+        boolean added = node.subscribers.put(subscriber, qosLevel) == null;
+        if (added) {
+            size++;
+        }
+        return added;
+    }
+
+    @Override
+    public boolean unsubscribe(S subscriber, String topicFilter) {
+        if (MqttV311TopicNode.remove(root, subscriber, topicFilter, 0)) {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void match(String topicName, BiConsumer<? super S, MqttV311QosLevel> consumer) {
+        MqttV311TopicNode.match(root, topicName, consumer);
+    }
+
+    /**
+     * Returns the number of subscriptions.
+     */
+    public int size() {
+        return size;
+    }
+
+    private static final class Node<S> implements MqttV311TopicNode<S, Node<S>> {
+        private Map<String, Node<S>> children;
+        // the "+" and "#" children
+        private Node<S> singleLevel;
+        private Node<S> multiLevel;
+        private Map<S, MqttV311QosLevel> subscribers;
+
+        @Override
+        public Node<S> namedChild(String level) {
+            return children == null ? null : children.get(level);
+        }
+
+        @Override
+        public Node<S> singleLevel() {
+            return singleLevel;
+        }
+
+        @Override
+        public Node<S> multiLevel() {
+            return multiLevel;
+        }
+
+        Node<S> childForUpdate(String filter, int start, int end) {
+            if (MqttV311TopicNode.isWildcard(filter, start, end, '+')) {
+                if (singleLevel == null) {
+                    singleLevel = new Node<>();
+                }
+                return singleLevel;
+            }
+            if (MqttV311TopicNode.isWildcard(filter, start, end, '#')) {
+                if (multiLevel == null) {
+                    multiLevel = new Node<>();
+                }
+                return multiLevel;
+            }
+            if (children == null) {
+                children = new HashMap<>(4);
+            }
+            return children.computeIfAbsent(filter.substring(start, end), level -> new Node<>());
+        }
+
+        @Override
+        public void removeChild(String filter, int start, int end) {
+            if (MqttV311TopicNode.isWildcard(filter, start, end, '+')) {
+                singleLevel = null;
+            } else if (MqttV311TopicNode.isWildcard(filter, start, end, '#')) {
+                multiLevel = null;
+            } else {
+                children.remove(filter.substring(start, end));
+                if (children.isEmpty()) {
+                    children = null;
+                }
+            }
+        }
+
+        @Override
+        public boolean removeSubscriber(S subscriber) {
+            if (subscribers == null || subscribers.remove(subscriber) == null) {
+                return false;
+            }
+            if (subscribers.isEmpty()) {
+                subscribers = null;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return subscribers == null && children == null && singleLevel == null && multiLevel == null;
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super S, MqttV311QosLevel> consumer) {
+            if (subscribers != null) {
+                subscribers.forEach(consumer);
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A bounded cache of match results in front of a {@link MqttV311ConcurrentSubscriptionIndex}, for brokers whose
+ * PUBLISH traffic goes to a small set of topics.
+ * <p>
+ * A hit is a single {@link ConcurrentHashMap} lookup. On a miss the index is matched and the result is cached if
+ * the cache is not being changed by another thread at that moment, so matching never waits for a lock. Changes to
+ * the subscriptions must go through this cache: each one removes exactly the cached topics its filter matches,
+ * found through a tree of the cached topic names. A result computed while a change was being made is not cached.
+ * <p>
+ * When full, entries are evicted with the CLOCK policy: an entry hit since the hand last passed it is kept for one
+ * more round. Hits, misses, evictions and invalidations are counted.
+ *
+ * @param <S> the subscriber, usually the client id or a session
+ */
+public class MqttV311SubscriptionMatchCache<S> implements MqttV311Subscriptions<S> {
+
+    private final MqttV311ConcurrentSubscriptionIndex<S> index;
+    private final int maximumSize;
+    private final ConcurrentHashMap<String, Entry<S>> entries = new ConcurrentHashMap<>();
+
+    // guards everything below, taken by subscription changes and, without waiting, by misses
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Entry<S>[] clock;
+    private int hand;
+    private final TopicNode<S> topics = new TopicNode<>();
+    private volatile long version;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public MqttV311SubscriptionMatchCache(MqttV311ConcurrentSubscriptionIndex<S> index, int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximum size must be > 0");
+        }
+        this.index = index;
+        this.maximumSize = maximumSize;
+        this.clock = (Entry<S>[]) new Entry<?>[maximumSize];
+    }
+
+    /**
+     * Returns the subscribers matching the topic name, each with the highest QoS of its matching subscriptions. The
+     * returned map is shared and cannot be modified.
+     */
+    @Override
+    public Map<S, MqttV311QosLevel> match(String topicName) {
+        Entry<S> entry = entries.get(topicName);
+        if (entry != null) {
+            hits.increment();
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            return entry.subscribers;
+        }
+        misses.increment();
+        long matchedVersion = version;
+        Map<S, MqttV311QosLevel> subscribers = Collections.unmodifiableMap(index.match(topicName));
+        if (lock.tryLock()) {
+            try {
+                if (version == matchedVersion && !entries.containsKey(topicName)) {
+                    insert(new Entry<>(topicName, subscribers));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return subscribers;
+    }
+
+    public Map<S, MqttV311QosLevel> match(MqttV311PublishPacket packet) {
+        return match(packet.getTopic());
+    }
+
+    /**
+     * Matches the index directly, without using or filling the cache.
+     */
+    @Override
+    public void match(String topicName, BiConsumer<? super S, MqttV311QosLevel> consumer) {
+        index.match(topicName, consumer);
+    }
+
+    @Override
+    public boolean subscribe(S subscriber, String topicFilter, MqttV311QosLevel qosLevel) {
+        boolean added = index.subscribe(subscriber, topicFilter, qosLevel);
+        // a replaced subscription may have changed its QoS
+        invalidate(topicFilter);
+        return added;
+    }
+
+    @Override
+    public boolean unsubscribe(S subscriber, String topicFilter) {
+        boolean removed = index.unsubscribe(subscriber, topicFilter);
+        if (removed) {
+            invalidate(topicFilter);
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the number of cached topics.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of cached topics removed because a subscription matching them changed.
+     */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    private void invalidate(String topicFilter) {
+        lock.lock();
+        try {
+            // results being computed right now may predate the change
+            version++;
+            invalidate(topics, topicFilter, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // removes the cached topics below node matching the filter from its level at start, returns whether node is empty
+    private boolean invalidate(TopicNode<S> node, String topicFilter, int start) {
+        if (start > topicFilter.length()) {
+            if (node.entry != null) {
+                remove(node.entry);
+                invalidations.increment();
+                node.entry = null;
+            }
+            return node.isEmpty();
+        }
+        int end = MqttV311TopicNode.levelEnd(topicFilter, start);
+        boolean root = start == 0;
+        if (MqttV311TopicNode.isWildcard(topicFilter, start, end, '#')) {
+            // "a/#" also matches "a"
+            invalidate(node, topicFilter, topicFilter.length() + 1);
+            invalidateAll(node, root);
+        } else if (MqttV311TopicNode.isWildcard(topicFilter, start, end, '+')) {
+            if (node.children != null) {
+                Iterator<Map.Entry<String, TopicNode<S>>> it = node.children.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, TopicNode<S>> child = it.next();
+                    // [MQTT-4.7.2-1]
+                    boolean dollar = root && child.getKey().startsWith("$");
+                    if (!dollar && invalidate(child.getValue(), topicFilter, end + 1)) {
+                        it.remove();
+                    }
+                }
+            }
+        } else if (node.children != null) {
+            String level = topicFilter.substring(start, end);
+            TopicNode<S> child = node.children.get(level);
+            if (child != null && invalidate(child, topicFilter, end + 1)) {
+                node.children.remove(level);
+            }
+        }
+        if (node.children != null && node.children.isEmpty()) {
+            node.children = null;
+        }
+        return node.isEmpty();
+    }
+
+    private void invalidateAll(TopicNode<S> node, boolean root) {
+        if (node.children == null) {
+            return;
+        }
+        Iterator<Map.Entry<String, TopicNode<S>>> it = node.children.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, TopicNode<S>> child = it.next();
+            if (root && child.getKey().startsWith("$")) {
+                continue;
+            }
+            TopicNode<S> childNode = child.getValue();
+            if (childNode.entry != null) {
+                remove(childNode.entry);
+                invalidations.increment();
+            }
+            invalidateAll(childNode, false);
+            it.remove();
+        }
+    }
+
+    private void insert(Entry<S> entry) {
+        while (true) {
+            Entry<S> current = clock[hand];
+            if (current == null) {
+                break;
+            }
+            if (current.referenced) {
+                current.referenced = false;
+                hand = (hand + 1) % maximumSize;
+                continue;
+            }
+            remove(current);
+            removeTopic(topics, current.topic, 0);
+            evictions.increment();
+            break;
+        }
+        entry.slot = hand;
+        clock[hand] = entry;
+        hand = (hand + 1) % maximumSize;
+        entries.put(entry.topic, entry);
+
+        TopicNode<S> node = topics;
+        int start = 0;
+        String topic = entry.topic;
+        while (start <= topic.length()) {
+            int end = MqttV311TopicNode.levelEnd(topic, start);
+            if (node.children == null) {
+                node.children = new HashMap<>(4);
+            }
+            node = node.children.computeIfAbsent(topic.substring(start, end), level -> new TopicNode<>());
+            start = end + 1;
+        }
+        node.entry = entry;
+    }
+
+    private void remove(Entry<S> entry) {
+        entries.remove(entry.topic);
+        clock[entry.slot] = null;
+    }
+
+    // removes an evicted topic from the tree, returns whether node is empty
+    private static <S> boolean removeTopic(TopicNode<S> node, String topic, int start) {
+        if (start > topic.length()) {
+            node.entry = null;
+            return node.isEmpty();
+        }
+        int end = MqttV311TopicNode.levelEnd(topic, start);
+        String level = topic.substring(start, end);
+        TopicNode<S> child = node.children.get(level);
+        if (removeTopic(child, topic, end + 1)) {
+            node.children.remove(level);
+            if (node.children.isEmpty()) {
+                node.children = null;
+            }
+        }
+        return node.isEmpty();
+    }
+
+    private static final class Entry<S> {
+        private final String topic;
+        private final Map<S, MqttV311QosLevel> subscribers;
+        private volatile boolean referenced;
+        private int slot;
+
+        Entry(String topic, Map<S, MqttV311QosLevel> subscribers) {
+            this.topic = topic;
+            this.subscribers = subscribers;
+        }
+    }
+
+    // the cached topic names, one level per edge
+    private static final class TopicNode<S> {
+        private HashMap<String, TopicNode<S>> children;
+        private Entry<S> entry;
+
+        boolean isEmpty() {
+            return entry == null && children == null;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.rapidw.mqtt.codec.utils.MqttUtf8Utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Subscriptions of many subscribers, matched against topic names. Implementations only provide the single
+ * subscription operations; handling of SUBSCRIBE and UNSUBSCRIBE packets is shared here.
+ *
+ * @param <S> the subscriber, usually the client id or a session
+ */
+public interface MqttV311Subscriptions<S> {
+
+    /**
+     * @return true if the subscription is new, false if it replaced one of the same subscriber and filter
+     * @throws IllegalArgumentException if the filter is not valid, the subscriber is null or the QoS is not granted
+     */
+    boolean subscribe(S subscriber, String topicFilter, MqttV311QosLevel qosLevel);
+
+    /**
+     * @return true if the subscriber was subscribed to the filter
+     */
+    boolean unsubscribe(S subscriber, String topicFilter);
+
+    /**
+     * Calls {@code consumer} for every subscription matching the topic name. A subscriber with several matching
+     * filters is passed once for each of them.
+     */
+    void match(String topicName, BiConsumer<? super S, MqttV311QosLevel> consumer);
+
+    /**
+     * Returns the subscribers matching the topic name, each with the highest QoS of its matching subscriptions
+     * [MQTT-3.3.5-1].
+     */
+    default Map<S, MqttV311QosLevel> match(String topicName) {
+        Map<S, MqttV311QosLevel> matches = new HashMap<>();
+        match(topicName, (subscriber, qosLevel) -> matches.merge(subscriber, qosLevel,
+            (a, b) -> a.value() >= b.value() ? a : b));
+        return matches;
+    }
+
+    default boolean subscribe(S subscriber, MqttV311TopicAndQosLevel topicAndQosLevel) {
+        return subscribe(subscriber, topicAndQosLevel.getTopicFilter(), topicAndQosLevel.getQosLevel());
+    }
+
+    /**
+     * Adds every valid subscription of the packet and returns the acknowledgement granting the requested QoS levels.
+     * A filter that is not valid, or asks for no QoS, is not added and gets {@link MqttV311QosLevel#FAILURE} while
+     * the following filters are still processed.
+     *
+     * @throws IllegalArgumentException if the subscriber is null
+     */
+    default MqttV311SubAckPacket subscribe(S subscriber, MqttV311SubscribePacket packet) {
+        if (subscriber == null) {
+            throw new IllegalArgumentException("subscriber must not be null");
+        }
+        MqttV311SubAckPacket.Builder subAck = MqttV311SubAckPacket.builder().packetId(packet.getPacketId());
+        for (MqttV311TopicAndQosLevel topicAndQosLevel : packet.getTopicAndQosLevels()) {
+            MqttV311QosLevel qosLevel = topicAndQosLevel.getQosLevel();
+            if (qosLevel == null || qosLevel == MqttV311QosLevel.FAILURE
+                || !MqttUtf8Utils.isValidTopicFilter(topicAndQosLevel.getTopicFilter())) {
+                subAck.qosLevel(MqttV311QosLevel.FAILURE);
+            } else {
+                subscribe(subscriber, topicAndQosLevel.getTopicFilter(), qosLevel);
+                subAck.qosLevel(qosLevel);
+            }
+        }
+        return subAck.build();
+    }
+
+    /**
+     * Removes the subscriptions to every filter of the packet and returns its acknowledgement. Filters that are not
+     * valid cannot be subscribed to and are skipped.
+     */
+    default MqttV311UnsubAckPacket unsubscribe(S subscriber, MqttV311UnsubscribePacket packet) {
+        for (String topicFilter : packet.getTopicFilters()) {
+            if (MqttUtf8Utils.isValidTopicFilter(topicFilter)) {
+                unsubscribe(subscriber, topicFilter);
+            }
+        }
+        return MqttV311UnsubAckPacket.builder().packetId(packet.getPacketId()).build();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.rapidw.mqtt.codec.utils.MqttUtf8Utils;
+
+/**
+ * A PUBLISH topic name validated and encoded once, for publishing to the same topic many times. Passing it to
+ * {@link MqttV311PublishPacket.Builder#topic(MqttV311Topic)} lets the encoder copy the prepared bytes instead of
+ * validating and encoding the topic on every send. Instances are immutable and can be shared between threads.
+ */
+public final class MqttV311Topic {
+
+    private final String name;
+    // the 2 byte length prefix followed by the UTF-8 encoded name
+    private final byte[] encoded;
+
+    private MqttV311Topic(String name, byte[] encoded) {
+        this.name = name;
+        this.encoded = encoded;
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code name} is not a valid topic name
+     */
+    public static MqttV311Topic of(String name) {
+        int length = MqttUtf8Utils.topicNameUtf8Length(name);
+        byte[] encoded = new byte[2 + length];
+        MqttUtf8Utils.writeString(Unpooled.wrappedBuffer(encoded).clear(), name, length);
+        return new MqttV311Topic(name, encoded);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Size of the encoded topic including its length prefix.
+     */
+    int encodedSize() {
+        return this.encoded.length;
+    }
+
+    void writeTo(ByteBuf buf) {
+        buf.writeBytes(this.encoded);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof MqttV311Topic && this.name.equals(((MqttV311Topic) o).name));
+    }
+
+    @Override
+    public int hashCode() {
+        return this.name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
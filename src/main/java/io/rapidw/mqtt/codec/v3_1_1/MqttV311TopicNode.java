@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A node of a subscription tree holding one level of a topic filter per edge, with the walks shared by
+ * {@link MqttV311SubscriptionIndex} and {@link MqttV311ConcurrentSubscriptionIndex}. The {@code +} and {@code #}
+ * levels are kept apart from the named children.
+ *
+ * @param <S> the subscriber
+ * @param <N> the node type itself
+ */
+interface MqttV311TopicNode<S, N extends MqttV311TopicNode<S, N>> {
+
+    N namedChild(String level);
+
+    N singleLevel();
+
+    N multiLevel();
+
+    void removeChild(String filter, int start, int end);
+
+    boolean removeSubscriber(S subscriber);
+
+    boolean isEmpty();
+
+    void forEach(BiConsumer<? super S, MqttV311QosLevel> consumer);
+
+    default N child(String filter, int start, int end) {
+        if (isWildcard(filter, start, end, '+')) {
+            return singleLevel();
+        }
+        if (isWildcard(filter, start, end, '#')) {
+            return multiLevel();
+        }
+        return namedChild(filter.substring(start, end));
+    }
+
+    /**
+     * Calls {@code consumer} for every subscription below root matching the topic name. Topics starting with
+     * {@code $} are not matched by filters starting with a wildcard [MQTT-4.7.2-1].
+     */
+    static <S, N extends MqttV311TopicNode<S, N>> void match(N root, String topicName,
+        BiConsumer<? super S, MqttV311QosLevel> consumer) {
+        boolean dollar = !topicName.isEmpty() && topicName.charAt(0) == '$';
+        match(root, topicName, 0, dollar, consumer);
+    }
+
+    static <S, N extends MqttV311TopicNode<S, N>> void match(N node, String topicName, int start, boolean dollar,
+        BiConsumer<? super S, MqttV311QosLevel> consumer) {
+        boolean wildcards = !(dollar && start == 0);
+        // "a/#" also matches "a"
+        N multiLevel = node.multiLevel();
+        if (wildcards && multiLevel != null) {
+            multiLevel.forEach(consumer);
+        }
+        if (start > topicName.length()) {
+            node.forEach(consumer);
+            return;
+        }
+        int end = levelEnd(topicName, start);
+        N child = node.namedChild(topicName.substring(start, end));
+        if (child != null) {
+            match(child, topicName, end + 1, dollar, consumer);
+        }
+        N singleLevel = node.singleLevel();
+        if (wildcards && singleLevel != null) {
+            match(singleLevel, topicName, end + 1, dollar, consumer);
+        }
+    }
+
+    /**
+     * Removes the subscription below node and prunes the nodes left empty.
+     *
+     * @return whether the subscription was found
+     */
+    static <S, N extends MqttV311TopicNode<S, N>> boolean remove(N node, S subscriber, String topicFilter,
+        int start) {
+        if (start > topicFilter.length()) {
+            return node.removeSubscriber(subscriber);
+        }
+        int end = levelEnd(topicFilter, start);
+        N child = node.child(topicFilter, start, end);
+        if (child == null || !remove(child, subscriber, topicFilter, end + 1)) {
+            return false;
+        }
+        if (child.isEmpty()) {
+            node.removeChild(topicFilter, start, end);
+        }
+        return true;
+    }
+
+    static int levelEnd(String topic, int start) {
+        int end = topic.indexOf('/', start);
+        return end < 0 ? topic.length() : end;
+    }
+
+    static boolean isWildcard(String filter, int start, int end, char wildcard) {
+        return end - start == 1 && filter.charAt(start) == wildcard;
+    }
+}
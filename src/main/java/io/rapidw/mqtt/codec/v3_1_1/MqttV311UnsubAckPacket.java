@@ -19,10 +19,12 @@ import io.netty.handler.codec.DecoderException;
 
 public class MqttV311UnsubAckPacket extends MqttV311Packet {
 
-    private int packetId;
+    private static final MqttV311PacketIdFlyweights<MqttV311UnsubAckPacket> FLYWEIGHTS =
+        new MqttV311PacketIdFlyweights<>(MqttV311UnsubAckPacket::new);
 
-    MqttV311UnsubAckPacket(short flags, int remainingLength) {
-        super(MqttV311PacketType.UNSUBACK);
+    private final int packetId;
+
+    static void validateFixedHeader(short flags, int remainingLength) {
         if (flags != 0) {
             throw new DecoderException("invalid unsuback flags");
         }
@@ -31,13 +33,18 @@ public class MqttV311UnsubAckPacket extends MqttV311Packet {
         }
     }
 
-    private MqttV311UnsubAckPacket() {
+    private MqttV311UnsubAckPacket(int packetId) {
         super(MqttV311PacketType.UNSUBACK);
+        this.packetId = packetId;
     }
 
-    private MqttV311UnsubAckPacket(int packetId) {
-        this();
-        this.packetId = packetId;
+    /**
+     * Returns a shared instance for {@code packetId}. Decoded packets are immutable, so the decoder hands out the
+     * same instance for every UNSUBACK with the same packet id instead of allocating one per packet.
+     * See {@link MqttV311PacketIdFlyweights} for what they cost.
+     */
+    static MqttV311UnsubAckPacket valueOf(int packetId) {
+        return FLYWEIGHTS.get(packetId);
     }
 
     public static Builder builder() {
@@ -48,10 +55,6 @@ public class MqttV311UnsubAckPacket extends MqttV311Packet {
         return this.packetId;
     }
 
-    void setPacketId(int packetId) {
-        this.packetId = packetId;
-    }
-
     public static class Builder {
         private int packetId;
 
@@ -61,6 +61,7 @@ public class MqttV311UnsubscribePacket extends MqttV311Packet {
 
     void setTopicFilters(List<String> topicFilters) {
         this.topicFilters = topicFilters;
+        this.stringLengths = null;
     }
 
     public static class Builder {
@@ -1,4 +1,4 @@
-/**
+/*
  * Copyright 2020 Rapidw
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -15,5 +15,128 @@
  */
 package io.rapidw.mqtt.codec.v5;
 
-public class MqttV5ConnectPacket extends MqttV5Packet{
+public class MqttV5ConnectPacket extends MqttV5Packet {
+
+    private boolean cleanStart;
+    private int keepAliveSeconds;
+    private String clientId;
+    private String username;
+    private byte[] password;
+    private MqttV5Will will;
+
+    MqttV5ConnectPacket() {
+        super(MqttV5PacketType.CONNECT);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public boolean isCleanStart() {
+        return this.cleanStart;
+    }
+
+    public int getKeepAliveSeconds() {
+        return this.keepAliveSeconds;
+    }
+
+    public String getClientId() {
+        return this.clientId;
+    }
+
+    public String getUsername() {
+        return this.username;
+    }
+
+    public byte[] getPassword() {
+        return this.password;
+    }
+
+    public MqttV5Will getWill() {
+        return this.will;
+    }
+
+    void setCleanStart(boolean cleanStart) {
+        this.cleanStart = cleanStart;
+    }
+
+    void setKeepAliveSeconds(int keepAliveSeconds) {
+        this.keepAliveSeconds = keepAliveSeconds;
+    }
+
+    void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
+    void setUsername(String username) {
+        this.username = username;
+    }
+
+    void setPassword(byte[] password) {
+        this.password = password;
+    }
+
+    void setWill(MqttV5Will will) {
+        this.will = will;
+    }
+
+    public static class Builder {
+        private boolean cleanStart;
+        private int keepAliveSeconds;
+        private String clientId;
+        private String username;
+        private byte[] password;
+        private MqttV5Will will;
+        private MqttV5Properties properties = MqttV5Properties.EMPTY;
+
+        Builder() {
+        }
+
+        public Builder cleanStart(boolean cleanStart) {
+            this.cleanStart = cleanStart;
+            return this;
+        }
+
+        public Builder keepAliveSeconds(int keepAliveSeconds) {
+            this.keepAliveSeconds = keepAliveSeconds;
+            return this;
+        }
+
+        public Builder clientId(String clientId) {
+            this.clientId = clientId;
+            return this;
+        }
+
+        public Builder username(String username) {
+            this.username = username;
+            return this;
+        }
+
+        public Builder password(byte[] password) {
+            this.password = password;
+            return this;
+        }
+
+        public Builder will(MqttV5Will will) {
+            this.will = will;
+            return this;
+        }
+
+        public Builder properties(MqttV5Properties properties) {
+            this.properties = properties;
+            return this;
+        }
+
+        public MqttV5ConnectPacket build() {
+            MqttV5ConnectPacket packet = new MqttV5ConnectPacket();
+            packet.cleanStart = cleanStart;
+            packet.keepAliveSeconds = keepAliveSeconds;
+            packet.clientId = clientId;
+            packet.username = username;
+            packet.password = password;
+            packet.will = will;
+            packet.properties = properties;
+            return packet;
+        }
+    }
 }
@@ -1,4 +1,4 @@
-/**
+/*
  * Copyright 2020 Rapidw
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -17,39 +17,129 @@ package io.rapidw.mqtt.codec.v5;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.DecoderException;
 import io.rapidw.mqtt.codec.utils.DecoderUtils;
-import io.rapidw.mqtt.codec.v3_1_1.*;
 
 import java.util.List;
 
-public class MqttV5Decoder extends ReplayingDecoder<MqttV5Decoder.DecoderState> {
+/**
+ * Decodes MQTT 5 packets. The fixed header is peeked first and each packet is parsed once it is completely
+ * buffered. Decoded packets that hold properties or a payload must be released, see {@link MqttV5Packet}.
+ */
+public class MqttV5Decoder extends ByteToMessageDecoder {
+
+    // the largest packet the Remaining Length can describe
+    public static final int MAXIMUM_PACKET_SIZE = 1 + 4 + 268435455;
 
-    enum DecoderState {
-        READ_FIXED_HEADER,
-        READ_VARIABLE_HEADER,
-        READ_PAYLOAD
+    private final int maximumPacketSize;
+    // the topic of each inbound Topic Alias, by alias - 1, null if aliases are not accepted
+    private final String[] topicAliases;
+    private boolean discarding;
+
+    public MqttV5Decoder() {
+        this(MAXIMUM_PACKET_SIZE);
     }
 
-    private MqttV5Packet packet;
-    private short flags;
-    private int remainingLength;
+    /**
+     * @param maximumPacketSize the Maximum Packet Size announced to the peer, larger packets fail to decode
+     */
+    public MqttV5Decoder(int maximumPacketSize) {
+        this(maximumPacketSize, 0);
+    }
 
-    @Override
-    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        switch (state()) {
-            case READ_FIXED_HEADER:
-                short b1 = in.readUnsignedByte();
-                this.flags = (short) (b1 & 0x0F);
-                this.remainingLength = DecoderUtils.readRemainingLength(in);
-                switch (MqttV5PacketType.of(b1 >> 4)) {
-                    case CONNECT:
-                        this.packet = new MqttV5ConnectPacket();
-                        break;
+    /**
+     * @param maximumPacketSize  the Maximum Packet Size announced to the peer, larger packets fail to decode
+     * @param topicAliasMaximum the Topic Alias Maximum announced to the peer. PUBLISH packets that only carry a
+     *                          Topic Alias get the topic last sent with it, as the same {@link String}. With 0,
+     *                          PUBLISH packets that have a topic name are not checked for a Topic Alias
+     */
+    public MqttV5Decoder(int maximumPacketSize, int topicAliasMaximum) {
+        if (maximumPacketSize < 2) {
+            throw new IllegalArgumentException("maximum packet size must be >= 2");
+        }
+        if (topicAliasMaximum < 0 || topicAliasMaximum > 65535) {
+            throw new IllegalArgumentException("topic alias maximum must be between 0 and 65535");
+        }
+        this.maximumPacketSize = maximumPacketSize;
+        this.topicAliases = topicAliasMaximum > 0 ? new String[topicAliasMaximum] : null;
+    }
 
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (discarding) {
+            // a previous packet failed to decode, the rest of the stream cannot be framed anymore
+            in.skipBytes(in.readableBytes());
+            return;
+        }
+        try {
+            MqttV5Packet packet = readFrame(in);
+            if (packet != null) {
+                if (packet.getType() == MqttV5PacketType.PUBLISH) {
+                    try {
+                        resolveTopicAlias((MqttV5PublishPacket) packet);
+                    } catch (RuntimeException e) {
+                        packet.release();
+                        throw e;
+                    }
                 }
-                checkpoint(MqttV5Decoder.DecoderState.READ_VARIABLE_HEADER);
-                out.add(this.packet);
+                out.add(packet);
+            }
+        } catch (RuntimeException e) {
+            discarding = true;
+            throw e;
+        }
+    }
+
+    private MqttV5Packet readFrame(ByteBuf in) {
+        int start = in.readerIndex();
+        if (!in.isReadable(2)) {
+            return null;
+        }
+        int lengthSize = DecoderUtils.peekRemainingLengthSize(in, start + 1);
+        if (lengthSize == 0) {
+            return null;
+        }
+        int remainingLength = 0;
+        for (int i = lengthSize; i > 0; i--) {
+            remainingLength = (remainingLength << 7) | (in.getByte(start + i) & 127);
+        }
+        int packetSize = 1 + lengthSize + remainingLength;
+        if (packetSize > maximumPacketSize) {
+            throw new DecoderException(
+                "packet size " + packetSize + " exceeds the maximum packet size " + maximumPacketSize);
+        }
+        if (in.readableBytes() < packetSize) {
+            return null;
+        }
+        short b1 = in.readUnsignedByte();
+        in.skipBytes(lengthSize);
+        return MqttV5PacketReader.read(b1, in.readSlice(remainingLength));
+    }
+
+    private void resolveTopicAlias(MqttV5PublishPacket packet) {
+        String topic = packet.getTopic();
+        if (topicAliases == null && !topic.isEmpty()) {
+            return;
+        }
+        int topicAlias = packet.getProperties().topicAlias();
+        if (topicAlias == 0) {
+            if (topic.isEmpty()) {
+                throw new DecoderException("PUBLISH packet has neither a topic name nor a topic alias");
+            }
+            return;
+        }
+        if (topicAliases == null || topicAlias > topicAliases.length) {
+            throw new DecoderException("topic alias " + topicAlias + " exceeds the topic alias maximum");
+        }
+        if (topic.isEmpty()) {
+            topic = topicAliases[topicAlias - 1];
+            if (topic == null) {
+                throw new DecoderException("unknown topic alias " + topicAlias);
+            }
+            packet.setTopic(topic);
+        } else {
+            topicAliases[topicAlias - 1] = topic;
         }
     }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+public class MqttV5DisconnectPacket extends MqttV5Packet {
+
+    private MqttV5ReasonCode reasonCode = MqttV5ReasonCode.SUCCESS;
+
+    MqttV5DisconnectPacket() {
+        super(MqttV5PacketType.DISCONNECT);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public MqttV5ReasonCode getReasonCode() {
+        return this.reasonCode;
+    }
+
+    void setReasonCode(MqttV5ReasonCode reasonCode) {
+        this.reasonCode = reasonCode;
+    }
+
+    public static class Builder {
+        private MqttV5ReasonCode reasonCode = MqttV5ReasonCode.SUCCESS;
+        private MqttV5Properties properties = MqttV5Properties.EMPTY;
+
+        Builder() {
+        }
+
+        public Builder reasonCode(MqttV5ReasonCode reasonCode) {
+            this.reasonCode = reasonCode;
+            return this;
+        }
+
+        public Builder properties(MqttV5Properties properties) {
+            this.properties = properties;
+            return this;
+        }
+
+        public MqttV5DisconnectPacket build() {
+            MqttV5DisconnectPacket packet = new MqttV5DisconnectPacket();
+            packet.reasonCode = reasonCode;
+            packet.properties = properties;
+            return packet;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.rapidw.mqtt.codec.utils.MqttUtf8Utils;
+import io.rapidw.mqtt.codec.utils.MqttV311ValidationUtils;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311QosLevel;
+
+import java.util.List;
+import java.util.Objects;
+
+@ChannelHandler.Sharable
+public class MqttV5Encoder extends MessageToMessageEncoder<MqttV5Packet> {
+
+    public static final MqttV5Encoder INSTANCE = new MqttV5Encoder();
+
+    private static final int MAX_REMAINING_LENGTH = 268435455;
+
+    private MqttV5Encoder() {
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, MqttV5Packet packet, List<Object> out) {
+        out.add(doEncode(ctx.alloc(), packet));
+    }
+
+    /**
+     * Encodes a packet into a buffer allocated from {@code byteBufAllocator}, outside of a pipeline. The packet is
+     * not released. Decoded properties that were never read are copied as they were received.
+     */
+    public static ByteBuf doEncode(ByteBufAllocator byteBufAllocator, MqttV5Packet packet) {
+        return encode(byteBufAllocator, null, packet);
+    }
+
+    /**
+     * Writes the encoded packet at the writer index of {@code out}, growing it if needed. The packet is not
+     * released. If the packet cannot be encoded, nothing is written.
+     *
+     * @return the number of bytes written
+     */
+    public static int encodeTo(ByteBuf out, MqttV5Packet packet) {
+        int writerIndex = out.writerIndex();
+        try {
+            encode(out.alloc(), out, packet);
+        } catch (RuntimeException e) {
+            out.writerIndex(writerIndex);
+            throw e;
+        }
+        return out.writerIndex() - writerIndex;
+    }
+
+    // writes into out if it is not null, otherwise into a new buffer of the exact frame size
+    private static ByteBuf encode(ByteBufAllocator byteBufAllocator, ByteBuf out, MqttV5Packet packet) {
+        switch (packet.getType()) {
+            case CONNECT:
+                return encodeConnect(byteBufAllocator, out, (MqttV5ConnectPacket) packet);
+            case CONNACK:
+                return encodeConnAck(byteBufAllocator, out, (MqttV5ConnAckPacket) packet);
+            case PUBLISH:
+                return encodePublish(byteBufAllocator, out, (MqttV5PublishPacket) packet);
+            case PUBACK: {
+                MqttV5PubAckPacket pubAck = (MqttV5PubAckPacket) packet;
+                return encodePublishResponse(byteBufAllocator, out, 0x40, pubAck.getPacketId(),
+                    pubAck.getReasonCode(), pubAck.getProperties());
+            }
+            case PUBREC: {
+                MqttV5PubRecPacket pubRec = (MqttV5PubRecPacket) packet;
+                return encodePublishResponse(byteBufAllocator, out, 0x50, pubRec.getPacketId(),
+                    pubRec.getReasonCode(), pubRec.getProperties());
+            }
+            case PUBREL: {
+                MqttV5PubRelPacket pubRel = (MqttV5PubRelPacket) packet;
+                return encodePublishResponse(byteBufAllocator, out, 0x62, pubRel.getPacketId(),
+                    pubRel.getReasonCode(), pubRel.getProperties());
+            }
+            case PUBCOMP: {
+                MqttV5PubCompPacket pubComp = (MqttV5PubCompPacket) packet;
+                return encodePublishResponse(byteBufAllocator, out, 0x70, pubComp.getPacketId(),
+                    pubComp.getReasonCode(), pubComp.getProperties());
+            }
+            case SUBSCRIBE:
+                return encodeSubscribe(byteBufAllocator, out, (MqttV5SubscribePacket) packet);
+            case SUBACK: {
+                MqttV5SubAckPacket subAck = (MqttV5SubAckPacket) packet;
+                return encodeReasonCodes(byteBufAllocator, out, 0x90, subAck.getPacketId(), subAck.getReasonCodes(),
+                    subAck.getProperties());
+            }
+            case UNSUBSCRIBE:
+                return encodeUnsubscribe(byteBufAllocator, out, (MqttV5UnsubscribePacket) packet);
+            case UNSUBACK: {
+                MqttV5UnsubAckPacket unsubAck = (MqttV5UnsubAckPacket) packet;
+                return encodeReasonCodes(byteBufAllocator, out, 0xB0, unsubAck.getPacketId(),
+                    unsubAck.getReasonCodes(), unsubAck.getProperties());
+            }
+            case PINGREQ:
+                return target(byteBufAllocator, out, 2).writeByte(0xC0).writeByte(0);
+            case PINGRESP:
+                return target(byteBufAllocator, out, 2).writeByte(0xD0).writeByte(0);
+            case DISCONNECT: {
+                MqttV5DisconnectPacket disconnect = (MqttV5DisconnectPacket) packet;
+                return encodeReasonCode(byteBufAllocator, out, 0xE0, disconnect.getReasonCode(),
+                    disconnect.getProperties());
+            }
+            case AUTH: {
+                MqttV5AuthPacket auth = (MqttV5AuthPacket) packet;
+                return encodeReasonCode(byteBufAllocator, out, 0xF0, auth.getReasonCode(), auth.getProperties());
+            }
+            default:
+                throw new EncoderException("Unknown message type");
+        }
+    }
+
+    private static ByteBuf encodeConnect(ByteBufAllocator byteBufAllocator, ByteBuf out, MqttV5ConnectPacket packet) {
+        // protocol name, protocol level, connect flags and keep alive
+        int variablePartSize = 6 + 1 + 1 + 2 + propertiesSize(packet.getProperties());
+
+        int clientIdLength = MqttUtf8Utils.utf8Length(packet.getClientId(), "client id");
+        variablePartSize += 2 + clientIdLength;
+
+        MqttV5Will will = packet.getWill();
+        int willTopicLength = 0;
+        if (will != null) {
+            willTopicLength = MqttUtf8Utils.topicNameUtf8Length(will.getTopic());
+            variablePartSize += propertiesSize(will.getProperties()) + 2 + willTopicLength
+                + 2 + MqttV311ValidationUtils.validateByteArray(will.getPayload(), "will payload").length;
+        }
+        String username = packet.getUsername();
+        int usernameLength = 0;
+        if (username != null) {
+            usernameLength = MqttUtf8Utils.utf8Length(username, "username");
+            variablePartSize += 2 + usernameLength;
+        }
+        byte[] password = packet.getPassword();
+        if (password != null) {
+            variablePartSize += 2 + MqttV311ValidationUtils.validateByteArray(password, "password").length;
+        }
+        if (packet.getKeepAliveSeconds() < 0 || packet.getKeepAliveSeconds() > 65535) {
+            throw new EncoderException("invalid keepAlive seconds");
+        }
+
+        ByteBuf buf = target(byteBufAllocator, out, frameSize(variablePartSize));
+        buf.writeByte(0x10);
+        writeVariableByteInteger(buf, variablePartSize);
+        buf.writeShort(4);
+        buf.writeByte('M').writeByte('Q').writeByte('T').writeByte('T');
+        buf.writeByte(5);
+
+        int b = 0;
+        if (packet.isCleanStart()) {
+            b |= 0x02;
+        }
+        if (will != null) {
+            b |= 0x04;
+            b |= (will.getQosLevel().ordinal() << 3);
+            if (will.isRetain()) {
+                b |= 0x20;
+            }
+        }
+        if (password != null) {
+            b |= 0x40;
+        }
+        if (username != null) {
+            b |= 0x80;
+        }
+        buf.writeByte(b);
+        buf.writeShort(packet.getKeepAliveSeconds());
+        writeProperties(buf, packet.getProperties());
+
+        MqttUtf8Utils.writeString(buf, packet.getClientId(), clientIdLength);
+        if (will != null) {
+            writeProperties(buf, will.getProperties());
+            MqttUtf8Utils.writeString(buf, will.getTopic(), willTopicLength);
+            writeBinary(buf, will.getPayload());
+        }
+        if (username != null) {
+            MqttUtf8Utils.writeString(buf, username, usernameLength);
+        }
+        if (password != null) {
+            writeBinary(buf, password);
+        }
+        return buf;
+    }
+
+    private static ByteBuf encodeConnAck(ByteBufAllocator byteBufAllocator, ByteBuf out, MqttV5ConnAckPacket packet) {
+        MqttV5ReasonCode reasonCode = Objects.requireNonNull(packet.getReasonCode());
+        if (reasonCode.isError() && packet.isSessionPresent()) {
+            throw new EncoderException(
+                "[MQTT-3.2.2-6] CONNACK packet containing a non-zero reason code MUST set Session Present to 0");
+        }
+        int variablePartSize = 2 + propertiesSize(packet.getProperties());
+        ByteBuf buf = target(byteBufAllocator, out, frameSize(variablePartSize));
+        buf.writeByte(0x20);
+        writeVariableByteInteger(buf, variablePartSize);
+        buf.writeByte(packet.isSessionPresent() ? 0x01 : 0);
+        buf.writeByte(reasonCode.value());
+        writeProperties(buf, packet.getProperties());
+        return buf;
+    }
+
+    private static ByteBuf encodePublish(ByteBufAllocator byteBufAllocator, ByteBuf out, MqttV5PublishPacket packet) {
+        String topic = MqttV311ValidationUtils.requireNonNull(packet.getTopic(), "topic");
+        // an empty topic is only valid together with a topic alias
+        int topicLength = topic.isEmpty() ? 0 : MqttUtf8Utils.topicNameUtf8Length(topic);
+        MqttV311QosLevel qosLevel = packet.getQosLevel();
+        if (qosLevel == MqttV311QosLevel.FAILURE) {
+            throw new EncoderException("[MQTT-3.3.1-4] PUBLISH Packet MUST NOT have both QoS bits set to 1");
+        }
+        boolean hasPacketId = qosLevel != MqttV311QosLevel.AT_MOST_ONCE;
+        if (!hasPacketId && packet.getPacketId() != 0) {
+            throw new EncoderException("PacketId is only present in PUBLISH Packets where the QoS level is 1 or 2");
+        }
+        ByteBuf payload = packet.getPayload();
+        int payloadSize = payload.readableBytes();
+        int headerSize = 2 + topicLength + (hasPacketId ? 2 : 0) + propertiesSize(packet.getProperties());
+        int variablePartSize = headerSize + payloadSize;
+        int frameSize = frameSize(variablePartSize);
+
+        // a payload is appended as a composite component unless writing into a supplied buffer
+        boolean composite = out == null && payloadSize > 0;
+        ByteBuf buf = target(byteBufAllocator, out, composite ? frameSize - payloadSize : frameSize);
+        int b = 0x30;
+        if (packet.isRetain()) {
+            b |= 0x01;
+        }
+        b |= qosLevel.value() << 1;
+        if (packet.isDupFlag()) {
+            b |= 0x08;
+        }
+        buf.writeByte(b);
+        writeVariableByteInteger(buf, variablePartSize);
+        MqttUtf8Utils.writeString(buf, topic, topicLength);
+        if (hasPacketId) {
+            buf.writeShort(MqttV311ValidationUtils.validatePacketId(packet.getPacketId()));
+        }
+        writeProperties(buf, packet.getProperties());
+        if (composite) {
+            return byteBufAllocator.compositeBuffer(2).addComponents(true, buf, payload.retainedDuplicate());
+        }
+        buf.writeBytes(payload, payload.readerIndex(), payloadSize);
+        return buf;
+    }
+
+    // PUBACK, PUBREC, PUBREL and PUBCOMP, leaving out what the receiver assumes when it is missing
+    private static ByteBuf encodePublishResponse(ByteBufAllocator byteBufAllocator, ByteBuf out, int b1, int packetId,
+        MqttV5ReasonCode reasonCode, MqttV5Properties properties) {
+        Objects.requireNonNull(reasonCode);
+        int variablePartSize;
+        if (!properties.isEmpty()) {
+            variablePartSize = 3 + propertiesSize(properties);
+        } else if (reasonCode != MqttV5ReasonCode.SUCCESS) {
+            variablePartSize = 3;
+        } else {
+            variablePartSize = 2;
+        }
+        ByteBuf buf = target(byteBufAllocator, out, frameSize(variablePartSize));
+        buf.writeByte(b1);
+        writeVariableByteInteger(buf, variablePartSize);
+        buf.writeShort(MqttV311ValidationUtils.validatePacketId(packetId));
+        if (variablePartSize > 2) {
+            buf.writeByte(reasonCode.value());
+        }
+        if (variablePartSize > 3) {
+            writeProperties(buf, properties);
+        }
+        return buf;
+    }
+
+    // DISCONNECT and AUTH, leaving out what the receiver assumes when it is missing
+    private static ByteBuf encodeReasonCode(ByteBufAllocator byteBufAllocator, ByteBuf out, int b1,
+        MqttV5ReasonCode reasonCode, MqttV5Properties properties) {
+        Objects.requireNonNull(reasonCode);
+        int variablePartSize;
+        if (!properties.isEmpty()) {
+            variablePartSize = 1 + propertiesSize(properties);
+        } else if (reasonCode != MqttV5ReasonCode.SUCCESS) {
+            variablePartSize = 1;
+        } else {
+            variablePartSize = 0;
+        }
+        ByteBuf buf = target(byteBufAllocator, out, frameSize(variablePartSize));
+        buf.writeByte(b1);
+        writeVariableByteInteger(buf, variablePartSize);
+        if (variablePartSize > 0) {
+            buf.writeByte(reasonCode.value());
+        }
+        if (variablePartSize > 1) {
+            writeProperties(buf, properties);
+        }
+        return buf;
+    }
+
+    // SUBACK and UNSUBACK
+    private static ByteBuf encodeReasonCodes(ByteBufAllocator byteBufAllocator, ByteBuf out, int b1, int packetId,
+        List<MqttV5ReasonCode> reasonCodes, MqttV5Properties properties) {
+        MqttV311ValidationUtils.requireNonNull(reasonCodes, "reason codes");
+        int variablePartSize = 2 + propertiesSize(properties) + reasonCodes.size();
+        ByteBuf buf = target(byteBufAllocator, out, frameSize(variablePartSize));
+        buf.writeByte(b1);
+        writeVariableByteInteger(buf, variablePartSize);
+        buf.writeShort(MqttV311ValidationUtils.validatePacketId(packetId));
+        writeProperties(buf, properties);
+        for (MqttV5ReasonCode reasonCode : reasonCodes) {
+            buf.writeByte(reasonCode.value());
+        }
+        return buf;
+    }
+
+    private static ByteBuf encodeSubscribe(ByteBufAllocator byteBufAllocator, ByteBuf out,
+        MqttV5SubscribePacket packet) {
+        List<MqttV5Subscription> subscriptions =
+            MqttV311ValidationUtils.requireNonNull(packet.getSubscriptions(), "subscriptions");
+        if (subscriptions.isEmpty()) {
+            throw new EncoderException(
+                "[MQTT-3.8.3-2] SUBSCRIBE packet MUST contain at least one topic filter and subscription options pair");
+        }
+        int[] topicFilterLengths = new int[subscriptions.size()];
+        int variablePartSize = 2 + propertiesSize(packet.getProperties());
+        for (int i = 0; i < topicFilterLengths.length; i++) {
+            MqttV5Subscription subscription = subscriptions.get(i);
+            if (subscription.getQosLevel() == MqttV311QosLevel.FAILURE) {
+                throw new EncoderException("subscription QoS must not be 3");
+            }
+            topicFilterLengths[i] = MqttUtf8Utils.topicFilterUtf8Length(subscription.getTopicFilter());
+            variablePartSize += 2 + topicFilterLengths[i] + 1;
+        }
+        ByteBuf buf = target(byteBufAllocator, out, frameSize(variablePartSize));
+        buf.writeByte(0x82);
+        writeVariableByteInteger(buf, variablePartSize);
+        buf.writeShort(MqttV311ValidationUtils.validatePacketId(packet.getPacketId()));
+        writeProperties(buf, packet.getProperties());
+        for (int i = 0; i < topicFilterLengths.length; i++) {
+            MqttV5Subscription subscription = subscriptions.get(i);
+            MqttUtf8Utils.writeString(buf, subscription.getTopicFilter(), topicFilterLengths[i]);
+            buf.writeByte(subscription.options());
+        }
+        return buf;
+    }
+
+    private static ByteBuf encodeUnsubscribe(ByteBufAllocator byteBufAllocator, ByteBuf out,
+        MqttV5UnsubscribePacket packet) {
+        List<String> topicFilters = MqttV311ValidationUtils.requireNonNull(packet.getTopicFilters(), "topic filters");
+        if (topicFilters.isEmpty()) {
+            throw new EncoderException("[MQTT-3.10.3-2] UNSUBSCRIBE packet MUST contain at least one topic filter");
+        }
+        int[] topicFilterLengths = new int[topicFilters.size()];
+        int variablePartSize = 2 + propertiesSize(packet.getProperties());
+        for (int i = 0; i < topicFilterLengths.length; i++) {
+            topicFilterLengths[i] = MqttUtf8Utils.topicFilterUtf8Length(topicFilters.get(i));
+            variablePartSize += 2 + topicFilterLengths[i];
+        }
+        ByteBuf buf = target(byteBufAllocator, out, frameSize(variablePartSize));
+        buf.writeByte(0xA2);
+        writeVariableByteInteger(buf, variablePartSize);
+        buf.writeShort(MqttV311ValidationUtils.validatePacketId(packet.getPacketId()));
+        writeProperties(buf, packet.getProperties());
+        for (int i = 0; i < topicFilterLengths.length; i++) {
+            MqttUtf8Utils.writeString(buf, topicFilters.get(i), topicFilterLengths[i]);
+        }
+        return buf;
+    }
+
+    // ---------------------------------------------------------------------------------
+
+    private static ByteBuf target(ByteBufAllocator byteBufAllocator, ByteBuf out, int frameSize) {
+        if (out != null) {
+            return out.ensureWritable(frameSize);
+        }
+        return byteBufAllocator.buffer(frameSize);
+    }
+
+    private static int frameSize(int variablePartSize) {
+        if (variablePartSize > MAX_REMAINING_LENGTH) {
+            throw new IllegalArgumentException("packet too large");
+        }
+        return 1 + variableByteIntegerSize(variablePartSize) + variablePartSize;
+    }
+
+    // the property length followed by the properties
+    private static int propertiesSize(MqttV5Properties properties) {
+        int size = properties.encodedSize();
+        return variableByteIntegerSize(size) + size;
+    }
+
+    private static void writeProperties(ByteBuf buf, MqttV5Properties properties) {
+        writeVariableByteInteger(buf, properties.encodedSize());
+        properties.writeTo(buf);
+    }
+
+    private static void writeBinary(ByteBuf buf, byte[] bytes) {
+        buf.writeShort(bytes.length);
+        buf.writeBytes(bytes);
+    }
+
+    static int variableByteIntegerSize(int value) {
+        int size = 1;
+        while (value >= 128) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void writeVariableByteInteger(ByteBuf buf, int value) {
+        do {
+            int digit = value & 127;
+            value >>>= 7;
+            if (value > 0) {
+                digit |= 0x80;
+            }
+            buf.writeByte(digit);
+        } while (value > 0);
+    }
+}
@@ -1,4 +1,4 @@
-/**
+/*
  * Copyright 2020 Rapidw
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
@@ -15,5 +15,83 @@
  */
 package io.rapidw.mqtt.codec.v5;
 
-public class MqttV5Packet {
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCounted;
+
+/**
+ * Base class of MQTT 5 packets.
+ * <p>
+ * A decoded packet whose properties or payload are not empty keeps a retained slice of the received bytes, which
+ * the properties and the payload are read from, and must be released once it has been handled. Other packets hold
+ * no buffer, and releasing them has no effect.
+ */
+public class MqttV5Packet implements ReferenceCounted {
+
+    protected MqttV5PacketType type;
+    protected MqttV5Properties properties = MqttV5Properties.EMPTY;
+    // the buffer the properties and the payload are slices of, null if the packet holds none
+    ByteBuf content;
+
+    protected MqttV5Packet(MqttV5PacketType type) {
+        this.type = type;
+    }
+
+    public MqttV5PacketType getType() {
+        return type;
+    }
+
+    public MqttV5Properties getProperties() {
+        return properties;
+    }
+
+    void setProperties(MqttV5Properties properties) {
+        this.properties = properties;
+    }
+
+    @Override
+    public int refCnt() {
+        return this.content != null ? this.content.refCnt() : 1;
+    }
+
+    @Override
+    public MqttV5Packet retain() {
+        if (this.content != null) {
+            this.content.retain();
+        }
+        return this;
+    }
+
+    @Override
+    public MqttV5Packet retain(int increment) {
+        if (this.content != null) {
+            this.content.retain(increment);
+        }
+        return this;
+    }
+
+    @Override
+    public MqttV5Packet touch() {
+        if (this.content != null) {
+            this.content.touch();
+        }
+        return this;
+    }
+
+    @Override
+    public MqttV5Packet touch(Object hint) {
+        if (this.content != null) {
+            this.content.touch(hint);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return this.content != null && this.content.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return this.content != null && this.content.release(decrement);
+    }
 }
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.DecoderException;
+import io.rapidw.mqtt.codec.utils.DecoderUtils;
+import io.rapidw.mqtt.codec.utils.MqttV311ValidationUtils;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311QosLevel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses MQTT 5 packets from a completely buffered frame. Properties and PUBLISH payloads are sliced out of the
+ * frame without being copied or parsed, and the frame is retained only by packets that keep such a slice.
+ */
+final class MqttV5PacketReader {
+
+    private MqttV5PacketReader() {
+    }
+
+    /**
+     * @param b1   the first byte of the fixed header
+     * @param body the frame without its fixed header, consumed completely
+     */
+    static MqttV5Packet read(short b1, ByteBuf body) {
+        int flags = b1 & 0x0F;
+        MqttV5PacketType type = MqttV5PacketType.of(b1 >> 4);
+        MqttV5Packet packet;
+        switch (type) {
+            case CONNECT:
+                checkFlags(type, flags, 0, "[MQTT-3.1.2-3] ");
+                packet = readConnect(body);
+                break;
+            case CONNACK:
+                checkFlags(type, flags, 0, "");
+                packet = readConnAck(body);
+                break;
+            case PUBLISH:
+                packet = readPublish(flags, body);
+                break;
+            case PUBACK: {
+                checkFlags(type, flags, 0, "");
+                MqttV5PubAckPacket pubAck = new MqttV5PubAckPacket();
+                pubAck.setPacketId(DecoderUtils.readPacketIdValue(body));
+                pubAck.setReasonCode(readOptionalReasonCode(body));
+                readOptionalProperties(pubAck, body);
+                packet = pubAck;
+                break;
+            }
+            case PUBREC: {
+                checkFlags(type, flags, 0, "");
+                MqttV5PubRecPacket pubRec = new MqttV5PubRecPacket();
+                pubRec.setPacketId(DecoderUtils.readPacketIdValue(body));
+                pubRec.setReasonCode(readOptionalReasonCode(body));
+                readOptionalProperties(pubRec, body);
+                packet = pubRec;
+                break;
+            }
+            case PUBREL: {
+                checkFlags(type, flags, 2, "[MQTT-3.6.1-1] ");
+                MqttV5PubRelPacket pubRel = new MqttV5PubRelPacket();
+                pubRel.setPacketId(DecoderUtils.readPacketIdValue(body));
+                pubRel.setReasonCode(readOptionalReasonCode(body));
+                readOptionalProperties(pubRel, body);
+                packet = pubRel;
+                break;
+            }
+            case PUBCOMP: {
+                checkFlags(type, flags, 0, "");
+                MqttV5PubCompPacket pubComp = new MqttV5PubCompPacket();
+                pubComp.setPacketId(DecoderUtils.readPacketIdValue(body));
+                pubComp.setReasonCode(readOptionalReasonCode(body));
+                readOptionalProperties(pubComp, body);
+                packet = pubComp;
+                break;
+            }
+            case SUBSCRIBE:
+                checkFlags(type, flags, 2, "[MQTT-3.8.1-1] ");
+                packet = readSubscribe(body);
+                break;
+            case SUBACK: {
+                checkFlags(type, flags, 0, "");
+                MqttV5SubAckPacket subAck = new MqttV5SubAckPacket();
+                subAck.setPacketId(DecoderUtils.readPacketIdValue(body));
+                readProperties(subAck, body);
+                subAck.setReasonCodes(readReasonCodes(body));
+                packet = subAck;
+                break;
+            }
+            case UNSUBSCRIBE:
+                checkFlags(type, flags, 2, "[MQTT-3.10.1-1] ");
+                packet = readUnsubscribe(body);
+                break;
+            case UNSUBACK: {
+                checkFlags(type, flags, 0, "");
+                MqttV5UnsubAckPacket unsubAck = new MqttV5UnsubAckPacket();
+                unsubAck.setPacketId(DecoderUtils.readPacketIdValue(body));
+                readProperties(unsubAck, body);
+                unsubAck.setReasonCodes(readReasonCodes(body));
+                packet = unsubAck;
+                break;
+            }
+            case PINGREQ:
+                checkFlags(type, flags, 0, "");
+                packet = MqttV5PingReqPacket.INSTANCE;
+                break;
+            case PINGRESP:
+                checkFlags(type, flags, 0, "");
+                packet = MqttV5PingRespPacket.INSTANCE;
+                break;
+            case DISCONNECT: {
+                checkFlags(type, flags, 0, "");
+                MqttV5DisconnectPacket disconnect = new MqttV5DisconnectPacket();
+                disconnect.setReasonCode(readOptionalReasonCode(body));
+                readOptionalProperties(disconnect, body);
+                packet = disconnect;
+                break;
+            }
+            case AUTH: {
+                checkFlags(type, flags, 0, "");
+                MqttV5AuthPacket auth = new MqttV5AuthPacket();
+                auth.setReasonCode(readOptionalReasonCode(body));
+                readOptionalProperties(auth, body);
+                packet = auth;
+                break;
+            }
+            default:
+                throw new DecoderException("unsupported packet type: " + (b1 >> 4));
+        }
+        if (body.isReadable()) {
+            throw new DecoderException("invalid " + type + " remaining length");
+        }
+        // only now that the frame is known to be valid, so that a failed packet leaks nothing
+        if (packet.content != null) {
+            packet.content.retain();
+        }
+        return packet;
+    }
+
+    private static void checkFlags(MqttV5PacketType type, int flags, int expected, String rule) {
+        if (flags != expected) {
+            throw new DecoderException(rule + "invalid " + type + " fixed header flags");
+        }
+    }
+
+    private static MqttV5ConnectPacket readConnect(ByteBuf body) {
+        MqttV5ConnectPacket packet = new MqttV5ConnectPacket();
+        if (!"MQTT".equals(readString(body))) {
+            throw new DecoderException("[MQTT-3.1.2-1] invalid protocol name");
+        }
+        short protocolLevel = body.readUnsignedByte();
+        if (protocolLevel != 5) {
+            throw new DecoderException("unsupported protocol level: " + protocolLevel);
+        }
+        short connectFlags = body.readUnsignedByte();
+        if ((connectFlags & 0x01) != 0) {
+            throw new DecoderException("[MQTT-3.1.2-3] reserved connect flag must be 0");
+        }
+        boolean willFlag = (connectFlags & 0x04) != 0;
+        int willQos = (connectFlags & 0x18) >> 3;
+        boolean willRetain = (connectFlags & 0x20) != 0;
+        if (willQos == 3) {
+            throw new DecoderException("will QoS must not be 3");
+        }
+        if (!willFlag && (willQos != 0 || willRetain)) {
+            throw new DecoderException("will QoS and will retain must be 0 without a will");
+        }
+        packet.setCleanStart((connectFlags & 0x02) != 0);
+        packet.setKeepAliveSeconds(body.readUnsignedShort());
+        readProperties(packet, body);
+
+        packet.setClientId(readString(body));
+        if (willFlag) {
+            MqttV5Properties willProperties = sliceProperties(packet, body);
+            String willTopic = MqttV311ValidationUtils.validateTopicName(readString(body));
+            packet.setWill(MqttV5Will.builder()
+                .topic(willTopic)
+                .qosLevel(MqttV311QosLevel.of(willQos))
+                .retain(willRetain)
+                .payload(readBinary(body))
+                .properties(willProperties)
+                .build());
+        }
+        if ((connectFlags & 0x80) != 0) {
+            packet.setUsername(readString(body));
+        }
+        if ((connectFlags & 0x40) != 0) {
+            packet.setPassword(readBinary(body));
+        }
+        return packet;
+    }
+
+    private static MqttV5ConnAckPacket readConnAck(ByteBuf body) {
+        MqttV5ConnAckPacket packet = new MqttV5ConnAckPacket();
+        short acknowledgeFlags = body.readUnsignedByte();
+        if ((acknowledgeFlags & 0xFE) != 0) {
+            throw new DecoderException("[MQTT-3.2.2-1] reserved connect acknowledge flags must be 0");
+        }
+        packet.setSessionPresent(acknowledgeFlags == 1);
+        packet.setReasonCode(MqttV5ReasonCode.of(body.readUnsignedByte()));
+        readOptionalProperties(packet, body);
+        return packet;
+    }
+
+    private static MqttV5PublishPacket readPublish(int flags, ByteBuf body) {
+        MqttV5PublishPacket packet = new MqttV5PublishPacket();
+        int qos = (flags & 0x06) >> 1;
+        if (qos == 3) {
+            throw new DecoderException("[MQTT-3.3.1-4] PUBLISH packet MUST NOT have both QoS bits set to 1");
+        }
+        boolean dup = (flags & 0x08) != 0;
+        if (dup && qos == 0) {
+            throw new DecoderException("[MQTT-3.3.1-2] DUP flag MUST be 0 for QoS 0 messages");
+        }
+        packet.setDupFlag(dup);
+        packet.setQosLevel(MqttV311QosLevel.of(qos));
+        packet.setRetain((flags & 0x01) != 0);
+        // empty if the topic is replaced by a topic alias
+        packet.setTopic(MqttV311ValidationUtils.validateTopicName(readString(body)));
+        if (qos > 0) {
+            packet.setPacketId(DecoderUtils.readPacketIdValue(body));
+        }
+        readProperties(packet, body);
+        if (body.isReadable()) {
+            packet.setPayload(body.readSlice(body.readableBytes()));
+            packet.content = body;
+        }
+        return packet;
+    }
+
+    private static MqttV5SubscribePacket readSubscribe(ByteBuf body) {
+        MqttV5SubscribePacket packet = new MqttV5SubscribePacket();
+        packet.setPacketId(DecoderUtils.readPacketIdValue(body));
+        readProperties(packet, body);
+        List<MqttV5Subscription> subscriptions = new ArrayList<>();
+        while (body.isReadable()) {
+            String topicFilter = MqttV311ValidationUtils.validateTopicFilter(readString(body));
+            short options = body.readUnsignedByte();
+            if ((options & 0xC0) != 0) {
+                throw new DecoderException("[MQTT-3.8.3-5] reserved subscription option bits must be 0");
+            }
+            int qos = options & 0x03;
+            int retainHandling = (options & 0x30) >> 4;
+            if (qos == 3 || retainHandling == 3) {
+                throw new DecoderException("invalid subscription options: " + options);
+            }
+            subscriptions.add(new MqttV5Subscription(topicFilter, MqttV311QosLevel.of(qos), (options & 0x04) != 0,
+                (options & 0x08) != 0, retainHandling));
+        }
+        if (subscriptions.isEmpty()) {
+            throw new DecoderException(
+                "[MQTT-3.8.3-2] SUBSCRIBE packet MUST contain at least one topic filter and subscription options pair");
+        }
+        packet.setSubscriptions(subscriptions);
+        return packet;
+    }
+
+    private static MqttV5UnsubscribePacket readUnsubscribe(ByteBuf body) {
+        MqttV5UnsubscribePacket packet = new MqttV5UnsubscribePacket();
+        packet.setPacketId(DecoderUtils.readPacketIdValue(body));
+        readProperties(packet, body);
+        List<String> topicFilters = new ArrayList<>();
+        while (body.isReadable()) {
+            topicFilters.add(MqttV311ValidationUtils.validateTopicFilter(readString(body)));
+        }
+        if (topicFilters.isEmpty()) {
+            throw new DecoderException("[MQTT-3.10.3-2] UNSUBSCRIBE packet MUST contain at least one topic filter");
+        }
+        packet.setTopicFilters(topicFilters);
+        return packet;
+    }
+
+    private static MqttV5ReasonCode readOptionalReasonCode(ByteBuf body) {
+        return body.isReadable() ? MqttV5ReasonCode.of(body.readUnsignedByte()) : MqttV5ReasonCode.SUCCESS;
+    }
+
+    private static List<MqttV5ReasonCode> readReasonCodes(ByteBuf body) {
+        List<MqttV5ReasonCode> reasonCodes = new ArrayList<>(body.readableBytes());
+        while (body.isReadable()) {
+            reasonCodes.add(MqttV5ReasonCode.of(body.readUnsignedByte()));
+        }
+        return reasonCodes;
+    }
+
+    private static void readOptionalProperties(MqttV5Packet packet, ByteBuf body) {
+        if (body.isReadable()) {
+            readProperties(packet, body);
+        }
+    }
+
+    private static void readProperties(MqttV5Packet packet, ByteBuf body) {
+        packet.setProperties(sliceProperties(packet, body));
+    }
+
+    private static MqttV5Properties sliceProperties(MqttV5Packet packet, ByteBuf body) {
+        int length = DecoderUtils.readRemainingLength(body);
+        if (length == 0) {
+            return MqttV5Properties.EMPTY;
+        }
+        if (length > body.readableBytes()) {
+            throw new DecoderException("property length exceeds the remaining length");
+        }
+        packet.content = body;
+        return MqttV5Properties.wrap(body.readSlice(length));
+    }
+
+    private static String readString(ByteBuf body) {
+        return DecoderUtils.readString(body, body.readUnsignedShort());
+    }
+
+    private static byte[] readBinary(ByteBuf body) {
+        return DecoderUtils.readByteArray(body, body.readUnsignedShort());
+    }
+}
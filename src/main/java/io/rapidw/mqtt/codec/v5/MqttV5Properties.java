@@ -0,0 +1,564 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DecoderException;
+import io.rapidw.mqtt.codec.utils.MqttUtf8Utils;
+import io.rapidw.mqtt.codec.utils.MqttV311ValidationUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The properties of an MQTT 5 packet.
+ * <p>
+ * Decoded properties are kept as the raw bytes of the packet and only parsed when one of the accessors is first
+ * called, so a packet whose properties are never looked at costs nothing to decode and is re-encoded by copying
+ * the raw bytes. The raw bytes belong to the packet, so the properties must be read before the packet is released.
+ * A malformed property is only reported then, as a {@link DecoderException}. The parsed properties are published
+ * at once, so properties may be read from several threads.
+ */
+public final class MqttV5Properties {
+
+    public static final MqttV5Properties EMPTY = new MqttV5Properties(null, new byte[0], new Object[0], 0);
+
+    // the undecoded property bytes, null if the properties were built
+    private final ByteBuf raw;
+    // null until the undecoded bytes are parsed, a thread then sees either nothing or all of them
+    private volatile Parsed parsed;
+    private final int encodedSize;
+
+    private MqttV5Properties(ByteBuf raw, byte[] ids, Object[] values, int count) {
+        this.raw = raw;
+        if (raw != null) {
+            this.encodedSize = raw.readableBytes();
+        } else {
+            this.parsed = new Parsed(ids, values, count);
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                size += 1 + valueSize(MqttV5Property.of(ids[i]), values[i]);
+            }
+            this.encodedSize = size;
+        }
+    }
+
+    /**
+     * Wraps the undecoded properties, without the property length, of a packet.
+     */
+    static MqttV5Properties wrap(ByteBuf raw) {
+        if (!raw.isReadable()) {
+            return EMPTY;
+        }
+        return new MqttV5Properties(raw, null, null, 0);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Whether the properties have been parsed. Decoded properties are parsed on the first call to an accessor.
+     */
+    public boolean isDecoded() {
+        return this.parsed != null;
+    }
+
+    public boolean isEmpty() {
+        return this.raw == null && this.parsed.count == 0;
+    }
+
+    public boolean contains(MqttV5Property property) {
+        return decode().indexOf(property) >= 0;
+    }
+
+    /**
+     * Returns the value of a numeric property, or {@code defaultValue} if it is not included.
+     */
+    public long getNumber(MqttV5Property property, long defaultValue) {
+        checkType(property.isNumeric(), property);
+        Parsed parsed = decode();
+        int i = parsed.indexOf(property);
+        return i >= 0 ? (Long) parsed.values[i] : defaultValue;
+    }
+
+    /**
+     * Returns the value of a UTF-8 string property, or null if it is not included.
+     */
+    public String getString(MqttV5Property property) {
+        checkType(property.type() == MqttV5Property.Type.UTF8_STRING, property);
+        Parsed parsed = decode();
+        int i = parsed.indexOf(property);
+        return i >= 0 ? (String) parsed.values[i] : null;
+    }
+
+    /**
+     * Returns the value of a binary data property, or null if it is not included.
+     */
+    public byte[] getBinary(MqttV5Property property) {
+        checkType(property.type() == MqttV5Property.Type.BINARY_DATA, property);
+        Parsed parsed = decode();
+        int i = parsed.indexOf(property);
+        return i >= 0 ? (byte[]) parsed.values[i] : null;
+    }
+
+    public List<MqttV5UserProperty> getUserProperties() {
+        Parsed parsed = decode();
+        List<MqttV5UserProperty> userProperties = null;
+        for (int i = 0; i < parsed.count; i++) {
+            if (parsed.ids[i] == MqttV5Property.USER_PROPERTY.id()) {
+                if (userProperties == null) {
+                    userProperties = new ArrayList<>();
+                }
+                userProperties.add((MqttV5UserProperty) parsed.values[i]);
+            }
+        }
+        return userProperties != null ? userProperties : Collections.emptyList();
+    }
+
+    public List<Integer> getSubscriptionIdentifiers() {
+        Parsed parsed = decode();
+        List<Integer> identifiers = null;
+        for (int i = 0; i < parsed.count; i++) {
+            if (parsed.ids[i] == MqttV5Property.SUBSCRIPTION_IDENTIFIER.id()) {
+                if (identifiers == null) {
+                    identifiers = new ArrayList<>();
+                }
+                identifiers.add(((Long) parsed.values[i]).intValue());
+            }
+        }
+        return identifiers != null ? identifiers : Collections.emptyList();
+    }
+
+    /**
+     * Returns the size of the encoded properties, without the property length.
+     */
+    int encodedSize() {
+        return this.encodedSize;
+    }
+
+    /**
+     * Writes the encoded properties, without the property length. Decoded properties are copied as they are.
+     */
+    void writeTo(ByteBuf buf) {
+        if (this.raw != null) {
+            buf.writeBytes(this.raw, this.raw.readerIndex(), this.raw.readableBytes());
+            return;
+        }
+        Parsed parsed = this.parsed;
+        for (int i = 0; i < parsed.count; i++) {
+            MqttV5Property property = MqttV5Property.of(parsed.ids[i]);
+            buf.writeByte(property.id());
+            writeValue(buf, property, parsed.values[i]);
+        }
+    }
+
+    /**
+     * Returns the Topic Alias, or 0 if there is none. Undecoded properties are scanned without being decoded.
+     */
+    int topicAlias() {
+        if (this.raw == null || this.parsed != null) {
+            return (int) getNumber(MqttV5Property.TOPIC_ALIAS, 0);
+        }
+        int offset = rawOffsetOf(MqttV5Property.TOPIC_ALIAS);
+        return offset >= 0 ? this.raw.getUnsignedShort(offset + 1) : 0;
+    }
+
+    /**
+     * Returns these properties with the Topic Alias replaced by {@code topicAlias}, or removed if it is 0. Undecoded
+     * properties are copied as bytes, without being decoded, and no longer refer to the packet they came from.
+     */
+    MqttV5Properties withTopicAlias(int topicAlias) {
+        if (this.raw != null && this.parsed == null) {
+            int offset = rawOffsetOf(MqttV5Property.TOPIC_ALIAS);
+            if (offset < 0 && topicAlias == 0) {
+                return this;
+            }
+            int start = this.raw.readerIndex();
+            int length = this.raw.readableBytes();
+            int before = offset < 0 ? length : offset - start;
+            int after = offset < 0 ? 0 : length - before - 3;
+            int prefix = topicAlias != 0 ? 3 : 0;
+            if (prefix + before + after == 0) {
+                return EMPTY;
+            }
+            byte[] bytes = new byte[prefix + before + after];
+            if (topicAlias != 0) {
+                bytes[0] = (byte) MqttV5Property.TOPIC_ALIAS.id();
+                bytes[1] = (byte) (topicAlias >>> 8);
+                bytes[2] = (byte) topicAlias;
+            }
+            this.raw.getBytes(start, bytes, prefix, before);
+            if (after > 0) {
+                this.raw.getBytes(offset + 3, bytes, prefix + before, after);
+            }
+            return new MqttV5Properties(Unpooled.wrappedBuffer(bytes), null, null, 0);
+        }
+        Parsed parsed = decode();
+        int existing = parsed.indexOf(MqttV5Property.TOPIC_ALIAS);
+        if (existing < 0 && topicAlias == 0) {
+            return this;
+        }
+        int count = parsed.count - (existing >= 0 ? 1 : 0) + (topicAlias != 0 ? 1 : 0);
+        if (count == 0) {
+            return EMPTY;
+        }
+        byte[] ids = new byte[count];
+        Object[] values = new Object[count];
+        int j = 0;
+        if (topicAlias != 0) {
+            ids[j] = (byte) MqttV5Property.TOPIC_ALIAS.id();
+            values[j++] = (long) topicAlias;
+        }
+        for (int i = 0; i < parsed.count; i++) {
+            if (i != existing) {
+                ids[j] = parsed.ids[i];
+                values[j++] = parsed.values[i];
+            }
+        }
+        return new MqttV5Properties(null, ids, values, count);
+    }
+
+    // the index of a property in the undecoded bytes, or -1, skipping over the values of the others
+    private int rawOffsetOf(MqttV5Property property) {
+        ByteBuf buf = this.raw;
+        int index = buf.readerIndex();
+        int end = buf.writerIndex();
+        while (index < end) {
+            int start = index;
+            MqttV5Property current = MqttV5Property.of(buf.getUnsignedByte(index++));
+            index = skipValue(buf, current.type(), index, end);
+            if (current == property) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipValue(ByteBuf buf, MqttV5Property.Type type, int index, int end) {
+        int length;
+        switch (type) {
+            case BYTE:
+                length = 1;
+                break;
+            case TWO_BYTE_INTEGER:
+                length = 2;
+                break;
+            case FOUR_BYTE_INTEGER:
+                length = 4;
+                break;
+            case VARIABLE_BYTE_INTEGER:
+                length = 0;
+                do {
+                    if (length == 4) {
+                        throw new DecoderException("variable byte integer exceeds 4 bytes");
+                    }
+                    checkReadable(index + length, 1, end);
+                } while ((buf.getByte(index + length++) & 0x80) != 0);
+                break;
+            case UTF8_STRING:
+            case BINARY_DATA:
+                checkReadable(index, 2, end);
+                length = 2 + buf.getUnsignedShort(index);
+                break;
+            default:
+                index = skipValue(buf, MqttV5Property.Type.UTF8_STRING, index, end);
+                return skipValue(buf, MqttV5Property.Type.UTF8_STRING, index, end);
+        }
+        checkReadable(index, length, end);
+        return index + length;
+    }
+
+    private static void checkType(boolean matches, MqttV5Property property) {
+        if (!matches) {
+            throw new IllegalArgumentException(property + " is of type " + property.type());
+        }
+    }
+
+    private Parsed decode() {
+        Parsed parsed = this.parsed;
+        if (parsed != null) {
+            return parsed;
+        }
+        ByteBuf buf = this.raw;
+        int index = buf.readerIndex();
+        int end = buf.writerIndex();
+        byte[] ids = new byte[4];
+        Object[] values = new Object[4];
+        int count = 0;
+        long seen = 0;
+        while (index < end) {
+            MqttV5Property property = MqttV5Property.of(buf.getUnsignedByte(index++));
+            if (!property.isRepeatable()) {
+                long bit = 1L << property.id();
+                if ((seen & bit) != 0) {
+                    throw new DecoderException("property " + property + " included more than once");
+                }
+                seen |= bit;
+            }
+            Object value;
+            switch (property.type()) {
+                case BYTE:
+                    checkReadable(index, 1, end);
+                    value = (long) buf.getUnsignedByte(index);
+                    index += 1;
+                    break;
+                case TWO_BYTE_INTEGER:
+                    checkReadable(index, 2, end);
+                    value = (long) buf.getUnsignedShort(index);
+                    index += 2;
+                    break;
+                case FOUR_BYTE_INTEGER:
+                    checkReadable(index, 4, end);
+                    value = buf.getUnsignedInt(index);
+                    index += 4;
+                    break;
+                case VARIABLE_BYTE_INTEGER: {
+                    long number = 0;
+                    int shift = 0;
+                    int b;
+                    do {
+                        if (shift == 28) {
+                            throw new DecoderException("variable byte integer exceeds 4 bytes");
+                        }
+                        checkReadable(index, 1, end);
+                        b = buf.getUnsignedByte(index++);
+                        number |= (long) (b & 127) << shift;
+                        shift += 7;
+                    } while ((b & 128) != 0);
+                    value = number;
+                    break;
+                }
+                case UTF8_STRING:
+                    value = readString(buf, index, end);
+                    index += 2 + buf.getUnsignedShort(index);
+                    break;
+                case BINARY_DATA: {
+                    checkReadable(index, 2, end);
+                    int length = buf.getUnsignedShort(index);
+                    checkReadable(index + 2, length, end);
+                    byte[] bytes = new byte[length];
+                    buf.getBytes(index + 2, bytes);
+                    value = bytes;
+                    index += 2 + length;
+                    break;
+                }
+                default: {
+                    String name = readString(buf, index, end);
+                    index += 2 + buf.getUnsignedShort(index);
+                    value = new MqttV5UserProperty(name, readString(buf, index, end));
+                    index += 2 + buf.getUnsignedShort(index);
+                }
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            ids[count] = (byte) property.id();
+            values[count] = value;
+            count++;
+        }
+        // parsed twice if two threads get here at once, either result is the same
+        parsed = new Parsed(ids, values, count);
+        this.parsed = parsed;
+        return parsed;
+    }
+
+    private static String readString(ByteBuf buf, int index, int end) {
+        checkReadable(index, 2, end);
+        int length = buf.getUnsignedShort(index);
+        checkReadable(index + 2, length, end);
+        return MqttUtf8Utils.readString(buf, index + 2, length);
+    }
+
+    private static void checkReadable(int index, int length, int end) {
+        if (index + length > end) {
+            throw new DecoderException("property exceeds the property length");
+        }
+    }
+
+    private static int valueSize(MqttV5Property property, Object value) {
+        switch (property.type()) {
+            case BYTE:
+                return 1;
+            case TWO_BYTE_INTEGER:
+                return 2;
+            case FOUR_BYTE_INTEGER:
+                return 4;
+            case VARIABLE_BYTE_INTEGER:
+                return MqttV5Encoder.variableByteIntegerSize(((Long) value).intValue());
+            case UTF8_STRING:
+                return 2 + MqttUtf8Utils.utf8Length((String) value, property.name());
+            case BINARY_DATA:
+                return 2 + ((byte[]) value).length;
+            default:
+                MqttV5UserProperty userProperty = (MqttV5UserProperty) value;
+                return 2 + MqttUtf8Utils.utf8Length(userProperty.getName(), "user property name")
+                    + 2 + MqttUtf8Utils.utf8Length(userProperty.getValue(), "user property value");
+        }
+    }
+
+    private static void writeValue(ByteBuf buf, MqttV5Property property, Object value) {
+        switch (property.type()) {
+            case BYTE:
+                buf.writeByte(((Long) value).intValue());
+                break;
+            case TWO_BYTE_INTEGER:
+                buf.writeShort(((Long) value).intValue());
+                break;
+            case FOUR_BYTE_INTEGER:
+                buf.writeInt(((Long) value).intValue());
+                break;
+            case VARIABLE_BYTE_INTEGER:
+                MqttV5Encoder.writeVariableByteInteger(buf, ((Long) value).intValue());
+                break;
+            case UTF8_STRING:
+                writeString(buf, (String) value);
+                break;
+            case BINARY_DATA:
+                buf.writeShort(((byte[]) value).length);
+                buf.writeBytes((byte[]) value);
+                break;
+            default:
+                MqttV5UserProperty userProperty = (MqttV5UserProperty) value;
+                writeString(buf, userProperty.getName());
+                writeString(buf, userProperty.getValue());
+        }
+    }
+
+    private static void writeString(ByteBuf buf, String value) {
+        MqttUtf8Utils.writeString(buf, value, MqttUtf8Utils.utf8Length(value, "property"));
+    }
+
+    @Override
+    public String toString() {
+        if (!isDecoded()) {
+            return "MqttV5Properties(" + this.raw.readableBytes() + " undecoded bytes)";
+        }
+        Parsed parsed = this.parsed;
+        StringBuilder builder = new StringBuilder("MqttV5Properties(");
+        for (int i = 0; i < parsed.count; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            Object value = parsed.values[i];
+            builder.append(MqttV5Property.of(parsed.ids[i])).append('=')
+                .append(value instanceof byte[] ? Arrays.toString((byte[]) value) : value);
+        }
+        return builder.append(')').toString();
+    }
+
+    private static final class Parsed {
+        private final byte[] ids;
+        // Long, String, byte[] or MqttV5UserProperty, by the type of the property with the same index in ids
+        private final Object[] values;
+        private final int count;
+
+        Parsed(byte[] ids, Object[] values, int count) {
+            this.ids = ids;
+            this.values = values;
+            this.count = count;
+        }
+
+        int indexOf(MqttV5Property property) {
+            for (int i = 0; i < this.count; i++) {
+                if (this.ids[i] == property.id()) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    public static class Builder {
+        private byte[] ids = new byte[4];
+        private Object[] values = new Object[4];
+        private int count;
+        private long seen;
+
+        Builder() {
+        }
+
+        public Builder add(MqttV5Property property, long value) {
+            checkType(property.isNumeric(), property);
+            long max;
+            switch (property.type()) {
+                case BYTE:
+                    max = 0xFF;
+                    break;
+                case TWO_BYTE_INTEGER:
+                    max = 0xFFFF;
+                    break;
+                case FOUR_BYTE_INTEGER:
+                    max = 0xFFFFFFFFL;
+                    break;
+                default:
+                    max = 268435455;
+            }
+            if (value < 0 || value > max) {
+                throw new IllegalArgumentException(property + " must be between 0 and " + max);
+            }
+            return add(property, (Object) value);
+        }
+
+        public Builder add(MqttV5Property property, String value) {
+            checkType(property.type() == MqttV5Property.Type.UTF8_STRING, property);
+            MqttUtf8Utils.utf8Length(value, property.name());
+            return add(property, (Object) value);
+        }
+
+        public Builder add(MqttV5Property property, byte[] value) {
+            checkType(property.type() == MqttV5Property.Type.BINARY_DATA, property);
+            MqttV311ValidationUtils.validateByteArray(value, property.name());
+            return add(property, (Object) value);
+        }
+
+        public Builder userProperty(String name, String value) {
+            MqttUtf8Utils.utf8Length(name, "user property name");
+            MqttUtf8Utils.utf8Length(value, "user property value");
+            return add(MqttV5Property.USER_PROPERTY, new MqttV5UserProperty(name, value));
+        }
+
+        private Builder add(MqttV5Property property, Object value) {
+            if (!property.isRepeatable()) {
+                long bit = 1L << property.id();
+                if ((this.seen & bit) != 0) {
+                    throw new IllegalArgumentException("property " + property + " included more than once");
+                }
+                this.seen |= bit;
+            }
+            if (this.count == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.count * 2);
+                this.values = Arrays.copyOf(this.values, this.count * 2);
+            }
+            this.ids[this.count] = (byte) property.id();
+            this.values[this.count] = value;
+            this.count++;
+            return this;
+        }
+
+        public MqttV5Properties build() {
+            if (this.count == 0) {
+                return EMPTY;
+            }
+            return new MqttV5Properties(null, Arrays.copyOf(this.ids, this.count),
+                Arrays.copyOf(this.values, this.count), this.count);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+import io.netty.handler.codec.DecoderException;
+
+/**
+ * MQTT 5 property identifiers and the data type of their values.
+ */
+public enum MqttV5Property {
+    PAYLOAD_FORMAT_INDICATOR(0x01, Type.BYTE),
+    MESSAGE_EXPIRY_INTERVAL(0x02, Type.FOUR_BYTE_INTEGER),
+    CONTENT_TYPE(0x03, Type.UTF8_STRING),
+    RESPONSE_TOPIC(0x08, Type.UTF8_STRING),
+    CORRELATION_DATA(0x09, Type.BINARY_DATA),
+    SUBSCRIPTION_IDENTIFIER(0x0B, Type.VARIABLE_BYTE_INTEGER),
+    SESSION_EXPIRY_INTERVAL(0x11, Type.FOUR_BYTE_INTEGER),
+    ASSIGNED_CLIENT_IDENTIFIER(0x12, Type.UTF8_STRING),
+    SERVER_KEEP_ALIVE(0x13, Type.TWO_BYTE_INTEGER),
+    AUTHENTICATION_METHOD(0x15, Type.UTF8_STRING),
+    AUTHENTICATION_DATA(0x16, Type.BINARY_DATA),
+    REQUEST_PROBLEM_INFORMATION(0x17, Type.BYTE),
+    WILL_DELAY_INTERVAL(0x18, Type.FOUR_BYTE_INTEGER),
+    REQUEST_RESPONSE_INFORMATION(0x19, Type.BYTE),
+    RESPONSE_INFORMATION(0x1A, Type.UTF8_STRING),
+    SERVER_REFERENCE(0x1C, Type.UTF8_STRING),
+    REASON_STRING(0x1F, Type.UTF8_STRING),
+    RECEIVE_MAXIMUM(0x21, Type.TWO_BYTE_INTEGER),
+    TOPIC_ALIAS_MAXIMUM(0x22, Type.TWO_BYTE_INTEGER),
+    TOPIC_ALIAS(0x23, Type.TWO_BYTE_INTEGER),
+    MAXIMUM_QOS(0x24, Type.BYTE),
+    RETAIN_AVAILABLE(0x25, Type.BYTE),
+    USER_PROPERTY(0x26, Type.UTF8_STRING_PAIR),
+    MAXIMUM_PACKET_SIZE(0x27, Type.FOUR_BYTE_INTEGER),
+    WILDCARD_SUBSCRIPTION_AVAILABLE(0x28, Type.BYTE),
+    SUBSCRIPTION_IDENTIFIER_AVAILABLE(0x29, Type.BYTE),
+    SHARED_SUBSCRIPTION_AVAILABLE(0x2A, Type.BYTE);
+
+    public enum Type {
+        BYTE,
+        TWO_BYTE_INTEGER,
+        FOUR_BYTE_INTEGER,
+        VARIABLE_BYTE_INTEGER,
+        UTF8_STRING,
+        BINARY_DATA,
+        UTF8_STRING_PAIR
+    }
+
+    private static final MqttV5Property[] VALUES = new MqttV5Property[SHARED_SUBSCRIPTION_AVAILABLE.id + 1];
+
+    static {
+        for (MqttV5Property property : values()) {
+            VALUES[property.id] = property;
+        }
+    }
+
+    private final int id;
+    private final Type type;
+
+    MqttV5Property(int id, Type type) {
+        this.id = id;
+        this.type = type;
+    }
+
+    public static MqttV5Property of(int id) {
+        MqttV5Property property = id >= 0 && id < VALUES.length ? VALUES[id] : null;
+        if (property == null) {
+            throw new DecoderException("unknown property identifier: " + id);
+        }
+        return property;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    /**
+     * Whether the property may be included more than once, which only User Property and Subscription Identifier may.
+     */
+    public boolean isRepeatable() {
+        return this == USER_PROPERTY || this == SUBSCRIPTION_IDENTIFIER;
+    }
+
+    boolean isNumeric() {
+        return type == Type.BYTE || type == Type.TWO_BYTE_INTEGER || type == Type.FOUR_BYTE_INTEGER
+            || type == Type.VARIABLE_BYTE_INTEGER;
+    }
+}
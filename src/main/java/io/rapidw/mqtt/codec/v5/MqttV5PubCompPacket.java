@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+public class MqttV5PubCompPacket extends MqttV5Packet {
+
+    private int packetId;
+    private MqttV5ReasonCode reasonCode = MqttV5ReasonCode.SUCCESS;
+
+    MqttV5PubCompPacket() {
+        super(MqttV5PacketType.PUBCOMP);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getPacketId() {
+        return this.packetId;
+    }
+
+    public MqttV5ReasonCode getReasonCode() {
+        return this.reasonCode;
+    }
+
+    void setPacketId(int packetId) {
+        this.packetId = packetId;
+    }
+
+    void setReasonCode(MqttV5ReasonCode reasonCode) {
+        this.reasonCode = reasonCode;
+    }
+
+    public static class Builder {
+        private int packetId;
+        private MqttV5ReasonCode reasonCode = MqttV5ReasonCode.SUCCESS;
+        private MqttV5Properties properties = MqttV5Properties.EMPTY;
+
+        Builder() {
+        }
+
+        public Builder packetId(int packetId) {
+            this.packetId = packetId;
+            return this;
+        }
+
+        public Builder reasonCode(MqttV5ReasonCode reasonCode) {
+            this.reasonCode = reasonCode;
+            return this;
+        }
+
+        public Builder properties(MqttV5Properties properties) {
+            this.properties = properties;
+            return this;
+        }
+
+        public MqttV5PubCompPacket build() {
+            MqttV5PubCompPacket packet = new MqttV5PubCompPacket();
+            packet.packetId = packetId;
+            packet.reasonCode = reasonCode;
+            packet.properties = properties;
+            return packet;
+        }
+    }
+}
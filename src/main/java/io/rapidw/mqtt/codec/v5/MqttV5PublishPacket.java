@@ -0,0 +1,185 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311QosLevel;
+
+public class MqttV5PublishPacket extends MqttV5Packet {
+
+    private boolean dupFlag;
+    private MqttV311QosLevel qosLevel;
+    private boolean retain;
+    private String topic;
+    private int packetId;
+    private ByteBuf payload = Unpooled.EMPTY_BUFFER;
+
+    MqttV5PublishPacket() {
+        super(MqttV5PacketType.PUBLISH);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public boolean isDupFlag() {
+        return this.dupFlag;
+    }
+
+    public MqttV311QosLevel getQosLevel() {
+        return this.qosLevel;
+    }
+
+    public boolean isRetain() {
+        return this.retain;
+    }
+
+    public String getTopic() {
+        return this.topic;
+    }
+
+    /**
+     * Returns the packet id, or 0 for a QoS 0 packet which has none.
+     */
+    public int getPacketId() {
+        return this.packetId;
+    }
+
+    /**
+     * Returns the payload without copying it. The returned buffer is owned by this packet.
+     */
+    public ByteBuf getPayload() {
+        return this.payload;
+    }
+
+    /**
+     * Returns a copy of the payload.
+     */
+    public byte[] getPayloadBytes() {
+        return ByteBufUtil.getBytes(this.payload);
+    }
+
+    void setDupFlag(boolean dupFlag) {
+        this.dupFlag = dupFlag;
+    }
+
+    void setQosLevel(MqttV311QosLevel qosLevel) {
+        this.qosLevel = qosLevel;
+    }
+
+    void setRetain(boolean retain) {
+        this.retain = retain;
+    }
+
+    void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    void setPacketId(int packetId) {
+        this.packetId = packetId;
+    }
+
+    void setPayload(ByteBuf payload) {
+        this.payload = payload;
+    }
+
+    /**
+     * Returns a copy with the topic and the Topic Alias replaced, which takes over the payload of this packet.
+     */
+    MqttV5PublishPacket withTopicAlias(String topic, int topicAlias) {
+        MqttV5PublishPacket packet = new MqttV5PublishPacket();
+        packet.dupFlag = this.dupFlag;
+        packet.qosLevel = this.qosLevel;
+        packet.retain = this.retain;
+        packet.topic = topic;
+        packet.packetId = this.packetId;
+        packet.payload = this.payload;
+        packet.properties = this.properties.withTopicAlias(topicAlias);
+        packet.content = this.content;
+        return packet;
+    }
+
+    public static class Builder {
+        private boolean dupFlag;
+        private MqttV311QosLevel qosLevel = MqttV311QosLevel.AT_MOST_ONCE;
+        private boolean retain;
+        private String topic;
+        private int packetId;
+        private ByteBuf payload = Unpooled.EMPTY_BUFFER;
+        private MqttV5Properties properties = MqttV5Properties.EMPTY;
+
+        Builder() {
+        }
+
+        public Builder dupFlag(boolean dupFlag) {
+            this.dupFlag = dupFlag;
+            return this;
+        }
+
+        public Builder qosLevel(MqttV311QosLevel qosLevel) {
+            this.qosLevel = qosLevel;
+            return this;
+        }
+
+        public Builder retain(boolean retain) {
+            this.retain = retain;
+            return this;
+        }
+
+        public Builder topic(String topic) {
+            this.topic = topic;
+            return this;
+        }
+
+        public Builder packetId(int packetId) {
+            this.packetId = packetId;
+            return this;
+        }
+
+        public Builder payload(byte[] payload) {
+            this.payload = Unpooled.wrappedBuffer(payload);
+            return this;
+        }
+
+        /**
+         * Sets the payload without copying it. The built packet takes over the reference to the buffer.
+         */
+        public Builder payload(ByteBuf payload) {
+            this.payload = payload;
+            return this;
+        }
+
+        public Builder properties(MqttV5Properties properties) {
+            this.properties = properties;
+            return this;
+        }
+
+        public MqttV5PublishPacket build() {
+            MqttV5PublishPacket packet = new MqttV5PublishPacket();
+            packet.dupFlag = dupFlag;
+            packet.qosLevel = qosLevel;
+            packet.retain = retain;
+            packet.topic = topic;
+            packet.packetId = packetId;
+            packet.payload = payload;
+            packet.content = payload;
+            packet.properties = properties;
+            return packet;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class MqttV5SubscribePacket extends MqttV5Packet {
+
+    private int packetId;
+    private List<MqttV5Subscription> subscriptions;
+
+    MqttV5SubscribePacket() {
+        super(MqttV5PacketType.SUBSCRIBE);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getPacketId() {
+        return this.packetId;
+    }
+
+    public List<MqttV5Subscription> getSubscriptions() {
+        return this.subscriptions;
+    }
+
+    void setPacketId(int packetId) {
+        this.packetId = packetId;
+    }
+
+    void setSubscriptions(List<MqttV5Subscription> subscriptions) {
+        this.subscriptions = subscriptions;
+    }
+
+    public static class Builder {
+        private int packetId;
+        private final List<MqttV5Subscription> subscriptions = new ArrayList<>();
+        private MqttV5Properties properties = MqttV5Properties.EMPTY;
+
+        Builder() {
+        }
+
+        public Builder packetId(int packetId) {
+            this.packetId = packetId;
+            return this;
+        }
+
+        public Builder subscription(MqttV5Subscription subscription) {
+            this.subscriptions.add(subscription);
+            return this;
+        }
+
+        public Builder subscriptions(Collection<? extends MqttV5Subscription> subscriptions) {
+            this.subscriptions.addAll(subscriptions);
+            return this;
+        }
+
+        public Builder properties(MqttV5Properties properties) {
+            this.properties = properties;
+            return this;
+        }
+
+        public MqttV5SubscribePacket build() {
+            MqttV5SubscribePacket packet = new MqttV5SubscribePacket();
+            packet.packetId = packetId;
+            packet.subscriptions = new ArrayList<>(subscriptions);
+            packet.properties = properties;
+            return packet;
+        }
+    }
+}
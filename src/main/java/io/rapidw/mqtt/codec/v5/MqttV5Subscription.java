@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311QosLevel;
+
+/**
+ * A topic filter with its subscription options.
+ */
+public class MqttV5Subscription {
+
+    private final String topicFilter;
+    private final MqttV311QosLevel qosLevel;
+    private final boolean noLocal;
+    private final boolean retainAsPublished;
+    private final int retainHandling;
+
+    public MqttV5Subscription(String topicFilter, MqttV311QosLevel qosLevel) {
+        this(topicFilter, qosLevel, false, false, 0);
+    }
+
+    /**
+     * @param retainHandling 0 to send retained messages on subscribe, 1 to send them only if the subscription does
+     *                       not exist yet, 2 to not send them
+     */
+    public MqttV5Subscription(String topicFilter, MqttV311QosLevel qosLevel, boolean noLocal,
+                              boolean retainAsPublished, int retainHandling) {
+        if (retainHandling < 0 || retainHandling > 2) {
+            throw new IllegalArgumentException("retain handling must be 0, 1 or 2");
+        }
+        this.topicFilter = topicFilter;
+        this.qosLevel = qosLevel;
+        this.noLocal = noLocal;
+        this.retainAsPublished = retainAsPublished;
+        this.retainHandling = retainHandling;
+    }
+
+    public String getTopicFilter() {
+        return topicFilter;
+    }
+
+    public MqttV311QosLevel getQosLevel() {
+        return qosLevel;
+    }
+
+    public boolean isNoLocal() {
+        return noLocal;
+    }
+
+    public boolean isRetainAsPublished() {
+        return retainAsPublished;
+    }
+
+    public int getRetainHandling() {
+        return retainHandling;
+    }
+
+    /**
+     * Returns the subscription options byte.
+     */
+    int options() {
+        return qosLevel.value() | (noLocal ? 0x04 : 0) | (retainAsPublished ? 0x08 : 0) | (retainHandling << 4);
+    }
+
+    @Override
+    public String toString() {
+        return "MqttV5Subscription(topicFilter=" + topicFilter + ", qosLevel=" + qosLevel + ", noLocal=" + noLocal
+            + ", retainAsPublished=" + retainAsPublished + ", retainHandling=" + retainHandling + ")";
+    }
+}
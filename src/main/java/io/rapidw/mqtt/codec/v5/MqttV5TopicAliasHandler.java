@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Replaces the topics of outbound PUBLISH packets with Topic Aliases, so a topic is only sent in full the first time
+ * it is published and again whenever its alias has been reused for another topic.
+ * <p>
+ * Aliases are assigned from a least recently used table of at most {@code maximumAliases} topics, further limited
+ * by the Topic Alias Maximum in the CONNECT or CONNACK packet received from the peer. No aliases are assigned
+ * before that packet is read. A Topic Alias already present in a packet, such as one forwarded from another
+ * connection, is removed or replaced. Packets written with an empty topic are expected to carry their own alias
+ * and are left as they are. Inbound aliases are resolved by {@link MqttV5Decoder}.
+ * <p>
+ * The table belongs to one connection, so each channel needs its own instance, added after the
+ * {@link MqttV5Encoder}.
+ */
+public class MqttV5TopicAliasHandler extends ChannelDuplexHandler {
+
+    private final int maximumAliases;
+    // topic to alias, in least recently used order
+    private final LinkedHashMap<String, Integer> aliases = new LinkedHashMap<>(16, 0.75f, true);
+    private int capacity;
+
+    /**
+     * @param maximumAliases the most aliases to keep for this connection, whatever the peer allows
+     */
+    public MqttV5TopicAliasHandler(int maximumAliases) {
+        if (maximumAliases < 0 || maximumAliases > 65535) {
+            throw new IllegalArgumentException("maximum aliases must be between 0 and 65535");
+        }
+        this.maximumAliases = maximumAliases;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof MqttV5ConnectPacket || msg instanceof MqttV5ConnAckPacket) {
+            long peerMaximum = ((MqttV5Packet) msg).getProperties().getNumber(MqttV5Property.TOPIC_ALIAS_MAXIMUM, 0);
+            this.capacity = (int) Math.min(peerMaximum, this.maximumAliases);
+            this.aliases.clear();
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof MqttV5PublishPacket) {
+            msg = assignTopicAlias((MqttV5PublishPacket) msg);
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    private MqttV5PublishPacket assignTopicAlias(MqttV5PublishPacket packet) {
+        String topic = packet.getTopic();
+        if (topic.isEmpty()) {
+            return packet;
+        }
+        if (this.capacity == 0) {
+            return packet.getProperties().topicAlias() == 0 ? packet : packet.withTopicAlias(topic, 0);
+        }
+        Integer alias = this.aliases.get(topic);
+        if (alias != null) {
+            return packet.withTopicAlias("", alias);
+        }
+        if (this.aliases.size() < this.capacity) {
+            alias = this.aliases.size() + 1;
+        } else {
+            Iterator<Map.Entry<String, Integer>> eldest = this.aliases.entrySet().iterator();
+            alias = eldest.next().getValue();
+            eldest.remove();
+        }
+        this.aliases.put(topic, alias);
+        return packet.withTopicAlias(topic, alias);
+    }
+}
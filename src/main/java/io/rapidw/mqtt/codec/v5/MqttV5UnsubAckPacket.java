@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class MqttV5UnsubAckPacket extends MqttV5Packet {
+
+    private int packetId;
+    private List<MqttV5ReasonCode> reasonCodes;
+
+    MqttV5UnsubAckPacket() {
+        super(MqttV5PacketType.UNSUBACK);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getPacketId() {
+        return this.packetId;
+    }
+
+    public List<MqttV5ReasonCode> getReasonCodes() {
+        return this.reasonCodes;
+    }
+
+    void setPacketId(int packetId) {
+        this.packetId = packetId;
+    }
+
+    void setReasonCodes(List<MqttV5ReasonCode> reasonCodes) {
+        this.reasonCodes = reasonCodes;
+    }
+
+    public static class Builder {
+        private int packetId;
+        private final List<MqttV5ReasonCode> reasonCodes = new ArrayList<>();
+        private MqttV5Properties properties = MqttV5Properties.EMPTY;
+
+        Builder() {
+        }
+
+        public Builder packetId(int packetId) {
+            this.packetId = packetId;
+            return this;
+        }
+
+        public Builder reasonCode(MqttV5ReasonCode reasonCode) {
+            this.reasonCodes.add(reasonCode);
+            return this;
+        }
+
+        public Builder reasonCodes(Collection<MqttV5ReasonCode> reasonCodes) {
+            this.reasonCodes.addAll(reasonCodes);
+            return this;
+        }
+
+        public Builder properties(MqttV5Properties properties) {
+            this.properties = properties;
+            return this;
+        }
+
+        public MqttV5UnsubAckPacket build() {
+            MqttV5UnsubAckPacket packet = new MqttV5UnsubAckPacket();
+            packet.packetId = packetId;
+            packet.reasonCodes = new ArrayList<>(reasonCodes);
+            packet.properties = properties;
+            return packet;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public class MqttV5UnsubscribePacket extends MqttV5Packet {
+
+    private int packetId;
+    private List<String> topicFilters;
+
+    MqttV5UnsubscribePacket() {
+        super(MqttV5PacketType.UNSUBSCRIBE);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getPacketId() {
+        return this.packetId;
+    }
+
+    public List<String> getTopicFilters() {
+        return this.topicFilters;
+    }
+
+    void setPacketId(int packetId) {
+        this.packetId = packetId;
+    }
+
+    void setTopicFilters(List<String> topicFilters) {
+        this.topicFilters = topicFilters;
+    }
+
+    public static class Builder {
+        private int packetId;
+        private final List<String> topicFilters = new ArrayList<>();
+        private MqttV5Properties properties = MqttV5Properties.EMPTY;
+
+        Builder() {
+        }
+
+        public Builder packetId(int packetId) {
+            this.packetId = packetId;
+            return this;
+        }
+
+        public Builder topicFilter(String topicFilter) {
+            this.topicFilters.add(topicFilter);
+            return this;
+        }
+
+        public Builder topicFilters(Collection<? extends String> topicFilters) {
+            this.topicFilters.addAll(topicFilters);
+            return this;
+        }
+
+        public Builder properties(MqttV5Properties properties) {
+            this.properties = properties;
+            return this;
+        }
+
+        public MqttV5UnsubscribePacket build() {
+            MqttV5UnsubscribePacket packet = new MqttV5UnsubscribePacket();
+            packet.packetId = packetId;
+            packet.topicFilters = new ArrayList<>(topicFilters);
+            packet.properties = properties;
+            return packet;
+        }
+    }
+}
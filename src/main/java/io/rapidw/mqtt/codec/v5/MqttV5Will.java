@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311QosLevel;
+
+public class MqttV5Will {
+
+    private final String topic;
+    private final MqttV311QosLevel qosLevel;
+    private final boolean retain;
+    private final byte[] payload;
+    private final MqttV5Properties properties;
+
+    private MqttV5Will(String topic, MqttV311QosLevel qosLevel, boolean retain, byte[] payload,
+                       MqttV5Properties properties) {
+        this.topic = topic;
+        this.qosLevel = qosLevel;
+        this.retain = retain;
+        this.payload = payload;
+        this.properties = properties;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public MqttV311QosLevel getQosLevel() {
+        return qosLevel;
+    }
+
+    public boolean isRetain() {
+        return retain;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public MqttV5Properties getProperties() {
+        return properties;
+    }
+
+    public static class Builder {
+        private String topic;
+        private MqttV311QosLevel qosLevel = MqttV311QosLevel.AT_MOST_ONCE;
+        private boolean retain;
+        private byte[] payload;
+        private MqttV5Properties properties = MqttV5Properties.EMPTY;
+
+        Builder() {
+        }
+
+        public Builder topic(String topic) {
+            this.topic = topic;
+            return this;
+        }
+
+        public Builder qosLevel(MqttV311QosLevel qosLevel) {
+            this.qosLevel = qosLevel;
+            return this;
+        }
+
+        public Builder retain(boolean retain) {
+            this.retain = retain;
+            return this;
+        }
+
+        public Builder payload(byte[] payload) {
+            this.payload = payload;
+            return this;
+        }
+
+        public Builder properties(MqttV5Properties properties) {
+            this.properties = properties;
+            return this;
+        }
+
+        public MqttV5Will build() {
+            return new MqttV5Will(topic, qosLevel, retain, payload, properties);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311ConnectPacket;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311Decoder;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311Encoder;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311PingReqPacket;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311PingRespPacket;
+import io.rapidw.mqtt.codec.v5.MqttV5ConnectPacket;
+import io.rapidw.mqtt.codec.v5.MqttV5Decoder;
+import io.rapidw.mqtt.codec.v5.MqttV5Encoder;
+import io.rapidw.mqtt.codec.v5.MqttV5PingRespPacket;
+import io.rapidw.mqtt.codec.v5.MqttV5PublishPacket;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MqttProtocolDetectorTest {
+
+    private static class UserEvents extends ChannelInboundHandlerAdapter {
+        private final List<Object> events = new ArrayList<>();
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+            events.add(evt);
+        }
+    }
+
+    @Test
+    public void testMqttV311Detected() {
+        UserEvents userEvents = new UserEvents();
+        EmbeddedChannel channel = new EmbeddedChannel(new MqttProtocolDetector(), userEvents);
+        ByteBuf connect = MqttV311Encoder.doEncode(ByteBufAllocator.DEFAULT,
+            MqttV311ConnectPacket.builder().clientId("client").keepAliveSeconds(60).cleanSession(true).build());
+        ByteBuf bytes = Unpooled.wrappedBuffer(connect, Unpooled.wrappedBuffer(new byte[]{(byte) 0xC0, 0}));
+        // one byte at a time, the protocol level is the ninth
+        while (bytes.isReadable()) {
+            channel.writeInbound(bytes.readRetainedSlice(1));
+        }
+        bytes.release();
+
+        assertThat(userEvents.events).containsExactly(MqttProtocolVersion.V3_1_1);
+        assertThat(channel.pipeline().get(MqttProtocolDetector.class)).isNull();
+        assertThat(channel.pipeline().get(MqttV311Decoder.class)).isNotNull();
+        MqttV311ConnectPacket packet = channel.readInbound();
+        assertThat(packet.getClientId()).isEqualTo("client");
+        assertThat((Object) channel.readInbound()).isInstanceOf(MqttV311PingReqPacket.class);
+
+        channel.writeOutbound(MqttV311PingRespPacket.INSTANCE);
+        ByteBuf pingResp = channel.readOutbound();
+        assertThat(ByteBufUtil.hexDump(pingResp)).isEqualTo("d000");
+        pingResp.release();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    public void testMqttV5Detected() {
+        UserEvents userEvents = new UserEvents();
+        EmbeddedChannel channel = new EmbeddedChannel(new MqttProtocolDetector(), userEvents);
+        ByteBuf connect = MqttV5Encoder.doEncode(ByteBufAllocator.DEFAULT,
+            MqttV5ConnectPacket.builder().clientId("client").build());
+        ByteBuf publish = MqttV5Encoder.doEncode(ByteBufAllocator.DEFAULT,
+            MqttV5PublishPacket.builder().topic("a/b").payload(new byte[]{1, 2}).build());
+        // the packet following the CONNECT in the same read is decoded from the handed over bytes
+        channel.writeInbound(Unpooled.wrappedBuffer(connect, publish));
+
+        assertThat(userEvents.events).containsExactly(MqttProtocolVersion.V5);
+        assertThat(channel.pipeline().get(MqttV5Decoder.class)).isNotNull();
+        MqttV5ConnectPacket connectPacket = channel.readInbound();
+        assertThat(connectPacket.getClientId()).isEqualTo("client");
+        MqttV5PublishPacket publishPacket = channel.readInbound();
+        assertThat(publishPacket.getTopic()).isEqualTo("a/b");
+        assertThat(publishPacket.getPayloadBytes()).containsExactly(1, 2);
+        publishPacket.release();
+
+        channel.writeOutbound(MqttV5PingRespPacket.INSTANCE);
+        ByteBuf pingResp = channel.readOutbound();
+        assertThat(ByteBufUtil.hexDump(pingResp)).isEqualTo("d000");
+        pingResp.release();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    public void testUnsupported() {
+        assertThatThrownBy(() -> new EmbeddedChannel(new MqttProtocolDetector())
+            .writeInbound(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump("c000"))))
+            .isInstanceOf(DecoderException.class)
+            .hasMessageContaining("MQTT-3.1.0-1");
+        // MQTT 3.1
+        assertThatThrownBy(() -> new EmbeddedChannel(new MqttProtocolDetector())
+            .writeInbound(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump("100e00064d514973647003"))))
+            .isInstanceOf(DecoderException.class)
+            .hasMessageContaining("invalid protocol name");
+        assertThatThrownBy(() -> new EmbeddedChannel(new MqttProtocolDetector())
+            .writeInbound(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump("100c00044d51545406"))))
+            .isInstanceOf(DecoderException.class)
+            .hasMessageContaining("unsupported protocol level 6");
+    }
+}
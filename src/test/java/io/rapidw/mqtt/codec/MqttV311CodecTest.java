@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec;
+
+import io.rapidw.mqtt.codec.utils.DecoderUtils.DecodedResult;
+import io.rapidw.mqtt.codec.v3_1_1.*;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MqttV311CodecTest {
+
+    @Test
+    public void testByteBufferRoundTrip() {
+        MqttV311PublishPacket publish = MqttV311PublishPacket.builder()
+            .topic("a/b")
+            .qosLevel(MqttV311QosLevel.AT_LEAST_ONCE)
+            .packetId(5)
+            .payload("hello".getBytes(StandardCharsets.UTF_8))
+            .build();
+        MqttV311SubscribePacket subscribe = MqttV311SubscribePacket.builder()
+            .packetId(6)
+            .topicAndQosLevel(new MqttV311TopicAndQosLevel("a/#", MqttV311QosLevel.AT_MOST_ONCE))
+            .build();
+
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        int publishSize = MqttV311Codec.encodeInto(publish, buffer);
+        int subscribeSize = MqttV311Codec.encodeInto(subscribe, buffer);
+        MqttV311Codec.encodeInto(MqttV311PingReqPacket.INSTANCE, buffer);
+        // only the first byte of a trailing PUBACK
+        buffer.put((byte) 0x40);
+        buffer.flip();
+
+        DecodedResult<List<MqttV311Packet>> result = MqttV311Codec.decode(buffer);
+        assertThat(result.getBytesConsumed()).isEqualTo(publishSize + subscribeSize + 2);
+        assertThat(buffer.remaining()).isEqualTo(1);
+        List<MqttV311Packet> packets = result.getValue();
+        assertThat(packets).hasSize(3);
+        MqttV311PublishPacket decodedPublish = (MqttV311PublishPacket) packets.get(0);
+        assertThat(decodedPublish.getTopic()).isEqualTo("a/b");
+        assertThat(decodedPublish.getPacketId()).isEqualTo(5);
+        assertThat(decodedPublish.getPayload()).isEqualTo("hello".getBytes(StandardCharsets.UTF_8));
+        MqttV311SubscribePacket decodedSubscribe = (MqttV311SubscribePacket) packets.get(1);
+        assertThat(decodedSubscribe.getTopicAndQosLevels().get(0).getTopicFilter()).isEqualTo("a/#");
+        assertThat(packets.get(2)).isSameAs(MqttV311PingReqPacket.INSTANCE);
+    }
+
+    @Test
+    public void testEncodeIntoOverflow() {
+        ByteBuffer buffer = ByteBuffer.allocate(3);
+        assertThatThrownBy(() -> MqttV311Codec.encodeInto(MqttV311PubAckPacket.builder().packetId(1).build(), buffer))
+            .isInstanceOf(BufferOverflowException.class);
+        assertThat(buffer.position()).isZero();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MqttTopicCacheTest {
+
+    private static String get(MqttTopicCache cache, String topic) {
+        ByteBuf buf = Unpooled.buffer().writeBytes("xx".getBytes(StandardCharsets.UTF_8))
+            .writeBytes(topic.getBytes(StandardCharsets.UTF_8));
+        return cache.get(buf, 2, buf.readableBytes() - 2);
+    }
+
+    @Test
+    public void testHit() {
+        MqttTopicCache cache = new MqttTopicCache(16);
+        String topic = get(cache, "devices/42/telemetry");
+        assertThat(topic).isEqualTo("devices/42/telemetry");
+        assertThat(get(cache, "devices/42/telemetry")).isSameAs(topic);
+        assertThat(get(cache, "devices/43/telemetry")).isEqualTo("devices/43/telemetry");
+        assertThat(get(cache, "设备/温度")).isEqualTo("设备/温度");
+    }
+
+    @Test
+    public void testEviction() {
+        // a single slot is replaced by every miss
+        MqttTopicCache cache = new MqttTopicCache(1);
+        String a = get(cache, "a");
+        assertThat(get(cache, "b")).isEqualTo("b");
+        assertThat(get(cache, "a")).isEqualTo("a").isNotSameAs(a);
+    }
+
+    @Test
+    public void testLongTopicNotCached() {
+        MqttTopicCache cache = new MqttTopicCache(16, 4);
+        String topic = get(cache, "a/b/c");
+        assertThat(get(cache, "a/b/c")).isEqualTo(topic).isNotSameAs(topic);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DecoderException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MqttUtf8UtilsTest {
+
+    private static String read(byte[] bytes) {
+        ByteBuf buf = Unpooled.buffer().writeByte('x').writeBytes(bytes);
+        return MqttUtf8Utils.readString(buf, 1, bytes.length);
+    }
+
+    private static String read(String hex) {
+        return read(ByteBufUtil.decodeHexDump(hex));
+    }
+
+    @Test
+    public void testEncode() {
+        for (String value : new String[]{"devices/42/telemetry", "\u00e9t\u00e9", "\u4e2d\u6587", "a\ud83d\ude00b"}) {
+            int length = MqttUtf8Utils.utf8Length(value, "value");
+            byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+            assertThat(length).isEqualTo(expected.length);
+
+            ByteBuf buf = Unpooled.buffer();
+            MqttUtf8Utils.writeString(buf, value, length);
+            assertThat(buf.readUnsignedShort()).isEqualTo(expected.length);
+            assertThat(ByteBufUtil.getBytes(buf)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testEncodeInvalid() {
+        assertThatIllegalArgumentException().isThrownBy(() -> MqttUtf8Utils.utf8Length("a\u0000b", "value"));
+        assertThatIllegalArgumentException().isThrownBy(() -> MqttUtf8Utils.utf8Length("a\ud83d", "value"));
+        assertThatIllegalArgumentException().isThrownBy(() -> MqttUtf8Utils.utf8Length("\ude00a", "value"));
+        // a valid surrogate pair ahead of an invalid code point must not shift the check
+        assertThatIllegalArgumentException().isThrownBy(() -> MqttUtf8Utils.utf8Length("\ud83d\ude00\u0000", "value"));
+        assertThatCode(() -> MqttUtf8Utils.utf8Length("\ud83d\ude00a", "value")).doesNotThrowAnyException();
+
+        assertThatIllegalArgumentException().isThrownBy(() -> MqttUtf8Utils.topicNameUtf8Length(""));
+        assertThatIllegalArgumentException().isThrownBy(() -> MqttUtf8Utils.topicNameUtf8Length("a/+"));
+        assertThatIllegalArgumentException().isThrownBy(() -> MqttUtf8Utils.topicNameUtf8Length("a/#"));
+        assertThatCode(() -> MqttUtf8Utils.topicFilterUtf8Length("a/+/#")).doesNotThrowAnyException();
+    }
+
+    @Test
+    public void testWriteAsciiTopicName() {
+        for (String value : new String[]{"a", "devices/42/telemetry", "sensors/building-7/floor-3/room-12/temp"}) {
+            ByteBuf buf = Unpooled.buffer().writeByte('x');
+            assertThat(MqttUtf8Utils.writeAsciiTopicName(buf, value)).isTrue();
+            assertThat(buf.skipBytes(1).readUnsignedShort()).isEqualTo(value.length());
+            assertThat(ByteBufUtil.getBytes(buf)).isEqualTo(value.getBytes(StandardCharsets.US_ASCII));
+        }
+        // each rejected char both inside the first eight chars and in the tail
+        for (String value : new String[]{"", "\u00e9t\u00e9", "a\u0000", "a/+", "a/#", "devices/\u4e2d\u6587",
+            "devices/4\u0000/telemetry", "devices/4+/telemetry", "devices/#", "devices/42/t\u00e9l\u00e9metry"}) {
+            ByteBuf buf = Unpooled.buffer().writeByte('x');
+            assertThat(MqttUtf8Utils.writeAsciiTopicName(buf, value)).isFalse();
+            assertThat(buf.writerIndex()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testDecode() {
+        assertThat(read("devices/42/telemetry".getBytes(StandardCharsets.UTF_8))).isEqualTo("devices/42/telemetry");
+        assertThat(read("sensors/\u00e9t\u00e9/\ud83d\ude00".getBytes(StandardCharsets.UTF_8)))
+            .isEqualTo("sensors/\u00e9t\u00e9/\ud83d\ude00");
+        assertThat(read(new byte[0])).isEmpty();
+    }
+
+    @Test
+    public void testDecodeInvalid() {
+        // U+0000 inside and after the first eight bytes
+        assertThatThrownBy(() -> read("6162630064656667")).isInstanceOf(DecoderException.class);
+        assertThatThrownBy(() -> read("616263646566676800")).isInstanceOf(DecoderException.class);
+        // encoded surrogate U+D800
+        assertThatThrownBy(() -> read("61eda080")).isInstanceOf(DecoderException.class);
+        // overlong encodings
+        assertThatThrownBy(() -> read("c0af")).isInstanceOf(DecoderException.class);
+        assertThatThrownBy(() -> read("e080af")).isInstanceOf(DecoderException.class);
+        assertThatThrownBy(() -> read("f08080af")).isInstanceOf(DecoderException.class);
+        // beyond U+10FFFF, truncated, and a stray continuation byte
+        assertThatThrownBy(() -> read("f4908080")).isInstanceOf(DecoderException.class);
+        assertThatThrownBy(() -> read("61c3")).isInstanceOf(DecoderException.class);
+        assertThatThrownBy(() -> read("6180")).isInstanceOf(DecoderException.class);
+    }
+}
@@ -16,6 +16,7 @@
 package io.rapidw.mqtt.codec.v3_1_1;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.embedded.EmbeddedChannel;
 import org.assertj.core.api.Assertions;
@@ -60,4 +61,99 @@ public class MqttPublishTest {
         assertThat(packet1.isDupFlag()).isTrue();
         assertThat(packet1.isRetain()).isTrue();
     }
+
+    @Test
+    public void testMqttPublishRetainedPayload() {
+        MqttV311DecoderConfig config = MqttV311DecoderConfig.builder().retainedPayload(true).build();
+        EmbeddedChannel channel = new EmbeddedChannel(MqttV311Encoder.INSTANCE, new MqttV311FramedDecoder(config));
+
+        MqttV311PublishPacket packet = MqttV311PublishPacket.builder()
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .topic("topic")
+            .payload("payload".getBytes(StandardCharsets.UTF_8))
+            .build();
+        assertThat(channel.writeOutbound(packet)).isTrue();
+        ByteBuf encoded = channel.readOutbound();
+        ByteBuf expected = encoded.copy();
+
+        assertThat(channel.writeInbound(encoded)).isTrue();
+        MqttV311PublishPacket packet1 = channel.readInbound();
+        ByteBuf payload = packet1.getPayloadBuffer();
+        assertThat(payload.toString(StandardCharsets.UTF_8)).isEqualTo("payload");
+        assertThat(packet1.refCnt()).isEqualTo(1);
+
+        // forward the decoded packet without copying its payload
+        assertThat(channel.writeOutbound(packet1)).isTrue();
+        assertThat(payload.refCnt()).isEqualTo(1);
+        ByteBuf forwarded = channel.readOutbound();
+        assertThat(forwarded).isEqualTo(expected);
+        forwarded.release();
+        expected.release();
+        assertThat(payload.refCnt()).isEqualTo(0);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    public void testPayloadBufferOfByteArrayPayload() {
+        MqttV311PublishPacket packet = MqttV311PublishPacket.builder()
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .topic("topic")
+            .payload("payload".getBytes(StandardCharsets.UTF_8))
+            .build();
+        ByteBuf payload = packet.getPayloadBuffer();
+        assertThat(payload.toString(StandardCharsets.UTF_8)).isEqualTo("payload");
+        assertThat(packet.getPayloadBuffer()).isSameAs(payload);
+    }
+
+    @Test
+    public void testMqttPublishTopicCache() {
+        MqttV311DecoderConfig config = MqttV311DecoderConfig.builder().topicCacheSize(64).build();
+        EmbeddedChannel channel = new EmbeddedChannel(MqttV311Encoder.INSTANCE, new MqttV311Decoder(config));
+
+        MqttV311PublishPacket packet = MqttV311PublishPacket.builder()
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .topic("devices/1/telemetry")
+            .payload(new byte[]{1})
+            .build();
+        assertThat(channel.writeOutbound(packet, packet)).isTrue();
+        assertThat(channel.writeInbound((ByteBuf) channel.readOutbound(), channel.readOutbound())).isTrue();
+        MqttV311PublishPacket packet1 = channel.readInbound();
+        MqttV311PublishPacket packet2 = channel.readInbound();
+        assertThat(packet1.getTopic()).isEqualTo("devices/1/telemetry");
+        assertThat(packet2.getTopic()).isSameAs(packet1.getTopic());
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    public void testMqttPublishPreparedTopic() {
+        MqttV311Topic topic = MqttV311Topic.of("sensors/\u00e9t\u00e9");
+        MqttV311PublishPacket.Builder builder = MqttV311PublishPacket.builder()
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .payload("payload".getBytes(StandardCharsets.UTF_8));
+        ByteBuf prepared = MqttV311Encoder.doEncode(ByteBufAllocator.DEFAULT, builder.topic(topic).build());
+        ByteBuf plain = MqttV311Encoder.doEncode(ByteBufAllocator.DEFAULT, builder.topic(topic.getName()).build());
+        assertThat(ByteBufUtil.equals(prepared, plain)).isTrue();
+        prepared.release();
+        plain.release();
+
+        Assertions.assertThatIllegalArgumentException().isThrownBy(() -> MqttV311Topic.of("sensors/+"));
+    }
+
+    @Test
+    public void testMqttPublishTopicFallsBackFromAscii() {
+        MqttV311Topic topic = MqttV311Topic.of("sensors/\u00e9t\u00e9/temperature");
+        MqttV311PublishPacket.Builder builder = MqttV311PublishPacket.builder()
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .payload("payload".getBytes(StandardCharsets.UTF_8));
+        ByteBuf expected = MqttV311Encoder.doEncode(ByteBufAllocator.DEFAULT, builder.topic(topic).build());
+        ByteBuf out = ByteBufAllocator.DEFAULT.buffer().writeByte(0xFF);
+        MqttV311Encoder.encodeTo(out, builder.topic(topic.getName()).build());
+        assertThat(ByteBufUtil.equals(out.skipBytes(1), expected)).isTrue();
+
+        Assertions.assertThatIllegalArgumentException()
+            .isThrownBy(() -> MqttV311Encoder.encodeTo(out, builder.topic("sensors/+/temperature").build()));
+        assertThat(out.writerIndex()).isEqualTo(1 + expected.readableBytes());
+        expected.release();
+        out.release();
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MqttQos2Test {
+
+    private static void assertQos2Exchange(Supplier<ChannelHandler> decoder) {
+        EmbeddedChannel channel = new EmbeddedChannel(MqttV311Encoder.INSTANCE, decoder.get());
+        assertThat(channel.writeOutbound(
+            MqttV311PubRecPacket.builder().packetId(9).build(),
+            MqttV311PubRelPacket.builder().packetId(9).build(),
+            MqttV311PubCompPacket.builder().packetId(9).build())).isTrue();
+        ByteBuf pubRec = channel.readOutbound();
+        ByteBuf pubRel = channel.readOutbound();
+        ByteBuf pubComp = channel.readOutbound();
+        assertThat(ByteBufUtil.hexDump(pubRec)).isEqualTo("50020009");
+        assertThat(ByteBufUtil.hexDump(pubRel)).isEqualTo("62020009");
+        assertThat(ByteBufUtil.hexDump(pubComp)).isEqualTo("70020009");
+
+        // one byte at a time goes through the regular decoding steps instead of the fast path
+        ByteBuf all = Unpooled.wrappedBuffer(pubRec, pubRel, pubComp);
+        while (all.isReadable()) {
+            channel.writeInbound(all.readRetainedSlice(1));
+        }
+        all.release();
+        assertThat(((MqttV311PubRecPacket) channel.readInbound()).getPacketId()).isEqualTo(9);
+        assertThat(((MqttV311PubRelPacket) channel.readInbound()).getPacketId()).isEqualTo(9);
+        assertThat(((MqttV311PubCompPacket) channel.readInbound()).getPacketId()).isEqualTo(9);
+
+        // whole frames are decoded to shared instances
+        channel.writeInbound(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump("620200096202000970020009")));
+        MqttV311PubRelPacket first = channel.readInbound();
+        assertThat((Object) channel.readInbound()).isSameAs(first);
+        assertThat(((MqttV311PubCompPacket) channel.readInbound()).getPacketId()).isEqualTo(9);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    public void testQos2Exchange() {
+        assertQos2Exchange(MqttV311FramedDecoder::new);
+        assertQos2Exchange(MqttV311Decoder::new);
+    }
+
+    @Test
+    public void testInvalidPubRelFlags() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MqttV311FramedDecoder());
+        assertThatThrownBy(() -> channel.writeInbound(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump("60020009"))))
+            .isInstanceOf(DecoderException.class)
+            .hasMessageContaining("MQTT-3.6.1-1");
+    }
+
+    @Test
+    public void testPacketIdFlyweights() {
+        for (int packetId : new int[]{0, 255, 256, 65535}) {
+            MqttV311PubAckPacket pubAck = MqttV311PubAckPacket.valueOf(packetId);
+            assertThat(pubAck.getPacketId()).isEqualTo(packetId);
+            assertThat(MqttV311PubAckPacket.valueOf(packetId)).isSameAs(pubAck);
+        }
+        assertThat(MqttV311UnsubAckPacket.valueOf(256).getPacketId()).isEqualTo(256);
+        assertThatThrownBy(() -> MqttV311PubAckPacket.validateFixedHeader((short) 0, 3))
+            .isInstanceOf(DecoderException.class).hasMessage("invalid PUBACK remaining length");
+    }
+}
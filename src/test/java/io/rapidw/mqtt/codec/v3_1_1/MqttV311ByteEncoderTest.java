@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.EncoderException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MqttV311ByteEncoderTest {
+
+    private static MqttV311PublishPacket publish() {
+        return MqttV311PublishPacket.builder()
+            .topic("a/b")
+            .qosLevel(MqttV311QosLevel.AT_LEAST_ONCE)
+            .packetId(1)
+            .payload(Unpooled.copiedBuffer("hello", StandardCharsets.UTF_8))
+            .build();
+    }
+
+    private static byte[] encode(MqttV311Packet packet) {
+        ByteBuf buf = MqttV311Encoder.doEncode(Unpooled.buffer().alloc(), packet);
+        try {
+            return ByteBufUtil.getBytes(buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    public void testEncodeTo() {
+        MqttV311PublishPacket publish = publish();
+        MqttV311PubAckPacket pubAck = MqttV311PubAckPacket.builder().packetId(2).build();
+        ByteBuf out = Unpooled.buffer(4);
+        int publishSize = MqttV311Encoder.encodeTo(out, publish);
+        MqttV311Encoder.encodeTo(out, pubAck);
+        assertThat(publishSize).isEqualTo(encode(publish).length);
+        assertThat(ByteBufUtil.getBytes(out)).isEqualTo(concat(encode(publish), encode(pubAck)));
+        publish.release();
+    }
+
+    @Test
+    public void testByteEncoder() {
+        EmbeddedChannel channel = new EmbeddedChannel(MqttV311ByteEncoder.INSTANCE, new MqttV311FramedDecoder());
+        MqttV311PublishPacket publish = publish();
+        assertThat(channel.writeOutbound(publish)).isTrue();
+        assertThat(publish.refCnt()).isZero();
+        assertThat(channel.writeInbound((ByteBuf) channel.readOutbound())).isTrue();
+        MqttV311PublishPacket decoded = channel.readInbound();
+        assertThat(decoded.getTopic()).isEqualTo("a/b");
+        assertThat(decoded.getPayload()).isEqualTo("hello".getBytes(StandardCharsets.UTF_8));
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    public void testCoalescingEncoder() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MqttV311CoalescingEncoder());
+        MqttV311PubAckPacket pubAck = MqttV311PubAckPacket.builder().packetId(2).build();
+        ChannelFuture first = channel.write(publish());
+        ChannelFuture second = channel.write(pubAck);
+        ChannelFuture third = channel.write(MqttV311PingReqPacket.INSTANCE);
+        assertThat((Object) channel.readOutbound()).isNull();
+        channel.flush();
+
+        ByteBuf buf = channel.readOutbound();
+        assertThat(ByteBufUtil.getBytes(buf)).isEqualTo(
+            concat(encode(publish()), encode(pubAck), encode(MqttV311PingReqPacket.INSTANCE)));
+        buf.release();
+        assertThat((Object) channel.readOutbound()).isNull();
+        assertThat(first.isSuccess() && second.isSuccess() && third.isSuccess()).isTrue();
+
+        // an invalid packet fails on its own and leaves the others intact
+        ChannelFuture invalid = channel.write(MqttV311PublishPacket.builder()
+            .topic("a/#")
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .payload(new byte[0])
+            .build());
+        channel.writeAndFlush(pubAck);
+        assertThat(invalid.cause()).isInstanceOf(EncoderException.class)
+            .hasCauseInstanceOf(IllegalArgumentException.class);
+        buf = channel.readOutbound();
+        assertThat(ByteBufUtil.getBytes(buf)).isEqualTo(encode(pubAck));
+        buf.release();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    public void testConstantFrames() {
+        for (int i = 0; i < 2; i++) {
+            ByteBuf ping = MqttV311Encoder.doEncode(Unpooled.buffer().alloc(), MqttV311PingRespPacket.INSTANCE);
+            assertThat(ByteBufUtil.getBytes(ping)).isEqualTo(new byte[]{(byte) 0xD0, 0});
+            ping.skipBytes(2);
+            assertThat(ping.release()).isTrue();
+        }
+        assertThat(encode(MqttV311ConnAckPacket.valueOf(true, MqttV311ConnectReturnCode.CONNECTION_ACCEPTED)))
+            .isEqualTo(new byte[]{0x20, 0x02, 0x01, 0x00});
+
+        // every write gets its own duplicate, so one channel consuming the frame does not affect the next
+        EmbeddedChannel channel = new EmbeddedChannel(MqttV311Encoder.INSTANCE, new MqttV311FramedDecoder());
+        for (int i = 0; i < 2; i++) {
+            assertThat(channel.writeOutbound(MqttV311DisconnectPacket.INSTANCE,
+                MqttV311ConnAckPacket.valueOf(false, MqttV311ConnectReturnCode.CONNECTION_REFUSED_NOT_AUTHORIZED)))
+                .isTrue();
+            assertThat(channel.writeInbound((ByteBuf) channel.readOutbound(), channel.readOutbound())).isTrue();
+            assertThat((Object) channel.readInbound()).isSameAs(MqttV311DisconnectPacket.INSTANCE);
+            MqttV311ConnAckPacket connAck = channel.readInbound();
+            assertThat(connAck.getConnectReturnCode())
+                .isEqualTo(MqttV311ConnectReturnCode.CONNECTION_REFUSED_NOT_AUTHORIZED);
+        }
+        assertThat(channel.finish()).isFalse();
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteBuf buf = Unpooled.wrappedBuffer(arrays);
+        return ByteBufUtil.getBytes(buf);
+    }
+}
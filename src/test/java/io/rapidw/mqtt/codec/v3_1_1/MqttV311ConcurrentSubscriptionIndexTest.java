@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MqttV311ConcurrentSubscriptionIndexTest {
+
+    private static final MqttV311QosLevel QOS0 = MqttV311QosLevel.AT_MOST_ONCE;
+    private static final MqttV311QosLevel QOS1 = MqttV311QosLevel.AT_LEAST_ONCE;
+
+    @Test
+    public void testMatching() {
+        MqttV311ConcurrentSubscriptionIndex<String> index = new MqttV311ConcurrentSubscriptionIndex<>(4);
+        index.subscribe("a", "sport/tennis/+", QOS0);
+        index.subscribe("b", "sport/#", QOS1);
+        index.subscribe("c", "#", QOS0);
+        index.subscribe("d", "$SYS/#", QOS0);
+        index.subscribe("e", new MqttV311TopicAndQosLevel("+/tennis/player1", QOS1));
+        assertThat(index.match("sport/tennis/player1").keySet()).containsExactlyInAnyOrder("a", "b", "c", "e");
+        assertThat(index.match("sport").keySet()).containsExactlyInAnyOrder("b", "c");
+        assertThat(index.match("$SYS/load").keySet()).containsExactly("d");
+        assertThat(index.size()).isEqualTo(5);
+
+        assertThat(index.unsubscribe("b", "sport/#")).isTrue();
+        assertThat(index.unsubscribe("b", "sport/#")).isFalse();
+        assertThat(index.match("sport").keySet()).containsExactly("c");
+        assertThat(index.size()).isEqualTo(4);
+    }
+
+    @Test
+    public void testManySubscribersOfOneFilter() {
+        MqttV311ConcurrentSubscriptionIndex<Integer> index = new MqttV311ConcurrentSubscriptionIndex<>();
+        for (int i = 0; i < 20; i++) {
+            assertThat(index.subscribe(i, "a/b", QOS0)).isTrue();
+        }
+        assertThat(index.subscribe(3, "a/b", QOS1)).isFalse();
+        assertThat(index.match("a/b")).hasSize(20).containsEntry(3, QOS1).containsEntry(4, QOS0);
+        for (int i = 0; i < 20; i++) {
+            assertThat(index.unsubscribe(i, "a/b")).isTrue();
+        }
+        assertThat(index.match("a/b")).isEmpty();
+        assertThat(index.size()).isZero();
+    }
+
+    @Test
+    public void testConcurrentChanges() throws Exception {
+        MqttV311ConcurrentSubscriptionIndex<Integer> index = new MqttV311ConcurrentSubscriptionIndex<>(2);
+        index.subscribe(-1, "devices/1/+", QOS1);
+        index.subscribe(-2, "+/1/state", QOS1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch started = new CountDownLatch(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < 2; w++) {
+            int writer = w;
+            futures.add(executor.submit(() -> {
+                started.countDown();
+                for (int round = 0; round < 200; round++) {
+                    // siblings of the stable subscriptions, so nodes next to theirs are created and pruned
+                    for (int i = 0; i < 50; i++) {
+                        index.subscribe(writer * 1000 + i, "devices/" + (i % 3) + "/state", QOS0);
+                        index.subscribe(writer * 1000 + i, "+/" + i + "/#", QOS0);
+                    }
+                    for (int i = 0; i < 50; i++) {
+                        index.unsubscribe(writer * 1000 + i, "devices/" + (i % 3) + "/state");
+                        index.unsubscribe(writer * 1000 + i, "+/" + i + "/#");
+                    }
+                }
+            }));
+        }
+        for (int r = 0; r < 2; r++) {
+            futures.add(executor.submit(() -> {
+                started.countDown();
+                while (running.get()) {
+                    assertThat(index.match("devices/1/state")).containsKeys(-1, -2);
+                }
+            }));
+        }
+        futures.get(0).get(30, TimeUnit.SECONDS);
+        futures.get(1).get(30, TimeUnit.SECONDS);
+        running.set(false);
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.match("devices/1/state").keySet()).containsExactlyInAnyOrder(-1, -2);
+    }
+}
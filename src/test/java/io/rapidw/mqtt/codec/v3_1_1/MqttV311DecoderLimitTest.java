@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MqttV311DecoderLimitTest {
+
+    private static ByteBuf encode(MqttV311Packet packet) {
+        EmbeddedChannel channel = new EmbeddedChannel(MqttV311Encoder.INSTANCE);
+        channel.writeOutbound(packet);
+        return channel.readOutbound();
+    }
+
+    private static EmbeddedChannel channel(MqttV311DecoderConfig.Builder builder) {
+        return new EmbeddedChannel(new MqttV311FramedDecoder(builder.build()));
+    }
+
+    @Test
+    public void testPacketTooLarge() {
+        EmbeddedChannel channel = channel(MqttV311DecoderConfig.builder().maxRemainingLength(1024));
+        // only the fixed header of a PUBLISH with a remaining length of 1,000,000
+        assertThatThrownBy(() -> channel.writeInbound(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump("30c0843d"))))
+            .isInstanceOf(MqttV311PacketTooLargeException.class);
+    }
+
+    @Test
+    public void testTopicTooLong() {
+        EmbeddedChannel channel = channel(MqttV311DecoderConfig.builder().maxTopicLength(8));
+        ByteBuf buf = encode(MqttV311PublishPacket.builder()
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .topic("devices/1/telemetry")
+            .payload(new byte[100])
+            .build());
+        // rejected before the topic itself arrives
+        assertThatThrownBy(() -> channel.writeInbound(buf.readRetainedSlice(4)))
+            .isInstanceOf(MqttV311TopicTooLongException.class);
+        buf.release();
+    }
+
+    @Test
+    public void testTooManyTopicFilters() {
+        EmbeddedChannel channel = channel(MqttV311DecoderConfig.builder().maxTopicFilters(1));
+        ByteBuf buf = encode(MqttV311SubscribePacket.builder()
+            .packetId(1)
+            .topicAndQosLevel(new MqttV311TopicAndQosLevel("a", MqttV311QosLevel.AT_MOST_ONCE))
+            .topicAndQosLevel(new MqttV311TopicAndQosLevel("b", MqttV311QosLevel.AT_MOST_ONCE))
+            .build());
+        assertThatThrownBy(() -> channel.writeInbound(buf))
+            .isInstanceOf(MqttV311TooManyTopicFiltersException.class);
+    }
+
+    @Test
+    public void testClientIdTooLong() {
+        EmbeddedChannel channel = new EmbeddedChannel(
+            new MqttV311Decoder(MqttV311DecoderConfig.builder().maxClientIdLength(4).build()));
+        ByteBuf buf = encode(MqttV311ConnectPacket.builder()
+            .clientId("client id")
+            .cleanSession(true)
+            .build());
+        assertThatThrownBy(() -> channel.writeInbound(buf))
+            .isInstanceOf(MqttV311ClientIdTooLongException.class);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MqttV311EncodedSizeTest {
+
+    @Test
+    public void testMatchesEncoding() {
+        List<MqttV311Packet> packets = Arrays.asList(
+            MqttV311ConnectPacket.builder()
+                .clientId("\u00e9t\u00e9")
+                .keepAliveSeconds(30)
+                .username("user")
+                .password(new byte[]{1, 2, 3})
+                .will(MqttV311Will.builder()
+                    .qosLevel(MqttV311QosLevel.AT_LEAST_ONCE)
+                    .topic("will/\u4e2d")
+                    .message(new byte[]{4})
+                    .build())
+                .build(),
+            MqttV311PublishPacket.builder()
+                .topic("a/\u00fc")
+                .qosLevel(MqttV311QosLevel.EXACTLY_ONCE)
+                .packetId(7)
+                .payload(new byte[200])
+                .build(),
+            MqttV311PublishPacket.builder()
+                .topic(MqttV311Topic.of("a/b"))
+                .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+                .payload(Unpooled.wrappedBuffer(new byte[20000]))
+                .build(),
+            MqttV311SubscribePacket.builder()
+                .packetId(1)
+                .topicAndQosLevel(new MqttV311TopicAndQosLevel("a/+/\u00e9", MqttV311QosLevel.AT_LEAST_ONCE))
+                .topicAndQosLevel(new MqttV311TopicAndQosLevel("#", MqttV311QosLevel.AT_MOST_ONCE))
+                .build(),
+            MqttV311SubAckPacket.builder()
+                .packetId(1)
+                .qosLevel(MqttV311QosLevel.AT_LEAST_ONCE)
+                .qosLevel(MqttV311QosLevel.FAILURE)
+                .build(),
+            MqttV311UnsubscribePacket.builder().packetId(2).topicFilter("a/\u00e9").build(),
+            MqttV311PubAckPacket.builder().packetId(3).build(),
+            MqttV311UnsubAckPacket.builder().packetId(4).build(),
+            MqttV311ConnAckPacket.valueOf(true, MqttV311ConnectReturnCode.CONNECTION_ACCEPTED),
+            MqttV311PingReqPacket.INSTANCE,
+            MqttV311PingRespPacket.INSTANCE,
+            MqttV311DisconnectPacket.INSTANCE);
+
+        for (MqttV311Packet packet : packets) {
+            int expected = encodedLength(packet);
+            assertThat(MqttV311Encoder.encodedSize(packet)).as(packet.getType().name()).isEqualTo(expected);
+            // encoding again uses the cached string lengths
+            MqttV311StringLengths cached = packet.stringLengths;
+            assertThat(encodedLength(packet)).as(packet.getType().name()).isEqualTo(expected);
+            assertThat(MqttV311Encoder.encodedSize(packet)).isEqualTo(expected);
+            assertThat(packet.stringLengths).isSameAs(cached);
+        }
+    }
+
+    @Test
+    public void testPacketModifiedAfterSizing() {
+        MqttV311TopicAndQosLevel topicAndQosLevel = new MqttV311TopicAndQosLevel("a", MqttV311QosLevel.AT_MOST_ONCE);
+        MqttV311SubscribePacket packet = MqttV311SubscribePacket.builder()
+            .packetId(1)
+            .topicAndQosLevel(topicAndQosLevel)
+            .build();
+        assertThat(MqttV311Encoder.encodedSize(packet)).isEqualTo(8);
+        topicAndQosLevel.setTopicFilter("sensors/+/\u00e9");
+        assertThat(MqttV311Encoder.encodedSize(packet)).isEqualTo(19);
+
+        ByteBuf buf = MqttV311Encoder.doEncode(Unpooled.buffer().alloc(), packet);
+        assertThat(buf.readableBytes()).isEqualTo(19);
+        MqttV311Packet decoded = new MqttV311BufferDecoder().decodeFrame(buf);
+        buf.release();
+        assertThat(decoded).isInstanceOfSatisfying(MqttV311SubscribePacket.class, subscribe ->
+            assertThat(subscribe.getTopicAndQosLevels().get(0).getTopicFilter()).isEqualTo("sensors/+/\u00e9"));
+
+        MqttV311PublishPacket publish = MqttV311PublishPacket.builder()
+            .topic("a")
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .payload(new byte[0])
+            .build();
+        assertThat(MqttV311Encoder.encodedSize(publish)).isEqualTo(5);
+        publish.setTopic("\u00e9t\u00e9");
+        assertThat(publish.stringLengths).isNull();
+        assertThat(encodedLength(publish)).isEqualTo(9);
+    }
+
+    @Test
+    public void testInvalidPacket() {
+        MqttV311PublishPacket packet = MqttV311PublishPacket.builder()
+            .topic("a/+")
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .payload("x".getBytes(StandardCharsets.UTF_8))
+            .build();
+        assertThatThrownBy(() -> MqttV311Encoder.encodedSize(packet)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static int encodedLength(MqttV311Packet packet) {
+        ByteBuf buf = MqttV311Encoder.doEncode(Unpooled.buffer().alloc(), packet);
+        try {
+            return buf.readableBytes();
+        } finally {
+            buf.release();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MqttV311FramedDecoderTest {
+
+    private static ByteBuf encode(MqttV311Packet packet) {
+        EmbeddedChannel channel = new EmbeddedChannel(MqttV311Encoder.INSTANCE);
+        assertThat(channel.writeOutbound(packet)).isTrue();
+        return channel.readOutbound();
+    }
+
+    private static MqttV311PublishPacket publish() {
+        byte[] payload = new byte[50000];
+        Arrays.fill(payload, (byte) 'x');
+        return MqttV311PublishPacket.builder()
+            .packetId(7)
+            .payload(payload)
+            .qosLevel(MqttV311QosLevel.AT_LEAST_ONCE)
+            .topic("a/b/c")
+            .build();
+    }
+
+    private static void assertFragmentedDecode(ChannelHandler decoder) {
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        ByteBuf buf = Unpooled.wrappedBuffer(encode(publish()), encode(MqttV311PingReqPacket.INSTANCE));
+        while (buf.isReadable()) {
+            channel.writeInbound(buf.readRetainedSlice(Math.min(1000, buf.readableBytes())));
+        }
+        buf.release();
+
+        MqttV311PublishPacket packet = channel.readInbound();
+        assertThat(packet.getTopic()).isEqualTo("a/b/c");
+        assertThat(packet.getPacketId()).isEqualTo(7);
+        assertThat(packet.getPayload()).isEqualTo(publish().getPayload());
+        assertThat((Object) channel.readInbound()).isSameAs(MqttV311PingReqPacket.INSTANCE);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    public void testFragmentedPublish() {
+        assertFragmentedDecode(new MqttV311FramedDecoder());
+        assertFragmentedDecode(new MqttV311Decoder());
+    }
+
+    @Test
+    public void testUnsubscribe() {
+        EmbeddedChannel channel = new EmbeddedChannel(MqttV311Encoder.INSTANCE, new MqttV311FramedDecoder());
+        MqttV311UnsubscribePacket packet = MqttV311UnsubscribePacket.builder()
+            .packetId(3)
+            .topicFilter("a/+")
+            .topicFilter("b/#")
+            .build();
+        assertThat(channel.writeOutbound(packet)).isTrue();
+        assertThat(channel.writeInbound((ByteBuf) channel.readOutbound())).isTrue();
+
+        MqttV311UnsubscribePacket packet1 = channel.readInbound();
+        assertThat(packet1.getPacketId()).isEqualTo(3);
+        assertThat(packet1.getTopicFilters()).containsExactly("a/+", "b/#");
+    }
+
+    private static void assertChunkedDecode(ChannelHandler decoder) {
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        ByteBuf buf = Unpooled.wrappedBuffer(encode(publish()), encode(MqttV311PingReqPacket.INSTANCE));
+        while (buf.isReadable()) {
+            channel.writeInbound(buf.readRetainedSlice(Math.min(1000, buf.readableBytes())));
+        }
+        buf.release();
+
+        MqttV311PublishPacket header = channel.readInbound();
+        assertThat(header.isChunked()).isTrue();
+        assertThat(header.getTopic()).isEqualTo("a/b/c");
+        assertThat(header.getPacketId()).isEqualTo(7);
+        assertThat(header.getPayloadSize()).isEqualTo(50000);
+
+        ByteBuf payload = Unpooled.buffer();
+        boolean last = false;
+        Object message;
+        while ((message = channel.readInbound()) instanceof MqttV311PublishChunk) {
+            MqttV311PublishChunk chunk = (MqttV311PublishChunk) message;
+            assertThat(chunk.content().readableBytes()).isLessThanOrEqualTo(1000);
+            payload.writeBytes(chunk.content());
+            chunk.release();
+            if (chunk.isLast()) {
+                last = true;
+                message = channel.readInbound();
+                break;
+            }
+        }
+        assertThat(last).isTrue();
+        assertThat(ByteBufUtil.getBytes(payload)).isEqualTo(publish().getPayload());
+        assertThat(message).isSameAs(MqttV311PingReqPacket.INSTANCE);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    public void testChunkedPublish() {
+        MqttV311DecoderConfig config = MqttV311DecoderConfig.builder().chunkedPayloadThreshold(1024).build();
+        assertChunkedDecode(new MqttV311FramedDecoder(config));
+        assertChunkedDecode(new MqttV311Decoder(config));
+    }
+
+    private static void assertFixedSizeDecode(ChannelHandler decoder) {
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{
+            0x40, 0x02, 0x01, 0x02,
+            (byte) 0xB0, 0x02, 0x00, 0x09,
+            0x20, 0x02, 0x01, 0x00,
+            0x20, 0x02, 0x00, 0x05,
+            (byte) 0xC0, 0x00,
+            0x40, 0x02, 0x01,
+        }));
+        MqttV311PubAckPacket pubAck = channel.readInbound();
+        assertThat(pubAck.getPacketId()).isEqualTo(0x0102);
+        assertThat(pubAck).isSameAs(MqttV311PubAckPacket.valueOf(0x0102));
+        MqttV311UnsubAckPacket unsubAck = channel.readInbound();
+        assertThat(unsubAck.getPacketId()).isEqualTo(9);
+        MqttV311ConnAckPacket connAck = channel.readInbound();
+        assertThat(connAck.isSessionPresent()).isTrue();
+        assertThat(connAck.getConnectReturnCode()).isEqualTo(MqttV311ConnectReturnCode.CONNECTION_ACCEPTED);
+        connAck = channel.readInbound();
+        assertThat(connAck.getConnectReturnCode()).isEqualTo(MqttV311ConnectReturnCode.CONNECTION_REFUSED_NOT_AUTHORIZED);
+        assertThat((Object) channel.readInbound()).isSameAs(MqttV311PingReqPacket.INSTANCE);
+        assertThat((Object) channel.readInbound()).isNull();
+
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{0x03}));
+        pubAck = channel.readInbound();
+        assertThat(pubAck.getPacketId()).isEqualTo(0x0103);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    public void testFixedSizePackets() {
+        assertFixedSizeDecode(new MqttV311FramedDecoder());
+        assertFixedSizeDecode(new MqttV311Decoder());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MqttV311PacketBatchTest {
+
+    private static ByteBuf encode(MqttV311Packet packet) {
+        EmbeddedChannel channel = new EmbeddedChannel(MqttV311Encoder.INSTANCE);
+        channel.writeOutbound(packet);
+        return channel.readOutbound();
+    }
+
+    private static void assertBatch(ChannelHandler decoder) {
+        List<Integer> batchSizes = new ArrayList<>();
+        List<Object> messages = new ArrayList<>();
+        EmbeddedChannel channel = new EmbeddedChannel(decoder, new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                batchSizes.add(((MqttV311PacketBatch) msg).size());
+                ctx.fireChannelRead(msg);
+            }
+        }, new MqttV311BatchHandler() {
+            @Override
+            protected void messageRead(ChannelHandlerContext ctx, Object msg) {
+                messages.add(msg);
+            }
+        });
+
+        ByteBuf buf = Unpooled.wrappedBuffer(
+            encode(MqttV311PubAckPacket.builder().packetId(1).build()),
+            encode(MqttV311PubAckPacket.builder().packetId(2).build()),
+            encode(MqttV311PubAckPacket.builder().packetId(3).build()),
+            encode(MqttV311PingReqPacket.INSTANCE));
+        channel.writeInbound(buf);
+        channel.writeInbound(encode(MqttV311PingReqPacket.INSTANCE));
+
+        assertThat(batchSizes).containsExactly(4, 1);
+        assertThat(messages).hasSize(5);
+        assertThat(((MqttV311PubAckPacket) messages.get(2)).getPacketId()).isEqualTo(3);
+        assertThat(messages.get(4)).isSameAs(MqttV311PingReqPacket.INSTANCE);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    public void testBatch() {
+        MqttV311DecoderConfig config = MqttV311DecoderConfig.builder().batching(true).build();
+        assertBatch(new MqttV311FramedDecoder(config));
+        assertBatch(new MqttV311Decoder(config));
+    }
+
+    private static void assertNoExtraRead(ChannelHandler decoder) {
+        AtomicInteger reads = new AtomicInteger();
+        List<Object> messages = new ArrayList<>();
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void read(ChannelHandlerContext ctx) {
+                reads.incrementAndGet();
+                ctx.read();
+            }
+        }, decoder, new MqttV311BatchHandler() {
+            @Override
+            protected void messageRead(ChannelHandlerContext ctx, Object msg) {
+                messages.add(msg);
+            }
+        });
+        channel.config().setAutoRead(false);
+        reads.set(0);
+
+        // a read that produced a batch leaves the next read to the handler
+        channel.writeInbound(encode(MqttV311PubAckPacket.builder().packetId(1).build()));
+        assertThat(messages).hasSize(1);
+        assertThat(reads).hasValue(0);
+
+        // a read that produced nothing asks for more
+        ByteBuf pubAck = encode(MqttV311PubAckPacket.builder().packetId(2).build());
+        channel.writeInbound(pubAck.readRetainedSlice(1));
+        assertThat(reads).hasValue(1);
+        channel.writeInbound(pubAck);
+        assertThat(messages).hasSize(2);
+        assertThat(reads).hasValue(1);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    public void testNoReadWithoutAutoRead() {
+        MqttV311DecoderConfig config = MqttV311DecoderConfig.builder().batching(true).build();
+        assertNoExtraRead(new MqttV311FramedDecoder(config));
+        assertNoExtraRead(new MqttV311Decoder(config));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MqttV311PublishTemplateTest {
+
+    private static MqttV311PublishPacket publish(MqttV311QosLevel qosLevel, boolean dupFlag, Integer packetId) {
+        return MqttV311PublishPacket.builder()
+            .topic("devices/42/telemetry")
+            .retain(true)
+            .qosLevel(qosLevel)
+            .dupFlag(dupFlag)
+            .packetId(packetId)
+            .payload("temperature=21".getBytes(StandardCharsets.UTF_8))
+            .build();
+    }
+
+    private static void assertFrame(ByteBuf frame, MqttV311PublishPacket expected) {
+        ByteBuf encoded = MqttV311Encoder.doEncode(ByteBufAllocator.DEFAULT, expected);
+        assertThat(ByteBufUtil.getBytes(frame)).isEqualTo(ByteBufUtil.getBytes(encoded));
+        encoded.release();
+        frame.release();
+    }
+
+    @Test
+    public void testFrames() {
+        MqttV311PublishPacket payloadBufferPacket = MqttV311PublishPacket.builder()
+            .topic("devices/42/telemetry")
+            .retain(true)
+            .qosLevel(MqttV311QosLevel.EXACTLY_ONCE)
+            .packetId(9)
+            .payload(Unpooled.copiedBuffer("temperature=21", StandardCharsets.UTF_8))
+            .build();
+        MqttV311PublishTemplate template = MqttV311PublishTemplate.of(ByteBufAllocator.DEFAULT, payloadBufferPacket);
+        payloadBufferPacket.release();
+
+        ByteBuf qos0 = template.frame(MqttV311QosLevel.AT_MOST_ONCE, false, 0);
+        ByteBuf qos1 = template.frame(MqttV311QosLevel.AT_LEAST_ONCE, false, 1);
+        ByteBuf qos2 = template.frame(MqttV311QosLevel.EXACTLY_ONCE, true, 65535);
+        assertThat(template.release()).isFalse();
+
+        assertFrame(qos0, publish(MqttV311QosLevel.AT_MOST_ONCE, false, null));
+        assertFrame(qos1, publish(MqttV311QosLevel.AT_LEAST_ONCE, false, 1));
+        assertFrame(qos2, publish(MqttV311QosLevel.EXACTLY_ONCE, true, 65535));
+        assertThat(template.refCnt()).isZero();
+    }
+
+    @Test
+    public void testLargePayload() {
+        MqttV311PublishPacket packet = MqttV311PublishPacket.builder()
+            .topic("a")
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .payload(new byte[MqttV311PublishTemplate.COPY_THRESHOLD + 1])
+            .build();
+        MqttV311PublishTemplate template = MqttV311PublishTemplate.of(ByteBufAllocator.DEFAULT, packet);
+        ByteBuf frame = template.frame(MqttV311QosLevel.AT_LEAST_ONCE, false, 7);
+        template.release();
+        assertFrame(frame, MqttV311PublishPacket.builder()
+            .topic("a")
+            .qosLevel(MqttV311QosLevel.AT_LEAST_ONCE)
+            .packetId(7)
+            .payload(new byte[MqttV311PublishTemplate.COPY_THRESHOLD + 1])
+            .build());
+        assertThat(template.refCnt()).isZero();
+    }
+}
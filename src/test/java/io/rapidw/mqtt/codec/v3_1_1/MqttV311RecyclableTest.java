@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MqttV311RecyclableTest {
+
+    private static final MqttV311DecoderConfig CONFIG = MqttV311DecoderConfig.builder().pooledPackets(true).build();
+
+    private static ByteBuf encode(MqttV311Packet packet) {
+        EmbeddedChannel channel = new EmbeddedChannel(MqttV311Encoder.INSTANCE);
+        channel.writeOutbound(packet);
+        return channel.readOutbound();
+    }
+
+    private static MqttV311PublishPacket publish(int packetId) {
+        return MqttV311PublishPacket.builder()
+            .topic("a/b")
+            .qosLevel(MqttV311QosLevel.AT_LEAST_ONCE)
+            .packetId(packetId)
+            .payload("hello".getBytes(StandardCharsets.UTF_8))
+            .build();
+    }
+
+    private static void assertPooledDecode(ChannelHandler decoder) {
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        channel.writeInbound(encode(publish(1)));
+        MqttV311PublishPacket first = channel.readInbound();
+        assertThat(first.isPooled()).isTrue();
+        assertThat(first.getPacketId()).isEqualTo(1);
+        first.recycle();
+        assertThatThrownBy(first::getTopic).isInstanceOf(IllegalStateException.class);
+
+        channel.writeInbound(encode(publish(2)));
+        MqttV311PublishPacket second = channel.readInbound();
+        if (!MqttV311Pooling.DEBUG) {
+            assertThat(second).isSameAs(first);
+        }
+        assertThat(second.getTopic()).isEqualTo("a/b");
+        assertThat(second.getPacketId()).isEqualTo(2);
+        assertThat(second.getPayload()).isEqualTo("hello".getBytes(StandardCharsets.UTF_8));
+        second.recycle();
+
+        channel.writeInbound(encode(MqttV311SubAckPacket.builder()
+            .packetId(3)
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .qosLevel(MqttV311QosLevel.FAILURE)
+            .build()));
+        MqttV311SubAckPacket subAck = channel.readInbound();
+        assertThat(subAck.isPooled()).isTrue();
+        assertThat(subAck.getQosLevels()).containsExactly(MqttV311QosLevel.AT_MOST_ONCE, MqttV311QosLevel.FAILURE);
+        subAck.recycle();
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    public void testPooledDecode() {
+        assertPooledDecode(new MqttV311FramedDecoder(CONFIG));
+        assertPooledDecode(new MqttV311Decoder(CONFIG));
+    }
+
+    @Test
+    public void testEncoderRecycles() {
+        MqttV311PublishPacket pooled = MqttV311PublishPacket.builder()
+            .topic("a/b")
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .payload(new byte[]{1, 2, 3})
+            .buildPooled();
+        ByteBuf buf = encode(pooled);
+        assertThat(buf.readableBytes()).isEqualTo(10);
+        buf.release();
+        assertThatThrownBy(pooled::getPayload).isInstanceOf(IllegalStateException.class);
+
+        MqttV311PublishPacket unpooled = publish(1);
+        encode(unpooled).release();
+        assertThat(unpooled.getTopic()).isEqualTo("a/b");
+    }
+
+    @Test
+    public void testPooledPublishFanOut() {
+        ByteBuf payload = Unpooled.wrappedBuffer(new byte[]{1, 2, 3});
+        MqttV311PublishPacket pooled = MqttV311PublishPacket.builder()
+            .topic("a/b")
+            .qosLevel(MqttV311QosLevel.AT_MOST_ONCE)
+            .payload(payload)
+            .buildPooled();
+        pooled.retain();
+        assertThat(pooled.refCnt()).isEqualTo(2);
+
+        ByteBuf first = encode(pooled);
+        assertThat(pooled.refCnt()).isEqualTo(1);
+        assertThat(pooled.getTopic()).isEqualTo("a/b");
+        ByteBuf second = encode(pooled);
+        assertThat(pooled.refCnt()).isZero();
+        assertThatThrownBy(pooled::getTopic).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(pooled::recycle).isInstanceOf(IllegalStateException.class);
+
+        assertThat(ByteBufUtil.getBytes(second)).isEqualTo(ByteBufUtil.getBytes(first));
+        first.release();
+        second.release();
+        assertThat(payload.refCnt()).isZero();
+    }
+}
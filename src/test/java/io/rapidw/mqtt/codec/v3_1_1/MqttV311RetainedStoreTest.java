@@ -0,0 +1,382 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.handler.codec.DecoderException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class MqttV311RetainedStoreTest {
+
+    private static MqttV311PublishPacket publish(String topic, MqttV311QosLevel qosLevel, String payload) {
+        return MqttV311PublishPacket.builder()
+            .topic(topic)
+            .retain(true)
+            .qosLevel(qosLevel)
+            .packetId(qosLevel == MqttV311QosLevel.AT_MOST_ONCE ? null : 1)
+            .payload(payload.getBytes(StandardCharsets.UTF_8))
+            .build();
+    }
+
+    private static boolean mapped(Path maps, Path directory) throws IOException {
+        return Files.readAllLines(maps).stream().anyMatch(line -> line.contains(directory.toString()));
+    }
+
+    private static TreeSet<String> topics(MqttV311RetainedStore store, String topicFilter) {
+        TreeSet<String> topics = new TreeSet<>();
+        int count = store.match(topicFilter, MqttV311QosLevel.AT_MOST_ONCE, null, frame -> {
+            int topicIndex = frame.readerIndex() + 2;
+            topics.add(frame.toString(topicIndex + 2, frame.getUnsignedShort(topicIndex), StandardCharsets.UTF_8));
+            frame.release();
+        });
+        assertThat(count).isEqualTo(topics.size());
+        return topics;
+    }
+
+    @Test
+    public void testWildcardLookup() {
+        MqttV311RetainedStore store = new MqttV311RetainedStore();
+        for (String topic : new String[]{"sensors", "sensors/1/temperature", "sensors/1/humidity",
+            "sensors/2/temperature", "actuators/1", "/sensors", "$SYS/uptime"}) {
+            assertThat(store.put(publish(topic, MqttV311QosLevel.AT_MOST_ONCE, "x"))).isTrue();
+        }
+        assertThat(store.size()).isEqualTo(7);
+
+        assertThat(topics(store, "sensors/#")).containsExactly("sensors", "sensors/1/humidity",
+            "sensors/1/temperature", "sensors/2/temperature");
+        assertThat(topics(store, "sensors/+/temperature")).containsExactly("sensors/1/temperature",
+            "sensors/2/temperature");
+        assertThat(topics(store, "sensors/+")).isEmpty();
+        assertThat(topics(store, "+/sensors")).containsExactly("/sensors");
+        assertThat(topics(store, "actuators/1")).containsExactly("actuators/1");
+        // [MQTT-4.7.2-1]
+        assertThat(topics(store, "#")).hasSize(6).doesNotContain("$SYS/uptime");
+        assertThat(topics(store, "+/uptime")).isEmpty();
+        assertThat(topics(store, "$SYS/#")).containsExactly("$SYS/uptime");
+        store.clear();
+    }
+
+    @Test
+    public void testFrames() {
+        MqttV311RetainedStore store = new MqttV311RetainedStore(UnpooledByteBufAllocator.DEFAULT);
+        MqttV311PublishPacket packet = publish("sensors/1", MqttV311QosLevel.AT_LEAST_ONCE, "21.5");
+        store.put(packet);
+
+        List<ByteBuf> frames = new ArrayList<>();
+        AtomicInteger packetIds = new AtomicInteger(10);
+        MqttV311SubscribePacket subscribe = MqttV311SubscribePacket.builder()
+            .packetId(1)
+            .topicAndQosLevel(new MqttV311TopicAndQosLevel("sensors/#", MqttV311QosLevel.AT_MOST_ONCE))
+            .topicAndQosLevel(new MqttV311TopicAndQosLevel("sensors/1", MqttV311QosLevel.EXACTLY_ONCE))
+            .build();
+        assertThat(store.match(subscribe, packetIds::incrementAndGet, frames::add)).isEqualTo(2);
+
+        // at QoS 0 the stored direct buffer itself, at QoS 1 the message QoS caps the granted one
+        assertThat(frames.get(0).isDirect()).isTrue();
+        assertThat(ByteBufUtil.getBytes(frames.get(0))).isEqualTo(encode(publish("sensors/1",
+            MqttV311QosLevel.AT_MOST_ONCE, "21.5")));
+        MqttV311PublishPacket qos1 = publish("sensors/1", MqttV311QosLevel.AT_LEAST_ONCE, "21.5");
+        assertThat(ByteBufUtil.getBytes(frames.get(1))).isEqualTo(encode(MqttV311PublishPacket.builder()
+            .topic("sensors/1").retain(true).qosLevel(MqttV311QosLevel.AT_LEAST_ONCE).packetId(11)
+            .payload(qos1.getPayload()).build()));
+
+        // frames outlive the replaced and removed messages
+        store.put(publish("sensors/1", MqttV311QosLevel.AT_MOST_ONCE, "22.0"));
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.remove("sensors/1")).isTrue();
+        assertThat(store.remove("sensors/1")).isFalse();
+        assertThat(store.size()).isZero();
+        assertThat(frames.get(0).getByte(frames.get(0).readerIndex())).isEqualTo((byte) 0x31);
+        frames.forEach(ByteBuf::release);
+    }
+
+    private static byte[] encode(MqttV311PublishPacket packet) {
+        ByteBuf encoded = MqttV311Encoder.doEncode(ByteBufAllocator.DEFAULT, packet);
+        byte[] bytes = ByteBufUtil.getBytes(encoded);
+        encoded.release();
+        return bytes;
+    }
+
+    @Test
+    public void testEmptyPayloadRemoves() {
+        MqttV311RetainedStore store = new MqttV311RetainedStore();
+        store.put(publish("a/b/c", MqttV311QosLevel.AT_MOST_ONCE, "x"));
+        store.put(publish("a/b", MqttV311QosLevel.AT_MOST_ONCE, "x"));
+        // [MQTT-3.3.1-10]
+        assertThat(store.put(publish("a/b/c", MqttV311QosLevel.AT_LEAST_ONCE, ""))).isFalse();
+        assertThat(topics(store, "#")).containsExactly("a/b");
+        assertThat(store.put(publish("a/b", MqttV311QosLevel.AT_MOST_ONCE, ""))).isFalse();
+        assertThat(store.size()).isZero();
+        assertThat(topics(store, "#")).isEmpty();
+    }
+
+    @Test
+    public void testClearReleases() {
+        MqttV311RetainedStore store = new MqttV311RetainedStore();
+        store.put(publish("a", MqttV311QosLevel.AT_MOST_ONCE, "x"));
+        List<ByteBuf> frames = new ArrayList<>();
+        store.match("a", MqttV311QosLevel.AT_MOST_ONCE, null, frames::add);
+        ByteBuf frame = frames.get(0);
+        store.clear();
+        assertThat(store.size()).isZero();
+        assertThat(frame.getByte(frame.readerIndex())).isEqualTo((byte) 0x31);
+        assertThat(frame.release()).isTrue();
+    }
+
+    @Test
+    public void testConsumerChangesStore() {
+        MqttV311RetainedStore store = new MqttV311RetainedStore(UnpooledByteBufAllocator.DEFAULT);
+        store.put(publish("a/1", MqttV311QosLevel.AT_MOST_ONCE, "x"));
+        store.put(publish("a/2", MqttV311QosLevel.AT_MOST_ONCE, "x"));
+        List<ByteBuf> frames = new ArrayList<>();
+        // the read lock is not held while frames are passed, so this does not deadlock
+        int count = store.match("a/#", MqttV311QosLevel.AT_MOST_ONCE, null, frame -> {
+            frames.add(frame);
+            store.remove("a/1");
+            store.remove("a/2");
+            store.put(publish("a/3", MqttV311QosLevel.AT_MOST_ONCE, "y"));
+        });
+        assertThat(count).isEqualTo(2);
+        assertThat(frames).hasSize(2).allSatisfy(frame -> {
+            assertThat(frame.getByte(frame.readerIndex())).isEqualTo((byte) 0x31);
+            assertThat(frame.release()).isTrue();
+        });
+        assertThat(topics(store, "a/#")).containsExactly("a/3");
+        store.clear();
+    }
+
+    @Test
+    public void testConsumerLooksUp() {
+        MqttV311RetainedStore store = new MqttV311RetainedStore(UnpooledByteBufAllocator.DEFAULT);
+        for (int i = 0; i < 40; i++) {
+            store.put(publish("a/" + i, MqttV311QosLevel.AT_MOST_ONCE, "x"));
+            store.put(publish("b/" + i, MqttV311QosLevel.AT_MOST_ONCE, "x"));
+        }
+        List<TreeSet<String>> nested = new ArrayList<>();
+        TreeSet<String> outer = new TreeSet<>();
+        int count = store.match("a/+", MqttV311QosLevel.AT_MOST_ONCE, null, frame -> {
+            int topicIndex = frame.readerIndex() + 2;
+            outer.add(frame.toString(topicIndex + 2, frame.getUnsignedShort(topicIndex), StandardCharsets.UTF_8));
+            frame.release();
+            nested.add(topics(store, "b/#"));
+        });
+        assertThat(count).isEqualTo(40);
+        assertThat(outer).hasSize(40).allSatisfy(topic -> assertThat(topic).startsWith("a/"));
+        assertThat(nested).hasSize(40).allSatisfy(topics -> assertThat(topics).hasSize(40));
+        assertThat(topics(store, "#")).hasSize(80);
+        store.clear();
+    }
+
+    @Test
+    public void testInvalid() {
+        MqttV311RetainedStore store = new MqttV311RetainedStore();
+        assertThatThrownBy(() -> store.put(MqttV311PublishPacket.builder()
+            .topic("a").qosLevel(MqttV311QosLevel.AT_MOST_ONCE).payload(new byte[1]).build()))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> store.match("a", MqttV311QosLevel.AT_LEAST_ONCE, null, ByteBuf::release))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> store.match("a/#/b", MqttV311QosLevel.AT_MOST_ONCE, null, ByteBuf::release))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testSnapshotRestore(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("retained.snapshot");
+        MqttV311RetainedStore store = new MqttV311RetainedStore();
+        String[] topics = {"sensors/1/temperature", "sensors/2/temperature", "sensors", "/sensors", "$SYS/uptime",
+            "\u4e3b\u9898/1"};
+        for (String topic : topics) {
+            store.put(publish(topic, MqttV311QosLevel.AT_MOST_ONCE, topic));
+        }
+        store.put(publish("actuators/1", MqttV311QosLevel.EXACTLY_ONCE, "on"));
+        store.snapshot(file);
+        assertThat(directory.resolve("retained.snapshot.tmp")).doesNotExist();
+
+        MqttV311RetainedStore restored = MqttV311RetainedStore.restore(file);
+        assertThat(restored.size()).isEqualTo(7);
+        assertThat(topics(restored, "sensors/#")).isEqualTo(topics(store, "sensors/#"));
+
+        // the frames are read from a copy of their level
+        List<ByteBuf> frames = new ArrayList<>();
+        restored.match("actuators/1", MqttV311QosLevel.AT_MOST_ONCE, null, frames::add);
+        restored.match("actuators/1", MqttV311QosLevel.EXACTLY_ONCE, () -> 5, frames::add);
+        assertThat(frames.get(0).isDirect()).isTrue();
+        MqttV311Packet packet = new MqttV311BufferDecoder().decodeFrame(frames.get(0));
+        assertThat(packet).isInstanceOfSatisfying(MqttV311PublishPacket.class, publish -> {
+            assertThat(publish.getTopic()).isEqualTo("actuators/1");
+            assertThat(publish.isRetain()).isTrue();
+            assertThat(publish.getPayload()).isEqualTo("on".getBytes(StandardCharsets.UTF_8));
+        });
+        assertThat(ByteBufUtil.getBytes(frames.get(1))).isEqualTo(encode(MqttV311PublishPacket.builder()
+            .topic("actuators/1").retain(true).qosLevel(MqttV311QosLevel.EXACTLY_ONCE).packetId(5)
+            .payload("on".getBytes(StandardCharsets.UTF_8)).build()));
+        frames.forEach(ByteBuf::release);
+
+        // a snapshot of a partly read store copies the sections not read yet
+        restored.put(publish("sensors/3/temperature", MqttV311QosLevel.AT_MOST_ONCE, "x"));
+        assertThat(restored.remove("/sensors")).isTrue();
+        restored.snapshot(file);
+        MqttV311RetainedStore again = MqttV311RetainedStore.restore(file);
+        assertThat(again.size()).isEqualTo(7);
+        assertThat(topics(again, "#")).containsExactly("actuators/1", "sensors", "sensors/1/temperature",
+            "sensors/2/temperature", "sensors/3/temperature", "\u4e3b\u9898/1");
+        assertThat(topics(again, "$SYS/+")).containsExactly("$SYS/uptime");
+
+        store.clear();
+        restored.clear();
+        again.clear();
+        assertThat(again.size()).isZero();
+    }
+
+    @Test
+    public void testSnapshotUnmapped(@TempDir Path directory) throws IOException {
+        Path maps = Paths.get("/proc/self/maps");
+        assumeTrue(Files.isReadable(maps), "needs the mappings of the process");
+        Path file = directory.resolve("retained.snapshot");
+        MqttV311RetainedStore store = new MqttV311RetainedStore();
+        store.put(publish("a/1", MqttV311QosLevel.AT_MOST_ONCE, "x"));
+        store.put(publish("b/1", MqttV311QosLevel.AT_MOST_ONCE, "y"));
+        store.snapshot(file);
+        assertThat(mapped(maps, directory)).isFalse();
+
+        MqttV311RetainedStore restored = MqttV311RetainedStore.restore(file);
+        assertThat(mapped(maps, directory)).isTrue();
+        List<ByteBuf> frames = new ArrayList<>();
+        restored.match("a/1", MqttV311QosLevel.AT_MOST_ONCE, null, frames::add);
+        // a snapshot keeps the level not read yet mapped while it is written
+        restored.snapshot(directory.resolve("copy.snapshot"));
+        assertThat(mapped(maps, directory)).isTrue();
+        restored.match("b/1", MqttV311QosLevel.AT_MOST_ONCE, null, frames::add);
+        assertThat(mapped(maps, directory)).isFalse();
+        // the frames were copied out of the mapping before it was unmapped
+        assertThat(frames).extracting(frame -> frame.getByte(frame.writerIndex() - 1))
+            .containsExactly((byte) 'x', (byte) 'y');
+        frames.forEach(ByteBuf::release);
+
+        MqttV311RetainedStore cleared = MqttV311RetainedStore.restore(file);
+        assertThat(mapped(maps, directory)).isTrue();
+        cleared.clear();
+        assertThat(mapped(maps, directory)).isFalse();
+        store.clear();
+        restored.clear();
+    }
+
+    @Test
+    public void testConcurrentFirstLookups(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("retained.snapshot");
+        MqttV311RetainedStore store = new MqttV311RetainedStore();
+        for (int level = 0; level < 8; level++) {
+            for (int i = 0; i < 100; i++) {
+                store.put(publish(level + "/" + i, MqttV311QosLevel.AT_LEAST_ONCE, "x"));
+            }
+        }
+        store.snapshot(file);
+        store.clear();
+
+        MqttV311RetainedStore restored = MqttV311RetainedStore.restore(file);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> counts = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                String topicFilter = t % 2 == 0 ? "#" : (t / 2) + "/+";
+                counts.add(executor.submit(() -> topics(restored, topicFilter).size()));
+            }
+            for (int t = 0; t < 8; t++) {
+                assertThat(counts.get(t).get()).isEqualTo(t % 2 == 0 ? 800 : 100);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(restored.size()).isEqualTo(800);
+        restored.snapshot(file);
+        restored.clear();
+        MqttV311RetainedStore again = MqttV311RetainedStore.restore(file);
+        assertThat(topics(again, "#")).hasSize(800);
+        again.clear();
+    }
+
+    // looks the section up in the directory of the snapshot
+    private static long sectionOffset(byte[] snapshot, String level) {
+        ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+        buffer.position(snapshot.length - MqttV311RetainedSnapshot.TRAILER_SIZE);
+        long directoryOffset = buffer.getLong();
+        int sectionCount = buffer.getInt();
+        buffer.position((int) directoryOffset);
+        for (int i = 0; i < sectionCount; i++) {
+            byte[] levelBytes = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(levelBytes);
+            long offset = buffer.getLong();
+            // the size of the frames and the number of messages
+            buffer.position(buffer.position() + 8);
+            if (new String(levelBytes, StandardCharsets.UTF_8).equals(level)) {
+                return offset;
+            }
+        }
+        throw new AssertionError("no section " + level);
+    }
+
+    @Test
+    public void testCorruptSnapshot(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("retained.snapshot");
+        Files.write(file, new byte[32]);
+        assertThatThrownBy(() -> MqttV311RetainedStore.restore(file)).isInstanceOf(IOException.class);
+
+        MqttV311RetainedStore store = new MqttV311RetainedStore();
+        store.put(publish("a/1", MqttV311QosLevel.AT_MOST_ONCE, "x"));
+        store.put(publish("a/2", MqttV311QosLevel.AT_MOST_ONCE, "y"));
+        store.put(publish("b", MqttV311QosLevel.AT_MOST_ONCE, "z"));
+        store.snapshot(file);
+        store.clear();
+        byte[] bytes = Files.readAllBytes(file);
+        // the first byte of the frame of section "b"
+        bytes[(int) sectionOffset(bytes, "b")] = 0x30;
+        Files.write(file, bytes);
+
+        MqttV311RetainedStore restored = MqttV311RetainedStore.restore(file);
+        assertThat(restored.size()).isEqualTo(3);
+        assertThat(topics(restored, "a/#")).containsExactly("a/1", "a/2");
+        assertThatThrownBy(() -> topics(restored, "b")).isInstanceOf(DecoderException.class);
+        assertThat(restored.size()).isEqualTo(2);
+        assertThat(topics(restored, "#")).containsExactly("a/1", "a/2");
+        restored.clear();
+
+        Files.write(file, new byte[]{0x4D, 0x51, 0x52, 0x53}, StandardOpenOption.APPEND);
+        assertThatThrownBy(() -> MqttV311RetainedStore.restore(file)).isInstanceOf(IOException.class);
+    }
+}
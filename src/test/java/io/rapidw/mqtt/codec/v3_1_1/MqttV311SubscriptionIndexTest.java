@@ -0,0 +1,197 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MqttV311SubscriptionIndexTest {
+
+    private static final MqttV311QosLevel QOS0 = MqttV311QosLevel.AT_MOST_ONCE;
+    private static final MqttV311QosLevel QOS1 = MqttV311QosLevel.AT_LEAST_ONCE;
+    private static final MqttV311QosLevel QOS2 = MqttV311QosLevel.EXACTLY_ONCE;
+
+    private static boolean matches(String topicFilter, String topicName) {
+        MqttV311SubscriptionIndex<String> index = new MqttV311SubscriptionIndex<>();
+        index.subscribe("s", topicFilter, QOS0);
+        return index.match(topicName).containsKey("s");
+    }
+
+    // the examples of section 4.7 of the specification
+    @Test
+    public void testWildcards() {
+        assertThat(matches("sport/tennis/player1/#", "sport/tennis/player1")).isTrue();
+        assertThat(matches("sport/tennis/player1/#", "sport/tennis/player1/ranking")).isTrue();
+        assertThat(matches("sport/tennis/player1/#", "sport/tennis/player1/score/wimbledon")).isTrue();
+        assertThat(matches("sport/#", "sport")).isTrue();
+        assertThat(matches("#", "sport/tennis")).isTrue();
+        assertThat(matches("sport/tennis/+", "sport/tennis/player1")).isTrue();
+        assertThat(matches("sport/tennis/+", "sport/tennis/player1/tournament")).isFalse();
+        assertThat(matches("sport/+", "sport")).isFalse();
+        assertThat(matches("sport/+", "sport/")).isTrue();
+        assertThat(matches("+/+", "/finance")).isTrue();
+        assertThat(matches("/+", "/finance")).isTrue();
+        assertThat(matches("+", "/finance")).isFalse();
+        assertThat(matches("sport", "Sport")).isFalse();
+        assertThat(matches("a//b", "a//b")).isTrue();
+        assertThat(matches("a/+/b", "a//b")).isTrue();
+    }
+
+    @Test
+    public void testDollarTopics() {
+        assertThat(matches("#", "$SYS/broker/load")).isFalse();
+        assertThat(matches("+/broker/load", "$SYS/broker/load")).isFalse();
+        assertThat(matches("$SYS/#", "$SYS/broker/load")).isTrue();
+        assertThat(matches("$SYS/+/load", "$SYS/broker/load")).isTrue();
+        assertThat(matches("a/#", "a/$b")).isTrue();
+    }
+
+    @Test
+    public void testSubscriptions() {
+        MqttV311SubscriptionIndex<String> index = new MqttV311SubscriptionIndex<>();
+        MqttV311SubAckPacket subAck = index.subscribe("c1", MqttV311SubscribePacket.builder()
+            .packetId(3)
+            .topicAndQosLevel(new MqttV311TopicAndQosLevel("a/+", QOS1))
+            .topicAndQosLevel(new MqttV311TopicAndQosLevel("a/#", QOS2))
+            .build());
+        assertThat(subAck.getPacketId()).isEqualTo(3);
+        assertThat(subAck.getQosLevels()).containsExactly(QOS1, QOS2);
+        assertThat(index.subscribe("c2", "a/b", QOS0)).isTrue();
+        assertThat(index.subscribe("c2", "a/b", QOS1)).isFalse();
+        assertThat(index.size()).isEqualTo(3);
+
+        Map<String, MqttV311QosLevel> expected = new HashMap<>();
+        expected.put("c1", QOS2);
+        expected.put("c2", QOS1);
+        assertThat(index.match("a/b")).isEqualTo(expected);
+        List<String> each = new ArrayList<>();
+        index.match("a/b", (subscriber, qosLevel) -> each.add(subscriber + qosLevel.value()));
+        assertThat(each).containsExactlyInAnyOrder("c11", "c12", "c21");
+
+        MqttV311UnsubAckPacket unsubAck = index.unsubscribe("c1", MqttV311UnsubscribePacket.builder()
+            .packetId(4).topicFilter("a/#").topicFilter("x/y").build());
+        assertThat(unsubAck.getPacketId()).isEqualTo(4);
+        assertThat(index.unsubscribe("c1", "a/+")).isTrue();
+        assertThat(index.unsubscribe("c1", "a/+")).isFalse();
+        assertThat(index.unsubscribe("c2", "a/b")).isTrue();
+        assertThat(index.size()).isZero();
+        assertThat(index.match("a/b")).isEmpty();
+    }
+
+    @Test
+    public void testInvalidSubscriptions() {
+        MqttV311SubscriptionIndex<String> index = new MqttV311SubscriptionIndex<>();
+        assertThatThrownBy(() -> index.subscribe("s", "a/#/b", QOS0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> index.subscribe("s", "a+", QOS0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> index.subscribe("s", "", QOS0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> index.subscribe("s", "a", MqttV311QosLevel.FAILURE))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testSubscribePacketWithInvalidFilter() {
+        MqttV311SubscriptionIndex<String> index = new MqttV311SubscriptionIndex<>();
+        MqttV311SubAckPacket subAck = index.subscribe("s", MqttV311SubscribePacket.builder()
+            .packetId(5)
+            .topicAndQosLevel(new MqttV311TopicAndQosLevel("a/b", QOS1))
+            .topicAndQosLevel(new MqttV311TopicAndQosLevel("a/#/b", QOS1))
+            .topicAndQosLevel(new MqttV311TopicAndQosLevel("a+", QOS0))
+            .topicAndQosLevel(new MqttV311TopicAndQosLevel("c/+", QOS2))
+            .build());
+        assertThat(subAck.getQosLevels()).containsExactly(QOS1, MqttV311QosLevel.FAILURE, MqttV311QosLevel.FAILURE,
+            QOS2);
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.match("a/b")).containsOnlyKeys("s");
+        assertThat(index.match("c/d")).containsOnlyKeys("s");
+
+        index.unsubscribe("s", MqttV311UnsubscribePacket.builder()
+            .packetId(6).topicFilter("a/#/b").topicFilter("a/b").build());
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.match("a/b")).isEmpty();
+    }
+
+    private static boolean naiveMatches(String topicFilter, String topicName) {
+        String[] filterLevels = topicFilter.split("/", -1);
+        String[] topicLevels = topicName.split("/", -1);
+        if (topicName.startsWith("$") && (filterLevels[0].equals("+") || filterLevels[0].equals("#"))) {
+            return false;
+        }
+        for (int i = 0; i < filterLevels.length; i++) {
+            if (filterLevels[i].equals("#")) {
+                return true;
+            }
+            if (i >= topicLevels.length || !filterLevels[i].equals("+") && !filterLevels[i].equals(topicLevels[i])) {
+                return false;
+            }
+        }
+        return filterLevels.length == topicLevels.length;
+    }
+
+    @Test
+    public void testAgainstLinearScan() {
+        Random random = new Random(7);
+        String[] levels = {"a", "b", "", "$c"};
+        String[] filterLevels = {"a", "b", "", "$c", "+", "+"};
+        MqttV311SubscriptionIndex<Integer> index = new MqttV311SubscriptionIndex<>();
+        List<String> filters = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            StringBuilder filter = new StringBuilder();
+            int depth = 1 + random.nextInt(4);
+            for (int level = 0; level < depth; level++) {
+                if (level > 0) {
+                    filter.append('/');
+                }
+                filter.append(level == depth - 1 && random.nextInt(4) == 0 ? "#"
+                    : filterLevels[random.nextInt(filterLevels.length)]);
+            }
+            if (filter.length() == 0) {
+                filter.append('a');
+            }
+            filters.add(filter.toString());
+            index.subscribe(i, filter.toString(), QOS0);
+        }
+        // drop some again to exercise pruning
+        for (int i = 0; i < 500; i += 3) {
+            assertThat(index.unsubscribe(i, filters.get(i))).isTrue();
+        }
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder topic = new StringBuilder();
+            int depth = 1 + random.nextInt(4);
+            for (int level = 0; level < depth; level++) {
+                if (level > 0) {
+                    topic.append('/');
+                }
+                topic.append(levels[random.nextInt(levels.length)]);
+            }
+            List<Integer> expected = new ArrayList<>();
+            for (int s = 0; s < filters.size(); s++) {
+                if (s % 3 != 0 && naiveMatches(filters.get(s), topic.toString())) {
+                    expected.add(s);
+                }
+            }
+            assertThat(index.match(topic.toString()).keySet()).as(topic.toString())
+                .containsExactlyInAnyOrderElementsOf(expected);
+        }
+    }
+}
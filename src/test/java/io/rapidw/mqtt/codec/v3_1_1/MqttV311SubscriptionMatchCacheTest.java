@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v3_1_1;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MqttV311SubscriptionMatchCacheTest {
+
+    private static final MqttV311QosLevel QOS0 = MqttV311QosLevel.AT_MOST_ONCE;
+    private static final MqttV311QosLevel QOS1 = MqttV311QosLevel.AT_LEAST_ONCE;
+
+    private static MqttV311SubscriptionMatchCache<String> newCache(int maximumSize) {
+        return new MqttV311SubscriptionMatchCache<>(new MqttV311ConcurrentSubscriptionIndex<>(), maximumSize);
+    }
+
+    @Test
+    public void testHits() {
+        MqttV311SubscriptionMatchCache<String> cache = newCache(16);
+        cache.subscribe("c1", "a/+", QOS1);
+        Map<String, MqttV311QosLevel> first = cache.match("a/b");
+        assertThat(first).containsOnlyKeys("c1");
+        assertThat(cache.match(MqttV311PublishPacket.builder().topic("a/b").build())).isSameAs(first);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPreciseInvalidation() {
+        MqttV311SubscriptionMatchCache<String> cache = newCache(16);
+        String[] topics = {"a", "a/b", "a/c", "a/b/c", "x/y", "$SYS/a"};
+        for (String topic : topics) {
+            assertThat(cache.match(topic)).isEmpty();
+        }
+        assertThat(cache.size()).isEqualTo(6);
+
+        cache.subscribe("c1", "a/+", QOS0);
+        assertThat(cache.getInvalidations()).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(4);
+        assertThat(cache.match("a/b")).containsOnlyKeys("c1");
+        assertThat(cache.match("x/y")).isEmpty();
+        assertThat(cache.getHits()).isEqualTo(1);
+
+        // "a/#" also matches "a"
+        cache.subscribe("c2", "a/#", QOS0);
+        assertThat(cache.getInvalidations()).isEqualTo(2 + 3);
+        assertThat(cache.match("a").keySet()).containsExactly("c2");
+
+        // "#" does not match topics starting with "$"
+        cache.subscribe("c3", "#", QOS0);
+        assertThat(cache.match("$SYS/a")).isEmpty();
+        cache.subscribe("c4", "+/a", QOS0);
+        assertThat(cache.match("$SYS/a")).isEmpty();
+        cache.subscribe("c5", "$SYS/#", QOS0);
+        assertThat(cache.match("$SYS/a").keySet()).containsExactly("c5");
+
+        // nothing changes when the subscription does not exist
+        long invalidations = cache.getInvalidations();
+        assertThat(cache.unsubscribe("c1", "x/y")).isFalse();
+        assertThat(cache.getInvalidations()).isEqualTo(invalidations);
+
+        cache.unsubscribe("c1", MqttV311UnsubscribePacket.builder().packetId(1).topicFilter("a/+").build());
+        assertThat(cache.match("a/b").keySet()).containsExactlyInAnyOrder("c2", "c3");
+    }
+
+    @Test
+    public void testResubscribeChangesQos() {
+        MqttV311SubscriptionMatchCache<String> cache = newCache(16);
+        cache.subscribe("c1", "a/b", QOS0);
+        assertThat(cache.match("a/b")).containsEntry("c1", QOS0);
+        MqttV311SubAckPacket subAck = cache.subscribe("c1", MqttV311SubscribePacket.builder()
+            .packetId(2)
+            .topicAndQosLevel(new MqttV311TopicAndQosLevel("a/#/b", QOS1))
+            .topicAndQosLevel(new MqttV311TopicAndQosLevel("a/b", QOS1))
+            .build());
+        assertThat(subAck.getQosLevels()).containsExactly(MqttV311QosLevel.FAILURE, QOS1);
+        assertThat(cache.match("a/b")).containsEntry("c1", QOS1);
+    }
+
+    @Test
+    public void testClockEviction() {
+        MqttV311SubscriptionMatchCache<String> cache = newCache(2);
+        cache.match("t1");
+        cache.match("t2");
+        cache.match("t1");
+        // t1 was hit since it was cached, so t2 goes
+        cache.match("t3");
+        assertThat(cache.getEvictions()).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(2);
+        long hits = cache.getHits();
+        cache.match("t1");
+        assertThat(cache.getHits()).isEqualTo(hits + 1);
+        long misses = cache.getMisses();
+        cache.match("t2");
+        assertThat(cache.getMisses()).isEqualTo(misses + 1);
+
+        // evicted topics are gone from the invalidation tree as well
+        cache.subscribe("c1", "#", QOS0);
+        assertThat(cache.size()).isZero();
+    }
+}
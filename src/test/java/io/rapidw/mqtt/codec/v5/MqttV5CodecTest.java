@@ -0,0 +1,279 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.EncoderException;
+import io.rapidw.mqtt.codec.v3_1_1.MqttV311QosLevel;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MqttV5CodecTest {
+
+    @SuppressWarnings("unchecked")
+    private static <T extends MqttV5Packet> T roundTrip(MqttV5Packet packet) {
+        EmbeddedChannel channel = new EmbeddedChannel(MqttV5Encoder.INSTANCE, new MqttV5Decoder());
+        assertThat(channel.writeOutbound(packet)).isTrue();
+        ByteBuf encoded = channel.readOutbound();
+        // one byte at a time to exercise partial frames
+        while (encoded.isReadable()) {
+            channel.writeInbound(encoded.readRetainedSlice(1));
+        }
+        encoded.release();
+        T decoded = channel.readInbound();
+        assertThat(decoded).isNotNull();
+        assertThat(decoded.getType()).isEqualTo(packet.getType());
+        assertThat(channel.finish()).isFalse();
+        return decoded;
+    }
+
+    @Test
+    public void testConnect() {
+        MqttV5ConnectPacket decoded = roundTrip(MqttV5ConnectPacket.builder()
+            .cleanStart(true)
+            .keepAliveSeconds(30)
+            .clientId("client")
+            .username("user")
+            .password(new byte[]{1, 2, 3})
+            .properties(MqttV5Properties.builder()
+                .add(MqttV5Property.SESSION_EXPIRY_INTERVAL, 3600)
+                .add(MqttV5Property.RECEIVE_MAXIMUM, 10)
+                .build())
+            .will(MqttV5Will.builder()
+                .topic("will/\u4e3b\u9898")
+                .qosLevel(MqttV311QosLevel.AT_LEAST_ONCE)
+                .retain(true)
+                .payload(new byte[]{9})
+                .properties(MqttV5Properties.builder().add(MqttV5Property.WILL_DELAY_INTERVAL, 5).build())
+                .build())
+            .build());
+        assertThat(decoded.isCleanStart()).isTrue();
+        assertThat(decoded.getKeepAliveSeconds()).isEqualTo(30);
+        assertThat(decoded.getClientId()).isEqualTo("client");
+        assertThat(decoded.getUsername()).isEqualTo("user");
+        assertThat(decoded.getPassword()).containsExactly(1, 2, 3);
+        assertThat(decoded.getProperties().getNumber(MqttV5Property.SESSION_EXPIRY_INTERVAL, 0)).isEqualTo(3600);
+        assertThat(decoded.getProperties().getNumber(MqttV5Property.RECEIVE_MAXIMUM, 0)).isEqualTo(10);
+        MqttV5Will will = decoded.getWill();
+        assertThat(will.getTopic()).isEqualTo("will/\u4e3b\u9898");
+        assertThat(will.getQosLevel()).isEqualTo(MqttV311QosLevel.AT_LEAST_ONCE);
+        assertThat(will.isRetain()).isTrue();
+        assertThat(will.getPayload()).containsExactly(9);
+        assertThat(will.getProperties().getNumber(MqttV5Property.WILL_DELAY_INTERVAL, 0)).isEqualTo(5);
+        decoded.release();
+    }
+
+    @Test
+    public void testPublish() {
+        MqttV5PublishPacket decoded = roundTrip(MqttV5PublishPacket.builder()
+            .qosLevel(MqttV311QosLevel.EXACTLY_ONCE)
+            .retain(true)
+            .topic("a/b")
+            .packetId(7)
+            .payload("hello".getBytes(StandardCharsets.UTF_8))
+            .properties(MqttV5Properties.builder()
+                .add(MqttV5Property.CONTENT_TYPE, "text/plain")
+                .add(MqttV5Property.CORRELATION_DATA, new byte[]{4, 2})
+                .userProperty("k", "v1")
+                .userProperty("k", "v2")
+                .build())
+            .build());
+        assertThat(decoded.getQosLevel()).isEqualTo(MqttV311QosLevel.EXACTLY_ONCE);
+        assertThat(decoded.isRetain()).isTrue();
+        assertThat(decoded.getTopic()).isEqualTo("a/b");
+        assertThat(decoded.getPacketId()).isEqualTo(7);
+        assertThat(decoded.getPayloadBytes()).isEqualTo("hello".getBytes(StandardCharsets.UTF_8));
+        assertThat(decoded.getProperties().getString(MqttV5Property.CONTENT_TYPE)).isEqualTo("text/plain");
+        assertThat(decoded.getProperties().getBinary(MqttV5Property.CORRELATION_DATA)).containsExactly(4, 2);
+        assertThat(decoded.getProperties().getUserProperties()).containsExactly(
+            new MqttV5UserProperty("k", "v1"), new MqttV5UserProperty("k", "v2"));
+        assertThat(decoded.refCnt()).isEqualTo(1);
+        assertThat(decoded.release()).isTrue();
+    }
+
+    @Test
+    public void testAcknowledgements() {
+        MqttV5PubAckPacket pubAck = roundTrip(MqttV5PubAckPacket.builder().packetId(1).build());
+        assertThat(pubAck.getPacketId()).isEqualTo(1);
+        assertThat(pubAck.getReasonCode()).isEqualTo(MqttV5ReasonCode.SUCCESS);
+
+        MqttV5PubRecPacket pubRec = roundTrip(MqttV5PubRecPacket.builder().packetId(2)
+            .reasonCode(MqttV5ReasonCode.NO_MATCHING_SUBSCRIBERS).build());
+        assertThat(pubRec.getReasonCode()).isEqualTo(MqttV5ReasonCode.NO_MATCHING_SUBSCRIBERS);
+
+        MqttV5PubRelPacket pubRel = roundTrip(MqttV5PubRelPacket.builder().packetId(3)
+            .properties(MqttV5Properties.builder().add(MqttV5Property.REASON_STRING, "why").build()).build());
+        assertThat(pubRel.getProperties().getString(MqttV5Property.REASON_STRING)).isEqualTo("why");
+        pubRel.release();
+
+        MqttV5PubCompPacket pubComp = roundTrip(MqttV5PubCompPacket.builder().packetId(4).build());
+        assertThat(pubComp.getPacketId()).isEqualTo(4);
+
+        MqttV5ConnAckPacket connAck = roundTrip(MqttV5ConnAckPacket.builder().sessionPresent(true)
+            .properties(MqttV5Properties.builder().add(MqttV5Property.TOPIC_ALIAS_MAXIMUM, 16).build()).build());
+        assertThat(connAck.isSessionPresent()).isTrue();
+        assertThat(connAck.getReasonCode()).isEqualTo(MqttV5ReasonCode.SUCCESS);
+        assertThat(connAck.getProperties().getNumber(MqttV5Property.TOPIC_ALIAS_MAXIMUM, 0)).isEqualTo(16);
+        connAck.release();
+
+        MqttV5DisconnectPacket disconnect = roundTrip(MqttV5DisconnectPacket.builder()
+            .reasonCode(MqttV5ReasonCode.DISCONNECT_WITH_WILL_MESSAGE).build());
+        assertThat(disconnect.getReasonCode()).isEqualTo(MqttV5ReasonCode.DISCONNECT_WITH_WILL_MESSAGE);
+
+        MqttV5AuthPacket auth = roundTrip(MqttV5AuthPacket.builder()
+            .reasonCode(MqttV5ReasonCode.CONTINUE_AUTHENTICATION)
+            .properties(MqttV5Properties.builder().add(MqttV5Property.AUTHENTICATION_METHOD, "SCRAM").build())
+            .build());
+        assertThat(auth.getProperties().getString(MqttV5Property.AUTHENTICATION_METHOD)).isEqualTo("SCRAM");
+        auth.release();
+
+        assertThat((Object) roundTrip(MqttV5PingReqPacket.INSTANCE)).isSameAs(MqttV5PingReqPacket.INSTANCE);
+        assertThat((Object) roundTrip(MqttV5PingRespPacket.INSTANCE)).isSameAs(MqttV5PingRespPacket.INSTANCE);
+    }
+
+    @Test
+    public void testSubscriptions() {
+        MqttV5SubscribePacket subscribe = roundTrip(MqttV5SubscribePacket.builder()
+            .packetId(5)
+            .subscription(new MqttV5Subscription("a/+", MqttV311QosLevel.AT_LEAST_ONCE, true, true, 2))
+            .subscription(new MqttV5Subscription("b/#", MqttV311QosLevel.AT_MOST_ONCE))
+            .properties(MqttV5Properties.builder().add(MqttV5Property.SUBSCRIPTION_IDENTIFIER, 300).build())
+            .build());
+        assertThat(subscribe.getPacketId()).isEqualTo(5);
+        assertThat(subscribe.getSubscriptions()).hasSize(2);
+        MqttV5Subscription first = subscribe.getSubscriptions().get(0);
+        assertThat(first.getTopicFilter()).isEqualTo("a/+");
+        assertThat(first.getQosLevel()).isEqualTo(MqttV311QosLevel.AT_LEAST_ONCE);
+        assertThat(first.isNoLocal()).isTrue();
+        assertThat(first.isRetainAsPublished()).isTrue();
+        assertThat(first.getRetainHandling()).isEqualTo(2);
+        assertThat(subscribe.getProperties().getSubscriptionIdentifiers()).containsExactly(300);
+        subscribe.release();
+
+        MqttV5SubAckPacket subAck = roundTrip(MqttV5SubAckPacket.builder().packetId(5)
+            .reasonCodes(Arrays.asList(MqttV5ReasonCode.GRANTED_QOS_1, MqttV5ReasonCode.NOT_AUTHORIZED)).build());
+        assertThat(subAck.getReasonCodes())
+            .containsExactly(MqttV5ReasonCode.GRANTED_QOS_1, MqttV5ReasonCode.NOT_AUTHORIZED);
+
+        MqttV5UnsubscribePacket unsubscribe = roundTrip(MqttV5UnsubscribePacket.builder().packetId(6)
+            .topicFilter("a/+").topicFilter("b/#").build());
+        assertThat(unsubscribe.getTopicFilters()).containsExactly("a/+", "b/#");
+
+        MqttV5UnsubAckPacket unsubAck = roundTrip(MqttV5UnsubAckPacket.builder().packetId(6)
+            .reasonCode(MqttV5ReasonCode.SUCCESS).reasonCode(MqttV5ReasonCode.NO_SUBSCRIPTION_EXISTED).build());
+        assertThat(unsubAck.getReasonCodes())
+            .containsExactly(MqttV5ReasonCode.SUCCESS, MqttV5ReasonCode.NO_SUBSCRIPTION_EXISTED);
+    }
+
+    @Test
+    public void testPropertiesDecodedLazily() {
+        // PUBLISH QoS 0 "t" with a user property, a message expiry interval and payload "x"
+        String frame = "3011" + "000174" + "0c" + "260001" + "6b" + "0001" + "76" + "0200000e10" + "78";
+        EmbeddedChannel channel = new EmbeddedChannel(new MqttV5Decoder());
+        channel.writeInbound(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump(frame)));
+        MqttV5PublishPacket packet = channel.readInbound();
+        assertThat(packet.getProperties().isDecoded()).isFalse();
+
+        // forwarding without looking at the properties copies them verbatim
+        ByteBuf reEncoded = MqttV5Encoder.doEncode(Unpooled.buffer().alloc(), packet);
+        assertThat(ByteBufUtil.hexDump(reEncoded)).isEqualTo(frame);
+        reEncoded.release();
+        assertThat(packet.getProperties().isDecoded()).isFalse();
+
+        assertThat(packet.getProperties().getNumber(MqttV5Property.MESSAGE_EXPIRY_INTERVAL, 0)).isEqualTo(3600);
+        assertThat(packet.getProperties().isDecoded()).isTrue();
+        assertThat(packet.release()).isTrue();
+    }
+
+    @Test
+    public void testPropertiesDecodedConcurrently() throws Exception {
+        String frame = "3011" + "000174" + "0c" + "260001" + "6b" + "0001" + "76" + "0200000e10" + "78";
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 200; round++) {
+                EmbeddedChannel channel = new EmbeddedChannel(new MqttV5Decoder());
+                channel.writeInbound(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump(frame)));
+                MqttV5PublishPacket packet = channel.readInbound();
+                // all threads parse the same undecoded properties at once
+                CyclicBarrier barrier = new CyclicBarrier(threads);
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    results.add(executor.submit(() -> {
+                        barrier.await();
+                        MqttV5Properties properties = packet.getProperties();
+                        return properties.getNumber(MqttV5Property.MESSAGE_EXPIRY_INTERVAL, 0) == 3600
+                            && properties.getUserProperties().size() == 1
+                            && properties.getUserProperties().get(0).getValue().equals("v");
+                    }));
+                }
+                for (Future<Boolean> result : results) {
+                    assertThat(result.get()).isTrue();
+                }
+                packet.release();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMalformedPropertiesReportedOnAccess() {
+        // a topic alias given twice
+        String frame = "300a" + "000174" + "06" + "230001" + "230002";
+        EmbeddedChannel channel = new EmbeddedChannel(new MqttV5Decoder());
+        channel.writeInbound(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump(frame)));
+        MqttV5PublishPacket packet = channel.readInbound();
+        assertThatThrownBy(() -> packet.getProperties().getNumber(MqttV5Property.TOPIC_ALIAS, 0))
+            .isInstanceOf(DecoderException.class);
+        packet.release();
+    }
+
+    @Test
+    public void testInvalidPackets() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MqttV5Decoder());
+        assertThatThrownBy(() -> channel.writeInbound(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump("60020009"))))
+            .isInstanceOf(DecoderException.class)
+            .hasMessageContaining("PUBREL");
+
+        assertThatThrownBy(() -> MqttV5Encoder.doEncode(Unpooled.buffer().alloc(), MqttV5ConnAckPacket.builder()
+            .sessionPresent(true).reasonCode(MqttV5ReasonCode.NOT_AUTHORIZED).build()))
+            .isInstanceOf(EncoderException.class)
+            .hasMessageContaining("MQTT-3.2.2-6");
+
+        ByteBuf out = Unpooled.buffer().writeByte(1);
+        assertThatThrownBy(() -> MqttV5Encoder.encodeTo(out, MqttV5PublishPacket.builder()
+            .qosLevel(MqttV311QosLevel.AT_LEAST_ONCE).topic("t").build()))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(out.writerIndex()).isEqualTo(1);
+        out.release();
+    }
+}
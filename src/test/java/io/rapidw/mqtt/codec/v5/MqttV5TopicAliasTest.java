@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020 Rapidw
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.rapidw.mqtt.codec.v5;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MqttV5TopicAliasTest {
+
+    // PUBLISH QoS 0 with the given topic, a topic alias and payload "x"
+    private static ByteBuf aliasedPublish(String topic, int topicAlias) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeByte(0x30).writeByte(2 + topicBytes.length + 4 + 1);
+        buf.writeShort(topicBytes.length).writeBytes(topicBytes);
+        buf.writeByte(3).writeByte(0x23).writeShort(topicAlias);
+        return buf.writeByte('x');
+    }
+
+    private static MqttV5PublishPacket publish(String topic) {
+        return MqttV5PublishPacket.builder().topic(topic).payload(new byte[]{1}).build();
+    }
+
+    @Test
+    public void testInboundAliasResolved() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MqttV5Decoder(MqttV5Decoder.MAXIMUM_PACKET_SIZE, 2));
+        channel.writeInbound(aliasedPublish("sensors/1/temperature", 2));
+        channel.writeInbound(aliasedPublish("", 2));
+        MqttV5PublishPacket first = channel.readInbound();
+        MqttV5PublishPacket second = channel.readInbound();
+        assertThat(second.getTopic()).isSameAs(first.getTopic()).isEqualTo("sensors/1/temperature");
+        // resolving the alias does not decode the other properties
+        assertThat(second.getProperties().isDecoded()).isFalse();
+        first.release();
+        second.release();
+    }
+
+    @Test
+    public void testInvalidInboundAlias() {
+        assertThatThrownBy(() -> new EmbeddedChannel(new MqttV5Decoder(MqttV5Decoder.MAXIMUM_PACKET_SIZE, 2))
+            .writeInbound(aliasedPublish("", 1)))
+            .isInstanceOf(DecoderException.class)
+            .hasMessageContaining("unknown topic alias 1");
+        assertThatThrownBy(() -> new EmbeddedChannel(new MqttV5Decoder(MqttV5Decoder.MAXIMUM_PACKET_SIZE, 2))
+            .writeInbound(aliasedPublish("t", 3)))
+            .isInstanceOf(DecoderException.class)
+            .hasMessageContaining("exceeds the topic alias maximum");
+        assertThatThrownBy(() -> new EmbeddedChannel(new MqttV5Decoder())
+            .writeInbound(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump("3003000000"))))
+            .isInstanceOf(DecoderException.class)
+            .hasMessageContaining("neither a topic name nor a topic alias");
+    }
+
+    @Test
+    public void testOutboundAliasesAssigned() {
+        EmbeddedChannel sender = new EmbeddedChannel(MqttV5Encoder.INSTANCE, new MqttV5TopicAliasHandler(2));
+        EmbeddedChannel receiver = new EmbeddedChannel(new MqttV5Decoder(MqttV5Decoder.MAXIMUM_PACKET_SIZE, 3));
+
+        // nothing is aliased before the peer announces its topic alias maximum
+        sender.writeOutbound(publish("a"));
+        ByteBuf unaliased = sender.readOutbound();
+        assertThat(ByteBufUtil.hexDump(unaliased)).isEqualTo("3005000161" + "00" + "01");
+        receiver.writeInbound(unaliased);
+        ((MqttV5PublishPacket) receiver.readInbound()).release();
+
+        sender.writeInbound(MqttV5ConnAckPacket.builder()
+            .properties(MqttV5Properties.builder().add(MqttV5Property.TOPIC_ALIAS_MAXIMUM, 3).build())
+            .build());
+        assertThat((Object) sender.readInbound()).isInstanceOf(MqttV5ConnAckPacket.class);
+
+        // the table holds two topics, the smaller of both limits, and reuses the least recently used alias
+        String[] topics = {"a", "b", "a", "c", "b"};
+        String[] sentTopics = {"a", "b", "", "c", "b"};
+        int[] sentAliases = {1, 2, 1, 2, 1};
+        for (int i = 0; i < topics.length; i++) {
+            sender.writeOutbound(publish(topics[i]));
+            ByteBuf frame = sender.readOutbound();
+            assertThat(frame.getUnsignedShort(2)).isEqualTo(sentTopics[i].length());
+            receiver.writeInbound(frame);
+            MqttV5PublishPacket received = receiver.readInbound();
+            assertThat(received.getTopic()).isEqualTo(topics[i]);
+            assertThat(received.getProperties().getNumber(MqttV5Property.TOPIC_ALIAS, 0)).isEqualTo(sentAliases[i]);
+            assertThat(received.getPayloadBytes()).containsExactly(1);
+            received.release();
+        }
+        assertThat(sender.finish()).isFalse();
+        assertThat(receiver.finish()).isFalse();
+    }
+
+    @Test
+    public void testForwardedAliasReplaced() {
+        EmbeddedChannel inbound = new EmbeddedChannel(new MqttV5Decoder(MqttV5Decoder.MAXIMUM_PACKET_SIZE, 8));
+        // a user property k=v after a topic alias of 5
+        String frame = "300f" + "000174" + "0a" + "230005" + "260001" + "6b" + "0001" + "76" + "78";
+        inbound.writeInbound(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump(frame)));
+        MqttV5PublishPacket packet = inbound.readInbound();
+
+        // a peer that accepts no aliases gets the packet without one, other properties copied as they are
+        EmbeddedChannel outbound = new EmbeddedChannel(MqttV5Encoder.INSTANCE, new MqttV5TopicAliasHandler(8));
+        outbound.writeOutbound(packet);
+        ByteBuf forwarded = outbound.readOutbound();
+        assertThat(ByteBufUtil.hexDump(forwarded)).isEqualTo("300c" + "000174" + "07" + "260001" + "6b0001" + "76" + "78");
+        forwarded.release();
+        assertThat(packet.refCnt()).isZero();
+
+        inbound.writeInbound(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump(frame)));
+        packet = inbound.readInbound();
+        outbound = new EmbeddedChannel(MqttV5Encoder.INSTANCE, new MqttV5TopicAliasHandler(8));
+        outbound.writeInbound(MqttV5ConnectPacket.builder().clientId("c")
+            .properties(MqttV5Properties.builder().add(MqttV5Property.TOPIC_ALIAS_MAXIMUM, 8).build())
+            .build());
+        outbound.writeOutbound(packet);
+        forwarded = outbound.readOutbound();
+        assertThat(ByteBufUtil.hexDump(forwarded)).isEqualTo(frame.replace("230005", "230001"));
+        forwarded.release();
+        assertThat(packet.refCnt()).isZero();
+    }
+}